@@ -21,6 +21,7 @@
 package fr.duminy.jbackup.core;
 
 import fr.duminy.jbackup.core.archive.ArchiveFactory;
+import fr.duminy.jbackup.core.archive.Durability;
 import fr.duminy.jbackup.core.archive.zip.ZipArchiveFactory;
 import fr.duminy.jbackup.core.filter.JexlFileFilter;
 import org.apache.commons.io.filefilter.IOFileFilter;
@@ -57,6 +58,16 @@ public class BackupConfiguration {
     private boolean relativeEntries = true;
 
     private boolean verify = false;
+    private long maxBandwidth = 0L;
+    private boolean resumable = false;
+    private boolean trackChanges = false;
+    private long volumeSize = 0L;
+    private String preBackupCommand;
+    private String postBackupCommand;
+    private String snapshotDirectory;
+    private String schedule;
+    private Durability durability = Durability.ON_CLOSE;
+    private String encryptionKeyFile;
 
     public void addSource(Path sourceDirectory) {
         addSource(sourceDirectory, null, null);
@@ -115,6 +126,122 @@ public class BackupConfiguration {
         this.verify = verify;
     }
 
+    /**
+     * @return The maximum bandwidth used by a backup to read the source files, in kilobytes per second (the archive
+     * written from them is not charged). 0 means unlimited.
+     */
+    public long getMaxBandwidth() {
+        return maxBandwidth;
+    }
+
+    public void setMaxBandwidth(long maxBandwidth) {
+        this.maxBandwidth = maxBandwidth;
+    }
+
+    /**
+     * @return true if an interrupted backup is resumed by the next backup of the configuration.
+     */
+    public boolean isResumable() {
+        return resumable;
+    }
+
+    public void setResumable(boolean resumable) {
+        this.resumable = resumable;
+    }
+
+    /**
+     * @return true if the changes in the source directories are tracked between backups (see
+     * {@link fr.duminy.jbackup.core.archive.ChangeTracker}), so that a backup doesn't have to walk them.
+     */
+    public boolean isTrackChanges() {
+        return trackChanges;
+    }
+
+    public void setTrackChanges(boolean trackChanges) {
+        this.trackChanges = trackChanges;
+    }
+
+    /**
+     * @return The maximum size of the volumes of an archive, in megabytes. 0 means the archive is not split.
+     */
+    public long getVolumeSize() {
+        return volumeSize;
+    }
+
+    public void setVolumeSize(long volumeSize) {
+        this.volumeSize = volumeSize;
+    }
+
+    /**
+     * @return The command run before a backup, typically to create a snapshot of the sources, or null.
+     */
+    public String getPreBackupCommand() {
+        return preBackupCommand;
+    }
+
+    public void setPreBackupCommand(String preBackupCommand) {
+        this.preBackupCommand = preBackupCommand;
+    }
+
+    /**
+     * @return The command run after a backup, even if it has failed, typically to release the snapshot, or null.
+     */
+    public String getPostBackupCommand() {
+        return postBackupCommand;
+    }
+
+    public void setPostBackupCommand(String postBackupCommand) {
+        this.postBackupCommand = postBackupCommand;
+    }
+
+    /**
+     * @return The directory where a snapshot of the root filesystem is mounted during a backup, or null. When defined,
+     * the files of a source {@code /a/b} are read from {@code snapshotDirectory/a/b}, but archived with their
+     * original names.
+     */
+    public String getSnapshotDirectory() {
+        return snapshotDirectory;
+    }
+
+    public void setSnapshotDirectory(String snapshotDirectory) {
+        this.snapshotDirectory = snapshotDirectory;
+    }
+
+    /**
+     * @return The cron expression of the automatic backups (see {@link fr.duminy.jbackup.core.schedule.CronExpression}),
+     * or null.
+     */
+    public String getSchedule() {
+        return schedule;
+    }
+
+    public void setSchedule(String schedule) {
+        this.schedule = schedule;
+    }
+
+    /**
+     * @return When the archives are synced to the disk (see {@link Durability}).
+     */
+    public Durability getDurability() {
+        return durability;
+    }
+
+    public void setDurability(Durability durability) {
+        this.durability = durability;
+    }
+
+    /**
+     * @return The file containing the secret used to encrypt the archives (see
+     * {@link fr.duminy.jbackup.core.archive.EncryptionKey}), or null if the archives are not encrypted.
+     */
+    public String getEncryptionKeyFile() {
+        return encryptionKeyFile;
+    }
+
+    public void setEncryptionKeyFile(String encryptionKeyFile) {
+        this.encryptionKeyFile = encryptionKeyFile;
+    }
+
     @XmlElementWrapper(name = "sources")
     @XmlElement(name = "source")
     public List<Source> getSources() {
@@ -156,6 +283,16 @@ public class BackupConfiguration {
                 ", archiveFactory=" + archiveFactory +
                 ", relativeEntries=" + relativeEntries +
                 ", verify=" + verify +
+                ", maxBandwidth=" + maxBandwidth +
+                ", resumable=" + resumable +
+                ", trackChanges=" + trackChanges +
+                ", volumeSize=" + volumeSize +
+                ", preBackupCommand='" + preBackupCommand + '\'' +
+                ", postBackupCommand='" + postBackupCommand + '\'' +
+                ", snapshotDirectory='" + snapshotDirectory + '\'' +
+                ", schedule='" + schedule + '\'' +
+                ", durability=" + durability +
+                ", encryptionKeyFile='" + encryptionKeyFile + '\'' +
                 '}';
     }
 
@@ -0,0 +1,141 @@
+/**
+ * JBackup is a software managing backups.
+ *
+ * Copyright (C) 2013-2017 Fabien DUMINY (fabien [dot] duminy [at] webmails [dot] com)
+ *
+ * JBackup is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * JBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ */
+package fr.duminy.jbackup.core;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * Reads and writes {@link BackupConfiguration}s as XML files.
+ * <br>
+ * The JAXB context is created once, when first needed, and shared by all the threads. Since marshallers and
+ * unmarshallers are not thread-safe, they are pooled.
+ */
+final class BackupConfigurationXml {
+    private static final Queue<Unmarshaller> UNMARSHALLERS = new ConcurrentLinkedQueue<>();
+    private static final Queue<Marshaller> MARSHALLERS = new ConcurrentLinkedQueue<>();
+
+    private BackupConfigurationXml() {
+    }
+
+    static BackupConfiguration read(Path input) throws ConfigurationException {
+        try (InputStream inputStream = Files.newInputStream(input)) {
+            return read(inputStream);
+        } catch (IOException e) {
+            throw new ConfigurationException(e);
+        }
+    }
+
+    /**
+     * Reads a configuration from a stream, which is not closed.
+     */
+    static BackupConfiguration read(InputStream input) throws ConfigurationException {
+        Unmarshaller unmarshaller = UNMARSHALLERS.poll();
+        try {
+            if (unmarshaller == null) {
+                unmarshaller = ContextHolder.CONTEXT.createUnmarshaller();
+            }
+            return (BackupConfiguration) unmarshaller.unmarshal(input);
+        } catch (JAXBException e) {
+            throw new ConfigurationException(e);
+        } finally {
+            if (unmarshaller != null) {
+                UNMARSHALLERS.offer(unmarshaller);
+            }
+        }
+    }
+
+    /**
+     * Writes the configuration to a temporary file, which then replaces atomically the given file.
+     */
+    static void write(BackupConfiguration config, Path output) throws ConfigurationException {
+        Path tempFile = output.resolveSibling(output.getFileName() + ".tmp");
+        try {
+            try (OutputStream outputStream = Files.newOutputStream(tempFile)) {
+                write(config, outputStream);
+            }
+            Files.move(tempFile, output, ATOMIC_MOVE, REPLACE_EXISTING);
+        } catch (IOException e) {
+            deleteQuietly(tempFile);
+            throw new ConfigurationException(e);
+        } catch (ConfigurationException e) {
+            deleteQuietly(tempFile);
+            throw e;
+        }
+    }
+
+    /**
+     * Writes a configuration to a stream, which is not closed.
+     */
+    static void write(BackupConfiguration config, OutputStream output) throws ConfigurationException {
+        Marshaller marshaller = MARSHALLERS.poll();
+        try {
+            if (marshaller == null) {
+                marshaller = ContextHolder.CONTEXT.createMarshaller();
+
+                // output pretty printed
+                marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+            }
+            marshaller.marshal(config, output);
+        } catch (JAXBException e) {
+            throw new ConfigurationException(e);
+        } finally {
+            if (marshaller != null) {
+                MARSHALLERS.offer(marshaller);
+            }
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            // the original error is more important
+        }
+    }
+
+    /**
+     * Lazily creates the JAXB context, which is expensive.
+     */
+    private static final class ContextHolder {
+        private static final JAXBContext CONTEXT = createContext();
+
+        private static JAXBContext createContext() {
+            try {
+                return JAXBContext.newInstance(BackupConfiguration.class);
+            } catch (JAXBException e) {
+                throw new IllegalStateException("Can't create JAXB context", e);
+            }
+        }
+    }
+}
@@ -25,7 +25,7 @@ public class ConfigurationException extends Exception {
         super(cause);
     }
 
-    ConfigurationException(String message) {
+    public ConfigurationException(String message) {
         super(message);
     }
 }
@@ -0,0 +1,46 @@
+/**
+ * JBackup is a software managing backups.
+ *
+ * Copyright (C) 2013-2017 Fabien DUMINY (fabien [dot] duminy [at] webmails [dot] com)
+ *
+ * JBackup is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * JBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ */
+package fr.duminy.jbackup.core;
+
+/**
+ * Listener of the changes of the configuration files made outside of a {@link ConfigurationManager}, for example by
+ * a configuration management tool.
+ */
+public interface ConfigurationListener {
+    /**
+     * @param index  The index of the new configuration in {@link ConfigurationManager#getBackupConfigurations()}.
+     * @param config The new configuration.
+     */
+    void configurationAdded(int index, BackupConfiguration config);
+
+    /**
+     * @param index     The index of the configuration in {@link ConfigurationManager#getBackupConfigurations()}.
+     * @param oldConfig The configuration before the change.
+     * @param newConfig The configuration after the change.
+     */
+    void configurationUpdated(int index, BackupConfiguration oldConfig, BackupConfiguration newConfig);
+
+    /**
+     * @param index  The index the configuration had in {@link ConfigurationManager#getBackupConfigurations()}.
+     * @param config The removed configuration.
+     */
+    void configurationRemoved(int index, BackupConfiguration config);
+}
@@ -20,24 +20,42 @@
  */
 package fr.duminy.jbackup.core;
 
+import fr.duminy.jbackup.core.archive.Checkpoint;
+import fr.duminy.jbackup.core.archive.Durability;
+import fr.duminy.jbackup.core.archive.Volumes;
+import fr.duminy.jbackup.core.metrics.TaskMetrics;
+import fr.duminy.jbackup.core.storage.LocalStorage;
+import fr.duminy.jbackup.core.storage.Storage;
+import fr.duminy.jbackup.core.storage.Storages;
+import fr.duminy.jbackup.core.storage.StoredObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.xml.bind.JAXBContext;
-import javax.xml.bind.JAXBException;
-import javax.xml.bind.Marshaller;
-import javax.xml.bind.Unmarshaller;
 import java.io.IOException;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.stream.Collectors;
 
 /**
  * Manager for JBackup's configurations.
+ * <br>
+ * By default, each configuration is stored in its own XML file. The configurations can instead be stored in a single
+ * indexed file (see {@link ConfigurationStore}), which is faster with thousands of configurations. In both cases, a
+ * configuration can be imported from or exported to an XML file.
  */
 public class ConfigurationManager {
     private static final Logger LOG = LoggerFactory.getLogger(ConfigurationManager.class);
@@ -45,9 +63,35 @@ public class ConfigurationManager {
     private static final String XML_FILE_FILTER = '*' + FILE_EXTENSION;
 
     private final List<BackupConfiguration> configurations = new ArrayList<>();
+    /**
+     * Index of {@link #configurations} by name.
+     */
+    private final Map<String, BackupConfiguration> configurationsByName = new HashMap<>();
+    /**
+     * The configurations read from the files, which are parsed again only if the files have changed.
+     */
+    private final Map<Path, LoadedFile> loadedFiles = new ConcurrentHashMap<>();
     private final Path configurationDir;
+    /**
+     * The indexed store, or null if each configuration is stored in its own XML file.
+     */
+    private final ConfigurationStore store;
+    private final List<ConfigurationListener> listeners = new CopyOnWriteArrayList<>();
+    private ConfigurationWatcher watcher;
 
+    /**
+     * Creates a manager of the configurations of the given directory. They are stored in the indexed store if the
+     * directory contains one, otherwise in XML files.
+     */
     public ConfigurationManager(Path configurationDir) {
+        this(configurationDir, false);
+    }
+
+    /**
+     * @param indexedStore true to store the configurations in the indexed store. If the directory doesn't contain one
+     *                     yet, it's created from the XML files of the directory, which are kept.
+     */
+    public ConfigurationManager(Path configurationDir, boolean indexedStore) {
         if (configurationDir == null) {
             throw new NullPointerException("configurationDir is null");
         }
@@ -66,6 +110,36 @@ public class ConfigurationManager {
             throw new IllegalArgumentException("can't write into directory '" + configurationDir.toAbsolutePath() + "'");
         }
         this.configurationDir = configurationDir;
+
+        ConfigurationStore configurationStore = new ConfigurationStore(configurationDir.resolve(ConfigurationStore.FILE_NAME));
+        if (configurationStore.exists()) {
+            store = configurationStore;
+        } else if (indexedStore) {
+            store = configurationStore;
+            try {
+                importXmlFiles();
+            } catch (ConfigurationException e) {
+                throw new IllegalArgumentException("Can't create '" + store.getFile().toAbsolutePath() + "'", e);
+            }
+        } else {
+            store = null;
+        }
+    }
+
+    /**
+     * Creates the indexed store with the configurations of the XML files.
+     */
+    private void importXmlFiles() throws ConfigurationException {
+        List<BackupConfiguration> configs = new ArrayList<>();
+        for (Path configFile : listConfigurationFiles()) {
+            BackupConfiguration config = getConfiguration(configFile);
+            if ((config != null) && getConfigurationName(configFile).equals(config.getName())) {
+                configs.add(config);
+            }
+        }
+        store.putAll(configs);
+        loadedFiles.clear();
+        LOG.info("{} configurations imported into {}", configs.size(), store.getFile());
     }
 
     public List<BackupConfiguration> getBackupConfigurations() throws ConfigurationException {
@@ -76,76 +150,397 @@ public class ConfigurationManager {
         return Collections.unmodifiableList(configurations);
     }
 
+    /**
+     * Gets a configuration by its name. If the configurations haven't been loaded yet, only the file of the requested
+     * configuration is read.
+     *
+     * @param name The name of the configuration.
+     * @return The configuration, or null if there is no configuration with that name.
+     */
+    public BackupConfiguration getBackupConfiguration(String name) throws ConfigurationException {
+        if (configurations.isEmpty()) {
+            if (store != null) {
+                return store.get(name);
+            }
+
+            Path configFile = configFileFor(name);
+            if (!Files.exists(configFile)) {
+                return null;
+            }
+            BackupConfiguration config = loadBackupConfiguration(configFile);
+            return name.equals(config.getName()) ? config : null;
+        }
+
+        return find(name);
+    }
+
+    /**
+     * @return The names of the configurations, without reading their files.
+     */
+    public List<String> getBackupConfigurationNames() throws ConfigurationException {
+        if (store != null) {
+            return store.getNames();
+        }
+
+        List<String> names = new ArrayList<>();
+        for (Path configFile : listConfigurationFiles()) {
+            names.add(getConfigurationName(configFile));
+        }
+        return names;
+    }
+
+    public void addListener(ConfigurationListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(ConfigurationListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Starts to watch the configuration directory, in order to reload the files changed by other programs. With the
+     * indexed store, only the store file is watched.
+     *
+     * @param executor The executor reloading the changed files and notifying the {@link ConfigurationListener}s. Since
+     *                 this class isn't thread-safe, it must be the thread using this manager (for example the event
+     *                 dispatch thread of swing).
+     * @throws IOException if the directory can't be watched.
+     */
+    public synchronized void startWatching(Executor executor) throws IOException {
+        if (watcher != null) {
+            throw new IllegalStateException("The configuration directory is already watched");
+        }
+        if (store == null) {
+            watcher = new ConfigurationWatcher(configurationDir, FILE_EXTENSION,
+                                               files -> executor.execute(() -> reloadFiles(files)));
+        } else {
+            watcher = new ConfigurationWatcher(configurationDir, ConfigurationStore.FILE_NAME,
+                                               files -> executor.execute(() -> reloadFiles(null)));
+        }
+    }
+
+    /**
+     * Stops to watch the configuration directory.
+     */
+    public synchronized void stopWatching() {
+        if (watcher != null) {
+            try {
+                watcher.close();
+            } catch (IOException e) {
+                LOG.warn("Can't stop watching " + configurationDir, e);
+            }
+            watcher = null;
+        }
+    }
+
+    /**
+     * Reloads the configurations from their files. Only the files created or modified since they were last read are
+     * parsed, and the changes are notified to the {@link ConfigurationListener}s. With the indexed store, only the
+     * store file is checked, and only its modified entries are parsed.
+     */
+    public void reload() throws ConfigurationException {
+        reloadFiles(null);
+    }
+
+    /**
+     * @param files The changed files, or null to check all the files.
+     */
+    void reloadFiles(Set<Path> files) {
+        try {
+            if (configurations.isEmpty()) {
+                loadAllConfigurations();
+                for (int i = 0; i < configurations.size(); i++) {
+                    fireConfigurationAdded(i, configurations.get(i));
+                }
+                return;
+            }
+
+            if (store != null) {
+                reloadStore();
+                return;
+            }
+
+            Set<Path> changedFiles = new TreeSet<>();
+            if (files == null) {
+                changedFiles.addAll(listConfigurationFiles());
+                for (BackupConfiguration config : configurations) {
+                    changedFiles.add(configFileFor(config));
+                }
+            } else {
+                changedFiles.addAll(files);
+            }
+            for (Path file : changedFiles) {
+                reloadFile(file);
+            }
+        } catch (ConfigurationException e) {
+            LOG.error(e.getMessage(), e);
+        }
+    }
+
+    private void reloadStore() throws ConfigurationException {
+        for (String name : store.refresh()) {
+            try {
+                BackupConfiguration config = store.get(name);
+                reloadConfiguration(name, config != null, config);
+            } catch (ConfigurationException e) {
+                LOG.error(e.getMessage(), e);
+            }
+        }
+    }
+
+    private void reloadFile(Path file) {
+        String name = getConfigurationName(file);
+        if (Files.exists(file)) {
+            reloadConfiguration(name, true, getConfiguration(file));
+        } else {
+            loadedFiles.remove(file);
+            reloadConfiguration(name, false, null);
+        }
+    }
+
+    /**
+     * @param exists    false if the configuration has been removed.
+     * @param newConfig The configuration read again, or null if it can't be read.
+     */
+    private void reloadConfiguration(String name, boolean exists, BackupConfiguration newConfig) {
+        BackupConfiguration oldConfig = find(name);
+        int index = configurations.indexOf(oldConfig);
+        if (!exists) {
+            if (oldConfig != null) {
+                configurations.remove(index);
+                configurationsByName.remove(name);
+                fireConfigurationRemoved(index, oldConfig);
+            }
+            return;
+        }
+
+        if ((newConfig == null) || (newConfig == oldConfig) || !name.equals(newConfig.getName())) {
+            return;
+        }
+        if (oldConfig == null) {
+            try {
+                doAddBackupConfiguration(newConfig);
+                fireConfigurationAdded(configurations.size() - 1, newConfig);
+            } catch (ConfigurationException e) {
+                LOG.error(e.getMessage(), e);
+            }
+        } else {
+            configurations.set(index, newConfig);
+            configurationsByName.put(name, newConfig);
+            fireConfigurationUpdated(index, oldConfig, newConfig);
+        }
+    }
+
+    private void fireConfigurationAdded(int index, BackupConfiguration config) {
+        LOG.info("Configuration '{}' added", config.getName());
+        for (ConfigurationListener listener : listeners) {
+            listener.configurationAdded(index, config);
+        }
+    }
+
+    private void fireConfigurationUpdated(int index, BackupConfiguration oldConfig, BackupConfiguration newConfig) {
+        LOG.info("Configuration '{}' updated", newConfig.getName());
+        for (ConfigurationListener listener : listeners) {
+            listener.configurationUpdated(index, oldConfig, newConfig);
+        }
+    }
+
+    private void fireConfigurationRemoved(int index, BackupConfiguration config) {
+        LOG.info("Configuration '{}' removed", config.getName());
+        for (ConfigurationListener listener : listeners) {
+            listener.configurationRemoved(index, config);
+        }
+    }
+
     void loadAllConfigurations() throws ConfigurationException {
         configurations.clear();
-        try (DirectoryStream<Path> configFiles = Files.newDirectoryStream(configurationDir, XML_FILE_FILTER)) {
-            for (Path configFile : configFiles) {
-                loadConfiguration(configFile);
+        configurationsByName.clear();
+
+        if (store != null) {
+            for (BackupConfiguration config : store.getAll()) {
+                try {
+                    doAddBackupConfiguration(config);
+                } catch (ConfigurationException e) {
+                    LOG.error(e.getMessage(), e);
+                }
+            }
+            return;
+        }
+
+        // the files are parsed in parallel, but added in the directory order
+        List<Path> configFiles = listConfigurationFiles();
+        loadedFiles.keySet().retainAll(configFiles);
+        List<BackupConfiguration> configs = configFiles.parallelStream().map(this::getConfiguration)
+                                                       .collect(Collectors.toList());
+        for (int i = 0; i < configFiles.size(); i++) {
+            if (configs.get(i) != null) {
+                try {
+                    doAddBackupConfiguration(configFiles.get(i), configs.get(i));
+                } catch (ConfigurationException e) {
+                    LOG.error(e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    private List<Path> listConfigurationFiles() throws ConfigurationException {
+        List<Path> configFiles = new ArrayList<>();
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(configurationDir, XML_FILE_FILTER)) {
+            for (Path configFile : paths) {
+                configFiles.add(configFile);
             }
         } catch (IOException e) {
             throw new ConfigurationException(e);
         }
+        return configFiles;
     }
 
-    private void loadConfiguration(Path configFile) {
+    private BackupConfiguration getConfiguration(Path configFile) {
         try {
+            BasicFileAttributes attributes = Files.readAttributes(configFile, BasicFileAttributes.class);
+            LoadedFile loadedFile = loadedFiles.get(configFile);
+            if ((loadedFile != null) && loadedFile.isUpToDate(attributes)) {
+                return loadedFile.config;
+            }
+
             BackupConfiguration config = loadBackupConfiguration(configFile);
-            doAddBackupConfiguration(configFile, config);
+            loadedFiles.put(configFile, new LoadedFile(attributes, config));
+            return config;
         } catch (Exception e) {
             LOG.error(e.getMessage(), e);
+            return null;
         }
     }
 
     private void doAddBackupConfiguration(Path configFile, BackupConfiguration config) throws ConfigurationException {
-        String fileName = String.valueOf(configFile.getFileName());
-        fileName = fileName.substring(0, fileName.length() - FILE_EXTENSION.length());
-        if (fileName.equals(config.getName())) {
+        if (getConfigurationName(configFile).equals(config.getName())) {
             doAddBackupConfiguration(config);
         }
     }
 
+    private static String getConfigurationName(Path configFile) {
+        String fileName = String.valueOf(configFile.getFileName());
+        return fileName.substring(0, fileName.length() - FILE_EXTENSION.length());
+    }
+
+    /**
+     * @return The most recent archive of the configuration, or null if there is none. If the target is a remote
+     * storage, the path is the name of the archive in the storage (see {@link JBackupImpl#restoreFromStorage}).
+     */
     public static Path getLatestArchive(BackupConfiguration configuration) throws IOException {
-        Path result = null;
-        try (DirectoryStream<Path> paths = Files.newDirectoryStream(Paths.get(configuration.getTargetDirectory()))) {
-            for (Path path : paths) {
-                if ((result == null) || (path.toFile().lastModified() > result.toFile().lastModified())) {
-                    result = path;
-                }
+        String target = configuration.getTargetDirectory();
+        if (!Storages.isLocal(target)) {
+            StoredObject latest = getLatestArchive(Storages.forTarget(target));
+            return (latest == null) ? null : Paths.get(latest.getName());
+        }
+
+        Path targetDirectory = Paths.get(target);
+        StoredObject latest = getLatestArchive(new LocalStorage(targetDirectory));
+        return (latest == null) ? null : targetDirectory.resolve(latest.getName());
+    }
+
+    /**
+     * Checks that the options of a configuration are supported by its target. An archive is uploaded to a remote
+     * storage while it's created, so it can't be verified, resumed, split in volumes, nor synced otherwise than
+     * when it's complete.
+     *
+     * @throws ConfigurationException if an option isn't supported.
+     */
+    public static void checkTarget(BackupConfiguration config) throws ConfigurationException {
+        String target = config.getTargetDirectory();
+        if ((target == null) || Storages.isLocal(target)) {
+            return;
+        }
+
+        List<String> options = new ArrayList<>();
+        if (config.isVerify()) {
+            options.add("verify");
+        }
+        if (config.isResumable()) {
+            options.add("resumable");
+        }
+        if (config.getVolumeSize() > 0) {
+            options.add("volumeSize");
+        }
+        if ((config.getDurability() != null) && (config.getDurability() != Durability.ON_CLOSE)) {
+            options.add("durability");
+        }
+        if (!options.isEmpty()) {
+            throw new ConfigurationException("The options " + options + " of configuration '" + config.getName() +
+                                             "' are not supported by the remote target '" + target + "'");
+        }
+    }
+
+    /**
+     * @return The most recent archive of the given storage, or null if there is none.
+     */
+    public static StoredObject getLatestArchive(Storage storage) throws IOException {
+        StoredObject result = null;
+        for (StoredObject object : storage.list()) {
+            if (!isArchive(object.getName())) {
+                continue;
+            }
+            if ((result == null) || (object.getLastModified() > result.getLastModified())) {
+                result = object;
             }
         }
         return result;
     }
 
+    /**
+     * @return false if the name is the one of a file created beside the archives, like a report, a partial archive
+     * or a volume other than the first one.
+     */
+    private static boolean isArchive(String name) {
+        return !name.endsWith(TaskMetrics.REPORT_EXTENSION) && !name.endsWith(Checkpoint.EXTENSION) &&
+               !name.endsWith(Checkpoint.PARTIAL_EXTENSION) && !Volumes.isSecondaryFile(Paths.get(name));
+    }
+
     BackupConfiguration loadBackupConfiguration(Path input) throws ConfigurationException {
-        try {
-            JAXBContext jaxbContext = JAXBContext.newInstance(BackupConfiguration.class);
+        return BackupConfigurationXml.read(input);
+    }
 
-            Unmarshaller jaxbUnmarshaller = jaxbContext.createUnmarshaller();
-            return (BackupConfiguration) jaxbUnmarshaller.unmarshal(Files.newInputStream(input));
-        } catch (IOException | JAXBException e) {
-            throw new ConfigurationException(e);
-        }
+    /**
+     * Adds a configuration read from a file in the XML format.
+     *
+     * @return The imported configuration.
+     */
+    public BackupConfiguration importBackupConfiguration(Path xmlFile) throws ConfigurationException {
+        BackupConfiguration config = loadBackupConfiguration(xmlFile);
+        addBackupConfiguration(config);
+        return config;
+    }
+
+    /**
+     * Writes a configuration to a file in the XML format, whatever the store of the configurations.
+     */
+    public void exportBackupConfiguration(BackupConfiguration config, Path xmlFile) throws ConfigurationException {
+        BackupConfigurationXml.write(config, xmlFile);
     }
 
+    /**
+     * @return The file where the configuration has been saved.
+     */
     public Path saveBackupConfiguration(BackupConfiguration config) throws ConfigurationException {
-        Path output = configFileFor(config);
+        checkTarget(config);
+        if (store != null) {
+            store.replace(config.getName(), config);
+            return store.getFile();
+        }
 
+        Path output = configFileFor(config);
+        BackupConfigurationXml.write(config, output);
         try {
-            JAXBContext jaxbContext = JAXBContext.newInstance(BackupConfiguration.class);
-            Marshaller jaxbMarshaller = jaxbContext.createMarshaller();
-
-            // output pretty printed
-            jaxbMarshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
-
-            jaxbMarshaller.marshal(config, Files.newOutputStream(output));
-        } catch (IOException | JAXBException e) {
-            throw new ConfigurationException(e);
+            // no need to parse again our own file
+            loadedFiles.put(output, new LoadedFile(Files.readAttributes(output, BasicFileAttributes.class), config));
+        } catch (IOException e) {
+            loadedFiles.remove(output);
         }
-
         return output;
     }
 
     public void addBackupConfiguration(BackupConfiguration config) throws ConfigurationException {
+        checkTarget(config);
         doAddBackupConfiguration(config);
 
         saveBackupConfiguration(config);
@@ -153,22 +548,36 @@ public class ConfigurationManager {
 
     public BackupConfiguration setBackupConfiguration(int index, BackupConfiguration backupConfiguration)
         throws ConfigurationException {
+        checkTarget(backupConfiguration);
         final BackupConfiguration oldConfig = configurations.set(index, backupConfiguration);
-        deleteConfigFileFor(oldConfig);
-        saveBackupConfiguration(backupConfiguration);
+        configurationsByName.remove(oldConfig.getName());
+        configurationsByName.put(backupConfiguration.getName(), backupConfiguration);
+        if (store != null) {
+            store.replace(oldConfig.getName(), backupConfiguration);
+        } else {
+            deleteConfigFileFor(oldConfig);
+            saveBackupConfiguration(backupConfiguration);
+        }
         return oldConfig;
     }
 
     public void removeBackupConfiguration(BackupConfiguration config) throws ConfigurationException {
-        int index = indexOf(config);
-        if (index >= 0) {
-            configurations.remove(index);
+        BackupConfiguration existingConfig = find(config.getName());
+        if (existingConfig != null) {
+            configurations.remove(existingConfig);
+            configurationsByName.remove(existingConfig.getName());
             deleteConfigFileFor(config);
         }
     }
 
     private void deleteConfigFileFor(BackupConfiguration config) throws ConfigurationException {
+        if (store != null) {
+            store.remove(config.getName());
+            return;
+        }
+
         try {
+            loadedFiles.remove(configFileFor(config));
             Files.delete(configFileFor(config));
         } catch (IOException e) {
             throw new ConfigurationException(e);
@@ -179,16 +588,23 @@ public class ConfigurationManager {
         return configFileFor(config.getName());
     }
 
-    private int indexOf(BackupConfiguration config) {
-        int index = -1;
-        for (int i = 0, configurationsSize = configurations.size(); i < configurationsSize; i++) {
-            BackupConfiguration c = configurations.get(i);
-            if (c.getName().equals(config.getName())) {
-                index = i;
-                break;
+    /**
+     * @return The loaded configuration with the given name, or null.
+     */
+    private BackupConfiguration find(String name) {
+        BackupConfiguration config = configurationsByName.get(name);
+        if ((config != null) && name.equals(config.getName())) {
+            return config;
+        }
+
+        // a configuration may have been renamed without saveRenamedBackupConfiguration
+        for (BackupConfiguration c : configurations) {
+            if (c.getName().equals(name)) {
+                configurationsByName.put(name, c);
+                return c;
             }
         }
-        return index;
+        return null;
     }
 
     private Path configFileFor(String configName) {
@@ -208,20 +624,48 @@ public class ConfigurationManager {
             }
         }
 
-        if (indexOf(config) >= 0) {
+        if (find(config.getName()) != null) {
             throw new DuplicateNameException("There is already a configuration with name '" + config.getName() + "'");
         }
 
         configurations.add(config);
+        configurationsByName.put(config.getName(), config);
     }
 
     public Path saveRenamedBackupConfiguration(String oldName, BackupConfiguration config)
         throws ConfigurationException {
+        checkTarget(config);
+        if (configurationsByName.get(oldName) == config) {
+            configurationsByName.remove(oldName);
+            configurationsByName.put(config.getName(), config);
+        }
+        if (store != null) {
+            store.replace(oldName, config);
+            return store.getFile();
+        }
+
         try {
+            loadedFiles.remove(configFileFor(oldName));
             Files.delete(configFileFor(oldName));
         } catch (IOException e) {
             throw new ConfigurationException(e);
         }
         return saveBackupConfiguration(config);
     }
+
+    private static final class LoadedFile {
+        private final FileTime lastModifiedTime;
+        private final long size;
+        private final BackupConfiguration config;
+
+        private LoadedFile(BasicFileAttributes attributes, BackupConfiguration config) {
+            this.lastModifiedTime = attributes.lastModifiedTime();
+            this.size = attributes.size();
+            this.config = config;
+        }
+
+        private boolean isUpToDate(BasicFileAttributes attributes) {
+            return lastModifiedTime.equals(attributes.lastModifiedTime()) && (size == attributes.size());
+        }
+    }
 }
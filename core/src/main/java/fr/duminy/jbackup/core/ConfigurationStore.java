@@ -0,0 +1,406 @@
+/**
+ * JBackup is a software managing backups.
+ *
+ * Copyright (C) 2013-2017 Fabien DUMINY (fabien [dot] duminy [at] webmails [dot] com)
+ *
+ * JBackup is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * JBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ */
+package fr.duminy.jbackup.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * Stores all the {@link BackupConfiguration}s in a single file, which starts with an index of its entries.
+ * <br>
+ * The file contains a header (magic number, version and number of entries), then for each entry its name, the CRC32
+ * of its data and the length of its data, and finally the data of the entries : the XML of each configuration,
+ * compressed with deflate.
+ * <br>
+ * The index is read again only when the modification time or the size of the file has changed, and an entry is parsed
+ * again only when its CRC32 has changed. Since the file is always replaced atomically by a new one, the data of an entry
+ * is read from the file without reading the other entries.
+ * <br>
+ * This class isn't thread-safe.
+ */
+class ConfigurationStore {
+    private static final Logger LOG = LoggerFactory.getLogger(ConfigurationStore.class);
+
+    static final String FILE_NAME = "configurations.store";
+    private static final int MAGIC = 0x4A424B43; // "JBKC"
+    private static final int VERSION = 1;
+
+    private final Path file;
+    /**
+     * The entries in the file order, indexed by name.
+     */
+    private Map<String, Entry> entries = Collections.emptyMap();
+    private FileTime lastModifiedTime;
+    private long size = -1L;
+
+    ConfigurationStore(Path file) {
+        this.file = file;
+    }
+
+    Path getFile() {
+        return file;
+    }
+
+    boolean exists() {
+        return Files.exists(file);
+    }
+
+    /**
+     * Reads the index again if the file has changed since it was last read or written.
+     *
+     * @return The names of the entries added, modified or removed since then.
+     */
+    Set<String> refresh() throws ConfigurationException {
+        BasicFileAttributes attributes = readAttributes();
+        if (isUpToDate(attributes)) {
+            return Collections.emptySet();
+        }
+
+        Map<String, Entry> newEntries = (attributes == null) ? Collections.emptyMap() : readIndex();
+        Set<String> changedNames = new LinkedHashSet<>();
+        for (Entry newEntry : newEntries.values()) {
+            Entry oldEntry = entries.get(newEntry.name);
+            if ((oldEntry != null) && (oldEntry.checksum == newEntry.checksum) && (oldEntry.length == newEntry.length)) {
+                newEntry.config = oldEntry.config;
+            } else {
+                changedNames.add(newEntry.name);
+            }
+        }
+        for (String name : entries.keySet()) {
+            if (!newEntries.containsKey(name)) {
+                changedNames.add(name);
+            }
+        }
+
+        entries = newEntries;
+        setAttributes(attributes);
+        return changedNames;
+    }
+
+    /**
+     * @return The names of the configurations, in the file order, without parsing them.
+     */
+    List<String> getNames() throws ConfigurationException {
+        refresh();
+        return new ArrayList<>(entries.keySet());
+    }
+
+    /**
+     * @return The configuration with the given name, or null if there is none.
+     */
+    BackupConfiguration get(String name) throws ConfigurationException {
+        refresh();
+        Entry entry = entries.get(name);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.config == null) {
+            entry.config = parse(entry, readData(entry));
+        }
+        return entry.config;
+    }
+
+    /**
+     * Gets all the configurations, in the file order. The entries which can't be parsed are logged and ignored.
+     */
+    List<BackupConfiguration> getAll() throws ConfigurationException {
+        refresh();
+        List<Entry> unparsedEntries = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            if (entry.config == null) {
+                entry.data = readData(entry);
+                unparsedEntries.add(entry);
+            }
+        }
+
+        // the entries are read sequentially, but parsed in parallel
+        unparsedEntries.parallelStream().forEach(entry -> {
+            try {
+                entry.config = parse(entry, entry.data);
+            } catch (ConfigurationException e) {
+                LOG.error(e.getMessage(), e);
+            }
+        });
+
+        List<BackupConfiguration> configs = new ArrayList<>(entries.size());
+        for (Entry entry : entries.values()) {
+            if (entry.config != null) {
+                configs.add(entry.config);
+            }
+        }
+        return configs;
+    }
+
+    /**
+     * Adds the given configurations, or replaces the ones with the same names.
+     */
+    void putAll(Collection<BackupConfiguration> configs) throws ConfigurationException {
+        refresh();
+        Map<String, Entry> newEntries = new LinkedHashMap<>(entries);
+        for (BackupConfiguration config : configs) {
+            newEntries.put(config.getName(), createEntry(config));
+        }
+        write(newEntries);
+    }
+
+    /**
+     * Replaces a configuration by another one, which may have another name, in a single write.
+     *
+     * @param oldName The name of the replaced configuration. The new one is added if there is no such configuration.
+     */
+    void replace(String oldName, BackupConfiguration config) throws ConfigurationException {
+        refresh();
+        Entry newEntry = createEntry(config);
+        Map<String, Entry> newEntries = new LinkedHashMap<>();
+        for (Entry entry : entries.values()) {
+            if (entry.name.equals(oldName)) {
+                newEntries.put(newEntry.name, newEntry);
+            } else if (!entry.name.equals(newEntry.name)) {
+                newEntries.put(entry.name, entry);
+            }
+        }
+        newEntries.put(newEntry.name, newEntry);
+        write(newEntries);
+    }
+
+    void remove(String name) throws ConfigurationException {
+        refresh();
+        if (entries.containsKey(name)) {
+            Map<String, Entry> newEntries = new LinkedHashMap<>(entries);
+            newEntries.remove(name);
+            write(newEntries);
+        }
+    }
+
+    private Entry createEntry(BackupConfiguration config) throws ConfigurationException {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        try (OutputStream output = new DeflaterOutputStream(data)) {
+            BackupConfigurationXml.write(config, output);
+        } catch (IOException e) {
+            throw new ConfigurationException(e);
+        }
+
+        Entry entry = new Entry(config.getName(), checksum(data.toByteArray()), data.size());
+        entry.data = data.toByteArray();
+        entry.config = config;
+        return entry;
+    }
+
+    /**
+     * Writes the given entries to a temporary file, which then replaces atomically the store file.
+     */
+    private void write(Map<String, Entry> newEntries) throws ConfigurationException {
+        for (Entry entry : newEntries.values()) {
+            if (entry.data == null) {
+                entry.data = readData(entry);
+            }
+        }
+
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+                output.writeInt(MAGIC);
+                output.writeInt(VERSION);
+                output.writeInt(newEntries.size());
+                for (Entry entry : newEntries.values()) {
+                    byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+                    output.writeShort(name.length);
+                    output.write(name);
+                    output.writeLong(entry.checksum);
+                    output.writeInt(entry.length);
+                }
+                for (Entry entry : newEntries.values()) {
+                    output.write(entry.data);
+                }
+            }
+            Files.move(tempFile, file, ATOMIC_MOVE, REPLACE_EXISTING);
+        } catch (IOException e) {
+            try {
+                Files.deleteIfExists(tempFile);
+            } catch (IOException e2) {
+                // the original error is more important
+            }
+            throw new ConfigurationException(e);
+        }
+
+        // the entries are now in the file
+        long offset = getIndexSize(newEntries.values());
+        for (Entry entry : newEntries.values()) {
+            entry.offset = offset;
+            entry.data = null;
+            offset += entry.length;
+        }
+        entries = newEntries;
+        setAttributes(readAttributes());
+    }
+
+    private static long getIndexSize(Collection<Entry> entries) {
+        long size = 3 * Integer.BYTES;
+        for (Entry entry : entries) {
+            size += Short.BYTES + entry.name.getBytes(StandardCharsets.UTF_8).length + Long.BYTES + Integer.BYTES;
+        }
+        return size;
+    }
+
+    private Map<String, Entry> readIndex() throws ConfigurationException {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if ((input.readInt() != MAGIC) || (input.readInt() != VERSION)) {
+                throw new ConfigurationException("'" + file + "' is not a configuration store");
+            }
+
+            int nbEntries = input.readInt();
+            List<Entry> orderedEntries = new ArrayList<>(nbEntries);
+            for (int i = 0; i < nbEntries; i++) {
+                byte[] name = new byte[input.readUnsignedShort()];
+                input.readFully(name);
+                orderedEntries.add(new Entry(new String(name, StandardCharsets.UTF_8), input.readLong(), input.readInt()));
+            }
+
+            Map<String, Entry> index = new LinkedHashMap<>();
+            long offset = getIndexSize(orderedEntries);
+            for (Entry entry : orderedEntries) {
+                entry.offset = offset;
+                offset += entry.length;
+                index.put(entry.name, entry);
+            }
+            return index;
+        } catch (IOException e) {
+            throw new ConfigurationException(e);
+        }
+    }
+
+    private byte[] readData(Entry entry) throws ConfigurationException {
+        if (entry.data != null) {
+            return entry.data;
+        }
+
+        ByteBuffer data = ByteBuffer.allocate(entry.length);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (data.hasRemaining()) {
+                if (channel.read(data, entry.offset + data.position()) < 0) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            throw new ConfigurationException(e);
+        }
+        if (data.hasRemaining() || (checksum(data.array()) != entry.checksum)) {
+            throw new ConfigurationException("The entry '" + entry.name + "' of '" + file + "' has changed or is corrupted");
+        }
+        return data.array();
+    }
+
+    private BackupConfiguration parse(Entry entry, byte[] data) throws ConfigurationException {
+        BackupConfiguration config;
+        try (InputStream input = new InflaterInputStream(new ByteArrayInputStream(data))) {
+            config = BackupConfigurationXml.read(input);
+        } catch (IOException e) {
+            throw new ConfigurationException(e);
+        } finally {
+            // the data of the entries which are read are not kept in memory
+            entry.data = null;
+        }
+        if (!entry.name.equals(config.getName())) {
+            throw new ConfigurationException("The entry '" + entry.name + "' of '" + file + "' contains the configuration '" +
+                                             config.getName() + "'");
+        }
+        return config;
+    }
+
+    private static long checksum(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        return crc.getValue();
+    }
+
+    private BasicFileAttributes readAttributes() throws ConfigurationException {
+        try {
+            return Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new ConfigurationException(e);
+        }
+    }
+
+    private boolean isUpToDate(BasicFileAttributes attributes) {
+        if (attributes == null) {
+            return size < 0L;
+        }
+        return attributes.lastModifiedTime().equals(lastModifiedTime) && (attributes.size() == size);
+    }
+
+    private void setAttributes(BasicFileAttributes attributes) {
+        lastModifiedTime = (attributes == null) ? null : attributes.lastModifiedTime();
+        size = (attributes == null) ? -1L : attributes.size();
+    }
+
+    private static final class Entry {
+        private final String name;
+        private final long checksum;
+        private final int length;
+        private long offset;
+        /**
+         * The data of the entry, while it isn't in the file yet or while it's about to be parsed.
+         */
+        private byte[] data;
+        private BackupConfiguration config;
+
+        private Entry(String name, long checksum, int length) {
+            this.name = name;
+            this.checksum = checksum;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/**
+ * JBackup is a software managing backups.
+ *
+ * Copyright (C) 2013-2017 Fabien DUMINY (fabien [dot] duminy [at] webmails [dot] com)
+ *
+ * JBackup is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * JBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ */
+package fr.duminy.jbackup.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Watches the configuration directory with a {@link WatchService} and reports the changed configuration files.
+ * <br>
+ * The events are debounced : the changed files are reported once no event happened during {@link #DEBOUNCE_DELAY}, so
+ * that a burst of writes gives a single report. When events have been lost (overflow), a null set is reported.
+ */
+class ConfigurationWatcher implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(ConfigurationWatcher.class);
+
+    /**
+     * The delay (in milliseconds) without event after which the changed files are reported.
+     */
+    static final long DEBOUNCE_DELAY = 500L;
+
+    private final Path directory;
+    private final String fileExtension;
+    private final Consumer<Set<Path>> changeHandler;
+    private final WatchService watchService;
+
+    ConfigurationWatcher(Path directory, String fileExtension, Consumer<Set<Path>> changeHandler) throws IOException {
+        this.directory = directory;
+        this.fileExtension = fileExtension;
+        this.changeHandler = changeHandler;
+
+        watchService = directory.getFileSystem().newWatchService();
+        directory.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+
+        Thread watchThread = new Thread(this::processEvents, "jbackup-watch-configurations");
+        watchThread.setDaemon(true);
+        watchThread.start();
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+
+    private void processEvents() {
+        Set<Path> changedFiles = new HashSet<>();
+        boolean overflow = false;
+        try {
+            while (true) {
+                boolean pending = overflow || !changedFiles.isEmpty();
+                WatchKey key = pending ? watchService.poll(DEBOUNCE_DELAY, TimeUnit.MILLISECONDS) : watchService.take();
+                if (key == null) {
+                    changeHandler.accept(overflow ? null : changedFiles);
+                    changedFiles = new HashSet<>();
+                    overflow = false;
+                    continue;
+                }
+
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == OVERFLOW) {
+                        LOG.warn("Some changes in {} have been lost, all the configurations will be reloaded", directory);
+                        overflow = true;
+                    } else {
+                        Path file = directory.resolve((Path) event.context());
+                        if (file.getFileName().toString().endsWith(fileExtension)) {
+                            changedFiles.add(file);
+                        }
+                    }
+                }
+                if (!key.reset()) {
+                    LOG.warn("{} can't be watched anymore", directory);
+                    return;
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            LOG.debug("Stop watching {}", directory);
+        }
+    }
+}
@@ -30,10 +30,25 @@ import java.util.concurrent.Future;
  * Represents JBackup features.
  */
 public interface JBackup {
+    /**
+     * Starts a backup of the given configuration, unless one is already running.
+     *
+     * @param config The configuration.
+     * @return The future result of the new backup, or of the running one.
+     */
     Future<Void> backup(BackupConfiguration config);
 
     Future<Void> restore(BackupConfiguration config, Path archive, Path targetDirectory);
 
+    /**
+     * Checks that an archive of the given configuration can be read.
+     *
+     * @param config  The configuration of the archive.
+     * @param archive The archive to check.
+     * @return The future result of the verification, which fails if the archive is corrupted.
+     */
+    Future<Void> verify(BackupConfiguration config, Path archive);
+
     /**
      * Add a listener for all configurations.
      *
@@ -63,6 +78,18 @@ public interface JBackup {
      */
     void removeProgressListener(String configurationName, ProgressListener listener);
 
+    /**
+     * Remove all the listeners of a given configuration, for example because it has been deleted.
+     * @param configurationName Name of the configuration.
+     */
+    void removeProgressListeners(String configurationName);
+
+    /**
+     * @return A listener to add to the {@link ConfigurationManager}, in order to release what is kept for the
+     * configurations (like the trackers of their source directories) when they are updated or removed.
+     */
+    ConfigurationListener getConfigurationListener();
+
     Timer shutdown(final TerminationListener listener) throws InterruptedException;
 
     @FunctionalInterface interface TerminationListener {
@@ -20,46 +20,227 @@
  */
 package fr.duminy.jbackup.core;
 
+import fr.duminy.jbackup.core.archive.ChangeTrackers;
 import fr.duminy.jbackup.core.archive.ProgressListener;
+import fr.duminy.jbackup.core.metrics.JBackupMetrics;
+import fr.duminy.jbackup.core.metrics.Measurable;
+import fr.duminy.jbackup.core.metrics.TaskMetrics;
+import fr.duminy.jbackup.core.storage.Storages;
 import fr.duminy.jbackup.core.task.BackupTask;
 import fr.duminy.jbackup.core.task.RestoreTask;
 import fr.duminy.jbackup.core.task.Task;
 import fr.duminy.jbackup.core.task.TaskListener;
+import fr.duminy.jbackup.core.task.TaskScheduler;
+import fr.duminy.jbackup.core.task.ThreadMode;
+import fr.duminy.jbackup.core.task.VerifyTask;
+import fr.duminy.jbackup.core.util.BandwidthLimiter;
 import fr.duminy.jbackup.core.util.DefaultFileDeleter;
 import fr.duminy.jbackup.core.util.FileDeleter;
 import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
 import javax.swing.*;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayList;
+import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import java.util.function.Supplier;
 
 /**
  * Implementation of {@link fr.duminy.jbackup.core.JBackup}.
  */
 public class JBackupImpl implements JBackup {
+    private static final Logger LOG = LoggerFactory.getLogger(JBackupImpl.class);
     private static final String ALL_CONFIGS = "ALL_CONFIGURATIONS";
+    private static final AtomicInteger INSTANCE_COUNTER = new AtomicInteger();
+
+    /**
+     * A restore is usually waited for by the user, so it's started before the pending backups.
+     */
+    static final int BACKUP_PRIORITY = 0;
+    static final int RESTORE_PRIORITY = 1;
+
+    private final TaskScheduler scheduler;
+
+    /**
+     * Runs the compression of the backups when the tasks run on virtual threads, or null if the tasks run on platform
+     * threads and compress on their own thread.
+     */
+    private final TaskScheduler compressionScheduler;
+    private final JBackupMetrics metrics;
+    private final ObjectName metricsName;
+    private volatile boolean writeReports;
+    private final ProgressDispatcher progressDispatcher = new ProgressDispatcher(ProgressDispatcher.DEFAULT_PERIOD);
+
+    /**
+     * Deletes the files of the failed tasks in background.
+     */
+    private final ForkJoinPool cleaner = new ForkJoinPool(Runtime.getRuntime().availableProcessors(), pool -> {
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("jbackup-cleaner-" + thread.getPoolIndex());
+        return thread;
+    }, null, false);
+    private final Supplier<FileDeleter> deleterSupplier;
+
+    /**
+     * Tracks the changes in the source directories of the configurations, between their backups.
+     */
+    private final ChangeTrackers changeTrackers = new ChangeTrackers();
+
+    private final BandwidthLimiter globalBandwidthLimiter = new BandwidthLimiter(BandwidthLimiter.UNLIMITED);
+    private final Map<String, BandwidthLimiter> bandwidthLimiters = new ConcurrentHashMap<>();
+
+    private final Map<String, JBackupTaskListener> listeners = new ConcurrentHashMap<>();
+
+    /**
+     * The running backup of each configuration : a configuration is backed up by a single task at a time.
+     * An entry is removed at the end of its task (a backup cancelled before its start is replaced by the next one).
+     */
+    private final Map<String, Future<Void>> backups = new HashMap<>();
+    private final JBackupTaskListener globalListener = new JBackupTaskListener(null, ALL_CONFIGS);
+
+    public JBackupImpl() {
+        this(Runtime.getRuntime().availableProcessors(), TaskScheduler.DEFAULT_MAX_TASKS_PER_DEVICE,
+             ThreadMode.getDefault());
+    }
 
-    private final ExecutorService executor = Executors.newFixedThreadPool(8,
-            new BasicThreadFactory.Builder().namingPattern("jbackup-thread-%d").daemon(false).priority(Thread.MAX_PRIORITY).build());
-
-    private final Supplier<FileDeleter> deleterSupplier = createDeleterSupplier();
-
-    private final Map<String, JBackupTaskListener> listeners = new HashMap<>();
-    private JBackupTaskListener globalListener;
+    /**
+     * @param maxRunningTasks   The maximum number of tasks running at the same time.
+     * @param maxTasksPerDevice The maximum number of running tasks writing to the same device.
+     * @param threadMode        The kind of threads running the tasks.
+     */
+    public JBackupImpl(int maxRunningTasks, int maxTasksPerDevice, ThreadMode threadMode) {
+        ThreadFactory virtualThreadFactory = threadMode.createIoThreadFactory("jbackup-thread-");
+        if (virtualThreadFactory == null) {
+            scheduler = new TaskScheduler(maxRunningTasks, maxTasksPerDevice,
+                                          threadMode.createThreadFactory("jbackup-thread-"));
+            compressionScheduler = null;
+        } else {
+            // the tasks mostly wait for I/O, so they all run : only their compression, which is CPU-bound and writes
+            // the archive, is limited by the budgets
+            scheduler = new TaskScheduler(Integer.MAX_VALUE, Integer.MAX_VALUE, virtualThreadFactory);
+            // not shut down with the tasks, which still compress while they terminate : its threads are daemons, and
+            // a compression is always waited for by its task
+            compressionScheduler = new TaskScheduler(maxRunningTasks, maxTasksPerDevice,
+                                                     new BasicThreadFactory.Builder()
+                                                         .namingPattern("jbackup-compress-%d").daemon(true).build());
+        }
+        deleterSupplier = createDeleterSupplier(threadMode.createIoThreadFactory("jbackup-delete-"));
+        metrics = new JBackupMetrics(scheduler);
+        metricsName = registerMBean(metrics);
+    }
 
     @Override
     public Future<Void> backup(final BackupConfiguration config) {
-        return submitNewTask(cancellable -> createBackupTask(config, getTaskListener(config.getName()), cancellable));
+        return submitBackup(config, cancellable -> createBackupTask(config, getTaskListener(config.getName()), cancellable),
+                            getTargetDirectory(config));
     }
 
+    /**
+     * Restores an archive into a directory. If the target of the configuration is a remote storage, the name of the
+     * archive is the one of an archive of the storage (see {@link #restoreFromStorage}).
+     */
     @Override
     public Future<Void> restore(final BackupConfiguration config, final Path archive, final Path targetDirectory) {
-        return submitNewTask(cancellable -> createRestoreTask(config, archive, targetDirectory, getTaskListener(config.getName()), cancellable));
+        if (!Storages.isLocal(config.getTargetDirectory())) {
+            return restoreFromStorage(config, archive.getFileName().toString(), targetDirectory);
+        }
+        return submitNewTask(cancellable -> createRestoreTask(config, archive, targetDirectory, getTaskListener(config.getName()), cancellable),
+                             targetDirectory, RESTORE_PRIORITY);
+    }
+
+    /**
+     * Backs up a configuration to a stream, like the standard output or a pipe to another process, instead of an
+     * archive file in its target directory.
+     *
+     * @param output The stream where the archive is written. It's not closed.
+     * @return The future result of the new backup, or of the running one (which is not written to the stream).
+     */
+    public Future<Void> backup(final BackupConfiguration config, final OutputStream output) {
+        return submitBackup(config, cancellable -> createBackupTask(config, getTaskListener(config.getName()), cancellable, output),
+                            null);
+    }
+
+    /**
+     * Submits a backup task unless a backup of the same configuration is still running.
+     *
+     * @return The future result of the new backup, or of the running one.
+     */
+    private Future<Void> submitBackup(BackupConfiguration config, TaskFactory<Task> taskFactory, Path targetDirectory) {
+        if (config.getName() == null) {
+            return submitNewTask(taskFactory, targetDirectory, BACKUP_PRIORITY);
+        }
+
+        synchronized (backups) {
+            Future<Void> running = backups.get(config.getName());
+            if ((running != null) && !running.isDone()) {
+                LOG.info("A backup of '{}' is already running", config.getName());
+                return running;
+            }
+
+            // the entry is removed by the task itself, which can't do it before the end of this block
+            AtomicReference<Future<Void>> submitted = new AtomicReference<>();
+            Future<Void> future = submitNewTask(taskFactory, targetDirectory, BACKUP_PRIORITY, () -> {
+                synchronized (backups) {
+                    backups.remove(config.getName(), submitted.get());
+                }
+            });
+            submitted.set(future);
+            backups.put(config.getName(), future);
+            return future;
+        }
+    }
+
+    /**
+     * Restores an archive read from a stream, like the standard input or a pipe from another process.
+     *
+     * @param archive The stream of the archive. It's not closed.
+     */
+    public Future<Void> restore(final BackupConfiguration config, final InputStream archive, final Path targetDirectory) {
+        return submitNewTask(cancellable -> createRestoreTask(config, archive, targetDirectory, getTaskListener(config.getName()), cancellable),
+                             targetDirectory, RESTORE_PRIORITY);
+    }
+
+    /**
+     * Restores an archive of the remote storage of a configuration, which is downloaded while it's decompressed.
+     *
+     * @param archiveName The name of the archive in the storage.
+     */
+    public Future<Void> restoreFromStorage(final BackupConfiguration config, final String archiveName,
+                                           final Path targetDirectory) {
+        return submitNewTask(cancellable -> createRestoreTask(config, archiveName, targetDirectory, getTaskListener(config.getName()), cancellable),
+                             targetDirectory, RESTORE_PRIORITY);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalArgumentException if the target of the configuration is a remote storage, whose archives can't
+     *                                  be verified.
+     */
+    @Override
+    public Future<Void> verify(final BackupConfiguration config, final Path archive) {
+        if (!Storages.isLocal(config.getTargetDirectory())) {
+            throw new IllegalArgumentException("The archives of the remote target '" + config.getTargetDirectory() +
+                                               "' can't be verified");
+        }
+        return submitNewTask(cancellable -> createVerifyTask(config, archive, getTaskListener(config.getName()), cancellable),
+                             archive.toAbsolutePath().getParent(), RESTORE_PRIORITY);
     }
 
     @Override
@@ -82,9 +263,32 @@ public class JBackupImpl implements JBackup {
         getTaskListener(ALL_CONFIGS).removeProgressListener(listener);
     }
 
+    @Override
+    public void removeProgressListeners(String configurationName) {
+        JBackupTaskListener taskListener = listeners.remove(configurationName);
+        if (taskListener != null) {
+            // the running tasks of the configuration still hold this listener
+            taskListener.removeAllListeners();
+        }
+    }
+
+    @Override
+    public ConfigurationListener getConfigurationListener() {
+        return changeTrackers;
+    }
+
     @Override
     public Timer shutdown(final TerminationListener listener) throws InterruptedException {
-        executor.shutdown();
+        scheduler.shutdown();
+        // the deletions already submitted are still executed, the next ones are done by the failed tasks themselves
+        cleaner.shutdown();
+        progressDispatcher.shutdownWhen(scheduler::isTerminated);
+        try {
+            changeTrackers.close();
+        } catch (IOException e) {
+            LOG.warn("Can't stop tracking the changes of the source directories", e);
+        }
+        unregisterMBean(metricsName);
 
         Timer timer = null;
         if (listener != null) {
@@ -92,7 +296,7 @@ public class JBackupImpl implements JBackup {
             timer.setDelay((int) TimeUnit.SECONDS.toMillis(1));
             final Timer finalTimer = timer;
             timer.addActionListener(e -> {
-                if (executor.isTerminated()) {
+                if (scheduler.isTerminated() && cleaner.isTerminated()) {
                     listener.terminated();
                     finalTimer.stop();
                 }
@@ -104,16 +308,84 @@ public class JBackupImpl implements JBackup {
         return timer;
     }
 
+    /**
+     * Waits for the deletion of the files of the failed tasks, which is done in background.
+     * @return true if all the deletions have completed, false if the timeout elapsed.
+     */
+    public boolean awaitFileDeletions(long timeout, TimeUnit unit) {
+        return cleaner.awaitQuiescence(timeout, unit);
+    }
+
+    /**
+     * @return The scheduler of the tasks, which gives access to the queue metrics.
+     */
+    public TaskScheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * @return The metrics of the finished tasks, also exposed as a JMX MBean.
+     */
+    public JBackupMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @param writeReports true to write the metrics of each backup as a JSON report beside its archive.
+     */
+    public void setWriteReports(boolean writeReports) {
+        this.writeReports = writeReports;
+    }
+
+    /**
+     * Limits the total bandwidth used by all the backups.
+     * @param maxBandwidth The maximum bandwidth in kilobytes per second, 0 meaning unlimited.
+     */
+    public void setMaxBandwidth(long maxBandwidth) {
+        globalBandwidthLimiter.setBytesPerSecond(toBytesPerSecond(maxBandwidth));
+    }
+
+    /**
+     * Changes the bandwidth of the backups of the given configuration, including the running one.
+     * The next backup is again limited by {@link BackupConfiguration#getMaxBandwidth()}.
+     * @param configurationName The name of the configuration.
+     * @param maxBandwidth      The maximum bandwidth in kilobytes per second, 0 meaning unlimited.
+     */
+    public void setMaxBandwidth(String configurationName, long maxBandwidth) {
+        getBandwidthLimiter(configurationName).setBytesPerSecond(toBytesPerSecond(maxBandwidth));
+    }
+
     Task createBackupTask(BackupConfiguration config, TaskListener taskListener, Cancellable cancellable) {
-        return new BackupTask(config, deleterSupplier, taskListener, cancellable);
+        return createBackupTask(config, taskListener, cancellable, null);
+    }
+
+    Task createBackupTask(BackupConfiguration config, TaskListener taskListener, Cancellable cancellable,
+                          OutputStream output) {
+        BandwidthLimiter bandwidthLimiter = (config.getName() == null) ?
+            new BandwidthLimiter(globalBandwidthLimiter, BandwidthLimiter.UNLIMITED) : getBandwidthLimiter(config.getName());
+        bandwidthLimiter.setBytesPerSecond(toBytesPerSecond(config.getMaxBandwidth()));
+        return new BackupTask(config, deleterSupplier, taskListener, cancellable, bandwidthLimiter, output,
+                              changeTrackers, compressionScheduler);
     }
 
     Task createRestoreTask(BackupConfiguration config, Path archive, Path targetDirectory, TaskListener taskListener, Cancellable cancellable) {
         return new RestoreTask(config, archive, targetDirectory, deleterSupplier, taskListener, cancellable);
     }
 
-    Supplier<FileDeleter> createDeleterSupplier() {
-        return DefaultFileDeleter::new;
+    Task createRestoreTask(BackupConfiguration config, InputStream archive, Path targetDirectory, TaskListener taskListener, Cancellable cancellable) {
+        return new RestoreTask(config, archive, targetDirectory, deleterSupplier, taskListener, cancellable);
+    }
+
+    Task createRestoreTask(BackupConfiguration config, String archiveName, Path targetDirectory, TaskListener taskListener, Cancellable cancellable) {
+        return new RestoreTask(config, archiveName, targetDirectory, deleterSupplier, taskListener, cancellable);
+    }
+
+    Task createVerifyTask(BackupConfiguration config, Path archive, TaskListener taskListener, Cancellable cancellable) {
+        return new VerifyTask(config, archive, taskListener, cancellable);
+    }
+
+    Supplier<FileDeleter> createDeleterSupplier(ThreadFactory ioThreadFactory) {
+        return () -> new DefaultFileDeleter(cleaner, ioThreadFactory);
     }
 
     private static class JBackupCancellable implements Cancellable {
@@ -135,37 +407,106 @@ public class JBackupImpl implements JBackup {
     }
 
     private JBackupTaskListener getTaskListener(String configurationName) {
-        JBackupTaskListener taskListener;
-
-        if (globalListener == null) {
-            globalListener = new JBackupTaskListener(null, ALL_CONFIGS);
-        }
-
         //noinspection StringEquality
         if (ALL_CONFIGS == configurationName) {
-            taskListener = globalListener;
-        } else {
-            taskListener = listeners.get(configurationName);
-            if (taskListener == null) {
-                taskListener = new JBackupTaskListener(globalListener, configurationName);
-                listeners.put(configurationName, taskListener);
-            }
+            return globalListener;
         }
 
-        return taskListener;
+        return listeners.computeIfAbsent(configurationName, name -> new JBackupTaskListener(globalListener, name));
+    }
+
+    private BandwidthLimiter getBandwidthLimiter(String configurationName) {
+        return bandwidthLimiters.computeIfAbsent(configurationName,
+                                                 name -> new BandwidthLimiter(globalBandwidthLimiter, BandwidthLimiter.UNLIMITED));
+    }
+
+    private static long toBytesPerSecond(long kilobytesPerSecond) {
+        return kilobytesPerSecond * 1024L;
+    }
+
+    private static Path getTargetDirectory(BackupConfiguration config) {
+        String targetDirectory = config.getTargetDirectory();
+        // a remote storage is not a local device
+        return ((targetDirectory == null) || !Storages.isLocal(targetDirectory)) ? null : Paths.get(targetDirectory);
+    }
+
+    private <T extends Callable<Void>> Future<Void> submitNewTask(TaskFactory<T> taskFactory, Path targetDirectory,
+                                                                  int priority) {
+        return submitNewTask(taskFactory, targetDirectory, priority, null);
     }
 
-    private <T extends Callable<Void>> Future<Void> submitNewTask(TaskFactory<T> taskFactory) {
+    /**
+     * @param completion Run at the end of the task, before the completion of its future, or null.
+     */
+    private <T extends Callable<Void>> Future<Void> submitNewTask(TaskFactory<T> taskFactory, Path targetDirectory,
+                                                                  int priority, Runnable completion) {
         JBackupCancellable cancellable = new JBackupCancellable();
-        Future<Void> future = executor.submit(taskFactory.createTask(cancellable));
+        T task = taskFactory.createTask(cancellable);
+        long submitTime = System.nanoTime();
+        Callable<Void> measuredTask = () -> {
+            if (task instanceof Measurable) {
+                long queueWaitTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - submitTime);
+                ((Measurable) task).getMetrics().setQueueWaitTime(queueWaitTime);
+            }
+            try {
+                return task.call();
+            } finally {
+                if (task instanceof Measurable) {
+                    taskFinished(((Measurable) task).getMetrics(), task instanceof BackupTask);
+                }
+                if (completion != null) {
+                    completion.run();
+                }
+            }
+        };
+        Future<Void> future = scheduler.submit(measuredTask, targetDirectory, priority);
         cancellable.setFuture(future);
         return future;
     }
 
-    private static class JBackupTaskListener implements TaskListener {
-        private final List<ProgressListener> listeners = new ArrayList<>();
+    private void taskFinished(TaskMetrics taskMetrics, boolean archiveCreated) {
+        LOG.info("Metrics: {}", taskMetrics);
+        metrics.taskFinished(taskMetrics);
+
+        Path archive = taskMetrics.getArchive();
+        if (writeReports && archiveCreated && (archive != null)) {
+            Path report = archive.resolveSibling(archive.getFileName() + TaskMetrics.REPORT_EXTENSION);
+            try {
+                Files.write(report, taskMetrics.toJson().getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                LOG.warn("Can't write report " + report, e);
+            }
+        }
+    }
+
+    private static ObjectName registerMBean(JBackupMetrics metrics) {
+        try {
+            ObjectName name = new ObjectName("fr.duminy.jbackup:type=JBackup,id=" + INSTANCE_COUNTER.incrementAndGet());
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, name);
+            return name;
+        } catch (JMException e) {
+            LOG.warn("Can't register metrics MBean", e);
+            return null;
+        }
+    }
+
+    private static void unregisterMBean(ObjectName name) {
+        if (name != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            } catch (JMException e) {
+                LOG.warn("Can't unregister metrics MBean " + name, e);
+            }
+        }
+    }
+
+    private class JBackupTaskListener implements TaskListener, ProgressDispatcher.Publisher {
+        private static final long NO_PROGRESS = -1L;
+
+        private final List<ProgressListener> listeners = new CopyOnWriteArrayList<>();
         private final JBackupTaskListener globalListener;
         private final String configurationName;
+        private final AtomicLong pendingProgress = new AtomicLong(NO_PROGRESS);
 
         private JBackupTaskListener(JBackupTaskListener globalListener, String configurationName) {
             this.globalListener = globalListener;
@@ -173,30 +514,48 @@ public class JBackupImpl implements JBackup {
         }
 
         @Override
-        public void taskStarted() {
-            for (ProgressListener l : getListeners()) {
-                l.taskStarted(configurationName);
-            }
+        public synchronized void taskStarted() {
+            publishProgress();
+            notifyListeners(l -> l.taskStarted(configurationName));
         }
 
         @Override
-        public void totalSizeComputed(long totalSize) {
-            for (ProgressListener l : getListeners()) {
-                l.totalSizeComputed(configurationName, totalSize);
-            }
+        public synchronized void totalSizeEstimated(long estimatedTotalSize) {
+            publishProgress();
+            notifyListeners(l -> l.totalSizeEstimated(configurationName, estimatedTotalSize));
+        }
+
+        @Override
+        public synchronized void totalSizeComputed(long totalSize) {
+            publishProgress();
+            notifyListeners(l -> l.totalSizeComputed(configurationName, totalSize));
         }
 
+        /**
+         * Only keeps the latest value, which is published later by the {@link ProgressDispatcher}.
+         */
         @Override
         public void progress(long totalReadBytes) {
-            for (ProgressListener l : getListeners()) {
-                l.progress(configurationName, totalReadBytes);
+            if (pendingProgress.getAndSet(totalReadBytes) == NO_PROGRESS) {
+                progressDispatcher.schedule(this);
             }
         }
 
         @Override
-        public void taskFinished(Throwable error) {
-            for (ProgressListener l : getListeners()) {
-                l.taskFinished(configurationName, error);
+        public synchronized void taskFinished(Throwable error) {
+            publishProgress();
+            notifyListeners(l -> l.taskFinished(configurationName, error));
+        }
+
+        /**
+         * Notifies the pending progress, if any. Other events publish it first, so that the events are received in
+         * the order they were sent.
+         */
+        @Override
+        public synchronized void publishProgress() {
+            long totalReadBytes = pendingProgress.getAndSet(NO_PROGRESS);
+            if (totalReadBytes != NO_PROGRESS) {
+                notifyListeners(l -> l.progress(configurationName, totalReadBytes));
             }
         }
 
@@ -208,11 +567,19 @@ public class JBackupImpl implements JBackup {
             listeners.remove(listener);
         }
 
-        private List<ProgressListener> getListeners() {
-            List<ProgressListener> result = new ArrayList<>(listeners.size() + globalListener.listeners.size());
-            result.addAll(listeners);
-            result.addAll(globalListener.listeners);
-            return result;
+        public void removeAllListeners() {
+            listeners.clear();
+        }
+
+        private void notifyListeners(Consumer<ProgressListener> notification) {
+            for (ProgressListener l : listeners) {
+                notification.accept(l);
+            }
+            if (globalListener != null) {
+                for (ProgressListener l : globalListener.listeners) {
+                    notification.accept(l);
+                }
+            }
         }
     }
 }
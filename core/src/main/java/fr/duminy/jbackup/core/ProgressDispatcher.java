@@ -0,0 +1,89 @@
+/**
+ * JBackup is a software managing backups.
+ *
+ * Copyright (C) 2013-2017 Fabien DUMINY (fabien [dot] duminy [at] webmails [dot] com)
+ *
+ * JBackup is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * JBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ */
+package fr.duminy.jbackup.core;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Publishes the progress of the tasks at a bounded rate, out of the I/O threads.
+ * <br>
+ * A {@link Publisher} is scheduled when it has a new progress value, and is called at the next period with the
+ * latest value it has received until then.
+ */
+class ProgressDispatcher {
+    private static final Logger LOG = LoggerFactory.getLogger(ProgressDispatcher.class);
+
+    /**
+     * The default period (in milliseconds) between 2 publications : 10 per second.
+     */
+    static final long DEFAULT_PERIOD = 100L;
+
+    interface Publisher {
+        void publishProgress();
+    }
+
+    private final Queue<Publisher> scheduledPublishers = new ConcurrentLinkedQueue<>();
+    private final ScheduledExecutorService executor;
+    private volatile BooleanSupplier terminationCondition;
+
+    ProgressDispatcher(long period) {
+        executor = Executors.newSingleThreadScheduledExecutor(
+            new BasicThreadFactory.Builder().namingPattern("jbackup-progress-%d").daemon(true).build());
+        executor.scheduleAtFixedRate(this::publish, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    void schedule(Publisher publisher) {
+        scheduledPublishers.add(publisher);
+    }
+
+    /**
+     * Stops the dispatcher once the given condition is true.
+     */
+    void shutdownWhen(BooleanSupplier condition) {
+        terminationCondition = condition;
+    }
+
+    private void publish() {
+        Publisher publisher;
+        while ((publisher = scheduledPublishers.poll()) != null) {
+            try {
+                publisher.publishProgress();
+            } catch (RuntimeException e) {
+                // an exception would cancel the next executions
+                LOG.error("Error while publishing progress", e);
+            }
+        }
+
+        BooleanSupplier condition = terminationCondition;
+        if ((condition != null) && condition.getAsBoolean()) {
+            executor.shutdown();
+        }
+    }
+}
@@ -22,6 +22,7 @@ package fr.duminy.jbackup.core.archive;
 
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.Path;
 
 
 public interface ArchiveFactory {
@@ -30,4 +31,13 @@ public interface ArchiveFactory {
     ArchiveInputStream create(InputStream input) throws ArchiveException;
 
     ArchiveOutputStream create(OutputStream output) throws ArchiveException;
+
+    /**
+     * Gets the total size of the entries of an archive, without decompressing them.
+     *
+     * @param archive The archive.
+     * @return The total uncompressed size, or -1 if it can't be known cheaply.
+     * @throws ArchiveException
+     */
+    long getUncompressedSize(Path archive) throws ArchiveException;
 }
@@ -44,6 +44,27 @@ public interface ArchiveInputStream extends Closeable {
             return compressedSize;
         }
 
+        /**
+         * @return The name of the entry this entry is a hard link to, or null if it's not a link.
+         */
+        public String getLinkTarget() {
+            return null;
+        }
+
+        /**
+         * @return true if the entry is a directory, which has no content but only metadata.
+         */
+        public boolean isDirectory() {
+            return false;
+        }
+
+        /**
+         * @return The metadata of the archived file, or null if the archive doesn't contain it.
+         */
+        public FileMetadata getMetadata() {
+            return null;
+        }
+
         public abstract InputStream getInput();
     }
 }
@@ -28,4 +28,40 @@ import java.io.InputStream;
 
 public interface ArchiveOutputStream extends Closeable {
     void addEntry(String name, InputStream input) throws IOException;
+
+    /**
+     * Adds an entry with the metadata of its file.
+     *
+     * @param metadata The metadata of the file. By default, it's ignored.
+     */
+    default void addEntry(String name, InputStream input, FileMetadata metadata) throws IOException {
+        addEntry(name, input);
+    }
+
+    /**
+     * Adds an entry which is a hard link to a previously added entry.
+     *
+     * @param name   The name of the entry.
+     * @param target The name of the previously added entry.
+     * @return false if the archive format can't store links. In that case, nothing is added.
+     */
+    default boolean addLink(String name, String target) throws IOException {
+        return false;
+    }
+
+    /**
+     * Adds an entry for a directory, in order to restore its metadata. The directories are added after their files.
+     *
+     * @return false if the archive format can't store directories. In that case, nothing is added.
+     */
+    default boolean addDirectory(String name, FileMetadata metadata) throws IOException {
+        return false;
+    }
+
+    /**
+     * Writes the completed entries to the underlying stream.
+     */
+    default void flush() throws IOException {
+        // nothing to do
+    }
 }
@@ -20,8 +20,10 @@
  */
 package fr.duminy.jbackup.core.archive;
 
+import fr.duminy.jbackup.core.util.BandwidthLimiter;
 import org.apache.commons.io.filefilter.IOFileFilter;
 
+import java.io.OutputStream;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -32,6 +34,15 @@ public class ArchiveParameters {
     private final Collection<Source> sources = new ArrayList<>();
     private final Path archive;
     private boolean relativeEntries;
+    private long estimatedTotalSize = -1L;
+    private BandwidthLimiter bandwidthLimiter;
+    private boolean resumable;
+    private Checkpoint resumeFrom;
+    private long volumeSize;
+    private Path snapshotDirectory;
+    private Durability durability = Durability.ON_CLOSE;
+    private OutputStream outputStream;
+    private ChangeTrackers changeTrackers;
 
     public ArchiveParameters(Path archive, boolean relativeEntries) {
         this.archive = archive;
@@ -58,12 +69,122 @@ public class ArchiveParameters {
         return relativeEntries;
     }
 
+    /**
+     * @return The estimated total size of the files to archive, or a negative value if it's unknown.
+     */
+    public long getEstimatedTotalSize() {
+        return estimatedTotalSize;
+    }
+
+    public void setEstimatedTotalSize(long estimatedTotalSize) {
+        this.estimatedTotalSize = estimatedTotalSize;
+    }
+
+    /**
+     * @return The limiter of the bandwidth used to read the source files and write the archive, or null if unlimited.
+     */
+    public BandwidthLimiter getBandwidthLimiter() {
+        return bandwidthLimiter;
+    }
+
+    public void setBandwidthLimiter(BandwidthLimiter bandwidthLimiter) {
+        this.bandwidthLimiter = bandwidthLimiter;
+    }
+
+    /**
+     * @return true if the archive is created with checkpoints, allowing to resume it if it's interrupted.
+     */
+    public boolean isResumable() {
+        return resumable;
+    }
+
+    public void setResumable(boolean resumable) {
+        this.resumable = resumable;
+    }
+
+    /**
+     * @return The checkpoint of an interrupted archive, whose completed entries are copied to the archive, or null.
+     */
+    public Checkpoint getResumeFrom() {
+        return resumeFrom;
+    }
+
+    public void setResumeFrom(Checkpoint resumeFrom) {
+        this.resumeFrom = resumeFrom;
+    }
+
+    /**
+     * @return The maximum size of the {@link Volumes volumes} of the archive in bytes, or 0 if it's not split.
+     */
+    public long getVolumeSize() {
+        return volumeSize;
+    }
+
+    public void setVolumeSize(long volumeSize) {
+        this.volumeSize = volumeSize;
+    }
+
+    /**
+     * @return The directory where the snapshot containing the sources is mounted, or null if the sources are read
+     * from the live filesystem.
+     */
+    public Path getSnapshotDirectory() {
+        return snapshotDirectory;
+    }
+
+    public void setSnapshotDirectory(Path snapshotDirectory) {
+        this.snapshotDirectory = snapshotDirectory;
+    }
+
+    /**
+     * @return When the archive is synced to the disk.
+     */
+    public Durability getDurability() {
+        return durability;
+    }
+
+    public void setDurability(Durability durability) {
+        this.durability = durability;
+    }
+
+    /**
+     * @return The stream where the archive is written instead of the archive file, or null to write the archive file.
+     * A streamed archive is neither split, resumable nor synced, and the stream is not closed.
+     */
+    public OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    public void setOutputStream(OutputStream outputStream) {
+        this.outputStream = outputStream;
+    }
+
+    /**
+     * @return The trackers listing the files of the directory sources without walking them, or null to walk them.
+     */
+    public ChangeTrackers getChangeTrackers() {
+        return changeTrackers;
+    }
+
+    public void setChangeTrackers(ChangeTrackers changeTrackers) {
+        this.changeTrackers = changeTrackers;
+    }
+
     @Override
     public String toString() {
         return "ArchiveParameters{" +
                 "sources=" + sources +
                 ", archive=" + archive +
                 ", relativeEntries=" + relativeEntries +
+                ", estimatedTotalSize=" + estimatedTotalSize +
+                ", bandwidthLimiter=" + bandwidthLimiter +
+                ", resumable=" + resumable +
+                ", resumeFrom=" + resumeFrom +
+                ", volumeSize=" + volumeSize +
+                ", snapshotDirectory=" + snapshotDirectory +
+                ", durability=" + durability +
+                ", outputStream=" + outputStream +
+                ", changeTrackers=" + changeTrackers +
                 '}';
     }
 
@@ -24,8 +24,15 @@ import fr.duminy.jbackup.core.util.InputStreamComparator;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.List;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 /**
  * Verify an archive by comparing its archived files with ones from source directory.
@@ -37,29 +44,81 @@ public class ArchiveVerifier {
         this.comparator = comparator;
     }
 
-    public boolean verify(ArchiveFactory factory, InputStream archive, List<SourceWithPath> sourceFiles)
+    public boolean verify(ArchiveFactory factory, InputStream archive, Collection<SourceWithPath> sourceFiles)
         throws ArchiveException {
         boolean result = true;
+        SourceFileFinder finder = new SourceFileFinder(sourceFiles);
+        // the entries are detected again in the order of the archive, which gives the targets of the links
+        HardLinkDetector hardLinkDetector = new HardLinkDetector();
         try (ArchiveInputStream archiveInputStream = factory.create(archive)) {
             ArchiveInputStream.Entry entry;
 
             while ((entry = archiveInputStream.getNextEntry()) != null) {
-                SourceWithPath swp = findPath(sourceFiles, entry.getName());
-                result &= (swp != null) && comparator.equals(Paths.get(swp.getAbsolutePath()), entry.getInput());
+                if (entry.isDirectory()) {
+                    // only the files are collected
+                    continue;
+                }
+
+                SourceWithPath swp = finder.find(entry.getName());
+                String linkTarget = (swp == null) ? null : hardLinkDetector.getLinkTarget(swp.getPath(), entry.getName());
+                if (entry.getLinkTarget() == null) {
+                    result &= (swp != null) && comparator.equals(Paths.get(swp.getAbsolutePath()), entry.getInput());
+                } else {
+                    result &= entry.getLinkTarget().equals(linkTarget);
+                }
             }
         } catch (IOException e) {
             throw new ArchiveException(e);
+        } catch (UncheckedIOException e) {
+            throw new ArchiveException(e.getCause());
         }
 
         return result;
     }
 
-    private SourceWithPath findPath(List<SourceWithPath> sourceFiles, String entryName) {
-        for (SourceWithPath swp : sourceFiles) {
-            if (swp.getRelativePath().equals(entryName)) {
+    /**
+     * Finds the source file of an archive entry.
+     * <br>
+     * Entries are normally in the same order as the source files, which are then read sequentially. The file of an
+     * entry out of order is resolved from its name in the sources : the archive has been created from the same source
+     * files, and they may be spilled to disk, so no index of all the files is built.
+     */
+    private static class SourceFileFinder {
+        private final Collection<SourceWithPath> sourceFiles;
+        private final Iterator<SourceWithPath> iterator;
+        private SourceWithPath nextFile;
+        private Set<Path> sources;
+
+        private SourceFileFinder(Collection<SourceWithPath> sourceFiles) {
+            this.sourceFiles = sourceFiles;
+            this.iterator = sourceFiles.iterator();
+        }
+
+        private SourceWithPath find(String entryName) {
+            if ((nextFile == null) && iterator.hasNext()) {
+                nextFile = iterator.next();
+            }
+            // the next file is only consumed by its entry : that way, the entries following a missing file are still
+            // found sequentially
+            if ((nextFile != null) && nextFile.getRelativePath().equals(entryName)) {
+                SourceWithPath swp = nextFile;
+                nextFile = null;
                 return swp;
             }
+
+            if (sources == null) {
+                sources = new LinkedHashSet<>();
+                for (SourceWithPath swp : sourceFiles) {
+                    sources.add(swp.getSource());
+                }
+            }
+            for (Path source : sources) {
+                Path file = SourceWithPath.getBaseDirectory(source).resolve(entryName).normalize();
+                if (file.startsWith(source) && Files.exists(file, LinkOption.NOFOLLOW_LINKS)) {
+                    return new SourceWithPath(source, file);
+                }
+            }
+            return null;
         }
-        return null;
     }
 }
@@ -25,8 +25,6 @@ import fr.duminy.jbackup.core.archive.zip.ZipArchiveFactory;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.ArrayList;
-import java.util.List;
 
 /**
  * A very basic command line tool for the zip format {(thanks to {@link ZipArchiveFactory}.
@@ -62,13 +60,15 @@ public class Archiver {
         new Decompressor(factory).decompress(archive, directory, null, null);
     }
 
-    private static void compress(String[] args, Path archive, ZipArchiveFactory factory) throws ArchiveException {
+    private static void compress(String[] args, Path archive, ZipArchiveFactory factory)
+        throws ArchiveException, IOException {
         final ArchiveParameters archiveParameters = new ArchiveParameters(archive, true);
         for (int i = 2; i < args.length; i++) {
             archiveParameters.addSource(Paths.get(args[i]));
         }
-        List<SourceWithPath> collectedFiles = new ArrayList<>();
-        new FileCollector().collectFiles(collectedFiles, archiveParameters, null, null);
-        new Compressor(factory).compress(archiveParameters, collectedFiles, null, null);
+        try (CollectedFiles collectedFiles = new CollectedFiles()) {
+            new FileCollector().collectFiles(collectedFiles, archiveParameters, null, null);
+            new Compressor(factory).compress(archiveParameters, collectedFiles, null, null);
+        }
     }
 }
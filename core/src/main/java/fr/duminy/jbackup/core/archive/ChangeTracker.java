@@ -0,0 +1,542 @@
+/**
+ * JBackup is a software managing backups.
+ *
+ * Copyright (C) 2013-2017 Fabien DUMINY (fabien [dot] duminy [at] webmails [dot] com)
+ *
+ * JBackup is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * JBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ */
+package fr.duminy.jbackup.core.archive;
+
+import fr.duminy.jbackup.core.Cancellable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.function.BiConsumer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Tracks the changes in a source directory with a {@link WatchService}, and keeps the list of its files up to date :
+ * after a first walk of the directory, a backup only has to read again the directories that have changed.
+ * <br>
+ * The tracker can't know what happened before it was started or while events were lost (overflow). In that case,
+ * {@link Changes#isFullWalkNeeded()} is true, and the directory is walked again by the next
+ * {@link #getFiles(Cancellable, BiConsumer)}.
+ * <br>
+ * Only the directories that have changed are kept in memory : the list of the files is kept in a temporary file,
+ * which is rewritten by each {@link #getFiles(Cancellable, BiConsumer)}. The tracker must be closed to delete it.
+ */
+public class ChangeTracker implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(ChangeTracker.class);
+
+    private final Path root;
+    private final Path tempDirectory;
+    private final Map<WatchKey, Path> watchedDirectories = new HashMap<>();
+    private final Map<Path, Long> dirtyDirectories = new HashMap<>();
+    private WatchService watchService;
+    private Thread watchThread;
+    private long version = 0L;
+    private long lastOverflowVersion = 0L;
+    private boolean fullWalkNeeded = true;
+    private boolean closed;
+
+    /**
+     * Held while the files are listed, so that the events can be processed at the same time.
+     */
+    private final Object listingLock = new Object();
+
+    /**
+     * The listing of each directory, in the order of {@link #compare(Path, Path)}, or null if the files have not been
+     * listed yet.
+     */
+    private Path listingFile;
+    private boolean listing;
+
+    public ChangeTracker(Path root) {
+        this(root, null);
+    }
+
+    /**
+     * @param root          The directory to track.
+     * @param tempDirectory The directory where the listing of the files is written. If null, the default
+     *                      temporary-file directory is used.
+     */
+    ChangeTracker(Path root, Path tempDirectory) {
+        if (!root.isAbsolute()) {
+            throw new IllegalArgumentException(String.format("The directory '%s' is relative.", root));
+        }
+        this.root = root;
+        this.tempDirectory = tempDirectory;
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * Starts to watch the root directory and all its sub-directories.
+     *
+     * @throws IOException
+     */
+    public void start() throws IOException {
+        synchronized (this) {
+            if (watchService != null) {
+                throw new IllegalStateException("The tracker is already started");
+            }
+            watchService = root.getFileSystem().newWatchService();
+        }
+
+        register(root, false);
+
+        synchronized (this) {
+            watchThread = new Thread(this::processEvents, "jbackup-watch-" + root.getFileName());
+            watchThread.setDaemon(true);
+            watchThread.start();
+        }
+    }
+
+    /**
+     * @return A snapshot of the changes since the last call to {@link #commit(Changes)}.
+     */
+    public synchronized Changes getChanges() {
+        return new Changes(new HashSet<>(dirtyDirectories.keySet()), fullWalkNeeded, version);
+    }
+
+    /**
+     * Notify that the given changes have been taken into account. Changes that happened after the snapshot are kept.
+     *
+     * @param changes The changes that have been taken into account.
+     */
+    public synchronized void commit(Changes changes) {
+        dirtyDirectories.values().removeIf(v -> v <= changes.version);
+        if (lastOverflowVersion <= changes.version) {
+            fullWalkNeeded = false;
+        }
+    }
+
+    /**
+     * Gets all the regular files of the root directory, without following symbolic links. The first call walks the
+     * whole directory, the next ones only read again the directories that have changed since the previous call, the
+     * other ones are read from the listing of the previous call.
+     * <br>
+     * A closed tracker still walks the whole directory, but doesn't keep the listing.
+     *
+     * @param cancellable An optional cancellable.
+     * @param consumer    Receives the files of each directory, with their size. The parents are given before their
+     *                    children.
+     * @return false if cancelled.
+     * @throws IOException
+     */
+    public boolean getFiles(Cancellable cancellable, BiConsumer<Path, Map<Path, Long>> consumer) throws IOException {
+        synchronized (listingLock) {
+            Changes changes;
+            Path previousListing;
+            synchronized (this) {
+                changes = getChanges();
+                previousListing = changes.isFullWalkNeeded() ? null : listingFile;
+                listing = true;
+            }
+            if (previousListing == null) {
+                LOG.info("Reading all the files of {}", root);
+            }
+
+            Path newListing = createListingFile();
+            boolean complete = false;
+            try {
+                try (ListingReader previous = (previousListing == null) ? null : new ListingReader(previousListing);
+                     DataOutputStream output = new DataOutputStream(
+                         new BufferedOutputStream(Files.newOutputStream(newListing)))) {
+                    complete = listTree(changes, previous, output, consumer, cancellable);
+                    Listing.writeEnd(output);
+                }
+            } finally {
+                synchronized (this) {
+                    listing = false;
+                    if (complete && !closed) {
+                        deleteQuietly(listingFile);
+                        listingFile = newListing;
+                        commit(changes);
+                    } else {
+                        // the changes are not committed, they will be read by the next call
+                        deleteQuietly(newListing);
+                        if (closed) {
+                            deleteQuietly(listingFile);
+                            listingFile = null;
+                        }
+                    }
+                }
+            }
+            return complete;
+        }
+    }
+
+    /**
+     * Notifies that the content of a directory has changed.
+     */
+    synchronized void directoryChanged(Path directory) {
+        dirtyDirectories.put(directory, ++version);
+    }
+
+    @Override
+    public void close() throws IOException {
+        final WatchService service;
+        synchronized (this) {
+            closed = true;
+            fullWalkNeeded = true;
+            service = watchService;
+            watchService = null;
+            watchedDirectories.clear();
+            dirtyDirectories.clear();
+            if (!listing) {
+                // otherwise, deleted at the end of the listing
+                deleteQuietly(listingFile);
+                listingFile = null;
+            }
+        }
+        if (service != null) {
+            service.close();
+        }
+    }
+
+    /**
+     * Reads the directories in the order of the previous listing : a directory which hasn't changed is read from the
+     * previous listing, new and changed ones are read from the file system. The directories removed since the previous
+     * listing are not reached, so they are forgotten.
+     *
+     * @return false if cancelled.
+     */
+    private boolean listTree(Changes changes, ListingReader previous, DataOutputStream output,
+                             BiConsumer<Path, Map<Path, Long>> consumer, Cancellable cancellable) throws IOException {
+        Deque<Path> directories = new ArrayDeque<>();
+        directories.push(root);
+        while (!directories.isEmpty()) {
+            if (isCancelled(cancellable)) {
+                return false;
+            }
+
+            Path directory = directories.pop();
+            Listing listing = (previous == null) ? null : previous.find(directory);
+            if ((listing == null) || changes.getDirtyDirectories().contains(directory)) {
+                try {
+                    listing = readDirectory(directory);
+                } catch (NoSuchFileException | NotDirectoryException e) {
+                    LOG.debug("directory {} removed while listed", directory);
+                    continue;
+                }
+            }
+            listing.write(output);
+            consumer.accept(directory, listing.files);
+
+            // pushed in reverse order, so that the smallest one is read first
+            List<Path> subDirectories = new ArrayList<>(listing.directories);
+            subDirectories.sort(ChangeTracker::compare);
+            for (int i = subDirectories.size() - 1; i >= 0; i--) {
+                directories.push(subDirectories.get(i));
+            }
+        }
+        return true;
+    }
+
+    private static Listing readDirectory(Path directory) throws IOException {
+        Map<Path, Long> files = new HashMap<>();
+        Set<Path> directories = new HashSet<>();
+        try (DirectoryStream<Path> children = Files.newDirectoryStream(directory)) {
+            for (Path child : children) {
+                BasicFileAttributes attrs;
+                try {
+                    attrs = Files.readAttributes(child, BasicFileAttributes.class, NOFOLLOW_LINKS);
+                } catch (NoSuchFileException e) {
+                    continue;
+                }
+                if (attrs.isDirectory()) {
+                    directories.add(child);
+                } else if (attrs.isSymbolicLink()) {
+                    LOG.info("symbolic link {} skipped", child);
+                } else {
+                    files.put(child, attrs.size());
+                }
+            }
+        }
+        return new Listing(directory, Collections.unmodifiableMap(files), directories);
+    }
+
+    /**
+     * Compares the paths name by name, so that the sub-directories of a directory immediately follow it.
+     */
+    static int compare(Path path1, Path path2) {
+        int count = Math.min(path1.getNameCount(), path2.getNameCount());
+        for (int i = 0; i < count; i++) {
+            int result = path1.getName(i).toString().compareTo(path2.getName(i).toString());
+            if (result != 0) {
+                return result;
+            }
+        }
+        return Integer.compare(path1.getNameCount(), path2.getNameCount());
+    }
+
+    private Path createListingFile() throws IOException {
+        return (tempDirectory == null) ? Files.createTempFile("jbackup-listing", ".tmp") :
+            Files.createTempFile(tempDirectory, "jbackup-listing", ".tmp");
+    }
+
+    private static void deleteQuietly(Path file) {
+        if (file != null) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                LOG.warn("Can't delete " + file, e);
+            }
+        }
+    }
+
+    private static boolean isCancelled(Cancellable cancellable) {
+        return (cancellable != null) && cancellable.isCancelled();
+    }
+
+    private void processEvents() {
+        try {
+            while (true) {
+                WatchKey key = getWatchService().take();
+                List<Path> newDirectories;
+                synchronized (this) {
+                    newDirectories = processEvents(key);
+                }
+                // the new directories are walked without blocking the backups reading the changes
+                for (Path directory : newDirectories) {
+                    try {
+                        register(directory, true);
+                    } catch (IOException e) {
+                        LOG.warn("Unable to watch " + directory, e);
+                        synchronized (this) {
+                            overflow();
+                        }
+                    }
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            LOG.debug("Stop watching {}", root);
+        }
+    }
+
+    private synchronized WatchService getWatchService() {
+        if (watchService == null) {
+            throw new ClosedWatchServiceException();
+        }
+        return watchService;
+    }
+
+    /**
+     * @return The directories created since the previous events.
+     */
+    private List<Path> processEvents(WatchKey key) {
+        Path directory = watchedDirectories.get(key);
+        if (directory == null) {
+            key.cancel();
+            return Collections.emptyList();
+        }
+
+        List<Path> newDirectories = new ArrayList<>();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                overflow();
+                continue;
+            }
+
+            directoryChanged(directory);
+            Path child = directory.resolve((Path) event.context());
+            if ((event.kind() == ENTRY_CREATE) && Files.isDirectory(child, NOFOLLOW_LINKS)) {
+                newDirectories.add(child);
+            }
+        }
+
+        if (!key.reset()) {
+            watchedDirectories.remove(key);
+        }
+        return newDirectories;
+    }
+
+    /**
+     * Watches a directory and its sub-directories. The lock is only held to register each directory.
+     */
+    private void register(Path directory, final boolean dirty) throws IOException {
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                synchronized (ChangeTracker.this) {
+                    WatchKey key = dir.register(getWatchService(), ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+                    watchedDirectories.put(key, dir);
+                    if (dirty) {
+                        directoryChanged(dir);
+                    }
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void overflow() {
+        LOG.warn("Some changes in {} have been lost, the next backup will read all files", root);
+        lastOverflowVersion = ++version;
+        fullWalkNeeded = true;
+    }
+
+    /**
+     * The content of a directory. In the listing file, the names of its files and sub-directories are written
+     * relatively to it.
+     */
+    private static final class Listing {
+        private final Path directory;
+        private final Map<Path, Long> files;
+        private final Set<Path> directories;
+
+        private Listing(Path directory, Map<Path, Long> files, Set<Path> directories) {
+            this.directory = directory;
+            this.files = files;
+            this.directories = directories;
+        }
+
+        private void write(DataOutputStream output) throws IOException {
+            output.writeBoolean(true);
+            writeString(output, directory.toString());
+            output.writeInt(directories.size());
+            for (Path subDirectory : directories) {
+                writeString(output, subDirectory.getFileName().toString());
+            }
+            output.writeInt(files.size());
+            for (Map.Entry<Path, Long> file : files.entrySet()) {
+                writeString(output, file.getKey().getFileName().toString());
+                output.writeLong(file.getValue());
+            }
+        }
+
+        private static void writeEnd(DataOutputStream output) throws IOException {
+            output.writeBoolean(false);
+        }
+
+        /**
+         * @return The next listing, or null at the end of the file.
+         */
+        private static Listing read(DataInputStream input, FileSystem fileSystem) throws IOException {
+            if (!input.readBoolean()) {
+                return null;
+            }
+
+            Path directory = fileSystem.getPath(readString(input));
+            Set<Path> directories = new HashSet<>();
+            for (int i = input.readInt(); i > 0; i--) {
+                directories.add(directory.resolve(readString(input)));
+            }
+            Map<Path, Long> files = new HashMap<>();
+            for (int i = input.readInt(); i > 0; i--) {
+                files.put(directory.resolve(readString(input)), input.readLong());
+            }
+            return new Listing(directory, Collections.unmodifiableMap(files), directories);
+        }
+
+        private static void writeString(DataOutputStream output, String value) throws IOException {
+            byte[] bytes = value.getBytes(UTF_8);
+            output.writeInt(bytes.length);
+            output.write(bytes);
+        }
+
+        private static String readString(DataInputStream input) throws IOException {
+            byte[] bytes = new byte[input.readInt()];
+            input.readFully(bytes);
+            return new String(bytes, UTF_8);
+        }
+    }
+
+    /**
+     * Reads sequentially the listing of the previous call to {@link #getFiles(Cancellable, BiConsumer)}.
+     */
+    private final class ListingReader implements Closeable {
+        private final DataInputStream input;
+        private Listing next;
+
+        private ListingReader(Path listingFile) throws IOException {
+            input = new DataInputStream(new BufferedInputStream(Files.newInputStream(listingFile)));
+            next = Listing.read(input, root.getFileSystem());
+        }
+
+        /**
+         * Finds the listing of a directory. The directories must be given in the order of the listing, since the
+         * previous ones are skipped.
+         *
+         * @return The listing of the directory, or null if it was not listed.
+         */
+        private Listing find(Path directory) throws IOException {
+            while ((next != null) && (compare(next.directory, directory) < 0)) {
+                next = Listing.read(input, root.getFileSystem());
+            }
+            if ((next == null) || !next.directory.equals(directory)) {
+                return null;
+            }
+
+            Listing listing = next;
+            next = Listing.read(input, root.getFileSystem());
+            return listing;
+        }
+
+        @Override
+        public void close() throws IOException {
+            input.close();
+        }
+    }
+
+    /**
+     * A snapshot of the changes in a source directory.
+     */
+    public static final class Changes {
+        private final Set<Path> dirtyDirectories;
+        private final boolean fullWalkNeeded;
+        private final long version;
+
+        Changes(Set<Path> dirtyDirectories, boolean fullWalkNeeded, long version) {
+            this.dirtyDirectories = Collections.unmodifiableSet(dirtyDirectories);
+            this.fullWalkNeeded = fullWalkNeeded;
+            this.version = version;
+        }
+
+        /**
+         * @return The directories whose content has changed (files and sub-directories added, modified or removed).
+         */
+        public Set<Path> getDirtyDirectories() {
+            return dirtyDirectories;
+        }
+
+        /**
+         * @return true if the changes are unknown and all the files must be read.
+         */
+        public boolean isFullWalkNeeded() {
+            return fullWalkNeeded;
+        }
+
+        @Override
+        public String toString() {
+            return "Changes{" +
+                   "dirtyDirectories=" + dirtyDirectories +
+                   ", fullWalkNeeded=" + fullWalkNeeded +
+                   ", version=" + version +
+                   '}';
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * JBackup is a software managing backups.
+ *
+ * Copyright (C) 2013-2017 Fabien DUMINY (fabien [dot] duminy [at] webmails [dot] com)
+ *
+ * JBackup is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * JBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ */
+package fr.duminy.jbackup.core.archive;
+
+import fr.duminy.jbackup.core.BackupConfiguration;
+import fr.duminy.jbackup.core.ConfigurationListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+import static org.apache.commons.io.IOUtils.closeQuietly;
+
+/**
+ * The {@link ChangeTracker}s of the source directories, started when first needed and shared by all the
+ * configurations : the files of a directory don't depend on the configuration, which only filters them.
+ * <br>
+ * As a {@link ConfigurationListener}, the trackers of the sources of a removed configuration, or of the sources an
+ * updated configuration doesn't track anymore, are closed. If another configuration has the same source, its next
+ * backup starts a new tracker.
+ */
+public class ChangeTrackers implements Closeable, ConfigurationListener {
+    private static final Logger LOG = LoggerFactory.getLogger(ChangeTrackers.class);
+
+    private final Map<Path, ChangeTracker> trackers = new HashMap<>();
+    private boolean closed;
+
+    /**
+     * @return The started tracker of the given directory, or null if it can't be watched (for example when the limit
+     * of watched directories of the system is reached). In that case, the next call tries again to start it.
+     */
+    public synchronized ChangeTracker get(Path directory) {
+        if (closed) {
+            return null;
+        }
+
+        ChangeTracker tracker = trackers.get(directory);
+        if (tracker == null) {
+            tracker = new ChangeTracker(directory);
+            try {
+                tracker.start();
+            } catch (IOException e) {
+                LOG.warn("Can't watch " + directory + ", its files will be read by the backup", e);
+                closeQuietly(tracker);
+                return null;
+            }
+            trackers.put(directory, tracker);
+        }
+        return tracker;
+    }
+
+    @Override
+    public void configurationAdded(int index, BackupConfiguration config) {
+    }
+
+    @Override
+    public void configurationUpdated(int index, BackupConfiguration oldConfig, BackupConfiguration newConfig) {
+        Set<Path> directories = getTrackedDirectories(oldConfig);
+        directories.removeAll(getTrackedDirectories(newConfig));
+        remove(directories);
+    }
+
+    @Override
+    public void configurationRemoved(int index, BackupConfiguration config) {
+        remove(getTrackedDirectories(config));
+    }
+
+    @Override
+    public void close() throws IOException {
+        List<ChangeTracker> started;
+        synchronized (this) {
+            closed = true;
+            started = new ArrayList<>(trackers.values());
+            trackers.clear();
+        }
+        for (ChangeTracker tracker : started) {
+            tracker.close();
+        }
+    }
+
+    /**
+     * Closes the trackers of the given directories. A backup still using one of them reads all its files.
+     */
+    private void remove(Collection<Path> directories) {
+        List<ChangeTracker> removed = new ArrayList<>();
+        synchronized (this) {
+            for (Path directory : directories) {
+                ChangeTracker tracker = trackers.remove(directory);
+                if (tracker != null) {
+                    removed.add(tracker);
+                }
+            }
+        }
+        for (ChangeTracker tracker : removed) {
+            LOG.info("Stop tracking the changes of {}", tracker.getRoot());
+            closeQuietly(tracker);
+        }
+    }
+
+    private static Set<Path> getTrackedDirectories(BackupConfiguration config) {
+        Set<Path> directories = new HashSet<>();
+        if (config.isTrackChanges() && (config.getSources() != null)) {
+            for (BackupConfiguration.Source source : config.getSources()) {
+                if (source.getPath() != null) {
+                    directories.add(Paths.get(source.getPath()));
+                }
+            }
+        }
+        return directories;
+    }
+}
@@ -0,0 +1,216 @@
+/**
+ * JBackup is a software managing backups.
+ *
+ * Copyright (C) 2013-2017 Fabien DUMINY (fabien [dot] duminy [at] webmails [dot] com)
+ *
+ * JBackup is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * JBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ */
+package fr.duminy.jbackup.core.archive;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * A consistent point of an archive being created : its first entries are completely written in a partial archive.
+ * <br>
+ * While an archive is created, its content is written to {@link #getPartialArchive() a partial archive}, which is
+ * renamed to the final archive when complete. If the creation is interrupted, the partial archive and the checkpoint
+ * file are kept beside the final archive, and a later backup can copy the completed entries instead of reading again
+ * the source files.
+ * <br>
+ * A checkpoint has the {@link #getFingerprint() fingerprint} of the parameters of its archive : it can only be resumed
+ * by a backup with the same parameters.
+ */
+public final class Checkpoint {
+    private static final Logger LOG = LoggerFactory.getLogger(Checkpoint.class);
+
+    /**
+     * Extension added to the name of an archive to get the name of its checkpoint file.
+     */
+    public static final String EXTENSION = ".checkpoint";
+
+    /**
+     * Extension added to the name of an archive to get the name of its partial archive.
+     */
+    public static final String PARTIAL_EXTENSION = ".partial";
+
+    private static final String ENTRIES = "entries";
+    private static final String OFFSET = "offset";
+    private static final String FINGERPRINT = "fingerprint";
+
+    private final Path archive;
+    private final int entries;
+    private final long offset;
+    private final String fingerprint;
+
+    /**
+     * @param archive The final archive.
+     * @param entries The number of entries completely written in the partial archive.
+     * @param offset  The size of the partial archive after the last completed entry.
+     */
+    public Checkpoint(Path archive, int entries, long offset) {
+        this(archive, entries, offset, null);
+    }
+
+    /**
+     * @param fingerprint The fingerprint of the parameters of the archive, or null if it's unknown.
+     */
+    public Checkpoint(Path archive, int entries, long offset, String fingerprint) {
+        this.archive = archive;
+        this.entries = entries;
+        this.offset = offset;
+        this.fingerprint = fingerprint;
+    }
+
+    public Path getArchive() {
+        return archive;
+    }
+
+    public Path getPartialArchive() {
+        return getPartialArchive(archive);
+    }
+
+    public Path getFile() {
+        return archive.resolveSibling(archive.getFileName() + EXTENSION);
+    }
+
+    public int getEntries() {
+        return entries;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return The fingerprint of the parameters of the archive, or null if it's unknown (the checkpoint was saved by a
+     * previous version).
+     */
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * @return true if the partial archive still contains the completed entries.
+     */
+    public boolean isValid() {
+        try {
+            return Files.isRegularFile(getPartialArchive()) && (Files.size(getPartialArchive()) >= offset);
+        } catch (IOException e) {
+            LOG.warn("Can't check partial archive " + getPartialArchive(), e);
+            return false;
+        }
+    }
+
+    /**
+     * Atomically writes the checkpoint file, so that a crash can't leave a corrupted checkpoint.
+     */
+    public void save() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(ENTRIES, Integer.toString(entries));
+        properties.setProperty(OFFSET, Long.toString(offset));
+        if (fingerprint != null) {
+            properties.setProperty(FINGERPRINT, fingerprint);
+        }
+
+        Path file = getFile();
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream output = Files.newOutputStream(tempFile)) {
+            properties.store(output, "JBackup checkpoint of " + archive.getFileName());
+        }
+        Files.move(tempFile, file, ATOMIC_MOVE, REPLACE_EXISTING);
+    }
+
+    /**
+     * Deletes the checkpoint file and the partial archive.
+     */
+    public void delete() throws IOException {
+        Files.deleteIfExists(getFile());
+        Files.deleteIfExists(getPartialArchive());
+    }
+
+    /**
+     * Finds the latest checkpoint of archives whose name starts with the given prefix.
+     *
+     * @param directory     The directory containing the archives.
+     * @param archivePrefix The prefix of the archive names.
+     * @param extension     The extension of the archives, without the dot.
+     * @return The latest checkpoint, or null if there is none.
+     */
+    public static Checkpoint findLatest(Path directory, String archivePrefix, String extension) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return null;
+        }
+
+        Pattern pattern = Pattern.compile(Pattern.quote(archivePrefix) + "[0-9_]+\\." + Pattern.quote(extension) +
+                                          Pattern.quote(EXTENSION));
+        Path latest = null;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                if (pattern.matcher(file.getFileName().toString()).matches() &&
+                    ((latest == null) || (file.getFileName().compareTo(latest.getFileName()) > 0))) {
+                    latest = file;
+                }
+            }
+        }
+        return (latest == null) ? null : load(latest);
+    }
+
+    static Checkpoint load(Path file) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream input = Files.newInputStream(file)) {
+            properties.load(input);
+        }
+
+        String fileName = file.getFileName().toString();
+        Path archive = file.resolveSibling(fileName.substring(0, fileName.length() - EXTENSION.length()));
+        try {
+            return new Checkpoint(archive, Integer.parseInt(properties.getProperty(ENTRIES)),
+                                  Long.parseLong(properties.getProperty(OFFSET)), properties.getProperty(FINGERPRINT));
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid checkpoint file " + file, e);
+        }
+    }
+
+    /**
+     * @return The temporary file where the given archive is written until it's complete.
+     */
+    public static Path getPartialArchive(Path archive) {
+        return archive.resolveSibling(archive.getFileName() + PARTIAL_EXTENSION);
+    }
+
+    @Override
+    public String toString() {
+        return "Checkpoint{" +
+                "archive=" + archive +
+                ", entries=" + entries +
+                ", offset=" + offset +
+                ", fingerprint=" + fingerprint +
+                '}';
+    }
+}
@@ -0,0 +1,191 @@
+/**
+ * JBackup is a software managing backups.
+ *
+ * Copyright (C) 2013-2017 Fabien DUMINY (fabien [dot] duminy [at] webmails [dot] com)
+ *
+ * JBackup is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * JBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ */
+package fr.duminy.jbackup.core.archive;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * The files collected by a {@link FileCollector}, in collection order.
+ * <br>
+ * Files are kept in memory until a given number of files is reached. Beyond that limit, they are appended to a
+ * temporary file, which is read sequentially by the iterators. That way, the heap usage doesn't depend on the size of
+ * the backup.
+ * <br>
+ * This collection must be closed to delete the temporary file.
+ */
+public class CollectedFiles extends AbstractCollection<SourceWithPath> implements Closeable {
+    public static final int DEFAULT_MAX_FILES_IN_MEMORY = 100000;
+
+    private final int maxFilesInMemory;
+    private final Path tempDirectory;
+
+    private final List<SourceWithPath> filesInMemory = new ArrayList<>();
+    private final Map<Path, Integer> sourceIndexes = new HashMap<>();
+    private final List<Path> sources = new ArrayList<>();
+    private final List<Closeable> openReaders = new ArrayList<>();
+    private int size;
+    private Path spillFile;
+    private DataOutputStream spillOutput;
+
+    public CollectedFiles() {
+        this(DEFAULT_MAX_FILES_IN_MEMORY, null);
+    }
+
+    /**
+     * @param maxFilesInMemory The maximum number of files kept in memory.
+     * @param tempDirectory    The directory where the temporary file is created. If null, the default temporary-file
+     *                         directory is used.
+     */
+    public CollectedFiles(int maxFilesInMemory, Path tempDirectory) {
+        if (maxFilesInMemory < 0) {
+            throw new IllegalArgumentException("maxFilesInMemory must be positive or zero");
+        }
+        this.maxFilesInMemory = maxFilesInMemory;
+        this.tempDirectory = tempDirectory;
+    }
+
+    @Override
+    public boolean add(SourceWithPath file) {
+        try {
+            if ((spillOutput == null) && (filesInMemory.size() >= maxFilesInMemory)) {
+                spill();
+            }
+
+            if (spillOutput == null) {
+                filesInMemory.add(file);
+            } else {
+                write(file);
+            }
+            size++;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return true;
+    }
+
+    @Override
+    public Iterator<SourceWithPath> iterator() {
+        if (spillOutput == null) {
+            return Collections.unmodifiableList(filesInMemory).iterator();
+        }
+
+        try {
+            spillOutput.flush();
+            return new SpillFileIterator(size);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    boolean isSpilled() {
+        return spillFile != null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Closeable reader : openReaders) {
+            IOUtils.closeQuietly(reader);
+        }
+        openReaders.clear();
+        filesInMemory.clear();
+        size = 0;
+
+        if (spillOutput != null) {
+            IOUtils.closeQuietly(spillOutput);
+            spillOutput = null;
+        }
+        if (spillFile != null) {
+            Files.deleteIfExists(spillFile);
+            spillFile = null;
+        }
+    }
+
+    private void spill() throws IOException {
+        spillFile = (tempDirectory == null) ? Files.createTempFile("jbackup-files", ".tmp") :
+            Files.createTempFile(tempDirectory, "jbackup-files", ".tmp");
+        spillOutput = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(spillFile)));
+        for (SourceWithPath file : filesInMemory) {
+            write(file);
+        }
+        filesInMemory.clear();
+    }
+
+    private void write(SourceWithPath file) throws IOException {
+        Integer sourceIndex = sourceIndexes.get(file.getSource());
+        if (sourceIndex == null) {
+            sourceIndex = sources.size();
+            sources.add(file.getSource());
+            sourceIndexes.put(file.getSource(), sourceIndex);
+        }
+
+        byte[] relativePath = file.getRelativePathBytes();
+        spillOutput.writeInt(sourceIndex);
+        spillOutput.writeInt(relativePath.length);
+        spillOutput.write(relativePath);
+    }
+
+    private class SpillFileIterator implements Iterator<SourceWithPath> {
+        private final DataInputStream input;
+        private int remaining;
+
+        private SpillFileIterator(int size) throws IOException {
+            this.input = new DataInputStream(new BufferedInputStream(Files.newInputStream(spillFile)));
+            this.remaining = size;
+            openReaders.add(input);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return remaining > 0;
+        }
+
+        @Override
+        public SourceWithPath next() {
+            if (remaining <= 0) {
+                throw new NoSuchElementException();
+            }
+
+            try {
+                Path source = sources.get(input.readInt());
+                byte[] relativePath = new byte[input.readInt()];
+                input.readFully(relativePath);
+                remaining--;
+                if (remaining == 0) {
+                    openReaders.remove(input);
+                    input.close();
+                }
+                return new SourceWithPath(source, relativePath);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -22,17 +22,37 @@ package fr.duminy.jbackup.core.archive;
 
 import fr.duminy.jbackup.core.Cancellable;
 import fr.duminy.jbackup.core.task.TaskListener;
+import fr.duminy.jbackup.core.util.BandwidthLimiter;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.CloseShieldOutputStream;
 import org.apache.commons.lang3.mutable.MutableLong;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
-import java.util.List;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import static fr.duminy.jbackup.core.archive.NotifyingInputStream.createCountingInputStream;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.*;
 
 /**
  * A high level class that can compress files in a format managed by the provided {@link fr.duminy.jbackup.core.archive.ArchiveFactory}.
@@ -40,32 +60,409 @@ import static fr.duminy.jbackup.core.archive.NotifyingInputStream.createCounting
 public class Compressor {
     private static final Logger LOG = LoggerFactory.getLogger(Compressor.class);
 
+    /**
+     * Minimum time between 2 checkpoints of a resumable archive, in milliseconds.
+     */
+    public static final long DEFAULT_CHECKPOINT_PERIOD = TimeUnit.SECONDS.toMillis(10);
+
+    /**
+     * The unix attributes read once per archived file.
+     */
+    private static final String FILE_ATTRIBUTES = FileMetadata.UNIX_ATTRIBUTES + ',' + HardLinkDetector.UNIX_ATTRIBUTES;
+
     private final ArchiveFactory factory;
+    private final long checkpointPeriod;
 
     public Compressor(ArchiveFactory factory) {
+        this(factory, DEFAULT_CHECKPOINT_PERIOD);
+    }
+
+    Compressor(ArchiveFactory factory, long checkpointPeriod) {
         this.factory = factory;
+        this.checkpointPeriod = checkpointPeriod;
     }
 
-    public void compress(ArchiveParameters archiveParameters, List<SourceWithPath> files, final TaskListener listener, Cancellable cancellable) throws ArchiveException {
-        final String name = archiveParameters.getArchive().toString();
+    public void compress(ArchiveParameters archiveParameters, Collection<SourceWithPath> files, final TaskListener listener, Cancellable cancellable) throws ArchiveException {
+        final String name = String.valueOf(archiveParameters.getArchive());
         final MutableLong processedSize = new MutableLong();
+        final HardLinkDetector hardLinkDetector = new HardLinkDetector();
+        // the directories of the previous file, which are already collected
+        final Set<Path> lastDirectories = new HashSet<>();
+        final BandwidthLimiter limiter = archiveParameters.getBandwidthLimiter();
+        final Path archive = archiveParameters.getArchive();
+        final boolean streamed = archiveParameters.getOutputStream() != null;
+        final boolean split = !streamed && (archiveParameters.getVolumeSize() > 0);
+        final boolean resumable = archiveParameters.isResumable() && !split && !streamed;
+        if (archiveParameters.isResumable() && (split || streamed)) {
+            LOG.warn("Backup '{}': a split or streamed archive can't be resumed", name);
+        }
+        final Durability durability = archiveParameters.getDurability();
+        // the archive is written under a temporary name, and renamed only when complete
+        final Path outputPath = streamed ? null : Checkpoint.getPartialArchive(archive);
+        final String fingerprint = streamed ? null : fingerprint(archiveParameters);
 
-        try (OutputStream fos = Files.newOutputStream(archiveParameters.getArchive());
-             ArchiveOutputStream output = factory.create(fos)) {
-            LOG.info("Backup '{}': creating archive {}", name, archiveParameters.getArchive());
-            for (final SourceWithPath file : files) {
-                if ((cancellable != null) && cancellable.isCancelled()) {
-                    break;
+        final VolumeOutputStream volumes = split ?
+            new VolumeOutputStream(archive, archiveParameters.getVolumeSize(), durability) : null;
+
+        Checkpoint checkpoint = null;
+        boolean cancelled = false;
+        boolean complete = false;
+        try {
+            try (CollectedFiles directories = new CollectedFiles();
+                 FileChannel channel = (split || streamed) ? null : FileChannel.open(outputPath, CREATE, TRUNCATE_EXISTING, WRITE);
+                 OutputStream fos = createOutputStream(archiveParameters, channel, volumes);
+                 ArchiveOutputStream output = factory.create(fos)) {
+                LOG.info("Backup '{}': creating archive {}", name, streamed ? "in a stream" : archive);
+                Set<String> resumedEntries = streamed ? new HashSet<>() :
+                    resume(archiveParameters, files, output, listener, processedSize, fingerprint);
+                int entries = resumedEntries.size();
+                long lastCheckpointTime = System.currentTimeMillis();
+                long lastSyncTime = lastCheckpointTime;
+                int changedFiles = 0;
+                for (final SourceWithPath file : files) {
+                    if ((cancellable != null) && cancellable.isCancelled()) {
+                        cancelled = true;
+                        break;
+                    }
+
+                    final String path = getEntryName(archiveParameters, file);
+                    addDirectories(directories, lastDirectories, file, path);
+                    // the attributes are read once for the link detection and the metadata
+                    Map<String, Object> attributes = FileMetadata.readUnixAttributes(file.getPath(), FILE_ATTRIBUTES);
+                    String linkTarget = hardLinkDetector.getLinkTarget(attributes, path);
+                    if (resumedEntries.contains(path)) {
+                        continue;
+                    }
+                    if ((linkTarget != null) && output.addLink(path, linkTarget)) {
+                        LOG.debug("Backup '{}': {} stored as a link to {}", new Object[]{name, path, linkTarget});
+                        // the size of the link is part of the total size
+                        processedSize.add((Long) attributes.get("size"));
+                        if (listener != null) {
+                            listener.progress(processedSize.longValue());
+                        }
+                    } else {
+                        FileMetadata metadata = FileMetadata.read(file.getPath(), attributes);
+                        try (InputStream input = createCountingInputStream(listener, processedSize, limit(limiter, Files.newInputStream(file.getPath())))) {
+                            output.addEntry(path, input, metadata);
+                        }
+                        if (hasChanged(file.getPath(), metadata)) {
+                            LOG.warn("Backup '{}': {} has changed while it was read", name, path);
+                            changedFiles++;
+                        }
+                    }
+                    entries++;
+
+                    if (resumable && ((System.currentTimeMillis() - lastCheckpointTime) >= checkpointPeriod)) {
+                        checkpoint = saveCheckpoint(archive, entries, output, channel, fingerprint);
+                        lastCheckpointTime = System.currentTimeMillis();
+                        lastSyncTime = lastCheckpointTime;
+                    } else if ((durability == Durability.PERIODIC) && !streamed &&
+                               ((System.currentTimeMillis() - lastSyncTime) >= Durability.SYNC_PERIOD)) {
+                        output.flush();
+                        if (split) {
+                            volumes.sync();
+                        } else {
+                            channel.force(false);
+                        }
+                        lastSyncTime = System.currentTimeMillis();
+                    }
                 }
 
-                try (InputStream input = createCountingInputStream(listener, processedSize, Files.newInputStream(file.getPath()))) {
-                    final String path = archiveParameters.isRelativeEntries() ? file.getRelativePath() : file.getAbsolutePath();
-                    output.addEntry(path, input);
+                if (!cancelled) {
+                    addDirectories(output, archiveParameters, directories);
+                }
+                if (changedFiles > 0) {
+                    LOG.warn("Backup '{}': {} files have changed while they were read, the archive may be inconsistent",
+                             name, changedFiles);
+                }
+                if (resumable && cancelled) {
+                    checkpoint = saveCheckpoint(archive, entries, output, channel, fingerprint);
                 }
             }
-            LOG.info("Backup '{}': archive {} created ({})", new Object[]{name, archiveParameters.getArchive(), FileUtils.byteCountToDisplaySize(Files.size(archiveParameters.getArchive()))});
+            // only complete once the archive has been successfully closed
+            complete = !cancelled;
         } catch (Exception e) {
             throw new ArchiveException(e);
+        } finally {
+            if (split && !complete) {
+                deleteQuietly(volumes);
+            }
+            if (!streamed) {
+                endArchive(archiveParameters, resumable ? checkpoint : null, complete);
+            }
+        }
+
+        try {
+            if (!streamed && Files.exists(archive)) {
+                LOG.info("Backup '{}': archive {} created ({})", new Object[]{name, archive, FileUtils.byteCountToDisplaySize(Volumes.getSize(archive))});
+            }
+        } catch (IOException e) {
+            throw new ArchiveException(e);
+        }
+    }
+
+    /**
+     * Deletes the volumes of an incomplete split archive, except the first one which is deleted with the partial
+     * archive.
+     */
+    private static void deleteQuietly(VolumeOutputStream volumes) {
+        try {
+            volumes.deleteSecondaryFiles();
+        } catch (IOException e) {
+            LOG.warn("Can't delete volumes of incomplete archive", e);
+        }
+    }
+
+    /**
+     * @return The stream where the archive is written : the given stream, the volumes of a split archive or the
+     * channel of the partial archive.
+     */
+    private static OutputStream createOutputStream(ArchiveParameters archiveParameters, FileChannel channel,
+                                                   VolumeOutputStream volumes) throws IOException {
+        if (archiveParameters.getOutputStream() != null) {
+            // the archive format needs to close its stream to write its end, but the given stream belongs to the caller
+            return new CloseShieldOutputStream(archiveParameters.getOutputStream());
+        } else if (volumes != null) {
+            return volumes;
+        } else {
+            return Channels.newOutputStream(channel);
+        }
+    }
+
+    private static String getEntryName(ArchiveParameters archiveParameters, SourceWithPath file) {
+        if (archiveParameters.isRelativeEntries()) {
+            return file.getRelativePath();
+        }
+
+        Path snapshotDirectory = archiveParameters.getSnapshotDirectory();
+        if ((snapshotDirectory != null) && file.getPath().startsWith(snapshotDirectory)) {
+            // the name of the file in the live filesystem
+            Path root = snapshotDirectory.toAbsolutePath().getRoot();
+            return root.resolve(snapshotDirectory.relativize(file.getPath())).toString();
+        }
+        return file.getAbsolutePath();
+    }
+
+    /**
+     * Remembers the directories of a file, up to its source.
+     * <br>
+     * The files are collected by walking the tree, so a directory already collected is one of the directories of the
+     * previous file : only those are kept in memory, the collected directories can be spilled to disk like the files.
+     */
+    private static void addDirectories(CollectedFiles directories, Set<Path> lastDirectories, SourceWithPath file,
+                                       String entryName) {
+        Set<Path> fileDirectories = new HashSet<>();
+        Path directory = file.getPath().getParent();
+        Path directoryEntry = file.getPath().getFileSystem().getPath(entryName).getParent();
+        while ((directory != null) && (directoryEntry != null) && directory.startsWith(file.getSource())) {
+            if (!lastDirectories.contains(directory)) {
+                directories.add(new SourceWithPath(file.getSource(), directory));
+            }
+            fileDirectories.add(directory);
+            directory = directory.getParent();
+            directoryEntry = directoryEntry.getParent();
         }
+        lastDirectories.clear();
+        lastDirectories.addAll(fileDirectories);
+    }
+
+    /**
+     * Adds the entries of the directories, after all the files so that their modification times can be restored.
+     */
+    private static void addDirectories(ArchiveOutputStream output, ArchiveParameters archiveParameters,
+                                       CollectedFiles directories) throws IOException {
+        for (SourceWithPath directory : directories) {
+            FileMetadata metadata;
+            try {
+                metadata = FileMetadata.read(directory.getPath());
+            } catch (NoSuchFileException e) {
+                continue;
+            }
+            if (!output.addDirectory(getEntryName(archiveParameters, directory), metadata)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return true if the size or the modification time of the file are not the given ones. The attributes are read
+     * again, since they are compared to the ones read before the content of the file.
+     */
+    private static boolean hasChanged(Path file, FileMetadata before) throws IOException {
+        BasicFileAttributes after;
+        try {
+            after = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return true;
+        }
+        return (after.size() != before.getSize()) || (after.lastModifiedTime().toMillis() != before.getLastModifiedTime());
+    }
+
+    /**
+     * Copies the completed entries of the interrupted archive to resume, if their files are still collected and have
+     * the same size and modification time. The other files are read again.
+     * @return The names of the copied entries.
+     */
+    private Set<String> resume(ArchiveParameters archiveParameters, Collection<SourceWithPath> files,
+                               ArchiveOutputStream output, TaskListener listener, MutableLong processedSize,
+                               String fingerprint) throws IOException, ArchiveException {
+        Checkpoint resumeFrom = archiveParameters.getResumeFrom();
+        if (resumeFrom == null) {
+            return new HashSet<>();
+        }
+        if (!resumeFrom.isValid() || resumeFrom.getArchive().equals(archiveParameters.getArchive())) {
+            LOG.warn("Backup '{}': can't resume from {}", archiveParameters.getArchive(), resumeFrom);
+            return new HashSet<>();
+        }
+        if (!fingerprint.equals(resumeFrom.getFingerprint())) {
+            LOG.warn("Backup '{}': can't resume from {}, its parameters are not the same", archiveParameters.getArchive(),
+                     resumeFrom);
+            return new HashSet<>();
+        }
+
+        Set<String> entries = findUnchangedEntries(archiveParameters, files, resumeFrom);
+        LOG.info("Backup '{}': resuming {} entries from {}", new Object[]{archiveParameters.getArchive(), entries.size(),
+                                                                          resumeFrom});
+        try (InputStream archiveStream = Files.newInputStream(resumeFrom.getPartialArchive());
+             ArchiveInputStream input = factory.create(archiveStream)) {
+            for (int i = 0; i < resumeFrom.getEntries(); i++) {
+                ArchiveInputStream.Entry entry = input.getNextEntry();
+                if (entry == null) {
+                    break;
+                }
+
+                try {
+                    if (entries.contains(entry.getName()) &&
+                        ((entry.getLinkTarget() == null) || !output.addLink(entry.getName(), entry.getLinkTarget()))) {
+                        output.addEntry(entry.getName(), createCountingInputStream(listener, processedSize, entry.getInput()),
+                                        entry.getMetadata());
+                    }
+                } finally {
+                    entry.close();
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * @return The names of the completed entries of the checkpoint whose files are still collected and unchanged.
+     * A link is kept if its file is unchanged since its target was archived, and if its target is kept.
+     */
+    private Set<String> findUnchangedEntries(ArchiveParameters archiveParameters, Collection<SourceWithPath> files,
+                                             Checkpoint resumeFrom) throws IOException, ArchiveException {
+        Map<String, FileMetadata> archivedFiles = new HashMap<>();
+        Map<String, String> linkTargets = new HashMap<>();
+        try (InputStream archiveStream = Files.newInputStream(resumeFrom.getPartialArchive());
+             ArchiveInputStream input = factory.create(archiveStream)) {
+            for (int i = 0; i < resumeFrom.getEntries(); i++) {
+                ArchiveInputStream.Entry entry = input.getNextEntry();
+                if (entry == null) {
+                    break;
+                }
+
+                try {
+                    if (entry.getLinkTarget() != null) {
+                        linkTargets.put(entry.getName(), entry.getLinkTarget());
+                    } else if (entry.getMetadata() != null) {
+                        archivedFiles.put(entry.getName(), entry.getMetadata().withoutExtendedAttributes());
+                    }
+                } finally {
+                    entry.close();
+                }
+            }
+        }
+
+        Set<String> unchanged = new HashSet<>();
+        Set<String> unchangedLinks = new HashSet<>();
+        for (SourceWithPath file : files) {
+            String name = getEntryName(archiveParameters, file);
+            String linkTarget = linkTargets.get(name);
+            FileMetadata archived = archivedFiles.get((linkTarget == null) ? name : linkTarget);
+            if ((archived == null) || hasChanged(file.getPath(), archived)) {
+                continue;
+            }
+            if (linkTarget == null) {
+                unchanged.add(name);
+            } else {
+                unchangedLinks.add(name);
+            }
+        }
+        for (String link : unchangedLinks) {
+            if (unchanged.contains(linkTargets.get(link))) {
+                unchanged.add(link);
+            }
+        }
+        return unchanged;
+    }
+
+    /**
+     * @return A fingerprint of the parameters defining the entries of the archive. The filters are not part of it,
+     * since the files they exclude are not resumed anyway : only the collected files are. Neither is the format, which
+     * is given by the extension of the checkpoint.
+     */
+    private static String fingerprint(ArchiveParameters archiveParameters) {
+        StringBuilder parameters = new StringBuilder().append(archiveParameters.isRelativeEntries())
+                                                      .append('\n').append(archiveParameters.getSnapshotDirectory());
+        for (ArchiveParameters.Source source : archiveParameters.getSources()) {
+            parameters.append('\n').append(source.getPath().toAbsolutePath());
+        }
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(parameters.toString().getBytes(UTF_8));
+            return String.format("%064x", new BigInteger(1, digest));
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform supports SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Checkpoint saveCheckpoint(Path archive, int entries, ArchiveOutputStream output, FileChannel channel,
+                                             String fingerprint) throws IOException {
+        output.flush();
+        channel.force(false);
+        Checkpoint checkpoint = new Checkpoint(archive, entries, channel.position(), fingerprint);
+        checkpoint.save();
+        LOG.debug("Backup '{}': {}", archive, checkpoint);
+        return checkpoint;
+    }
+
+    /**
+     * Commits the partial archive if it's complete. Otherwise, only keeps it if it has a checkpoint.
+     */
+    private static void endArchive(ArchiveParameters archiveParameters, Checkpoint checkpoint,
+                                   boolean complete) throws ArchiveException {
+        Path archive = archiveParameters.getArchive();
+        Path partialArchive = Checkpoint.getPartialArchive(archive);
+        try {
+            if (complete) {
+                commit(partialArchive, archive, archiveParameters.getDurability());
+                if (archiveParameters.isResumable()) {
+                    Files.deleteIfExists(new Checkpoint(archive, 0, 0).getFile());
+                }
+                if (archiveParameters.getResumeFrom() != null) {
+                    archiveParameters.getResumeFrom().delete();
+                }
+            } else if (checkpoint == null) {
+                Files.deleteIfExists(partialArchive);
+            } else {
+                LOG.info("Backup '{}': can be resumed from {}", archive, checkpoint);
+            }
+        } catch (IOException e) {
+            throw new ArchiveException(e);
+        }
+    }
+
+    /**
+     * Atomically renames a complete file to its final name, after it has been synced to the disk if the durability
+     * level requires it.
+     */
+    static void commit(Path file, Path target, Durability durability) throws IOException {
+        durability.sync(file);
+        Files.move(file, target, ATOMIC_MOVE, REPLACE_EXISTING);
+        durability.syncDirectory(target.toAbsolutePath().getParent());
+    }
+
+    private static InputStream limit(BandwidthLimiter limiter, InputStream input) {
+        return (limiter == null) ? input : limiter.limit(input);
     }
 }
@@ -21,11 +21,17 @@
 package fr.duminy.jbackup.core.archive;
 
 import fr.duminy.jbackup.core.Cancellable;
+import fr.duminy.jbackup.core.archive.RestoredFiles.RestoredFile;
 import fr.duminy.jbackup.core.task.TaskListener;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CloseShieldInputStream;
 import org.apache.commons.lang3.mutable.MutableLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 
@@ -35,55 +41,250 @@ import static fr.duminy.jbackup.core.archive.NotifyingInputStream.createCounting
  * A high level class that can decompress files in a format managed by the provided {@link fr.duminy.jbackup.core.archive.ArchiveFactory}.
  */
 public class Decompressor {
+    private static final Logger LOG = LoggerFactory.getLogger(Decompressor.class);
 
     private final ArchiveFactory factory;
+    private final int maxFilesInMemory;
 
     public Decompressor(ArchiveFactory factory) {
+        this(factory, CollectedFiles.DEFAULT_MAX_FILES_IN_MEMORY);
+    }
+
+    /**
+     * @param maxFilesInMemory The maximum number of restored files, and of restored directories, kept in memory until
+     *                         their metadata are applied.
+     */
+    Decompressor(ArchiveFactory factory, int maxFilesInMemory) {
         this.factory = factory;
+        this.maxFilesInMemory = maxFilesInMemory;
     }
 
     public void decompress(Path archive, Path targetDirectory, TaskListener listener, Cancellable cancellable) throws ArchiveException {
         if (listener != null) {
             try {
-                listener.totalSizeComputed(Files.size(archive));
+                listener.totalSizeComputed(Volumes.getSize(archive));
             } catch (IOException ioe) {
                 throw new ArchiveException(ioe);
             }
         }
 
+        checkTargetDirectory(targetDirectory);
+        readEntries(archive, cancellable, createDecompressingReader(targetDirectory, listener));
+    }
+
+    /**
+     * Decompresses an archive read sequentially from a stream, like the standard input or a pipe. The stream is not
+     * closed. Since the size of the archive is unknown, the total size is not notified to the listener.
+     */
+    public void decompress(InputStream archive, Path targetDirectory, TaskListener listener, Cancellable cancellable)
+        throws ArchiveException {
+        checkTargetDirectory(targetDirectory);
+        readEntries(new CloseShieldInputStream(archive), cancellable, createDecompressingReader(targetDirectory, listener));
+    }
+
+    private static void checkTargetDirectory(Path targetDirectory) {
         if ((targetDirectory == null) || !Files.exists(targetDirectory)) {
             throw new IllegalArgumentException(String.format("The target directory '%s' doesn't exist.", targetDirectory));
         }
+    }
+
+    private EntryReader createDecompressingReader(Path targetDirectory, TaskListener listener) {
+        MutableLong processedSize = new MutableLong();
+        RestoredFiles restoredFiles = new RestoredFiles(maxFilesInMemory, null);
+        RestoredFiles restoredDirectories = new RestoredFiles(maxFilesInMemory, null);
+        return new EntryReader() {
+            @Override
+            public void read(ArchiveInputStream.Entry entry) throws IOException {
+                decompressEntry(targetDirectory, listener, processedSize, entry,
+                                entry.isDirectory() ? restoredDirectories : restoredFiles);
+            }
+
+            @Override
+            public void end() {
+                try {
+                    MetadataRestorer restorer = new MetadataRestorer();
+                    for (RestoredFile restoredFile : restoredFiles) {
+                        restorer.restore(restoredFile);
+                    }
+                    restoreDirectories(restorer, restoredDirectories);
+                } finally {
+                    close();
+                }
+            }
+
+            @Override
+            public void close() {
+                IOUtils.closeQuietly(restoredFiles);
+                IOUtils.closeQuietly(restoredDirectories);
+            }
+        };
+    }
+
+    /**
+     * Applies the metadata of the directories, the deepest first : once the permissions of a directory are restored,
+     * it may not be searchable anymore, and its subdirectories not reachable.
+     * <br>
+     * Instead of being sorted, the directories are read once per depth, since they may be spilled to disk.
+     */
+    private static void restoreDirectories(MetadataRestorer restorer, RestoredFiles restoredDirectories) {
+        int maxDepth = 0;
+        for (RestoredFile directory : restoredDirectories) {
+            maxDepth = Math.max(maxDepth, directory.file.getNameCount());
+        }
+        for (int depth = maxDepth; depth > 0; depth--) {
+            for (RestoredFile directory : restoredDirectories) {
+                if (directory.file.getNameCount() == depth) {
+                    restorer.restore(directory);
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies the metadata of the restored files, once all the files are written : that way, a read only file can still
+     * be the target of a hard link and the modification times are not altered by a later write. The directories are
+     * the last ones, since writing their files changes their modification times.
+     * <br>
+     * The owners are applied first since changing them may reset some permissions. If the owner of a file can't be
+     * changed, which is the case when not running as root, the owners of the next files are not applied.
+     */
+    private static class MetadataRestorer {
+        private boolean restoreOwners = true;
+
+        private void restore(RestoredFile restoredFile) {
+            boolean ownerApplied = false;
+            if (restoreOwners) {
+                try {
+                    restoredFile.metadata.applyOwner(restoredFile.file);
+                    ownerApplied = true;
+                } catch (IOException | UnsupportedOperationException e) {
+                    LOG.info("The owners of the files can't be restored : {}", e.toString());
+                    restoreOwners = false;
+                }
+            }
+
+            try {
+                restoredFile.metadata.apply(restoredFile.file, ownerApplied);
+            } catch (IOException | UnsupportedOperationException e) {
+                LOG.warn(restoredFile.file + " : can't restore metadata " + restoredFile.metadata, e);
+            }
+        }
+    }
+
+    /**
+     * Reads all the entries of an archive without writing them, in order to check that it can be decompressed.
+     */
+    public void test(Path archive, TaskListener listener, Cancellable cancellable) throws ArchiveException {
+        if (listener != null) {
+            try {
+                listener.totalSizeComputed(Volumes.getSize(archive));
+            } catch (IOException ioe) {
+                throw new ArchiveException(ioe);
+            }
+        }
 
         MutableLong processedSize = new MutableLong();
+        readEntries(archive, cancellable, entry -> {
+            try (InputStream entryStream = createCountingInputStream(listener, processedSize, entry.getInput())) {
+                IOUtils.skip(entryStream, Long.MAX_VALUE);
+            } finally {
+                entry.close();
+            }
+        });
+    }
 
-        try (InputStream archiveStream = Files.newInputStream(archive);
-             ArchiveInputStream input = factory.create(archiveStream)) {
+    private void readEntries(Path archive, Cancellable cancellable, EntryReader reader) throws ArchiveException {
+        try (InputStream archiveStream = Volumes.newInputStream(archive)) {
+            readEntries(archiveStream, cancellable, reader);
+        } catch (IOException e) {
+            throw new ArchiveException(e);
+        }
+    }
+
+    private void readEntries(InputStream archiveStream, Cancellable cancellable, EntryReader reader)
+        throws ArchiveException {
+        try (ArchiveInputStream input = factory.create(archiveStream)) {
             ArchiveInputStream.Entry entry = getNextEntryIfNotCancelled(input, cancellable);
             while (entry != null) {
-                decompressEntry(targetDirectory, listener, processedSize, entry);
+                reader.read(entry);
                 entry = getNextEntryIfNotCancelled(input, cancellable);
             }
         } catch (Exception e) {
+            reader.close();
             throw new ArchiveException(e);
         }
+
+        try {
+            reader.end();
+        } catch (UncheckedIOException e) {
+            throw new ArchiveException(e.getCause());
+        }
     }
 
     private void decompressEntry(Path targetDirectory, TaskListener listener, MutableLong processedSize,
-                                 ArchiveInputStream.Entry entry) throws IOException {
+                                 ArchiveInputStream.Entry entry, RestoredFiles restoredFiles) throws IOException {
         InputStream entryStream = createCountingInputStream(listener, processedSize, entry.getInput());
         try {
-            Path file = targetDirectory.resolve(entry.getName());
+            Path file = resolveEntry(targetDirectory, entry.getName());
             Path parent = file.getParent();
             if (parent != null) {
                 Files.createDirectories(parent);
             }
-            Files.copy(entryStream, file);
+            String linkTarget = entry.getLinkTarget();
+            if (entry.isDirectory()) {
+                Files.createDirectories(file);
+                if (entry.getMetadata() != null) {
+                    restoredFiles.add(file, entry.getMetadata());
+                }
+            } else if (linkTarget == null) {
+                SparseFiles.copy(entryStream, file);
+                if (entry.getMetadata() != null) {
+                    restoredFiles.add(file, entry.getMetadata());
+                }
+            } else {
+                Files.createLink(file, resolveEntry(targetDirectory, linkTarget));
+            }
         } finally {
             entry.close();
         }
     }
 
+    /**
+     * Gets the file where an entry, or the target of a link, is restored. The root of an absolute name is removed.
+     *
+     * @throws IOException if the file is outside the target directory, for example because the name contains '..'.
+     */
+    private static Path resolveEntry(Path targetDirectory, String entryName) throws IOException {
+        Path name = targetDirectory.getFileSystem().getPath(entryName);
+        if (name.getRoot() != null) {
+            name = name.getRoot().relativize(name);
+        }
+
+        Path directory = targetDirectory.toAbsolutePath().normalize();
+        Path file = directory.resolve(name).normalize();
+        if (!file.startsWith(directory) || file.equals(directory)) {
+            throw new IOException(String.format("The entry '%s' is outside the target directory", entryName));
+        }
+        return file;
+    }
+
+    @FunctionalInterface
+    private interface EntryReader {
+        void read(ArchiveInputStream.Entry entry) throws IOException;
+
+        /**
+         * Called once all the entries have been read.
+         */
+        default void end() {
+        }
+
+        /**
+         * Called instead of {@link #end()} when the entries can't be read.
+         */
+        default void close() {
+        }
+    }
+
     private ArchiveInputStream.Entry getNextEntryIfNotCancelled(ArchiveInputStream input, Cancellable cancellable) throws IOException {
         if ((cancellable != null) && cancellable.isCancelled()) {
             return null;
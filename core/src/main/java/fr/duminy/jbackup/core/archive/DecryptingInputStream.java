@@ -0,0 +1,154 @@
+/**
+ * JBackup is a software managing backups.
+ *
+ * Copyright (C) 2013-2017 Fabien DUMINY (fabien [dot] duminy [at] webmails [dot] com)
+ *
+ * JBackup is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * JBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ */
+package fr.duminy.jbackup.core.archive;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import static fr.duminy.jbackup.core.archive.EncryptingOutputStream.*;
+
+/**
+ * A stream decrypting the data written by an {@link EncryptingOutputStream}. Each chunk is authenticated before any
+ * of its data is returned, and an {@link IOException} is thrown if the stream has been altered or truncated, or if
+ * the key is not the one used to encrypt it.
+ */
+final class DecryptingInputStream extends InputStream {
+    private final DataInputStream input;
+    private final SecretKey key;
+    private final Cipher cipher;
+    private final byte[] buffer;
+    private final byte[] encrypted;
+    private int position;
+    private int count;
+    private long chunkIndex;
+    private boolean lastChunk;
+
+    DecryptingInputStream(InputStream input, EncryptionKey key) throws IOException {
+        this.input = new DataInputStream(input);
+
+        byte[] magic = new byte[MAGIC.length];
+        readFully(magic, 0, magic.length);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Not an encrypted archive");
+        }
+        int version = this.input.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported encryption version : " + version);
+        }
+        int chunkSize = this.input.readInt();
+        if ((chunkSize <= 0) || (chunkSize > MAX_CHUNK_SIZE)) {
+            throw new IOException("Invalid chunk size : " + chunkSize);
+        }
+        byte[] salt = new byte[SALT_LENGTH];
+        readFully(salt, 0, salt.length);
+
+        this.buffer = new byte[chunkSize];
+        this.encrypted = new byte[CHUNK_HEADER_LENGTH + chunkSize + TAG_LENGTH];
+        try {
+            this.key = key.deriveKey(salt);
+            this.cipher = createCipher();
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        return fill() ? (buffer[position++] & 0xFF) : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+
+        int length = Math.min(len, count - position);
+        System.arraycopy(buffer, position, b, off, length);
+        position += length;
+        return length;
+    }
+
+    @Override
+    public int available() {
+        return count - position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+
+    /**
+     * @return false if the end of the stream is reached.
+     */
+    private boolean fill() throws IOException {
+        while (position == count) {
+            if (lastChunk) {
+                return false;
+            }
+            readChunk();
+        }
+        return true;
+    }
+
+    private void readChunk() throws IOException {
+        readFully(encrypted, 0, CHUNK_HEADER_LENGTH);
+        int header = ByteBuffer.wrap(encrypted).getInt();
+        int length = header & ~LAST_CHUNK_FLAG;
+        if (length > buffer.length) {
+            throw new IOException("Corrupted encrypted archive : invalid size of chunk " + chunkIndex);
+        }
+        readFully(encrypted, CHUNK_HEADER_LENGTH, length + TAG_LENGTH);
+
+        try {
+            cipher.init(Cipher.DECRYPT_MODE, key, createParameters(chunkIndex));
+            cipher.updateAAD(encrypted, 0, CHUNK_HEADER_LENGTH);
+            count = cipher.doFinal(encrypted, CHUNK_HEADER_LENGTH, length + TAG_LENGTH, buffer, 0);
+        } catch (AEADBadTagException e) {
+            throw new IOException("Can't decrypt chunk " + chunkIndex + " : wrong key or altered archive", e);
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+        position = 0;
+        chunkIndex++;
+        lastChunk = (header & LAST_CHUNK_FLAG) != 0;
+    }
+
+    private void readFully(byte[] b, int off, int len) throws IOException {
+        try {
+            input.readFully(b, off, len);
+        } catch (EOFException e) {
+            throw new EOFException("Truncated encrypted archive");
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * JBackup is a software managing backups.
+ *
+ * Copyright (C) 2013-2017 Fabien DUMINY (fabien [dot] duminy [at] webmails [dot] com)
+ *
+ * JBackup is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * JBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ */
+package fr.duminy.jbackup.core.archive;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * How an archive is synced to the disk while it's created.
+ * <br>
+ * Whatever the level, an archive is written under a temporary name and renamed when complete, so that an incomplete
+ * archive is never taken for a valid one. The level only tells when the data are forced to the disk, which matters
+ * after a crash of the system, and costs throughput.
+ */
+public enum Durability {
+    /**
+     * The archive is never synced, the system writes it when it wants.
+     */
+    NONE,
+
+    /**
+     * The archive is synced before it's renamed, and the rename is synced too.
+     */
+    ON_CLOSE,
+
+    /**
+     * Like {@link #ON_CLOSE}, but the archive is also synced periodically while it's written, which limits the amount
+     * of dirty pages flushed at the end.
+     */
+    PERIODIC;
+
+    /**
+     * Minimum time between 2 syncs of an archive with {@link #PERIODIC} durability, in milliseconds.
+     */
+    public static final long SYNC_PERIOD = TimeUnit.SECONDS.toMillis(5);
+
+    /**
+     * @return true if the files are synced when closed.
+     */
+    public boolean isSyncOnClose() {
+        return this != NONE;
+    }
+
+    /**
+     * Syncs the given file if this level requires it.
+     */
+    void sync(Path file) throws IOException {
+        if (isSyncOnClose()) {
+            try (FileChannel channel = FileChannel.open(file, WRITE)) {
+                channel.force(true);
+            }
+        }
+    }
+
+    /**
+     * Syncs the entries of the given directory, typically after a rename, if this level requires it.
+     * Some systems (like Windows) can't open a directory : the sync is then skipped.
+     */
+    void syncDirectory(Path directory) {
+        if (!isSyncOnClose()) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(directory, READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // not supported on this system
+        }
+    }
+}
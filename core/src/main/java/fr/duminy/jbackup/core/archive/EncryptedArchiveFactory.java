@@ -0,0 +1,75 @@
+/**
+ * JBackup is a software managing backups.
+ *
+ * Copyright (C) 2013-2017 Fabien DUMINY (fabien [dot] duminy [at] webmails [dot] com)
+ *
+ * JBackup is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * JBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ */
+package fr.duminy.jbackup.core.archive;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+
+/**
+ * An {@link ArchiveFactory} encrypting the archives of another one, between the archive format and the file (see
+ * {@link EncryptingOutputStream} for the format). The archives keep the extension of the other factory.
+ */
+public class EncryptedArchiveFactory implements ArchiveFactory {
+    private final ArchiveFactory factory;
+    private final EncryptionKey key;
+
+    public EncryptedArchiveFactory(ArchiveFactory factory, EncryptionKey key) {
+        this.factory = factory;
+        this.key = key;
+    }
+
+    @Override
+    public String getExtension() {
+        return factory.getExtension();
+    }
+
+    @Override
+    public ArchiveInputStream create(InputStream input) throws ArchiveException {
+        try {
+            return factory.create(new DecryptingInputStream(input, key));
+        } catch (IOException e) {
+            throw new ArchiveException(e);
+        }
+    }
+
+    @Override
+    public ArchiveOutputStream create(OutputStream output) throws ArchiveException {
+        try {
+            return factory.create(new EncryptingOutputStream(output, key));
+        } catch (IOException e) {
+            throw new ArchiveException(e);
+        }
+    }
+
+    /**
+     * @return -1 since the index of the archive, if any, can't be read without decrypting the whole archive.
+     */
+    @Override
+    public long getUncompressedSize(Path archive) {
+        return -1L;
+    }
+
+    public ArchiveFactory getFactory() {
+        return factory;
+    }
+}
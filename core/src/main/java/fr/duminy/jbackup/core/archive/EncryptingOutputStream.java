@@ -0,0 +1,174 @@
+/**
+ * JBackup is a software managing backups.
+ *
+ * Copyright (C) 2013-2017 Fabien DUMINY (fabien [dot] duminy [at] webmails [dot] com)
+ *
+ * JBackup is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * JBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ */
+package fr.duminy.jbackup.core.archive;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+/**
+ * A stream encrypting the data written to it with AES-GCM, in separately authenticated chunks.
+ * <br>
+ * The format is :
+ * <ul>
+ *     <li>a header : the magic bytes {@code JBKE}, the version, the maximum chunk size and the random salt from which
+ *     the key of the stream is derived (see {@link EncryptionKey}).</li>
+ *     <li>the chunks : the size of the plain chunk, with the high bit set for the last chunk, followed by the encrypted
+ *     chunk and its tag. The size is authenticated as additional data, and the nonce of a chunk is its index.</li>
+ * </ul>
+ * That way, a chunk can't be altered, moved or removed without being detected, nor can the stream be truncated. The
+ * stream is only read sequentially (see {@link DecryptingInputStream}), like the archives it contains.
+ * <br>
+ * The chunks have the maximum size, except the last one and the ones written by {@link #flush()}.
+ */
+final class EncryptingOutputStream extends OutputStream {
+    static final byte[] MAGIC = "JBKE".getBytes(StandardCharsets.US_ASCII);
+    static final int VERSION = 1;
+    static final int SALT_LENGTH = 32;
+    static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+    static final int MAX_CHUNK_SIZE = 16 * 1024 * 1024;
+    static final int CHUNK_HEADER_LENGTH = 4;
+    static final int LAST_CHUNK_FLAG = 0x80000000;
+    static final int TAG_LENGTH = 16;
+
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int NONCE_LENGTH = 12;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final OutputStream output;
+    private final SecretKey key;
+    private final Cipher cipher;
+    private final byte[] buffer;
+    private final byte[] encrypted;
+    private int count;
+    private long chunkIndex;
+    private boolean closed;
+
+    EncryptingOutputStream(OutputStream output, EncryptionKey key) throws IOException {
+        this(output, key, DEFAULT_CHUNK_SIZE);
+    }
+
+    EncryptingOutputStream(OutputStream output, EncryptionKey key, int chunkSize) throws IOException {
+        if ((chunkSize <= 0) || (chunkSize > MAX_CHUNK_SIZE)) {
+            throw new IllegalArgumentException("Invalid chunk size : " + chunkSize);
+        }
+
+        this.output = output;
+        this.buffer = new byte[chunkSize];
+        this.encrypted = new byte[CHUNK_HEADER_LENGTH + chunkSize + TAG_LENGTH];
+
+        byte[] salt = new byte[SALT_LENGTH];
+        RANDOM.nextBytes(salt);
+        try {
+            this.key = key.deriveKey(salt);
+            this.cipher = createCipher();
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+
+        DataOutputStream header = new DataOutputStream(output);
+        header.write(MAGIC);
+        header.writeByte(VERSION);
+        header.writeInt(chunkSize);
+        header.write(salt);
+    }
+
+    /**
+     * @return An AES-GCM cipher, which uses the AES and GHASH intrinsics of the JVM when the processor has them.
+     */
+    static Cipher createCipher() throws GeneralSecurityException {
+        return Cipher.getInstance(TRANSFORMATION);
+    }
+
+    static GCMParameterSpec createParameters(long chunkIndex) {
+        ByteBuffer nonce = ByteBuffer.allocate(NONCE_LENGTH);
+        nonce.putLong(NONCE_LENGTH - Long.BYTES, chunkIndex);
+        return new GCMParameterSpec(TAG_LENGTH * 8, nonce.array());
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (count == buffer.length) {
+            writeChunk(false);
+        }
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (count == buffer.length) {
+                writeChunk(false);
+            }
+            int length = Math.min(len, buffer.length - count);
+            System.arraycopy(b, off, buffer, count, length);
+            count += length;
+            off += length;
+            len -= length;
+        }
+    }
+
+    /**
+     * Encrypts the buffered data as a chunk, so that they can be read back after a crash.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (count > 0) {
+            writeChunk(false);
+        }
+        output.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        try {
+            writeChunk(true);
+            output.flush();
+        } finally {
+            output.close();
+        }
+    }
+
+    private void writeChunk(boolean last) throws IOException {
+        ByteBuffer.wrap(encrypted).putInt(last ? (count | LAST_CHUNK_FLAG) : count);
+        try {
+            cipher.init(Cipher.ENCRYPT_MODE, key, createParameters(chunkIndex++));
+            cipher.updateAAD(encrypted, 0, CHUNK_HEADER_LENGTH);
+            int length = cipher.doFinal(buffer, 0, count, encrypted, CHUNK_HEADER_LENGTH);
+            output.write(encrypted, 0, CHUNK_HEADER_LENGTH + length);
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+        count = 0;
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * JBackup is a software managing backups.
+ *
+ * Copyright (C) 2013-2017 Fabien DUMINY (fabien [dot] duminy [at] webmails [dot] com)
+ *
+ * JBackup is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * JBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ */
+package fr.duminy.jbackup.core.archive;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+/**
+ * The secret used to encrypt archives. Each archive is encrypted with its own AES key, derived from the secret and a
+ * random salt stored in the archive with HKDF-SHA256 (RFC 5869).
+ * <br>
+ * Since the secret is not stretched, it must be random (like the output of {@code head -c 32 /dev/urandom}), not a
+ * password.
+ */
+public final class EncryptionKey {
+    static final int MIN_SECRET_LENGTH = 16;
+
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    private static final byte[] INFO = "jbackup archive key".getBytes(StandardCharsets.US_ASCII);
+
+    private final byte[] secret;
+
+    public EncryptionKey(byte[] secret) {
+        if (secret.length < MIN_SECRET_LENGTH) {
+            throw new IllegalArgumentException("The encryption key must have at least " + MIN_SECRET_LENGTH + " bytes");
+        }
+        this.secret = secret.clone();
+    }
+
+    /**
+     * Reads the secret from a file : all its bytes are used.
+     */
+    public static EncryptionKey read(Path keyFile) throws IOException {
+        byte[] secret = Files.readAllBytes(keyFile);
+        try {
+            return new EncryptionKey(secret);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(keyFile + " : " + e.getMessage());
+        } finally {
+            Arrays.fill(secret, (byte) 0);
+        }
+    }
+
+    /**
+     * @return The AES-256 key of the archive with the given salt.
+     */
+    SecretKey deriveKey(byte[] salt) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+        mac.init(new SecretKeySpec(salt, HMAC_ALGORITHM));
+        byte[] pseudoRandomKey = mac.doFinal(secret);
+
+        // a single block of output is needed, since it has the size of the key
+        mac.init(new SecretKeySpec(pseudoRandomKey, HMAC_ALGORITHM));
+        mac.update(INFO);
+        mac.update((byte) 1);
+        byte[] key = mac.doFinal();
+        Arrays.fill(pseudoRandomKey, (byte) 0);
+        return new SecretKeySpec(key, "AES");
+    }
+}
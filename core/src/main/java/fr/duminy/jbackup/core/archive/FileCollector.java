@@ -23,18 +23,14 @@ package fr.duminy.jbackup.core.archive;
 import fr.duminy.jbackup.core.Cancellable;
 import fr.duminy.jbackup.core.task.TaskListener;
 import org.apache.commons.io.filefilter.IOFileFilter;
-import org.apache.commons.lang3.mutable.MutableLong;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.nio.file.FileVisitResult;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.SimpleFileVisitor;
+import java.io.UncheckedIOException;
+import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.util.Collection;
-import java.util.List;
+import java.util.*;
 
 import static java.nio.file.FileVisitResult.*;
 
@@ -44,61 +40,113 @@ import static java.nio.file.FileVisitResult.*;
 public class FileCollector {
     private static final Logger LOG = LoggerFactory.getLogger(FileCollector.class);
 
-    public void collectFiles(List<SourceWithPath> collectedFiles, ArchiveParameters archiveParameters, TaskListener listener, Cancellable cancellable) throws ArchiveException {
-        MutableLong totalSize = new MutableLong();
+    /**
+     * Minimum delay (in milliseconds) between 2 notifications of the estimated total size.
+     */
+    static final long ESTIMATION_PERIOD = 500L;
+
+    /**
+     * Collects the files of the sources. The files of a directory source having a {@link ChangeTracker} (see
+     * {@link ArchiveParameters#getChangeTrackers()}) are listed by the tracker instead of walking the directory.
+     *
+     * @param collectedFiles    The collection receiving the collected files.
+     * @param archiveParameters The parameters containing the sources.
+     * @param listener          An optional listener.
+     * @param cancellable       An optional cancellable.
+     * @throws ArchiveException
+     */
+    public void collectFiles(Collection<SourceWithPath> collectedFiles, ArchiveParameters archiveParameters, TaskListener listener, Cancellable cancellable) throws ArchiveException {
+        SizeEstimator sizeEstimator = new SizeEstimator(listener, archiveParameters.getEstimatedTotalSize());
         try {
-            collectFilesImpl(collectedFiles, archiveParameters.getSources(), totalSize, cancellable);
+            collectFilesImpl(collectedFiles, archiveParameters.getSources(), archiveParameters.getChangeTrackers(),
+                             sizeEstimator, cancellable);
         } catch (IOException ioe) {
             throw new ArchiveException(ioe);
+        } catch (UncheckedIOException uioe) {
+            throw new ArchiveException(uioe.getCause());
         }
         if (listener != null) {
-            listener.totalSizeComputed(totalSize.longValue());
+            listener.totalSizeComputed(sizeEstimator.getCollectedSize());
         }
     }
 
-    private void collectFilesImpl(List<SourceWithPath> collectedFiles, Collection<ArchiveParameters.Source> sources, MutableLong totalSize, Cancellable cancellable) throws IOException {
-        totalSize.setValue(0L);
-
+    private void collectFilesImpl(Collection<SourceWithPath> collectedFiles, Collection<ArchiveParameters.Source> sources, ChangeTrackers trackers, SizeEstimator sizeEstimator, Cancellable cancellable) throws IOException {
         for (ArchiveParameters.Source source : sources) {
             Path sourcePath = source.getPath();
             if (!sourcePath.isAbsolute()) {
                 throw new IllegalArgumentException(String.format("The file '%s' is relative.", sourcePath));
             }
 
-            long size;
-
-            if (Files.isDirectory(sourcePath)) {
-                size = collect(collectedFiles, sourcePath, source.getDirFilter(), source.getFileFilter(), cancellable);
+            boolean directory = Files.isDirectory(sourcePath);
+            ChangeTracker tracker = (directory && (trackers != null)) ? trackers.get(sourcePath) : null;
+            if (tracker != null) {
+                collectTrackedFiles(collectedFiles, sourcePath, tracker, source.getDirFilter(),
+                                    source.getFileFilter(), sizeEstimator, cancellable);
+            } else if (directory) {
+                collect(collectedFiles, sourcePath, source.getDirFilter(), source.getFileFilter(), sizeEstimator,
+                        cancellable);
             } else {
                 collectedFiles.add(new SourceWithPath(sourcePath, sourcePath));
-                size = Files.size(sourcePath);
+                sizeEstimator.add(Files.size(sourcePath));
             }
-
-            totalSize.add(size);
         }
     }
 
-    private long collect(final List<SourceWithPath> collectedFiles, final Path source, final IOFileFilter directoryFilter,
-                         final IOFileFilter fileFilter, final Cancellable cancellable) throws IOException {
-        FileVisitor visitor = new FileVisitor(collectedFiles, source, directoryFilter, fileFilter, cancellable);
+    private void collect(final Collection<SourceWithPath> collectedFiles, final Path source, final IOFileFilter directoryFilter,
+                         final IOFileFilter fileFilter, final SizeEstimator sizeEstimator, final Cancellable cancellable) throws IOException {
+        FileVisitor visitor = new FileVisitor(collectedFiles, source, directoryFilter, fileFilter, sizeEstimator, cancellable);
         Files.walkFileTree(source, visitor);
-        return visitor.getTotalSize();
+    }
+
+    /**
+     * Collects the files listed by the tracker of a source, with the same filtering as a walk of the source.
+     */
+    private void collectTrackedFiles(Collection<SourceWithPath> collectedFiles, Path source, ChangeTracker tracker,
+                                     IOFileFilter directoryFilter, IOFileFilter fileFilter,
+                                     SizeEstimator sizeEstimator, Cancellable cancellable) throws IOException {
+        tracker.getFiles(cancellable, (directory, files) -> {
+            if (!isAccepted(source, directory, directoryFilter)) {
+                return;
+            }
+
+            for (Map.Entry<Path, Long> file : files.entrySet()) {
+                if ((fileFilter == null) || fileFilter.accept(file.getKey().toFile())) {
+                    LOG.trace("tracked file {}", file.getKey());
+                    collectedFiles.add(new SourceWithPath(source, file.getKey()));
+                    sizeEstimator.add(file.getValue());
+                }
+            }
+        });
+    }
+
+    private static boolean isAccepted(Path source, Path directory, IOFileFilter directoryFilter) {
+        if (directoryFilter == null) {
+            return true;
+        }
+
+        for (Path dir = directory; !source.equals(dir); dir = dir.getParent()) {
+            if (!directoryFilter.accept(dir.toFile())) {
+                return false;
+            }
+        }
+        return true;
     }
 
     private static class FileVisitor extends SimpleFileVisitor<Path> {
-        private final List<SourceWithPath> collectedFiles;
+        private final Collection<SourceWithPath> collectedFiles;
         private final Path source;
         private final IOFileFilter directoryFilter;
         private final IOFileFilter fileFilter;
+        private final SizeEstimator sizeEstimator;
         private final Cancellable cancellable;
-        private long totalSize = 0L;
 
-        private FileVisitor(List<SourceWithPath> collectedFiles, Path source, IOFileFilter directoryFilter,
-                            IOFileFilter fileFilter, Cancellable cancellable) {
+        private FileVisitor(Collection<SourceWithPath> collectedFiles, Path source, IOFileFilter directoryFilter,
+                            IOFileFilter fileFilter, SizeEstimator sizeEstimator, Cancellable cancellable) {
             this.collectedFiles = collectedFiles;
             this.source = source;
             this.directoryFilter = directoryFilter;
             this.fileFilter = fileFilter;
+            this.sizeEstimator = sizeEstimator;
             this.cancellable = cancellable;
         }
 
@@ -119,21 +167,56 @@ public class FileCollector {
             }
 
             super.visitFile(file, attrs);
-            updateTotalSize(file);
+            updateTotalSize(file, attrs);
 
             return CONTINUE;
         }
 
-        private void updateTotalSize(Path file) throws IOException {
-            if (!Files.isSymbolicLink(file) && ((fileFilter == null) || fileFilter.accept(file.toFile()))) {
-                LOG.trace("visitFile {}", file.toAbsolutePath());
+        private void updateTotalSize(Path file, BasicFileAttributes attrs) {
+            // use the attributes read by the walk instead of querying again the file system
+            if (attrs.isSymbolicLink()) {
+                LOG.info("symbolic link {} skipped", file);
+            } else if ((fileFilter == null) || fileFilter.accept(file.toFile())) {
+                LOG.trace("visitFile {}", file);
                 collectedFiles.add(new SourceWithPath(source, file));
-                totalSize += Files.size(file);
+                sizeEstimator.add(attrs.size());
+            }
+        }
+    }
+
+    /**
+     * Computes the total size of collected files and periodically notifies the listener of the estimated total size,
+     * which is the biggest of the initial estimation and the size collected so far.
+     */
+    private static class SizeEstimator {
+        private final TaskListener listener;
+        private final long initialEstimation;
+        private long collectedSize = 0L;
+        private long lastNotification;
+
+        private SizeEstimator(TaskListener listener, long initialEstimation) {
+            this.listener = listener;
+            this.initialEstimation = initialEstimation;
+            this.lastNotification = System.currentTimeMillis();
+            if ((listener != null) && (initialEstimation > 0)) {
+                listener.totalSizeEstimated(initialEstimation);
+            }
+        }
+
+        private void add(long size) {
+            collectedSize += size;
+
+            if (listener != null) {
+                long now = System.currentTimeMillis();
+                if ((now - lastNotification) >= ESTIMATION_PERIOD) {
+                    lastNotification = now;
+                    listener.totalSizeEstimated(Math.max(initialEstimation, collectedSize));
+                }
             }
         }
 
-        public long getTotalSize() {
-            return totalSize;
+        private long getCollectedSize() {
+            return collectedSize;
         }
     }
 }
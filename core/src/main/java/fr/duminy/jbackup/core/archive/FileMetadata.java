@@ -0,0 +1,268 @@
+/**
+ * JBackup is a software managing backups.
+ *
+ * Copyright (C) 2013-2017 Fabien DUMINY (fabien [dot] duminy [at] webmails [dot] com)
+ *
+ * JBackup is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * JBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ */
+package fr.duminy.jbackup.core.archive;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+
+/**
+ * The metadata of a file : modification time, permissions, owner and extended attributes.
+ * <br>
+ * The permissions and the owner are only available on unix-like platforms, and the extended attributes on file
+ * systems supporting them. Missing values are {@link #UNKNOWN} (or an empty map for extended attributes), and are not
+ * restored.
+ */
+public final class FileMetadata {
+    public static final int UNKNOWN = -1;
+
+    /**
+     * The unix attributes needed by {@link #read(Path, Map)}.
+     */
+    static final String UNIX_ATTRIBUTES = "size,lastModifiedTime,mode,uid,gid";
+    private static volatile boolean unixViewSupported = true;
+
+    private final long size;
+    private final long lastModifiedTime;
+    private final int mode;
+    private final int uid;
+    private final int gid;
+    private final Map<String, byte[]> extendedAttributes;
+
+    public FileMetadata(long size, long lastModifiedTime, int mode, int uid, int gid,
+                        Map<String, byte[]> extendedAttributes) {
+        this.size = size;
+        this.lastModifiedTime = lastModifiedTime;
+        this.mode = mode;
+        this.uid = uid;
+        this.gid = gid;
+        this.extendedAttributes = extendedAttributes.isEmpty() ? Collections.emptyMap() : extendedAttributes;
+    }
+
+    /**
+     * Reads the metadata of a file with as few system calls as possible : a single one for all the attributes, plus
+     * one per extended attribute.
+     */
+    public static FileMetadata read(Path file) throws IOException {
+        return read(file, readUnixAttributes(file, UNIX_ATTRIBUTES));
+    }
+
+    /**
+     * Reads the metadata of a file whose unix attributes are already read, so that they can be shared with other
+     * users (like {@link HardLinkDetector}).
+     *
+     * @param unixAttributes At least the attributes {@link #UNIX_ATTRIBUTES}, read by {@link #readUnixAttributes}.
+     */
+    static FileMetadata read(Path file, Map<String, Object> unixAttributes) throws IOException {
+        Map<String, byte[]> extendedAttributes = readExtendedAttributes(file);
+        if (unixAttributes != null) {
+            return new FileMetadata((Long) unixAttributes.get("size"),
+                                    ((FileTime) unixAttributes.get("lastModifiedTime")).toMillis(),
+                                    (Integer) unixAttributes.get("mode") & 07777,
+                                    (Integer) unixAttributes.get("uid"), (Integer) unixAttributes.get("gid"),
+                                    extendedAttributes);
+        }
+
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class, NOFOLLOW_LINKS);
+        return new FileMetadata(attributes.size(), attributes.lastModifiedTime().toMillis(), UNKNOWN, UNKNOWN, UNKNOWN,
+                                extendedAttributes);
+    }
+
+    /**
+     * Reads some unix attributes of a file (without following the links) with a single system call.
+     *
+     * @param names The names of the attributes, separated by commas.
+     * @return The attributes, or null if the platform doesn't support them.
+     */
+    static Map<String, Object> readUnixAttributes(Path file, String names) throws IOException {
+        if (unixViewSupported) {
+            try {
+                return Files.readAttributes(file, "unix:" + names, NOFOLLOW_LINKS);
+            } catch (UnsupportedOperationException | IllegalArgumentException e) {
+                unixViewSupported = false;
+            }
+        }
+        return null;
+    }
+
+    private static Map<String, byte[]> readExtendedAttributes(Path file) throws IOException {
+        UserDefinedFileAttributeView view = Files.getFileAttributeView(file, UserDefinedFileAttributeView.class);
+        if (view == null) {
+            return Collections.emptyMap();
+        }
+
+        Map<String, byte[]> attributes = new TreeMap<>();
+        try {
+            for (String name : view.list()) {
+                ByteBuffer value = ByteBuffer.allocate(view.size(name));
+                view.read(name, value);
+                attributes.put(name, value.array());
+            }
+        } catch (IOException e) {
+            // the file system doesn't support extended attributes
+            return Collections.emptyMap();
+        }
+        return attributes;
+    }
+
+    /**
+     * Applies the extended attributes, the permissions and the modification time to a file. The modification time is
+     * applied last since changing the other ones doesn't modify it.
+     *
+     * @param ownerApplied true if the owner of the file has been applied with {@link #applyOwner(Path)}. Otherwise,
+     *                     the setuid, setgid and sticky bits are not applied : the file now belongs to the user
+     *                     restoring it, and a setuid program would run with the privileges of that user.
+     */
+    public void apply(Path file, boolean ownerApplied) throws IOException {
+        if (!extendedAttributes.isEmpty()) {
+            UserDefinedFileAttributeView view = Files.getFileAttributeView(file, UserDefinedFileAttributeView.class);
+            if (view != null) {
+                for (Map.Entry<String, byte[]> attribute : extendedAttributes.entrySet()) {
+                    view.write(attribute.getKey(), ByteBuffer.wrap(attribute.getValue()));
+                }
+            }
+        }
+        if (mode != UNKNOWN) {
+            setUnixAttribute(file, "unix:mode", ownerApplied ? mode : (mode & 0777));
+        }
+        Files.setLastModifiedTime(file, FileTime.fromMillis(lastModifiedTime));
+    }
+
+    /**
+     * Applies the owner and the group to a file. That usually requires to run with the root privileges.
+     */
+    public void applyOwner(Path file) throws IOException {
+        if (uid != UNKNOWN) {
+            setUnixAttribute(file, "unix:uid", uid);
+        }
+        if (gid != UNKNOWN) {
+            setUnixAttribute(file, "unix:gid", gid);
+        }
+    }
+
+    private static void setUnixAttribute(Path file, String attribute, int value) throws IOException {
+        if (unixViewSupported) {
+            try {
+                Files.setAttribute(file, attribute, value, NOFOLLOW_LINKS);
+            } catch (UnsupportedOperationException | IllegalArgumentException e) {
+                // archived on a unix-like platform, restored on another one
+                unixViewSupported = false;
+            }
+        }
+    }
+
+    /**
+     * Encodes the metadata. The size is the last field, since it was not encoded by the previous versions : the size of
+     * the archive entry is used instead, but it's unknown while a streamed archive is read.
+     */
+    public byte[] encode() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream output = new DataOutputStream(bytes);
+            output.writeLong(lastModifiedTime);
+            output.writeInt(mode);
+            output.writeInt(uid);
+            output.writeInt(gid);
+            output.writeShort(extendedAttributes.size());
+            for (Map.Entry<String, byte[]> attribute : extendedAttributes.entrySet()) {
+                output.writeUTF(attribute.getKey());
+                output.writeInt(attribute.getValue().length);
+                output.write(attribute.getValue());
+            }
+            output.writeLong(size);
+            output.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Decodes the metadata encoded by {@link #encode()}.
+     *
+     * @param size The size of the archive entry, used if the data doesn't contain the size.
+     */
+    public static FileMetadata decode(byte[] data, long size) throws IOException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(data));
+        long lastModifiedTime = input.readLong();
+        int mode = input.readInt();
+        int uid = input.readInt();
+        int gid = input.readInt();
+        int count = input.readUnsignedShort();
+        Map<String, byte[]> extendedAttributes = new TreeMap<>();
+        for (int i = 0; i < count; i++) {
+            String name = input.readUTF();
+            byte[] value = new byte[input.readInt()];
+            input.readFully(value);
+            extendedAttributes.put(name, value);
+        }
+        if (input.available() >= Long.BYTES) {
+            size = input.readLong();
+        }
+        return new FileMetadata(size, lastModifiedTime, mode, uid, gid, extendedAttributes);
+    }
+
+    /**
+     * @return A copy of this metadata without the extended attributes.
+     */
+    public FileMetadata withoutExtendedAttributes() {
+        return new FileMetadata(size, lastModifiedTime, mode, uid, gid, Collections.emptyMap());
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLastModifiedTime() {
+        return lastModifiedTime;
+    }
+
+    public int getMode() {
+        return mode;
+    }
+
+    public int getUid() {
+        return uid;
+    }
+
+    public int getGid() {
+        return gid;
+    }
+
+    public Map<String, byte[]> getExtendedAttributes() {
+        return Collections.unmodifiableMap(extendedAttributes);
+    }
+
+    @Override
+    public String toString() {
+        return "FileMetadata{lastModifiedTime=" + lastModifiedTime + ", mode=" + Integer.toOctalString(mode) +
+               ", uid=" + uid + ", gid=" + gid + ", extendedAttributes=" + extendedAttributes.keySet() + '}';
+    }
+}
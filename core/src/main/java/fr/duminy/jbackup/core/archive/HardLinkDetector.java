@@ -0,0 +1,78 @@
+/**
+ * JBackup is a software managing backups.
+ *
+ * Copyright (C) 2013-2017 Fabien DUMINY (fabien [dot] duminy [at] webmails [dot] com)
+ *
+ * JBackup is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * JBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ */
+package fr.duminy.jbackup.core.archive;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Detects files which are hard links to an already archived file, using the inode and device numbers. Only files
+ * with more than one link are remembered.
+ */
+class HardLinkDetector {
+    private static final Logger LOG = LoggerFactory.getLogger(HardLinkDetector.class);
+
+    /**
+     * The unix attributes needed by {@link #getLinkTarget(Map, String)}.
+     */
+    static final String UNIX_ATTRIBUTES = "nlink,dev,ino";
+
+    private final Map<Object, String> entriesByInode = new HashMap<>();
+    private boolean unixViewSupported = true;
+
+    /**
+     * @param file      A file to archive.
+     * @param entryName The name of the file entry in the archive.
+     * @return The name of the entry of an already archived link to the same file, or null if there is none.
+     */
+    String getLinkTarget(Path file, String entryName) throws IOException {
+        return unixViewSupported ? getLinkTarget(FileMetadata.readUnixAttributes(file, UNIX_ATTRIBUTES), entryName) :
+            null;
+    }
+
+    /**
+     * @param attributes At least the attributes {@link #UNIX_ATTRIBUTES} of the file, read by
+     *                   {@link FileMetadata#readUnixAttributes}, or null if the platform doesn't support them.
+     * @param entryName  The name of the file entry in the archive.
+     * @return The name of the entry of an already archived link to the same file, or null if there is none.
+     */
+    String getLinkTarget(Map<String, Object> attributes, String entryName) {
+        if (attributes == null) {
+            if (unixViewSupported) {
+                LOG.info("hard links can't be detected on this platform");
+                unixViewSupported = false;
+            }
+            return null;
+        }
+
+        if (((Integer) attributes.get("nlink")) < 2) {
+            return null;
+        }
+        Object inode = Arrays.asList(attributes.get("dev"), attributes.get("ino"));
+        return entriesByInode.putIfAbsent(inode, entryName);
+    }
+}
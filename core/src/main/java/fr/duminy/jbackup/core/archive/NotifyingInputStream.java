@@ -53,7 +53,7 @@ class NotifyingInputStream extends CountingInputStream {
     }
 
     @Override
-    protected synchronized void afterRead(int n) {
+    protected void afterRead(int n) {
         super.afterRead(n);
 
         if (n > 0) {
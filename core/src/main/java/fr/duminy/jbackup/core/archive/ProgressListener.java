@@ -30,6 +30,15 @@ public interface ProgressListener {
      */
     void taskStarted(String configurationName);
 
+    /**
+     * Notify that the total number of bytes has been estimated. It can be called several times, before
+     * {@link #totalSizeComputed(String, long)}, with a refined estimation.
+     *
+     * @param configurationName The name of the configuration.
+     * @param estimatedTotalSize The estimated total number of bytes to be read for (de)compression.
+     */
+    void totalSizeEstimated(String configurationName, long estimatedTotalSize);
+
     /**
      * Notify that the total number of bytes has been computed. Note that this method must be called before {@link #progress(String, long)}.
      *
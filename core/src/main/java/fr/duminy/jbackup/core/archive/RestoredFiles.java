@@ -0,0 +1,186 @@
+/**
+ * JBackup is a software managing backups.
+ *
+ * Copyright (C) 2013-2017 Fabien DUMINY (fabien [dot] duminy [at] webmails [dot] com)
+ *
+ * JBackup is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * JBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ */
+package fr.duminy.jbackup.core.archive;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * The files restored by a {@link Decompressor}, with the metadata to apply once all the files are written.
+ * <br>
+ * Like the {@link CollectedFiles}, the files are kept in memory until a given number of files is reached, and then
+ * appended to a temporary file read sequentially by the iterators.
+ * <br>
+ * This collection must be closed to delete the temporary file.
+ */
+class RestoredFiles implements Iterable<RestoredFiles.RestoredFile>, Closeable {
+    private final int maxFilesInMemory;
+    private final Path tempDirectory;
+
+    private final List<RestoredFile> filesInMemory = new ArrayList<>();
+    private final List<Closeable> openReaders = new ArrayList<>();
+    private int size;
+    private Path spillFile;
+    private DataOutputStream spillOutput;
+
+    /**
+     * @param maxFilesInMemory The maximum number of files kept in memory.
+     * @param tempDirectory    The directory where the temporary file is created. If null, the default temporary-file
+     *                         directory is used.
+     */
+    RestoredFiles(int maxFilesInMemory, Path tempDirectory) {
+        if (maxFilesInMemory < 0) {
+            throw new IllegalArgumentException("maxFilesInMemory must be positive or zero");
+        }
+        this.maxFilesInMemory = maxFilesInMemory;
+        this.tempDirectory = tempDirectory;
+    }
+
+    void add(Path file, FileMetadata metadata) throws IOException {
+        if ((spillOutput == null) && (filesInMemory.size() >= maxFilesInMemory)) {
+            spill();
+        }
+
+        RestoredFile restoredFile = new RestoredFile(file, metadata);
+        if (spillOutput == null) {
+            filesInMemory.add(restoredFile);
+        } else {
+            write(restoredFile);
+        }
+        size++;
+    }
+
+    @Override
+    public Iterator<RestoredFile> iterator() {
+        if (spillOutput == null) {
+            return Collections.unmodifiableList(filesInMemory).iterator();
+        }
+
+        try {
+            spillOutput.flush();
+            return new SpillFileIterator(size);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isSpilled() {
+        return spillFile != null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Closeable reader : openReaders) {
+            IOUtils.closeQuietly(reader);
+        }
+        openReaders.clear();
+        filesInMemory.clear();
+        size = 0;
+
+        if (spillOutput != null) {
+            IOUtils.closeQuietly(spillOutput);
+            spillOutput = null;
+        }
+        if (spillFile != null) {
+            Files.deleteIfExists(spillFile);
+            spillFile = null;
+        }
+    }
+
+    private void spill() throws IOException {
+        spillFile = (tempDirectory == null) ? Files.createTempFile("jbackup-restored", ".tmp") :
+            Files.createTempFile(tempDirectory, "jbackup-restored", ".tmp");
+        spillOutput = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(spillFile)));
+        for (RestoredFile file : filesInMemory) {
+            write(file);
+        }
+        filesInMemory.clear();
+    }
+
+    private void write(RestoredFile file) throws IOException {
+        byte[] path = file.file.toString().getBytes(UTF_8);
+        byte[] metadata = file.metadata.encode();
+        spillOutput.writeInt(path.length);
+        spillOutput.write(path);
+        spillOutput.writeInt(metadata.length);
+        spillOutput.write(metadata);
+    }
+
+    static final class RestoredFile {
+        final Path file;
+        final FileMetadata metadata;
+
+        private RestoredFile(Path file, FileMetadata metadata) {
+            this.file = file;
+            this.metadata = metadata;
+        }
+    }
+
+    private class SpillFileIterator implements Iterator<RestoredFile> {
+        private final DataInputStream input;
+        private int remaining;
+
+        private SpillFileIterator(int size) throws IOException {
+            this.input = new DataInputStream(new BufferedInputStream(Files.newInputStream(spillFile)));
+            this.remaining = size;
+            openReaders.add(input);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return remaining > 0;
+        }
+
+        @Override
+        public RestoredFile next() {
+            if (remaining <= 0) {
+                throw new NoSuchElementException();
+            }
+
+            try {
+                byte[] path = new byte[input.readInt()];
+                input.readFully(path);
+                byte[] metadata = new byte[input.readInt()];
+                input.readFully(metadata);
+                remaining--;
+                if (remaining == 0) {
+                    openReaders.remove(input);
+                    input.close();
+                }
+                // the size is always encoded
+                return new RestoredFile(Paths.get(new String(path, UTF_8)), FileMetadata.decode(metadata, 0L));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
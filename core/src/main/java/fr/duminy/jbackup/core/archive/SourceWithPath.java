@@ -20,19 +20,31 @@
  */
 package fr.duminy.jbackup.core.archive;
 
-import java.nio.file.Files;
 import java.nio.file.Path;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A file to archive, with the source it has been collected from.
+ * <br>
+ * The relative path is computed once and kept encoded in UTF-8 : the full path is rebuilt on demand from the source,
+ * which is shared by all the files collected from it.
+ */
 public final class SourceWithPath {
     private final Path source;
-    private final Path path;
+    private final byte[] relativePath;
 
     public SourceWithPath(Path source, Path path) {
         if (!source.isAbsolute()) {
             throw new IllegalArgumentException("source parameter must be absolute");
         }
         this.source = source;
-        this.path = path;
+        this.relativePath = getBaseDirectory(source).relativize(path).toString().getBytes(UTF_8);
+    }
+
+    SourceWithPath(Path source, byte[] relativePath) {
+        this.source = source;
+        this.relativePath = relativePath;
     }
 
     public final Path getSource() {
@@ -40,25 +52,30 @@ public final class SourceWithPath {
     }
 
     public final Path getPath() {
-        return path;
+        return getBaseDirectory(source).resolve(getRelativePath());
     }
 
     public final String getRelativePath() {
-        String relativePath;
-        if (Files.isDirectory(source)) {
-            final Path sourceParent = source.getParent();
-            if (sourceParent == null) {
-                relativePath = source.relativize(getPath()).toString();
-            } else {
-                relativePath = sourceParent.relativize(getPath()).toString();
-            }
-        } else {
-            relativePath = String.valueOf(getPath().getFileName());
-        }
-        return relativePath;
+        return new String(relativePath, UTF_8);
     }
 
     public String getAbsolutePath() {
         return getPath().toString();
     }
+
+    byte[] getRelativePathBytes() {
+        return relativePath;
+    }
+
+    /**
+     * Gets the directory from which relative paths are computed : the parent of the source, or the source itself
+     * when it's a root directory.
+     *
+     * @param source The source of the files.
+     * @return The base directory.
+     */
+    static Path getBaseDirectory(Path source) {
+        final Path sourceParent = source.getParent();
+        return (sourceParent == null) ? source : sourceParent;
+    }
 }
@@ -0,0 +1,93 @@
+/**
+ * JBackup is a software managing backups.
+ *
+ * Copyright (C) 2013-2017 Fabien DUMINY (fabien [dot] duminy [at] webmails [dot] com)
+ *
+ * JBackup is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * JBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ */
+package fr.duminy.jbackup.core.archive;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Utility methods for sparse files, whose holes are detected as blocks of zeros.
+ */
+public final class SparseFiles {
+    /**
+     * Size of the blocks used to detect holes.
+     */
+    public static final int BLOCK_SIZE = 64 * 1024;
+
+    private SparseFiles() {
+    }
+
+    /**
+     * @return true if the given bytes are all zeros.
+     */
+    public static boolean isZero(byte[] buffer, int offset, int length) {
+        for (int i = offset; i < (offset + length); i++) {
+            if (buffer[i] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copies a stream to a new file, skipping the blocks of zeros instead of writing them. That way, the file is sparse
+     * if the file system supports it.
+     *
+     * @param input The stream to copy.
+     * @param file  The file to create.
+     * @throws java.nio.file.FileAlreadyExistsException If the file already exists.
+     */
+    public static void copy(InputStream input, Path file) throws IOException {
+        byte[] block = new byte[BLOCK_SIZE];
+        try (SeekableByteChannel channel = Files.newByteChannel(file, CREATE_NEW, WRITE)) {
+            long size = 0L;
+            int length;
+            while ((length = IOUtils.read(input, block)) > 0) {
+                if (!isZero(block, 0, length)) {
+                    channel.position(size);
+                    write(channel, ByteBuffer.wrap(block, 0, length));
+                }
+                size += length;
+            }
+
+            if (channel.size() < size) {
+                // the file ends with a hole : write its last byte to give it the right size
+                channel.position(size - 1);
+                write(channel, ByteBuffer.wrap(new byte[1]));
+            }
+        }
+    }
+
+    private static void write(SeekableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
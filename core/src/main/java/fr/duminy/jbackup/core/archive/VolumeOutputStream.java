@@ -0,0 +1,207 @@
+/**
+ * JBackup is a software managing backups.
+ *
+ * Copyright (C) 2013-2017 Fabien DUMINY (fabien [dot] duminy [at] webmails [dot] com)
+ *
+ * JBackup is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * JBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ */
+package fr.duminy.jbackup.core.archive;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Writes an archive as {@link Volumes volumes} of bounded size.
+ * <br>
+ * The checksum of a volume is computed while it's written. When a volume is full, it's sealed (synced to the disk and
+ * closed) by a background thread, while the next volume is filled.
+ * <br>
+ * The first volume is written as a {@link Checkpoint#getPartialArchive(Path) partial archive}. It's up to the caller
+ * to rename it to the archive once the stream is closed and the archive complete, or to delete the volumes if it's
+ * incomplete.
+ */
+class VolumeOutputStream extends OutputStream {
+    private final Path archive;
+    private final long volumeSize;
+    private final Durability durability;
+    private final ExecutorService sealer;
+    private final List<Future<String>> checksums = new ArrayList<>();
+
+    private int index;
+    private FileChannel channel;
+    private OutputStream volume;
+    private MessageDigest digest;
+    private long written;
+
+    /**
+     * @param archive    The archive, which is also the first volume.
+     * @param volumeSize The maximum size of a volume, in bytes.
+     */
+    VolumeOutputStream(Path archive, long volumeSize) {
+        this(archive, volumeSize, Durability.ON_CLOSE);
+    }
+
+    /**
+     * @param archive    The archive, which is also the first volume.
+     * @param volumeSize The maximum size of a volume, in bytes.
+     * @param durability Tells if the volumes are synced to the disk.
+     */
+    VolumeOutputStream(Path archive, long volumeSize, Durability durability) {
+        if (volumeSize <= 0) {
+            throw new IllegalArgumentException("volumeSize must be > 0");
+        }
+        this.archive = archive;
+        this.volumeSize = volumeSize;
+        this.durability = durability;
+        this.sealer = Executors.newSingleThreadExecutor(
+            new BasicThreadFactory.Builder().namingPattern("jbackup-volume-sealer-%d").daemon(true).build());
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if ((volume == null) || (written == volumeSize)) {
+                nextVolume();
+            }
+
+            int length = (int) Math.min(len, volumeSize - written);
+            volume.write(b, off, length);
+            digest.update(b, off, length);
+            written += length;
+            off += length;
+            len -= length;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (volume != null) {
+            volume.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (sealer.isShutdown()) {
+            return;
+        }
+
+        try {
+            if (volume == null) {
+                nextVolume();
+            }
+            seal();
+        } finally {
+            sealer.shutdown();
+        }
+
+        // all the volumes are sealed before returning, even if one of them failed, so that they can be deleted
+        StringBuilder lines = new StringBuilder();
+        IOException error = null;
+        for (Future<String> checksum : checksums) {
+            try {
+                lines.append(checksum.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            } catch (ExecutionException e) {
+                if (error == null) {
+                    error = new IOException("Can't seal volume of " + archive, e.getCause());
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+        Path checksumsFile = Volumes.getChecksumsFile(archive);
+        Files.write(checksumsFile, lines.toString().getBytes(StandardCharsets.UTF_8));
+        durability.sync(checksumsFile);
+    }
+
+    /**
+     * Forces the volume being written to the disk.
+     */
+    void sync() throws IOException {
+        if (channel != null) {
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Deletes the volumes written after the first one, and the checksums file. Must be called after {@link #close()}.
+     */
+    void deleteSecondaryFiles() throws IOException {
+        for (int volumeIndex = 2; volumeIndex <= index; volumeIndex++) {
+            Files.deleteIfExists(getVolume(volumeIndex));
+        }
+        Files.deleteIfExists(Volumes.getChecksumsFile(archive));
+    }
+
+    private Path getVolume(int volumeIndex) {
+        return (volumeIndex == 1) ? Checkpoint.getPartialArchive(archive) : Volumes.getVolume(archive, volumeIndex);
+    }
+
+    private void nextVolume() throws IOException {
+        if (volume != null) {
+            seal();
+        }
+
+        index++;
+        channel = FileChannel.open(getVolume(index), CREATE, TRUNCATE_EXISTING, WRITE);
+        volume = Channels.newOutputStream(channel);
+        digest = Volumes.createDigest();
+        written = 0;
+    }
+
+    private void seal() {
+        final FileChannel sealedChannel = channel;
+        final MessageDigest sealedDigest = digest;
+        final Path sealedVolume = Volumes.getVolume(archive, index);
+        checksums.add(sealer.submit(() -> {
+            try {
+                if (durability.isSyncOnClose()) {
+                    sealedChannel.force(true);
+                }
+            } finally {
+                sealedChannel.close();
+            }
+            return Volumes.toChecksumLine(sealedVolume, sealedDigest);
+        }));
+        volume = null;
+        channel = null;
+    }
+}
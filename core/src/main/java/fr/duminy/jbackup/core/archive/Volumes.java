@@ -0,0 +1,198 @@
+/**
+ * JBackup is a software managing backups.
+ *
+ * Copyright (C) 2013-2017 Fabien DUMINY (fabien [dot] duminy [at] webmails [dot] com)
+ *
+ * JBackup is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * JBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ */
+package fr.duminy.jbackup.core.archive;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Utilities for archives split into volumes of bounded size.
+ * <br>
+ * The first volume has the name of the archive, the next ones have a numbered extension ({@code archive.zip.002},
+ * {@code archive.zip.003}, ...). Hence, an archive which is not split is an archive with a single volume. The
+ * volumes are the consecutive parts of the archive content. The SHA-256 checksums of the volumes are written in a
+ * file named like the archive with the {@link #CHECKSUMS_EXTENSION} extension, in the format of {@code sha256sum}.
+ */
+public final class Volumes {
+    private static final Logger LOG = LoggerFactory.getLogger(Volumes.class);
+
+    public static final String CHECKSUMS_EXTENSION = ".sha256";
+    static final String DIGEST_ALGORITHM = "SHA-256";
+
+    private static final Pattern VOLUME_EXTENSION = Pattern.compile(".*\\.[0-9]{3}");
+
+    private Volumes() {
+    }
+
+    /**
+     * @param archive The archive.
+     * @param index   The index of the volume, starting from 1.
+     * @return The path of the volume.
+     */
+    public static Path getVolume(Path archive, int index) {
+        return (index == 1) ? archive : archive.resolveSibling(String.format("%s.%03d", archive.getFileName(), index));
+    }
+
+    /**
+     * @return The existing volumes of the archive.
+     */
+    public static List<Path> getVolumes(Path archive) {
+        List<Path> volumes = new ArrayList<>();
+        for (int index = 1; Files.exists(getVolume(archive, index)); index++) {
+            volumes.add(getVolume(archive, index));
+        }
+        return volumes;
+    }
+
+    /**
+     * @return The total size of the volumes of the archive.
+     */
+    public static long getSize(Path archive) throws IOException {
+        long size = 0L;
+        for (Path volume : getVolumes(archive)) {
+            size += Files.size(volume);
+        }
+        return size;
+    }
+
+    public static boolean isSplit(Path archive) {
+        return Files.exists(getVolume(archive, 2));
+    }
+
+    public static Path getChecksumsFile(Path archive) {
+        return archive.resolveSibling(archive.getFileName() + CHECKSUMS_EXTENSION);
+    }
+
+    /**
+     * @return true if the path is a volume, other than the first one, or a checksums file.
+     */
+    public static boolean isSecondaryFile(Path path) {
+        String name = path.getFileName().toString();
+        return VOLUME_EXTENSION.matcher(name).matches() || name.endsWith(CHECKSUMS_EXTENSION);
+    }
+
+    /**
+     * Opens an archive, whether it's split or not. A volume is only opened when the previous one has been read.
+     */
+    public static InputStream newInputStream(final Path archive) throws IOException {
+        final InputStream firstVolume = Files.newInputStream(archive);
+        if (!isSplit(archive)) {
+            return firstVolume;
+        }
+
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            private int nextIndex = 1;
+
+            @Override
+            public boolean hasMoreElements() {
+                return (nextIndex == 1) || Files.exists(getVolume(archive, nextIndex));
+            }
+
+            @Override
+            public InputStream nextElement() {
+                int index = nextIndex++;
+                if (index == 1) {
+                    return firstVolume;
+                }
+                try {
+                    return Files.newInputStream(getVolume(archive, index));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Checks the volumes against their checksums. The volumes are read in parallel.
+     *
+     * @return true if all the volumes have the expected checksum, or if the archive has no checksums file.
+     */
+    public static boolean checkIntegrity(Path archive) throws IOException {
+        Path checksumsFile = getChecksumsFile(archive);
+        if (!Files.exists(checksumsFile)) {
+            return true;
+        }
+
+        Map<String, String> checksums = new HashMap<>();
+        for (String line : Files.readAllLines(checksumsFile, StandardCharsets.UTF_8)) {
+            int separator = line.indexOf("  ");
+            if (separator > 0) {
+                checksums.put(line.substring(separator + 2), line.substring(0, separator));
+            }
+        }
+
+        List<Path> volumes = getVolumes(archive);
+        if (volumes.size() != checksums.size()) {
+            LOG.error("Archive {} has {} volumes, expected {}", new Object[]{archive, volumes.size(), checksums.size()});
+            return false;
+        }
+        return volumes.parallelStream().allMatch(volume -> {
+            String expected = checksums.get(volume.getFileName().toString());
+            String actual = computeChecksum(volume);
+            if (!actual.equals(expected)) {
+                LOG.error("Volume {} corrupted", volume);
+                return false;
+            }
+            return true;
+        });
+    }
+
+    static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String toChecksumLine(Path volume, MessageDigest digest) {
+        return toHex(digest.digest()) + "  " + volume.getFileName() + '\n';
+    }
+
+    private static String toHex(byte[] bytes) {
+        return String.format("%0" + (bytes.length * 2) + "x", new BigInteger(1, bytes));
+    }
+
+    private static String computeChecksum(Path volume) {
+        MessageDigest digest = createDigest();
+        try (InputStream input = new DigestInputStream(Files.newInputStream(volume), digest)) {
+            byte[] buffer = new byte[SparseFiles.BLOCK_SIZE];
+            while (input.read(buffer) >= 0) {
+                // the digest is updated while reading
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return toHex(digest.digest());
+    }
+}
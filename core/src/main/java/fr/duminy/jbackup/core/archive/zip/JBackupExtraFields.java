@@ -0,0 +1,134 @@
+/**
+ * JBackup is a software managing backups.
+ *
+ * Copyright (C) 2013-2017 Fabien DUMINY (fabien [dot] duminy [at] webmails [dot] com)
+ *
+ * JBackup is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * JBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ */
+package fr.duminy.jbackup.core.archive.zip;
+
+import fr.duminy.jbackup.core.archive.FileMetadata;
+import org.apache.commons.compress.archivers.zip.UnrecognizedExtraField;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipExtraField;
+import org.apache.commons.compress.archivers.zip.ZipShort;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * The zip extra fields used to store what the zip format can't describe by itself.
+ */
+final class JBackupExtraFields {
+    /**
+     * Marks a hard link. The data is the name of the target entry, encoded in UTF-8.
+     */
+    static final ZipShort HARD_LINK = new ZipShort(0x4a4c);
+
+    /**
+     * Marks a sparse entry, whose content is encoded by {@link SparseEntries}. The central directory data is the size
+     * of the original file. The local data is the size expected when the entry was started (empty if it was unknown),
+     * for the readers of the local headers, like a stream.
+     */
+    static final ZipShort SPARSE = new ZipShort(0x4a53);
+
+    /**
+     * The metadata of the file, encoded by {@link FileMetadata#encode()}.
+     */
+    static final ZipShort METADATA = new ZipShort(0x4a4d);
+
+    /**
+     * Maximum size of the data of an extra field : the size of all the extra fields of an entry is stored in 2 bytes.
+     */
+    static final int MAX_DATA_SIZE = 0xffff - 1024;
+
+    private JBackupExtraFields() {
+    }
+
+    static UnrecognizedExtraField createHardLink(String target) {
+        return create(HARD_LINK, target.getBytes(UTF_8));
+    }
+
+    /**
+     * @param expectedSize The size of the original file, or a negative value if it's unknown.
+     */
+    static UnrecognizedExtraField createSparse(long expectedSize) {
+        return create(SPARSE, (expectedSize < 0) ? new byte[0] : encodeSize(expectedSize));
+    }
+
+    static UnrecognizedExtraField createMetadata(byte[] metadata) {
+        return create(METADATA, metadata);
+    }
+
+    static void setSparseSize(UnrecognizedExtraField sparseField, long size) {
+        sparseField.setCentralDirectoryData(encodeSize(size));
+    }
+
+    /**
+     * @return The name of the entry targeted by the given entry, or null if it's not a hard link.
+     */
+    static String getHardLinkTarget(ZipArchiveEntry entry) {
+        ZipExtraField field = entry.getExtraField(HARD_LINK);
+        return (field == null) ? null : new String(field.getLocalFileDataData(), UTF_8);
+    }
+
+    /**
+     * @return The metadata of the file, or null if the entry doesn't contain it.
+     */
+    static FileMetadata getMetadata(ZipArchiveEntry entry) throws IOException {
+        ZipExtraField field = entry.getExtraField(METADATA);
+        if (field == null) {
+            return null;
+        }
+        // the size of a sparse entry is the size of its encoded content
+        long size = isSparse(entry) ? getSparseSize(entry) : entry.getSize();
+        return FileMetadata.decode(field.getLocalFileDataData(), size);
+    }
+
+    static boolean isSparse(ZipArchiveEntry entry) {
+        return entry.getExtraField(SPARSE) != null;
+    }
+
+    /**
+     * @return The size of the original file, or a negative value if it's unknown. The size from the central directory
+     * is preferred, since the local header only has the size expected when the entry was started.
+     */
+    static long getSparseSize(ZipArchiveEntry entry) {
+        ZipExtraField field = entry.getExtraField(SPARSE);
+        if (field == null) {
+            return -1L;
+        }
+        long size = decodeSize(field.getCentralDirectoryData());
+        return (size < 0) ? decodeSize(field.getLocalFileDataData()) : size;
+    }
+
+    private static byte[] encodeSize(long size) {
+        return ByteBuffer.allocate(Long.BYTES).putLong(size).array();
+    }
+
+    private static long decodeSize(byte[] data) {
+        return ((data == null) || (data.length != Long.BYTES)) ? -1L : ByteBuffer.wrap(data).getLong();
+    }
+
+    private static UnrecognizedExtraField create(ZipShort headerId, byte[] data) {
+        UnrecognizedExtraField field = new UnrecognizedExtraField();
+        field.setHeaderId(headerId);
+        field.setLocalFileDataData(data);
+        return field;
+    }
+}
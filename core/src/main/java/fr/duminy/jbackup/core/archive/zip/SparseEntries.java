@@ -0,0 +1,156 @@
+/**
+ * JBackup is a software managing backups.
+ *
+ * Copyright (C) 2013-2017 Fabien DUMINY (fabien [dot] duminy [at] webmails [dot] com)
+ *
+ * JBackup is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * JBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ */
+package fr.duminy.jbackup.core.archive.zip;
+
+import fr.duminy.jbackup.core.archive.SparseFiles;
+import org.apache.commons.io.IOUtils;
+
+import java.io.*;
+import java.util.Arrays;
+
+import static fr.duminy.jbackup.core.archive.SparseFiles.BLOCK_SIZE;
+
+/**
+ * Encoding of sparse files in a zip entry.
+ * <br>
+ * The content of the entry is a sequence of segments. Each segment is made of the length of a hole (long), the length
+ * of the data following the hole (int) and the data itself. Holes are blocks of {@link SparseFiles#BLOCK_SIZE} zeros.
+ * <br>
+ * This encoding is specific to JBackup : the entry is marked by the {@link JBackupExtraFields#SPARSE} extra field,
+ * which other zip tools ignore, so a plain <code>unzip</code> extracts the encoded content instead of the file. Its
+ * size in the zip headers is the encoded size, the size of the file is given by
+ * {@link JBackupExtraFields#getSparseSize}.
+ */
+final class SparseEntries {
+    private SparseEntries() {
+    }
+
+    /**
+     * @return true if the given buffer contains at least one block of zeros.
+     */
+    static boolean containsHole(byte[] buffer, int length) {
+        for (int offset = 0; (offset + BLOCK_SIZE) <= length; offset += BLOCK_SIZE) {
+            if (SparseFiles.isZero(buffer, offset, BLOCK_SIZE)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param input  The content of the file.
+     * @param output The output of the entry. It's not closed by this method.
+     * @return The size of the file.
+     */
+    static long encode(InputStream input, OutputStream output) throws IOException {
+        DataOutputStream dataOutput = new DataOutputStream(output);
+        byte[] block = new byte[BLOCK_SIZE];
+        long size = 0L;
+        long hole = 0L;
+        int length;
+        while ((length = IOUtils.read(input, block)) > 0) {
+            size += length;
+            if (SparseFiles.isZero(block, 0, length)) {
+                hole += length;
+            } else {
+                dataOutput.writeLong(hole);
+                dataOutput.writeInt(length);
+                dataOutput.write(block, 0, length);
+                hole = 0L;
+            }
+        }
+        if (hole > 0) {
+            dataOutput.writeLong(hole);
+            dataOutput.writeInt(0);
+        }
+        dataOutput.flush();
+        return size;
+    }
+
+    /**
+     * Decodes the content of a sparse entry.
+     */
+    static class DecodingInputStream extends InputStream {
+        private final DataInputStream input;
+        private long remainingHole;
+        private int remainingData;
+
+        DecodingInputStream(InputStream input) {
+            this.input = new DataInputStream(input);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int n = read(b, 0, 1);
+            return (n < 0) ? -1 : (b[0] & 0xff);
+        }
+
+        /**
+         * Unlike most streams, the buffer is filled unless the end of the stream is reached : holes and data are not
+         * returned in separate chunks.
+         */
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int total = 0;
+            while (total < len) {
+                if ((remainingHole == 0) && (remainingData == 0) && !readSegmentHeader()) {
+                    break;
+                }
+
+                int n;
+                if (remainingHole > 0) {
+                    n = (int) Math.min(len - total, remainingHole);
+                    Arrays.fill(b, off + total, off + total + n, (byte) 0);
+                    remainingHole -= n;
+                } else {
+                    n = input.read(b, off + total, Math.min(len - total, remainingData));
+                    if (n < 0) {
+                        throw new EOFException("truncated sparse entry");
+                    }
+                    remainingData -= n;
+                }
+                total += n;
+            }
+            return ((total == 0) && (len > 0)) ? -1 : total;
+        }
+
+        @Override
+        public void close() throws IOException {
+            input.close();
+        }
+
+        private boolean readSegmentHeader() throws IOException {
+            do {
+                int first = input.read();
+                if (first < 0) {
+                    return false;
+                }
+                remainingHole = first;
+                for (int i = 1; i < Long.BYTES; i++) {
+                    remainingHole = (remainingHole << 8) | input.readUnsignedByte();
+                }
+                remainingData = input.readInt();
+            } while ((remainingHole == 0) && (remainingData == 0));
+            return true;
+        }
+    }
+}
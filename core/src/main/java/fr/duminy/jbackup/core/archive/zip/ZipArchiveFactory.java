@@ -24,9 +24,15 @@ import fr.duminy.jbackup.core.archive.ArchiveException;
 import fr.duminy.jbackup.core.archive.ArchiveFactory;
 import fr.duminy.jbackup.core.archive.ArchiveInputStream;
 import fr.duminy.jbackup.core.archive.ArchiveOutputStream;
+import fr.duminy.jbackup.core.archive.Volumes;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.Enumeration;
 
 public class ZipArchiveFactory implements ArchiveFactory {
     public static final ZipArchiveFactory INSTANCE = new ZipArchiveFactory();
@@ -44,6 +50,36 @@ public class ZipArchiveFactory implements ArchiveFactory {
         return new ZipArchiveOutputStream(output);
     }
 
+    /**
+     * {@inheritDoc}
+     * <br>
+     * The size of a sparse entry is the size of the original file, not the size of its encoded content.
+     */
+    @Override
+    public long getUncompressedSize(Path archive) throws ArchiveException {
+        if (Volumes.isSplit(archive)) {
+            // the central directory is in the last volume, but its offsets are relative to the first one
+            return -1L;
+        }
+
+        // only the central directory is read
+        try (ZipFile zipFile = new ZipFile(archive.toFile())) {
+            long size = 0L;
+            for (Enumeration<ZipArchiveEntry> entries = zipFile.getEntries(); entries.hasMoreElements(); ) {
+                ZipArchiveEntry entry = entries.nextElement();
+                long entrySize = JBackupExtraFields.isSparse(entry) ? JBackupExtraFields.getSparseSize(entry) :
+                    entry.getSize();
+                if (entrySize < 0) {
+                    return -1L;
+                }
+                size += entrySize;
+            }
+            return size;
+        } catch (IOException e) {
+            throw new ArchiveException(e);
+        }
+    }
+
     @Override
     public String getExtension() {
         return "zip";
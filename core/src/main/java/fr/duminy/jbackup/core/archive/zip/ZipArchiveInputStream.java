@@ -21,12 +21,14 @@
 package fr.duminy.jbackup.core.archive.zip;
 
 import fr.duminy.jbackup.core.archive.ArchiveException;
+import fr.duminy.jbackup.core.archive.FileMetadata;
 import org.apache.commons.compress.archivers.ArchiveInputStream;
 import org.apache.commons.compress.archivers.ArchiveStreamFactory;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.io.input.CloseShieldInputStream;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.zip.ZipEntry;
 
 class ZipArchiveInputStream implements fr.duminy.jbackup.core.archive.ArchiveInputStream {
     private final ArchiveInputStream input;
@@ -40,27 +42,50 @@ class ZipArchiveInputStream implements fr.duminy.jbackup.core.archive.ArchiveInp
     }
 
     private static class ZipBackupEntry extends Entry {
-        private final ArchiveInputStream zipInput;
+        private final InputStream entryInput;
+        private final String linkTarget;
+        private final FileMetadata metadata;
+        private final boolean directory;
 
-        private ZipBackupEntry(ArchiveInputStream zipInput, ZipEntry entry) {
+        private ZipBackupEntry(ArchiveInputStream zipInput, ZipArchiveEntry entry) throws IOException {
             super(entry.getName(), entry.getCompressedSize());
-            this.zipInput = zipInput;
+            // closing an entry must not close the archive, otherwise the next entries can't be read
+            InputStream input = new CloseShieldInputStream(zipInput);
+            this.entryInput = JBackupExtraFields.isSparse(entry) ? new SparseEntries.DecodingInputStream(input) : input;
+            this.linkTarget = JBackupExtraFields.getHardLinkTarget(entry);
+            this.metadata = JBackupExtraFields.getMetadata(entry);
+            this.directory = entry.isDirectory();
         }
 
         @Override
         public void close() throws IOException {
-            zipInput.close();
+            entryInput.close();
+        }
+
+        @Override
+        public String getLinkTarget() {
+            return linkTarget;
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return directory;
+        }
+
+        @Override
+        public FileMetadata getMetadata() {
+            return metadata;
         }
 
         @Override
         public InputStream getInput() {
-            return zipInput;
+            return entryInput;
         }
     }
 
     @Override
     public Entry getNextEntry() throws IOException {
-        ZipEntry entry = (ZipEntry) input.getNextEntry();
+        ZipArchiveEntry entry = (ZipArchiveEntry) input.getNextEntry();
         ZipBackupEntry zipEntry = null;
         if (entry != null) {
             zipEntry = new ZipBackupEntry(input, entry);
@@ -22,16 +22,29 @@ package fr.duminy.jbackup.core.archive.zip;
 
 import fr.duminy.jbackup.core.archive.ArchiveException;
 import fr.duminy.jbackup.core.archive.ArchiveOutputStream;
+import fr.duminy.jbackup.core.archive.FileMetadata;
 import org.apache.commons.compress.archivers.ArchiveStreamFactory;
+import org.apache.commons.compress.archivers.zip.UnixStat;
+import org.apache.commons.compress.archivers.zip.UnrecognizedExtraField;
 import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
 import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.*;
+
+import static fr.duminy.jbackup.core.archive.SparseFiles.BLOCK_SIZE;
 
 class ZipArchiveOutputStream implements ArchiveOutputStream {
+    private static final Logger LOG = LoggerFactory.getLogger(ZipArchiveOutputStream.class);
+
+    /**
+     * Size of the beginning of a file which is read to detect if it's sparse.
+     */
+    static final int SPARSE_DETECTION_SIZE = 16 * BLOCK_SIZE;
+
     private final org.apache.commons.compress.archivers.ArchiveOutputStream output;
+    private final byte[] buffer = new byte[SPARSE_DETECTION_SIZE];
 
     ZipArchiveOutputStream(OutputStream output) throws ArchiveException {
         try {
@@ -44,11 +57,88 @@ class ZipArchiveOutputStream implements ArchiveOutputStream {
 
     @Override
     public void addEntry(String name, InputStream input) throws IOException {
-        output.putArchiveEntry(new ZipArchiveEntry(name));
-        IOUtils.copy(input, output);
+        addEntry(name, input, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <br>
+     * The modification time and the permissions are stored in the standard zip fields, so that other tools can
+     * restore them. All the metadata, including the owner and the extended attributes, are also stored in a
+     * {@link JBackupExtraFields#METADATA} extra field.
+     * <br>
+     * A sparse file is stored in a non-standard entry, encoded by {@link SparseEntries} : other tools extract its
+     * encoded content, not the file.
+     */
+    @Override
+    public void addEntry(String name, InputStream input, FileMetadata metadata) throws IOException {
+        // a file is considered as sparse if it's big enough and a hole is found at its beginning
+        int length = IOUtils.read(input, buffer);
+        boolean sparse = (length == buffer.length) && SparseEntries.containsHole(buffer, length);
+
+        ZipArchiveEntry entry = new ZipArchiveEntry(name);
+        UnrecognizedExtraField sparseField = null;
+        if (sparse) {
+            sparseField = JBackupExtraFields.createSparse((metadata == null) ? -1L : metadata.getSize());
+            entry.addExtraField(sparseField);
+        }
+        if (metadata != null) {
+            setMetadata(name, entry, metadata);
+        }
+        output.putArchiveEntry(entry);
+
+        InputStream content = new SequenceInputStream(new ByteArrayInputStream(buffer, 0, length), input);
+        if (sparse) {
+            // the central directory is written when closing the archive, so it can still receive the file size
+            JBackupExtraFields.setSparseSize(sparseField, SparseEntries.encode(content, output));
+        } else {
+            IOUtils.copy(content, output);
+        }
         output.closeArchiveEntry();
     }
 
+    private static void setMetadata(String name, ZipArchiveEntry entry, FileMetadata metadata) {
+        entry.setTime(metadata.getLastModifiedTime());
+        if (metadata.getMode() != FileMetadata.UNKNOWN) {
+            entry.setUnixMode((entry.isDirectory() ? UnixStat.DIR_FLAG : UnixStat.FILE_FLAG) | metadata.getMode());
+        }
+
+        byte[] data = metadata.encode();
+        if (data.length > JBackupExtraFields.MAX_DATA_SIZE) {
+            LOG.warn("{} : extended attributes are too big to be archived", name);
+            data = metadata.withoutExtendedAttributes().encode();
+        }
+        entry.addExtraField(JBackupExtraFields.createMetadata(data));
+    }
+
+    @Override
+    public boolean addLink(String name, String target) throws IOException {
+        ZipArchiveEntry entry = new ZipArchiveEntry(name);
+        entry.addExtraField(JBackupExtraFields.createHardLink(target));
+        output.putArchiveEntry(entry);
+        output.closeArchiveEntry();
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <br>
+     * Stored as a standard zip directory entry, whose name ends with a '/'.
+     */
+    @Override
+    public boolean addDirectory(String name, FileMetadata metadata) throws IOException {
+        ZipArchiveEntry entry = new ZipArchiveEntry(name.endsWith("/") ? name : name + '/');
+        setMetadata(name, entry, metadata);
+        output.putArchiveEntry(entry);
+        output.closeArchiveEntry();
+        return true;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        output.flush();
+    }
+
     @Override
     public void close() throws IOException {
         output.close();
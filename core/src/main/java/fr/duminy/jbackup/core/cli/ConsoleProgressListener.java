@@ -0,0 +1,84 @@
+/**
+ * JBackup is a software managing backups.
+ *
+ * Copyright (C) 2013-2017 Fabien DUMINY (fabien [dot] duminy [at] webmails [dot] com)
+ *
+ * JBackup is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * JBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ */
+package fr.duminy.jbackup.core.cli;
+
+import fr.duminy.jbackup.core.archive.ProgressListener;
+
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Prints the progress of the tasks as lines of text, at most one line per percent of progress.
+ */
+class ConsoleProgressListener implements ProgressListener {
+    private static final int UNKNOWN = -1;
+
+    private final PrintStream out;
+    private final Map<String, Long> totalSizes = new ConcurrentHashMap<>();
+    private final Map<String, Integer> percents = new ConcurrentHashMap<>();
+
+    ConsoleProgressListener(PrintStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void taskStarted(String configurationName) {
+        totalSizes.remove(configurationName);
+        percents.put(configurationName, UNKNOWN);
+        print(configurationName, "started");
+    }
+
+    @Override
+    public void totalSizeEstimated(String configurationName, long estimatedTotalSize) {
+        totalSizes.put(configurationName, estimatedTotalSize);
+    }
+
+    @Override
+    public void totalSizeComputed(String configurationName, long totalSize) {
+        totalSizes.put(configurationName, totalSize);
+    }
+
+    @Override
+    public void progress(String configurationName, long totalReadBytes) {
+        Long totalSize = totalSizes.get(configurationName);
+        if ((totalSize == null) || (totalSize <= 0)) {
+            return;
+        }
+
+        int percent = (int) Math.min(100L, (totalReadBytes * 100L) / totalSize);
+        Integer previousPercent = percents.put(configurationName, percent);
+        if ((previousPercent == null) || (previousPercent != percent)) {
+            print(configurationName, percent + "% (" + totalReadBytes + '/' + totalSize + " bytes)");
+        }
+    }
+
+    @Override
+    public void taskFinished(String configurationName, Throwable error) {
+        totalSizes.remove(configurationName);
+        percents.remove(configurationName);
+        print(configurationName, (error == null) ? "finished" : ("failed : " + error.getMessage()));
+    }
+
+    private void print(String configurationName, String message) {
+        out.println('[' + configurationName + "] " + message);
+    }
+}
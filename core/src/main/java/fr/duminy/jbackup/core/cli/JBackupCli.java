@@ -0,0 +1,489 @@
+/**
+ * JBackup is a software managing backups.
+ *
+ * Copyright (C) 2013-2017 Fabien DUMINY (fabien [dot] duminy [at] webmails [dot] com)
+ *
+ * JBackup is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * JBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ */
+package fr.duminy.jbackup.core.cli;
+
+import fr.duminy.jbackup.core.BackupConfiguration;
+import fr.duminy.jbackup.core.ConfigurationException;
+import fr.duminy.jbackup.core.ConfigurationListener;
+import fr.duminy.jbackup.core.ConfigurationManager;
+import fr.duminy.jbackup.core.JBackupImpl;
+import fr.duminy.jbackup.core.metrics.TaskMetrics;
+import fr.duminy.jbackup.core.schedule.BackupScheduler;
+import fr.duminy.jbackup.core.schedule.CronExpression;
+import fr.duminy.jbackup.core.storage.Storages;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A command line interface to run the tasks of JBackup on headless servers, without the swing user interface.
+ * <br>
+ * The progress of the tasks is printed on the standard output, or on the error output with the option
+ * <code>--json</code> which prints instead the metrics of each finished task as a JSON object.
+ */
+public class JBackupCli {
+    private static final Logger LOG = LoggerFactory.getLogger(JBackupCli.class);
+
+    static final int EXIT_SUCCESS = 0;
+    static final int EXIT_TASK_FAILED = 1;
+    static final int EXIT_INVALID_ARGUMENTS = 2;
+    static final int EXIT_INVALID_CONFIGURATION = 3;
+
+    /**
+     * The maximum time (in milliseconds) between 2 checks of the stop request in daemon mode.
+     */
+    static final long DAEMON_PERIOD = 1000L;
+
+    private static final String USAGE = "Usage: jbackup-cli [--config-dir <directory>] [--indexed-store] [--json] <command> [<arguments>]\n" +
+        "Options:\n" +
+        "  --indexed-store                                       Store the configurations in a single indexed file,\n" +
+        "                                                        created from the XML files if needed.\n" +
+        "Commands:\n" +
+        "  list                                                  List the configurations.\n" +
+        "  backup (--all | <configuration>...)                   Back up the configurations.\n" +
+        "  backup --stdout <configuration>                       Back up a configuration to the standard output.\n" +
+        "  restore <configuration> <directory> [<archive>]       Restore an archive (by default the latest)\n" +
+        "                                                        into a new directory. The archive '-' is read\n" +
+        "                                                        from the standard input.\n" +
+        "  verify <configuration> [<archive>]                    Check an archive (by default the latest).\n" +
+        "  daemon [--cron <expression>] (--all | <configuration>...)\n" +
+        "                                                        Back up the configurations on their schedule\n" +
+        "                                                        (by default the given cron expression).\n" +
+        "Exit codes: 0 = success, 1 = a task has failed, 2 = invalid arguments, 3 = invalid configuration.";
+
+    private final InputStream archiveInput;
+    private final OutputStream archiveOutput;
+    private final PrintStream out;
+    private final PrintStream err;
+    private boolean streaming;
+    private Path configurationDir = Paths.get(System.getProperty("user.home"), ".jbackup");
+    private boolean json;
+    private boolean indexedStore;
+    private ConfigurationManager manager;
+    private JBackupImpl jbackup;
+    private volatile boolean stopped;
+
+    JBackupCli(PrintStream out, PrintStream err) {
+        this(System.in, out, out, err);
+    }
+
+    /**
+     * @param archiveInput  The stream of the archive restored with the argument '-'.
+     * @param archiveOutput The stream of the archive created with the option <code>--stdout</code>.
+     */
+    JBackupCli(InputStream archiveInput, OutputStream archiveOutput, PrintStream out, PrintStream err) {
+        this.archiveInput = archiveInput;
+        this.archiveOutput = archiveOutput;
+        this.out = out;
+        this.err = err;
+    }
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+
+        // the archives are not written through System.out, which hides the write errors, like a broken pipe
+        JBackupCli cli = new JBackupCli(new FileInputStream(FileDescriptor.in), new FileOutputStream(FileDescriptor.out),
+                                        System.out, System.err);
+        Thread mainThread = Thread.currentThread();
+        // an exit from outside (like SIGTERM) stops the daemon mode and waits for the running backups
+        Thread shutdownHook = new Thread(() -> {
+            cli.stop();
+            try {
+                mainThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "jbackup-cli-shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+        int exitCode = cli.run(args);
+        try {
+            // otherwise System.exit would wait for the hook, which waits for this thread
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            // the JVM is already shutting down and the hook is waiting for the end of this thread
+            return;
+        }
+        System.exit(exitCode);
+    }
+
+    /**
+     * @param args The arguments of the command line.
+     * @return The exit code.
+     */
+    int run(String... args) {
+        LinkedList<String> arguments = new LinkedList<>(Arrays.asList(args));
+        try {
+            parseOptions(arguments);
+            if (arguments.isEmpty()) {
+                throw new IllegalArgumentException("missing command");
+            }
+
+            String command = arguments.removeFirst();
+            switch (command) {
+                case "list":
+                    return list();
+                case "backup":
+                    return backup(arguments);
+                case "restore":
+                    return restore(arguments);
+                case "verify":
+                    return verify(arguments);
+                case "daemon":
+                    return daemon(arguments);
+                case "--help":
+                    out.println(USAGE);
+                    return EXIT_SUCCESS;
+                default:
+                    throw new IllegalArgumentException("unknown command '" + command + "'");
+            }
+        } catch (IllegalArgumentException e) {
+            err.println(e.getMessage());
+            err.println(USAGE);
+            return EXIT_INVALID_ARGUMENTS;
+        } catch (ConfigurationException | IOException e) {
+            LOG.error(e.getMessage(), e);
+            err.println(e.getMessage());
+            return EXIT_INVALID_CONFIGURATION;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return EXIT_TASK_FAILED;
+        } finally {
+            if (jbackup != null) {
+                try {
+                    jbackup.shutdown(null);
+                    // the files of the failed tasks are deleted in background
+                    jbackup.awaitFileDeletions(1, TimeUnit.MINUTES);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops the daemon mode after the completion of the running backups.
+     */
+    void stop() {
+        stopped = true;
+    }
+
+    private void parseOptions(LinkedList<String> arguments) {
+        while (!arguments.isEmpty() && arguments.getFirst().startsWith("--") && !"--help".equals(arguments.getFirst())) {
+            String option = arguments.removeFirst();
+            switch (option) {
+                case "--config-dir":
+                    configurationDir = Paths.get(getArgument(arguments, "configuration directory"));
+                    break;
+                case "--json":
+                    json = true;
+                    break;
+                case "--indexed-store":
+                    indexedStore = true;
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown option '" + option + "'");
+            }
+        }
+    }
+
+    private int list() throws ConfigurationException {
+        for (BackupConfiguration config : getManager().getBackupConfigurations()) {
+            out.println(config.getName() + '\t' + config.getTargetDirectory());
+        }
+        return EXIT_SUCCESS;
+    }
+
+    private int backup(LinkedList<String> arguments) throws ConfigurationException, IOException, InterruptedException {
+        if (!"--stdout".equals(arguments.peekFirst())) {
+            return backup(getConfigurations(arguments));
+        }
+
+        arguments.removeFirst();
+        BackupConfiguration config = getConfiguration(getArgument(arguments, "configuration"));
+        checkNoMoreArguments(arguments);
+
+        // the standard output only receives the archive
+        streaming = true;
+        OutputStream output = new BufferedOutputStream(archiveOutput);
+        boolean success = waitFor("backup", config, getJBackup().backup(config, output));
+        output.flush();
+        return success ? EXIT_SUCCESS : EXIT_TASK_FAILED;
+    }
+
+    private int backup(List<BackupConfiguration> configs) throws InterruptedException {
+        Map<BackupConfiguration, Future<Void>> futures = new HashMap<>();
+        for (BackupConfiguration config : configs) {
+            futures.put(config, getJBackup().backup(config));
+        }
+
+        boolean success = true;
+        for (BackupConfiguration config : configs) {
+            success &= waitFor("backup", config, futures.get(config));
+        }
+        return success ? EXIT_SUCCESS : EXIT_TASK_FAILED;
+    }
+
+    private int restore(LinkedList<String> arguments) throws ConfigurationException, IOException, InterruptedException {
+        BackupConfiguration config = getConfiguration(getArgument(arguments, "configuration"));
+        Path targetDirectory = Paths.get(getArgument(arguments, "target directory"));
+        Future<Void> future;
+        if ("-".equals(arguments.peekFirst())) {
+            arguments.removeFirst();
+            checkNoMoreArguments(arguments);
+            future = getJBackup().restore(config, archiveInput, targetDirectory);
+        } else {
+            Path archive = getArchive(config, arguments);
+            checkNoMoreArguments(arguments);
+            future = getJBackup().restore(config, archive, targetDirectory);
+        }
+        return waitFor("restore", config, future) ? EXIT_SUCCESS : EXIT_TASK_FAILED;
+    }
+
+    private int verify(LinkedList<String> arguments) throws ConfigurationException, IOException, InterruptedException {
+        BackupConfiguration config = getConfiguration(getArgument(arguments, "configuration"));
+        if (!Storages.isLocal(config.getTargetDirectory())) {
+            throw new ConfigurationException("the archives of the remote target '" + config.getTargetDirectory() +
+                                             "' can't be verified");
+        }
+        Path archive = getArchive(config, arguments);
+        checkNoMoreArguments(arguments);
+
+        Future<Void> future = getJBackup().verify(config, archive);
+        return waitFor("verify", config, future) ? EXIT_SUCCESS : EXIT_TASK_FAILED;
+    }
+
+    private int daemon(LinkedList<String> arguments) throws ConfigurationException, IOException, InterruptedException {
+        String defaultSchedule = null;
+        if ("--cron".equals(arguments.peekFirst())) {
+            arguments.removeFirst();
+            defaultSchedule = getArgument(arguments, "cron expression");
+            CronExpression.parse(defaultSchedule);
+        }
+
+        BackupScheduler scheduler = new BackupScheduler(getJBackup(), configurationDir.resolve(BackupScheduler.STATE_FILE));
+        scheduler.addListener((config, error) -> report("backup", config, error));
+        getManager().getBackupConfigurations();
+        boolean allConfigurations = "--all".equals(arguments.peekFirst());
+        Set<String> names = new HashSet<>();
+        boolean scheduled = false;
+        for (BackupConfiguration config : getConfigurations(arguments)) {
+            names.add(config.getName());
+            if (schedule(scheduler, config, defaultSchedule)) {
+                scheduled = true;
+                err.println('[' + config.getName() + "] next backup at " + scheduler.getNextRun(config.getName()));
+            } else {
+                err.println('[' + config.getName() + "] no schedule, ignored");
+            }
+        }
+        if (!scheduled && !allConfigurations) {
+            throw new IllegalArgumentException("no configuration to schedule");
+        }
+
+        // the configurations changed by other programs are rescheduled
+        final String finalDefaultSchedule = defaultSchedule;
+        getManager().addListener(new ConfigurationListener() {
+            @Override
+            public void configurationAdded(int index, BackupConfiguration config) {
+                if (allConfigurations) {
+                    names.add(config.getName());
+                    reschedule(scheduler, config, finalDefaultSchedule);
+                }
+            }
+
+            @Override
+            public void configurationUpdated(int index, BackupConfiguration oldConfig, BackupConfiguration newConfig) {
+                if (names.contains(newConfig.getName())) {
+                    reschedule(scheduler, newConfig, finalDefaultSchedule);
+                }
+            }
+
+            @Override
+            public void configurationRemoved(int index, BackupConfiguration config) {
+                scheduler.unschedule(config.getName());
+                getJBackup().removeProgressListeners(config.getName());
+            }
+        });
+        getManager().addListener(getJBackup().getConfigurationListener());
+        getManager().startWatching(Runnable::run);
+
+        scheduler.start();
+        try {
+            while (!stopped) {
+                Thread.sleep(DAEMON_PERIOD);
+            }
+        } finally {
+            getManager().stopWatching();
+            scheduler.stop();
+        }
+
+        scheduler.awaitRunningBackups();
+        return EXIT_SUCCESS;
+    }
+
+    /**
+     * The default schedule is only given to the scheduler : the configuration, shared with the configuration manager,
+     * is not modified.
+     *
+     * @return true if the configuration has been scheduled, false if it has no schedule.
+     */
+    private static boolean schedule(BackupScheduler scheduler, BackupConfiguration config, String defaultSchedule) {
+        String schedule = StringUtils.isBlank(config.getSchedule()) ? defaultSchedule : config.getSchedule();
+        scheduler.schedule(config, schedule);
+        return scheduler.getNextRun(config.getName()) != null;
+    }
+
+    private static void reschedule(BackupScheduler scheduler, BackupConfiguration config, String defaultSchedule) {
+        try {
+            schedule(scheduler, config, defaultSchedule);
+        } catch (IllegalArgumentException e) {
+            LOG.error("Invalid schedule for configuration '" + config.getName() + "'", e);
+            scheduler.unschedule(config.getName());
+        }
+    }
+
+    /**
+     * Waits for the end of a task and prints its summary.
+     * @return true if the task was successful.
+     */
+    private boolean waitFor(String operation, BackupConfiguration config, Future<Void> future)
+        throws InterruptedException {
+        Throwable error = null;
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            error = e.getCause();
+        } catch (CancellationException e) {
+            error = e;
+        }
+
+        report(operation, config, error);
+        return error == null;
+    }
+
+    private void report(String operation, BackupConfiguration config, Throwable error) {
+        TaskMetrics metrics = getJBackup().getMetrics().getLastMetrics(config.getName());
+        if (json && (metrics != null)) {
+            (streaming ? err : out).println(metrics.toJson());
+        }
+        if (error == null) {
+            String details = (metrics == null) ? "" :
+                (" in " + metrics.getWallTime() + " ms" + ((metrics.getArchive() == null) ? "" : (" : " + metrics.getArchive())));
+            getProgressOutput().println('[' + config.getName() + "] " + operation + " succeeded" + details);
+        } else {
+            LOG.error(operation + " failed for configuration '" + config.getName() + "'", error);
+            err.println('[' + config.getName() + "] " + operation + " failed : " + error);
+        }
+    }
+
+    private List<BackupConfiguration> getConfigurations(LinkedList<String> arguments) throws ConfigurationException {
+        if (arguments.isEmpty()) {
+            throw new IllegalArgumentException("missing configuration");
+        }
+
+        List<BackupConfiguration> configs = new ArrayList<>();
+        if ("--all".equals(arguments.getFirst())) {
+            arguments.removeFirst();
+            checkNoMoreArguments(arguments);
+            configs.addAll(getManager().getBackupConfigurations());
+        } else {
+            while (!arguments.isEmpty()) {
+                configs.add(getConfiguration(arguments.removeFirst()));
+            }
+        }
+        return configs;
+    }
+
+    private BackupConfiguration getConfiguration(String name) throws ConfigurationException {
+        BackupConfiguration config = getManager().getBackupConfiguration(name);
+        if (config == null) {
+            throw new ConfigurationException("unknown configuration '" + name + "'");
+        }
+        return config;
+    }
+
+    private static Path getArchive(BackupConfiguration config, LinkedList<String> arguments)
+        throws IOException, ConfigurationException {
+        if (!arguments.isEmpty()) {
+            return Paths.get(arguments.removeFirst());
+        }
+
+        Path archive = ConfigurationManager.getLatestArchive(config);
+        if (archive == null) {
+            throw new ConfigurationException("no archive for configuration '" + config.getName() + "'");
+        }
+        return archive;
+    }
+
+    private static String getArgument(LinkedList<String> arguments, String name) {
+        if (arguments.isEmpty()) {
+            throw new IllegalArgumentException("missing " + name);
+        }
+        return arguments.removeFirst();
+    }
+
+    private static void checkNoMoreArguments(LinkedList<String> arguments) {
+        if (!arguments.isEmpty()) {
+            throw new IllegalArgumentException("unexpected arguments " + arguments);
+        }
+    }
+
+    private ConfigurationManager getManager() {
+        if (manager == null) {
+            manager = new ConfigurationManager(configurationDir, indexedStore);
+        }
+        return manager;
+    }
+
+    private JBackupImpl getJBackup() {
+        if (jbackup == null) {
+            jbackup = new JBackupImpl();
+            jbackup.addProgressListener(new ConsoleProgressListener(getProgressOutput()));
+        }
+        return jbackup;
+    }
+
+    private PrintStream getProgressOutput() {
+        return (json || streaming) ? err : out;
+    }
+}
@@ -22,20 +22,31 @@ package fr.duminy.jbackup.core.command;
 
 import fr.duminy.components.chain.CommandException;
 import fr.duminy.jbackup.core.archive.ArchiveException;
+import fr.duminy.jbackup.core.archive.CollectedFiles;
 import fr.duminy.jbackup.core.archive.FileCollector;
 
-import java.util.ArrayList;
+import static fr.duminy.jbackup.core.archive.CollectedFiles.DEFAULT_MAX_FILES_IN_MEMORY;
 
 public class CollectFilesCommand implements JBackupCommand {
     private final FileCollector fileCollector;
+    private final int maxFilesInMemory;
 
     public CollectFilesCommand(FileCollector fileCollector) {
+        this(fileCollector, DEFAULT_MAX_FILES_IN_MEMORY);
+    }
+
+    /**
+     * @param fileCollector    The collector of files.
+     * @param maxFilesInMemory The number of collected files beyond which they are stored in a temporary file.
+     */
+    public CollectFilesCommand(FileCollector fileCollector, int maxFilesInMemory) {
         this.fileCollector = fileCollector;
+        this.maxFilesInMemory = maxFilesInMemory;
     }
 
     @Override
     public void execute(JBackupContext context) throws CommandException {
-        ((MutableJBackupContext) context).setCollectedFiles(new ArrayList<>());
+        ((MutableJBackupContext) context).setCollectedFiles(new CollectedFiles(maxFilesInMemory, null));
         try {
             fileCollector
                 .collectFiles(context.getCollectedFiles(), context.getArchiveParameters(), context.getListener(),
@@ -23,18 +23,95 @@ package fr.duminy.jbackup.core.command;
 import fr.duminy.components.chain.CommandException;
 import fr.duminy.jbackup.core.archive.ArchiveException;
 import fr.duminy.jbackup.core.archive.ArchiveFactory;
+import fr.duminy.jbackup.core.archive.ArchiveParameters;
+import fr.duminy.jbackup.core.archive.Checkpoint;
 import fr.duminy.jbackup.core.archive.Compressor;
+import fr.duminy.jbackup.core.archive.Volumes;
+import fr.duminy.jbackup.core.task.TaskScheduler;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 public class CompressCommand implements JBackupCommand {
+    private final TaskScheduler scheduler;
+
+    public CompressCommand() {
+        this(null);
+    }
+
+    /**
+     * @param scheduler The scheduler running the compression, which is CPU-bound, with the budget of the device of
+     *                  the archive. If null, the archive is compressed by the calling thread.
+     */
+    public CompressCommand(TaskScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
     @Override
     public void execute(JBackupContext context) throws CommandException {
-        context.getFileDeleter().registerFile(context.getArchiveParameters().getArchive());
+        ArchiveParameters archiveParameters = context.getArchiveParameters();
+        Path archive = archiveParameters.getArchive();
+        boolean streamed = archiveParameters.getOutputStream() != null;
+        boolean split = !streamed && (archiveParameters.getVolumeSize() > 0);
+        if (!streamed) {
+            context.getFileDeleter().registerFile(archive);
+        }
+        if (!streamed && (split || !archiveParameters.isResumable())) {
+            // otherwise, the partial archive is kept to resume the backup
+            context.getFileDeleter().registerFile(Checkpoint.getPartialArchive(archive));
+        }
         try {
-            createCompressor(context.getFactory())
-                .compress(context.getArchiveParameters(), context.getCollectedFiles(), context.getListener(),
-                          context.getCancellable());
+            compress(context, streamed ? null : archive.getParent());
         } catch (ArchiveException e) {
             throw new CommandException(e);
+        } finally {
+            if (split) {
+                registerSecondaryFiles(context, archive);
+            }
+        }
+    }
+
+    private void compress(JBackupContext context, Path targetDirectory) throws ArchiveException {
+        Compressor compressor = createCompressor(context.getFactory());
+        if (scheduler == null) {
+            compressor.compress(context.getArchiveParameters(), context.getCollectedFiles(), context.getListener(),
+                                context.getCancellable());
+            return;
+        }
+
+        Future<Void> future = scheduler.submit(() -> {
+            compressor.compress(context.getArchiveParameters(), context.getCollectedFiles(), context.getListener(),
+                                context.getCancellable());
+            return null;
+        }, targetDirectory, 0);
+        // the compression is not interrupted : it stops at the next file when the task is cancelled, and the files are
+        // only deleted once it's finished
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    future.get();
+                    return;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof ArchiveException) {
+                        throw (ArchiveException) cause;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new ArchiveException((Exception) cause);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
         }
     }
 
@@ -43,6 +120,20 @@ public class CompressCommand implements JBackupCommand {
         context.getFileDeleter().deleteAll();
     }
 
+    /**
+     * Registers the files of a split archive, except the first volume, which is already registered.
+     * The first volume may not have been committed, so the volumes are looked for by index.
+     */
+    private static void registerSecondaryFiles(JBackupContext context, Path archive) {
+        for (int index = 2; Files.exists(Volumes.getVolume(archive, index)); index++) {
+            context.getFileDeleter().registerFile(Volumes.getVolume(archive, index));
+        }
+        Path checksumsFile = Volumes.getChecksumsFile(archive);
+        if (Files.exists(checksumsFile)) {
+            context.getFileDeleter().registerFile(checksumsFile);
+        }
+    }
+
     Compressor createCompressor(ArchiveFactory factory) {
         return new Compressor(factory);
     }
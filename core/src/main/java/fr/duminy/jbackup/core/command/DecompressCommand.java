@@ -30,9 +30,15 @@ public class DecompressCommand implements JBackupCommand {
     public void execute(JBackupContext context) throws CommandException {
         context.getFileDeleter().registerDirectory(context.getTargetDirectory());
         try {
-            createDecompressor(context.getFactory())
-                .decompress(context.getArchivePath(), context.getTargetDirectory(), context.getListener(),
-                            context.getCancellable());
+            Decompressor decompressor = createDecompressor(context.getFactory());
+            if (context.getArchivePath() == null) {
+                // the archive is read from a stream, like the standard input
+                decompressor.decompress(context.getArchive(), context.getTargetDirectory(), context.getListener(),
+                                        context.getCancellable());
+            } else {
+                decompressor.decompress(context.getArchivePath(), context.getTargetDirectory(), context.getListener(),
+                                        context.getCancellable());
+            }
         } catch (ArchiveException e) {
             throw new CommandException(e);
         }
@@ -23,17 +23,16 @@ package fr.duminy.jbackup.core.command;
 import fr.duminy.jbackup.core.Cancellable;
 import fr.duminy.jbackup.core.archive.ArchiveFactory;
 import fr.duminy.jbackup.core.archive.ArchiveParameters;
-import fr.duminy.jbackup.core.archive.SourceWithPath;
+import fr.duminy.jbackup.core.archive.CollectedFiles;
 import fr.duminy.jbackup.core.task.TaskListener;
 import fr.duminy.jbackup.core.util.FileDeleter;
 import fr.duminy.jbackup.core.util.InputStreamComparator;
 
 import java.io.InputStream;
 import java.nio.file.Path;
-import java.util.List;
 
 public interface JBackupContext {
-    List<SourceWithPath> getCollectedFiles();
+    CollectedFiles getCollectedFiles();
 
     ArchiveParameters getArchiveParameters();
 
@@ -23,17 +23,19 @@ package fr.duminy.jbackup.core.command;
 import fr.duminy.jbackup.core.Cancellable;
 import fr.duminy.jbackup.core.archive.ArchiveFactory;
 import fr.duminy.jbackup.core.archive.ArchiveParameters;
-import fr.duminy.jbackup.core.archive.SourceWithPath;
+import fr.duminy.jbackup.core.archive.CollectedFiles;
+import fr.duminy.jbackup.core.archive.Volumes;
 import fr.duminy.jbackup.core.task.TaskListener;
 import fr.duminy.jbackup.core.util.FileDeleter;
 import fr.duminy.jbackup.core.util.InputStreamComparator;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.nio.file.Path;
-import java.util.List;
 
 public class MutableJBackupContext implements JBackupContext {
-    private List<SourceWithPath> collectedFiles;
+    private CollectedFiles collectedFiles;
     private ArchiveParameters archiveParameters;
     private TaskListener listener;
     private Cancellable cancellable;
@@ -45,7 +47,7 @@ public class MutableJBackupContext implements JBackupContext {
     private FileDeleter fileDeleter;
 
     @Override
-    public List<SourceWithPath> getCollectedFiles() {
+    public CollectedFiles getCollectedFiles() {
         return collectedFiles;
     }
 
@@ -64,7 +66,7 @@ public class MutableJBackupContext implements JBackupContext {
         return cancellable;
     }
 
-    public void setCollectedFiles(List<SourceWithPath> collectedFiles) {
+    public void setCollectedFiles(CollectedFiles collectedFiles) {
         this.collectedFiles = collectedFiles;
     }
 
@@ -98,8 +100,18 @@ public class MutableJBackupContext implements JBackupContext {
         this.factory = factory;
     }
 
+    /**
+     * @return The archive stream if it was set, otherwise a new stream reading the archive at {@link #getArchivePath()}.
+     */
     @Override
     public InputStream getArchive() {
+        if ((archive == null) && (archivePath != null)) {
+            try {
+                return Volumes.newInputStream(archivePath);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
         return archive;
     }
 
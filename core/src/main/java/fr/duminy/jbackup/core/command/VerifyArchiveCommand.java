@@ -22,6 +22,7 @@ package fr.duminy.jbackup.core.command;
 
 import fr.duminy.components.chain.CommandException;
 import fr.duminy.jbackup.core.archive.ArchiveVerifier;
+import fr.duminy.jbackup.core.archive.Volumes;
 import fr.duminy.jbackup.core.task.BackupTask;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -45,6 +46,11 @@ public class VerifyArchiveCommand implements JBackupCommand {
         String archive = context.getArchivePath().getFileName().toString();
         LOG.info("Verifing archive {}", archive);
         try (InputStream archiveInputStream = context.getArchive()) {
+            if (!Volumes.checkIntegrity(context.getArchivePath())) {
+                LOG.error("Archive {} has corrupted volumes", archive);
+                throw new BackupTask.VerificationFailedException("Archive volumes verification failed");
+            }
+
             final boolean valid = verifier
                 .verify(context.getFactory(), archiveInputStream, context.getCollectedFiles());
             if (valid) {
@@ -0,0 +1,120 @@
+/**
+ * JBackup is a software managing backups.
+ *
+ * Copyright (C) 2013-2017 Fabien DUMINY (fabien [dot] duminy [at] webmails [dot] com)
+ *
+ * JBackup is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * JBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ */
+package fr.duminy.jbackup.core.metrics;
+
+import fr.duminy.jbackup.core.task.TaskScheduler;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Aggregates the metrics of the tasks and the queue of a {@link TaskScheduler}.
+ */
+public class JBackupMetrics implements JBackupMetricsMBean {
+    private final TaskScheduler scheduler;
+    private final LongAdder successfulTasks = new LongAdder();
+    private final LongAdder failedTasks = new LongAdder();
+    private final LongAdder totalFiles = new LongAdder();
+    private final LongAdder totalUncompressedSize = new LongAdder();
+    private final LongAdder totalArchiveSize = new LongAdder();
+    private final Map<String, TaskMetrics> lastMetrics = new ConcurrentHashMap<>();
+    private volatile TaskMetrics lastTaskMetrics;
+
+    public JBackupMetrics(TaskScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    public void taskFinished(TaskMetrics metrics) {
+        (metrics.isSuccessful() ? successfulTasks : failedTasks).increment();
+        addIfKnown(totalFiles, metrics.getFiles());
+        addIfKnown(totalUncompressedSize, metrics.getUncompressedSize());
+        addIfKnown(totalArchiveSize, metrics.getArchiveSize());
+        if (metrics.getConfigurationName() != null) {
+            lastMetrics.put(metrics.getConfigurationName(), metrics);
+        }
+        lastTaskMetrics = metrics;
+    }
+
+    /**
+     * @return The metrics of the last finished task of the given configuration, or null if there is none.
+     */
+    public TaskMetrics getLastMetrics(String configurationName) {
+        return lastMetrics.get(configurationName);
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return scheduler.getQueueDepth();
+    }
+
+    @Override
+    public int getRunningTaskCount() {
+        return scheduler.getRunningTaskCount();
+    }
+
+    @Override
+    public long getAverageQueueWaitTime() {
+        return scheduler.getAverageWaitTime();
+    }
+
+    @Override
+    public long getMaxQueueWaitTime() {
+        return scheduler.getMaxWaitTime();
+    }
+
+    @Override
+    public long getSuccessfulTaskCount() {
+        return successfulTasks.sum();
+    }
+
+    @Override
+    public long getFailedTaskCount() {
+        return failedTasks.sum();
+    }
+
+    @Override
+    public long getTotalFiles() {
+        return totalFiles.sum();
+    }
+
+    @Override
+    public long getTotalUncompressedSize() {
+        return totalUncompressedSize.sum();
+    }
+
+    @Override
+    public long getTotalArchiveSize() {
+        return totalArchiveSize.sum();
+    }
+
+    @Override
+    public String getLastReport() {
+        TaskMetrics metrics = lastTaskMetrics;
+        return (metrics == null) ? null : metrics.toJson();
+    }
+
+    private static void addIfKnown(LongAdder adder, long value) {
+        if (value > 0) {
+            adder.add(value);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/**
+ * JBackup is a software managing backups.
+ *
+ * Copyright (C) 2013-2017 Fabien DUMINY (fabien [dot] duminy [at] webmails [dot] com)
+ *
+ * JBackup is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * JBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ */
+package fr.duminy.jbackup.core.metrics;
+
+/**
+ * JMX view of {@link JBackupMetrics}. Times are in milliseconds, sizes in bytes.
+ */
+public interface JBackupMetricsMBean {
+    int getQueueDepth();
+
+    int getRunningTaskCount();
+
+    long getAverageQueueWaitTime();
+
+    long getMaxQueueWaitTime();
+
+    long getSuccessfulTaskCount();
+
+    long getFailedTaskCount();
+
+    long getTotalFiles();
+
+    long getTotalUncompressedSize();
+
+    long getTotalArchiveSize();
+
+    /**
+     * @return The report of the last finished task, in JSON format, or null if no task has finished.
+     */
+    String getLastReport();
+}
@@ -0,0 +1,284 @@
+/**
+ * JBackup is a software managing backups.
+ *
+ * Copyright (C) 2013-2017 Fabien DUMINY (fabien [dot] duminy [at] webmails [dot] com)
+ *
+ * JBackup is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * JBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ */
+package fr.duminy.jbackup.core.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Metrics of a task execution : timings of the task and its commands, and the processed volume.
+ * <br>
+ * An instance is filled by the thread running the task. It must only be read once the task is finished.
+ * Times are in milliseconds, sizes in bytes. Unknown values are negative.
+ */
+public class TaskMetrics {
+    /**
+     * Extension of the report files written beside the archives.
+     */
+    public static final String REPORT_EXTENSION = ".report.json";
+
+    private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+
+    private final String configurationName;
+    private final String taskType;
+    private final Map<String, CommandMetrics> commands = new LinkedHashMap<>();
+    private long startTime = -1L;
+    private long startNanoTime;
+    private long wallTime = -1L;
+    private long queueWaitTime = -1L;
+    private boolean successful;
+    private Path archive;
+    private long files = -1L;
+    private long uncompressedSize = -1L;
+    private long archiveSize = -1L;
+
+    public TaskMetrics(String configurationName, String taskType) {
+        this.configurationName = configurationName;
+        this.taskType = taskType;
+    }
+
+    public void taskStarted() {
+        startTime = System.currentTimeMillis();
+        startNanoTime = System.nanoTime();
+    }
+
+    public void taskFinished(Throwable error) {
+        wallTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanoTime);
+        successful = (error == null);
+    }
+
+    /**
+     * Must be called by the thread executing the command.
+     */
+    public void commandStarted(String commandName) {
+        CommandMetrics command = new CommandMetrics();
+        command.startNanoTime = System.nanoTime();
+        command.startCpuTime = getCurrentThreadCpuTime();
+        commands.put(commandName, command);
+    }
+
+    /**
+     * Must be called by the thread executing the command.
+     */
+    public void commandFinished(String commandName) {
+        CommandMetrics command = commands.get(commandName);
+        if (command != null) {
+            command.wallTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - command.startNanoTime);
+            long cpuTime = getCurrentThreadCpuTime();
+            if ((cpuTime >= 0) && (command.startCpuTime >= 0)) {
+                command.cpuTime = TimeUnit.NANOSECONDS.toMillis(cpuTime - command.startCpuTime);
+            }
+        }
+    }
+
+    public String getConfigurationName() {
+        return configurationName;
+    }
+
+    public String getTaskType() {
+        return taskType;
+    }
+
+    /**
+     * @return The metrics of the executed commands, by command name and in execution order.
+     */
+    public Map<String, CommandMetrics> getCommands() {
+        return Collections.unmodifiableMap(commands);
+    }
+
+    /**
+     * @return The start time of the task, as returned by {@link System#currentTimeMillis()}.
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public long getWallTime() {
+        return wallTime;
+    }
+
+    public long getQueueWaitTime() {
+        return queueWaitTime;
+    }
+
+    public void setQueueWaitTime(long queueWaitTime) {
+        this.queueWaitTime = queueWaitTime;
+    }
+
+    public boolean isSuccessful() {
+        return successful;
+    }
+
+    public Path getArchive() {
+        return archive;
+    }
+
+    public void setArchive(Path archive) {
+        this.archive = archive;
+    }
+
+    public long getFiles() {
+        return files;
+    }
+
+    public void setFiles(long files) {
+        this.files = files;
+    }
+
+    public long getUncompressedSize() {
+        return uncompressedSize;
+    }
+
+    public void setUncompressedSize(long uncompressedSize) {
+        this.uncompressedSize = uncompressedSize;
+    }
+
+    public long getArchiveSize() {
+        return archiveSize;
+    }
+
+    public void setArchiveSize(long archiveSize) {
+        this.archiveSize = archiveSize;
+    }
+
+    public long getBytesPerSecond() {
+        return perSecond(uncompressedSize);
+    }
+
+    public long getFilesPerSecond() {
+        return perSecond(files);
+    }
+
+    /**
+     * @return The size of the archive divided by the size of the archived files, or a negative value if unknown.
+     */
+    public double getCompressionRatio() {
+        return ((archiveSize < 0) || (uncompressedSize <= 0)) ? -1d : ((double) archiveSize / uncompressedSize);
+    }
+
+    public String toJson() {
+        StringBuilder json = new StringBuilder(512);
+        json.append("{\n");
+        appendField(json, "configurationName", configurationName);
+        appendField(json, "taskType", taskType);
+        appendField(json, "archive", (archive == null) ? null : archive.toString());
+        appendField(json, "successful", successful);
+        appendField(json, "startTime", startTime);
+        appendField(json, "queueWaitTime", queueWaitTime);
+        appendField(json, "wallTime", wallTime);
+        appendField(json, "files", files);
+        appendField(json, "uncompressedSize", uncompressedSize);
+        appendField(json, "archiveSize", archiveSize);
+        appendField(json, "bytesPerSecond", getBytesPerSecond());
+        appendField(json, "filesPerSecond", getFilesPerSecond());
+        appendField(json, "compressionRatio", getCompressionRatio());
+        json.append("  \"commands\": {");
+        String separator = "\n";
+        for (Map.Entry<String, CommandMetrics> command : commands.entrySet()) {
+            json.append(separator).append("    ").append(quote(command.getKey()))
+                .append(": {\"wallTime\": ").append(command.getValue().wallTime)
+                .append(", \"cpuTime\": ").append(command.getValue().cpuTime).append('}');
+            separator = ",\n";
+        }
+        json.append(commands.isEmpty() ? "}\n" : "\n  }\n");
+        json.append('}');
+        return json.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "TaskMetrics{" +
+                "configurationName='" + configurationName + '\'' +
+                ", taskType='" + taskType + '\'' +
+                ", successful=" + successful +
+                ", wallTime=" + wallTime +
+                ", queueWaitTime=" + queueWaitTime +
+                ", files=" + files +
+                ", uncompressedSize=" + uncompressedSize +
+                ", archiveSize=" + archiveSize +
+                ", commands=" + commands +
+                '}';
+    }
+
+    /**
+     * Timings of a command.
+     */
+    public static final class CommandMetrics {
+        private long startNanoTime;
+        private long startCpuTime;
+        private long wallTime = -1L;
+        private long cpuTime = -1L;
+
+        public long getWallTime() {
+            return wallTime;
+        }
+
+        /**
+         * @return The CPU time used by the command, or a negative value if the JVM doesn't measure it.
+         */
+        public long getCpuTime() {
+            return cpuTime;
+        }
+
+        @Override
+        public String toString() {
+            return "{wallTime=" + wallTime + ", cpuTime=" + cpuTime + '}';
+        }
+    }
+
+    private long perSecond(long value) {
+        return ((value < 0) || (wallTime <= 0)) ? -1L : ((value * 1000L) / wallTime);
+    }
+
+    private static long getCurrentThreadCpuTime() {
+        return (THREAD_MX_BEAN.isCurrentThreadCpuTimeSupported() && THREAD_MX_BEAN.isThreadCpuTimeEnabled()) ?
+            THREAD_MX_BEAN.getCurrentThreadCpuTime() : -1L;
+    }
+
+    private static void appendField(StringBuilder json, String name, Object value) {
+        json.append("  ").append(quote(name)).append(": ");
+        json.append((value instanceof String) ? quote((String) value) : String.valueOf(value));
+        json.append(",\n");
+    }
+
+    private static String quote(String value) {
+        if (value == null) {
+            return "null";
+        }
+
+        StringBuilder result = new StringBuilder(value.length() + 2).append('"');
+        for (char c : value.toCharArray()) {
+            if ((c == '"') || (c == '\\')) {
+                result.append('\\').append(c);
+            } else if (c < 0x20) {
+                result.append(String.format("\\u%04x", (int) c));
+            } else {
+                result.append(c);
+            }
+        }
+        return result.append('"').toString();
+    }
+}
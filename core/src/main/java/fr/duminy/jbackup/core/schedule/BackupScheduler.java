@@ -0,0 +1,401 @@
+/**
+ * JBackup is a software managing backups.
+ *
+ * Copyright (C) 2013-2017 Fabien DUMINY (fabien [dot] duminy [at] webmails [dot] com)
+ *
+ * JBackup is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * JBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ */
+package fr.duminy.jbackup.core.schedule;
+
+import fr.duminy.jbackup.core.BackupConfiguration;
+import fr.duminy.jbackup.core.JBackup;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * Runs the backups of the configurations according to their {@link BackupConfiguration#getSchedule() schedule}.
+ * <br>
+ * At most one backup of a configuration runs at a time : a run which is due while the previous one is still running
+ * is skipped. The start time of the last successful run of each configuration is persisted in a local file, so that a
+ * run missed (or failed) while the scheduler was stopped is caught up when it starts again (several missed runs give a
+ * single backup).
+ * A random delay (up to {@link #setMaxJitter(long) maxJitter}) is added to each run, to spread the backups of
+ * the configurations due at the same time.
+ */
+public class BackupScheduler {
+    private static final Logger LOG = LoggerFactory.getLogger(BackupScheduler.class);
+
+    /**
+     * The default name of the file of the scheduler state.
+     */
+    public static final String STATE_FILE = "scheduler.properties";
+
+    /**
+     * The default maximum random delay (in milliseconds) added to each run.
+     */
+    public static final long DEFAULT_MAX_JITTER = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * The period (in milliseconds) between 2 checks of the due and finished backups.
+     */
+    static final long PERIOD = TimeUnit.SECONDS.toMillis(10);
+
+    private static final String LAST_RUN = ".lastRun";
+    private static final String LAST_RESULT = ".lastResult";
+    private static final String SUCCESS = "success";
+    private static final String FAILURE = "failure";
+
+    /**
+     * Notified when a backup started by the scheduler is finished.
+     */
+    @FunctionalInterface
+    public interface Listener {
+        /**
+         * @param config The configuration of the backup.
+         * @param error  The error of the backup, or null if it has succeeded.
+         */
+        void backupFinished(BackupConfiguration config, Throwable error);
+    }
+
+    private final JBackup jbackup;
+    private final Path stateFile;
+    private final Clock clock;
+    private final Random random;
+    private final Properties state = new Properties();
+    private final Map<String, ScheduledBackup> scheduledBackups = new HashMap<>();
+    private final Map<String, RunningBackup> runningBackups = new HashMap<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private long maxJitter = DEFAULT_MAX_JITTER;
+    private ScheduledExecutorService executor;
+
+    /**
+     * @param jbackup   The object running the backups.
+     * @param stateFile The file where the state of the scheduler is persisted.
+     * @throws IOException if the state file can't be read.
+     */
+    public BackupScheduler(JBackup jbackup, Path stateFile) throws IOException {
+        this(jbackup, stateFile, Clock.systemDefaultZone(), new Random());
+    }
+
+    BackupScheduler(JBackup jbackup, Path stateFile, Clock clock, Random random) throws IOException {
+        this.jbackup = jbackup;
+        this.stateFile = stateFile;
+        this.clock = clock;
+        this.random = random;
+
+        if (Files.exists(stateFile)) {
+            try (InputStream input = Files.newInputStream(stateFile)) {
+                state.load(input);
+            }
+        }
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @param maxJitter The maximum random delay (in milliseconds) added to each run, 0 to disable it.
+     */
+    public synchronized void setMaxJitter(long maxJitter) {
+        this.maxJitter = maxJitter;
+    }
+
+    /**
+     * Schedules the backups of a configuration, or reschedules them if the configuration was already scheduled.
+     * A configuration without schedule is unscheduled.
+     *
+     * @param config The configuration.
+     * @throws IllegalArgumentException if the schedule of the configuration is invalid.
+     */
+    public void schedule(BackupConfiguration config) {
+        schedule(config, config.getSchedule());
+    }
+
+    /**
+     * Schedules the backups of a configuration with the given schedule instead of its own one, which is left unchanged.
+     * A blank schedule unschedules the configuration.
+     *
+     * @param config   The configuration.
+     * @param schedule The cron expression of the backups.
+     * @throws IllegalArgumentException if the schedule is invalid.
+     */
+    public synchronized void schedule(BackupConfiguration config, String schedule) {
+        if (StringUtils.isBlank(schedule)) {
+            unschedule(config.getName());
+            return;
+        }
+
+        CronExpression cron = CronExpression.parse(schedule);
+        ZonedDateTime now = ZonedDateTime.now(clock);
+        ZonedDateTime lastRun = getLastRun(config.getName());
+        if (lastRun == null) {
+            // no catch up for the runs due before the configuration was scheduled for the first time
+            lastRun = now;
+            setLastRun(config.getName(), now);
+            saveState();
+        }
+
+        ZonedDateTime dueTime = cron.next(lastRun);
+        if ((dueTime != null) && dueTime.isBefore(now)) {
+            LOG.info("Backup of '{}' missed at {}, it will be caught up", config.getName(), dueTime);
+        }
+        scheduledBackups.put(config.getName(), new ScheduledBackup(config, cron, dueTime));
+    }
+
+    /**
+     * @param configurationName The name of the configuration whose backups must not be run anymore.
+     */
+    public synchronized void unschedule(String configurationName) {
+        scheduledBackups.remove(configurationName);
+    }
+
+    /**
+     * Starts a backup of the given configuration unless one is already running : {@link JBackup#backup} then returns
+     * the running one.
+     *
+     * @param config The configuration.
+     * @return The future result of the new backup, or of the running one.
+     */
+    public synchronized Future<Void> backup(BackupConfiguration config) {
+        Future<Void> future = jbackup.backup(config);
+        RunningBackup runningBackup = runningBackups.get(config.getName());
+        if ((runningBackup == null) || (runningBackup.future != future)) {
+            runningBackups.put(config.getName(), new RunningBackup(config, future, ZonedDateTime.now(clock)));
+        }
+        return future;
+    }
+
+    /**
+     * @return true if a backup of the given configuration is running.
+     */
+    public synchronized boolean isRunning(String configurationName) {
+        RunningBackup runningBackup = runningBackups.get(configurationName);
+        return (runningBackup != null) && !runningBackup.future.isDone();
+    }
+
+    /**
+     * @return The time of the next run of the given configuration, or null if it's not scheduled.
+     */
+    public synchronized ZonedDateTime getNextRun(String configurationName) {
+        ScheduledBackup scheduledBackup = scheduledBackups.get(configurationName);
+        return (scheduledBackup == null) ? null : scheduledBackup.startTime;
+    }
+
+    /**
+     * Starts checking periodically the due backups.
+     */
+    public synchronized void start() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadScheduledExecutor(
+                new BasicThreadFactory.Builder().namingPattern("jbackup-scheduler-%d").daemon(true).build());
+            executor.scheduleWithFixedDelay(this::safeTick, 0L, PERIOD, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stops checking the due backups. The running backups are not stopped.
+     */
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    private void safeTick() {
+        try {
+            tick();
+        } catch (RuntimeException e) {
+            LOG.error("Error in backup scheduler", e);
+        }
+    }
+
+    /**
+     * Waits for the end of the running backups and reports them.
+     */
+    public void awaitRunningBackups() throws InterruptedException {
+        List<Future<Void>> futures = new ArrayList<>();
+        synchronized (this) {
+            for (RunningBackup runningBackup : runningBackups.values()) {
+                futures.add(runningBackup.future);
+            }
+        }
+
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException | CancellationException e) {
+                // reported below
+            }
+        }
+        reportFinishedBackups();
+    }
+
+    /**
+     * Reports the finished backups and starts the due ones.
+     */
+    void tick() {
+        reportFinishedBackups();
+        startDueBackups();
+    }
+
+    private void reportFinishedBackups() {
+        Map<BackupConfiguration, Throwable> finishedBackups = new HashMap<>();
+        synchronized (this) {
+            for (Iterator<RunningBackup> it = runningBackups.values().iterator(); it.hasNext(); ) {
+                RunningBackup runningBackup = it.next();
+                if (runningBackup.future.isDone()) {
+                    it.remove();
+                    Throwable error = getError(runningBackup.future);
+                    state.setProperty(runningBackup.config.getName() + LAST_RESULT, (error == null) ? SUCCESS : FAILURE);
+                    if (error == null) {
+                        // a failed run is caught up when the scheduler starts again
+                        setLastRun(runningBackup.config.getName(), runningBackup.startTime);
+                    }
+                    finishedBackups.put(runningBackup.config, error);
+                }
+            }
+            if (!finishedBackups.isEmpty()) {
+                saveState();
+            }
+        }
+
+        for (Map.Entry<BackupConfiguration, Throwable> finishedBackup : finishedBackups.entrySet()) {
+            for (Listener listener : listeners) {
+                listener.backupFinished(finishedBackup.getKey(), finishedBackup.getValue());
+            }
+        }
+    }
+
+    private synchronized void startDueBackups() {
+        ZonedDateTime now = ZonedDateTime.now(clock);
+        for (ScheduledBackup scheduledBackup : scheduledBackups.values()) {
+            if ((scheduledBackup.startTime == null) || now.isBefore(scheduledBackup.startTime)) {
+                continue;
+            }
+
+            String name = scheduledBackup.config.getName();
+            if (isRunning(name)) {
+                LOG.warn("Backup of '{}' due at {} skipped : the previous one is still running", name,
+                         scheduledBackup.dueTime);
+            } else {
+                LOG.info("Starting backup of '{}' due at {}", name, scheduledBackup.dueTime);
+                backup(scheduledBackup.config);
+            }
+            scheduledBackup.setDueTime(scheduledBackup.cron.next(now));
+        }
+    }
+
+    private static Throwable getError(Future<Void> future) {
+        try {
+            future.get();
+            return null;
+        } catch (ExecutionException e) {
+            return e.getCause();
+        } catch (CancellationException e) {
+            return e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return e;
+        }
+    }
+
+    private ZonedDateTime getLastRun(String configurationName) {
+        String lastRun = state.getProperty(configurationName + LAST_RUN);
+        return (lastRun == null) ? null : ZonedDateTime.ofInstant(Instant.ofEpochMilli(Long.parseLong(lastRun)),
+                                                                  clock.getZone());
+    }
+
+    private void setLastRun(String configurationName, ZonedDateTime lastRun) {
+        state.setProperty(configurationName + LAST_RUN, Long.toString(lastRun.toInstant().toEpochMilli()));
+    }
+
+    private void saveState() {
+        Path tempFile = stateFile.resolveSibling(stateFile.getFileName() + ".tmp");
+        try {
+            try (OutputStream output = Files.newOutputStream(tempFile)) {
+                state.store(output, "JBackup scheduler state");
+            }
+            Files.move(tempFile, stateFile, ATOMIC_MOVE, REPLACE_EXISTING);
+        } catch (IOException e) {
+            LOG.error("Can't save scheduler state to " + stateFile, e);
+        }
+    }
+
+    private final class ScheduledBackup {
+        private final BackupConfiguration config;
+        private final CronExpression cron;
+        private ZonedDateTime dueTime;
+        private ZonedDateTime startTime;
+
+        private ScheduledBackup(BackupConfiguration config, CronExpression cron, ZonedDateTime dueTime) {
+            this.config = config;
+            this.cron = cron;
+            setDueTime(dueTime);
+        }
+
+        private void setDueTime(ZonedDateTime dueTime) {
+            this.dueTime = dueTime;
+            long jitter = (maxJitter > 0) ? (long) (random.nextDouble() * maxJitter) : 0L;
+            startTime = (dueTime == null) ? null : dueTime.plusNanos(TimeUnit.MILLISECONDS.toNanos(jitter));
+        }
+    }
+
+    private static final class RunningBackup {
+        private final BackupConfiguration config;
+        private final Future<Void> future;
+        private final ZonedDateTime startTime;
+
+        private RunningBackup(BackupConfiguration config, Future<Void> future, ZonedDateTime startTime) {
+            this.config = config;
+            this.future = future;
+            this.startTime = startTime;
+        }
+    }
+}
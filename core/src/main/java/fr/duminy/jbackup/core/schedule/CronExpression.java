@@ -0,0 +1,176 @@
+/**
+ * JBackup is a software managing backups.
+ *
+ * Copyright (C) 2013-2017 Fabien DUMINY (fabien [dot] duminy [at] webmails [dot] com)
+ *
+ * JBackup is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * JBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ */
+package fr.duminy.jbackup.core.schedule;
+
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.BitSet;
+
+/**
+ * A cron-like schedule made of 5 fields : minute, hour, day of month, month and day of week.
+ * <p>
+ * Each field is either <code>*</code> or a comma separated list of values (<code>5</code>), ranges (<code>1-5</code>)
+ * and steps (<code>*&#47;15</code> or <code>0-30/10</code>). The days of week go from 0 (sunday) to 7 (sunday again).
+ * As with cron, when both the day of month and the day of week are restricted, a day matching any of them is selected.
+ */
+public final class CronExpression {
+    /**
+     * Beyond that number of years without matching date, the expression is considered as never matching
+     * (for example <code>0 0 30 2 *</code>).
+     */
+    private static final int MAX_YEARS = 5;
+
+    private final String expression;
+    private final BitSet minutes;
+    private final BitSet hours;
+    private final BitSet daysOfMonth;
+    private final BitSet months;
+    private final BitSet daysOfWeek;
+    private final boolean anyDayOfMonth;
+    private final boolean anyDayOfWeek;
+
+    private CronExpression(String expression, String[] fields) {
+        this.expression = expression;
+        minutes = parseField(fields[0], 0, 59);
+        hours = parseField(fields[1], 0, 23);
+        daysOfMonth = parseField(fields[2], 1, 31);
+        months = parseField(fields[3], 1, 12);
+        daysOfWeek = parseField(fields[4], 0, 7);
+        if (daysOfWeek.get(7)) {
+            daysOfWeek.set(0);
+        }
+        anyDayOfMonth = "*".equals(fields[2]);
+        anyDayOfWeek = "*".equals(fields[4]);
+    }
+
+    /**
+     * @param expression The expression to parse.
+     * @return The parsed expression.
+     * @throws IllegalArgumentException if the expression is invalid.
+     */
+    public static CronExpression parse(String expression) {
+        if (expression == null) {
+            throw new IllegalArgumentException("cron expression is null");
+        }
+
+        String[] fields = expression.trim().split("\\s+");
+        if (fields.length != 5) {
+            throw new IllegalArgumentException("cron expression must have 5 fields : '" + expression + "'");
+        }
+        return new CronExpression(expression, fields);
+    }
+
+    /**
+     * @param time A date.
+     * @return The first date strictly after the given one and matching this expression, or null if there is none.
+     */
+    public ZonedDateTime next(ZonedDateTime time) {
+        ZonedDateTime next = time.truncatedTo(ChronoUnit.MINUTES).plusMinutes(1);
+        ZonedDateTime limit = time.plusYears(MAX_YEARS);
+        while (next.isBefore(limit)) {
+            if (!months.get(next.getMonthValue())) {
+                next = next.truncatedTo(ChronoUnit.DAYS).withDayOfMonth(1).plusMonths(1);
+            } else if (!matchesDay(next)) {
+                next = next.truncatedTo(ChronoUnit.DAYS).plusDays(1);
+            } else if (!hours.get(next.getHour())) {
+                next = next.truncatedTo(ChronoUnit.HOURS).plusHours(1);
+            } else if (!minutes.get(next.getMinute())) {
+                next = next.plusMinutes(1);
+            } else {
+                return next;
+            }
+        }
+        return null;
+    }
+
+    private boolean matchesDay(ZonedDateTime time) {
+        boolean dayOfMonth = daysOfMonth.get(time.getDayOfMonth());
+        boolean dayOfWeek = daysOfWeek.get(time.getDayOfWeek().getValue() % 7);
+        if (anyDayOfMonth || anyDayOfWeek) {
+            return dayOfMonth && dayOfWeek;
+        }
+        return dayOfMonth || dayOfWeek;
+    }
+
+    private static BitSet parseField(String field, int min, int max) {
+        BitSet values = new BitSet(max + 1);
+        for (String part : field.split(",")) {
+            int step = 1;
+            int slash = part.indexOf('/');
+            if (slash >= 0) {
+                step = parseValue(part.substring(slash + 1), 1, max, field);
+                part = part.substring(0, slash);
+            }
+
+            int start;
+            int end;
+            if ("*".equals(part)) {
+                start = min;
+                end = max;
+            } else {
+                int dash = part.indexOf('-');
+                if (dash >= 0) {
+                    start = parseValue(part.substring(0, dash), min, max, field);
+                    end = parseValue(part.substring(dash + 1), min, max, field);
+                    if (end < start) {
+                        throw new IllegalArgumentException("invalid range in cron field '" + field + "'");
+                    }
+                } else {
+                    start = parseValue(part, min, max, field);
+                    end = (slash >= 0) ? max : start;
+                }
+            }
+
+            for (int value = start; value <= end; value += step) {
+                values.set(value);
+            }
+        }
+        return values;
+    }
+
+    private static int parseValue(String value, int min, int max, String field) {
+        try {
+            int result = Integer.parseInt(value);
+            if ((result < min) || (result > max)) {
+                throw new IllegalArgumentException(
+                    "value " + result + " out of range [" + min + ", " + max + "] in cron field '" + field + "'");
+            }
+            return result;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid value '" + value + "' in cron field '" + field + "'", e);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return (this == o) || ((o instanceof CronExpression) && expression.equals(((CronExpression) o).expression));
+    }
+
+    @Override
+    public int hashCode() {
+        return expression.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+}
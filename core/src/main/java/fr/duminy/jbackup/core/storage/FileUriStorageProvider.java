@@ -0,0 +1,50 @@
+/**
+ * JBackup is a software managing backups.
+ *
+ * Copyright (C) 2013-2017 Fabien DUMINY (fabien [dot] duminy [at] webmails [dot] com)
+ *
+ * JBackup is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * JBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ */
+package fr.duminy.jbackup.core.storage;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Paths;
+
+/**
+ * Provides the storage of a <code>file:</code> URI target, like <code>file:///mnt/bucket/backups</code>.
+ * <br>
+ * Unlike a plain directory target, the archives are written sequentially through {@link Storage#put(String)}, without
+ * reading them again, nor renaming volumes or checkpoints. That suits the directories mounted from an object store
+ * (with s3fs or rclone for example), where random access and renames are slow.
+ */
+public class FileUriStorageProvider implements StorageProvider {
+    private static final String SCHEME = "file:";
+
+    @Override
+    public boolean accepts(String target) {
+        return target.regionMatches(true, 0, SCHEME, 0, SCHEME.length());
+    }
+
+    @Override
+    public Storage create(String target) throws IOException {
+        try {
+            return new LocalStorage(Paths.get(URI.create(target)));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid target '" + target + "'", e);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ * JBackup is a software managing backups.
+ *
+ * Copyright (C) 2013-2017 Fabien DUMINY (fabien [dot] duminy [at] webmails [dot] com)
+ *
+ * JBackup is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * JBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ */
+package fr.duminy.jbackup.core.storage;
+
+import fr.duminy.jbackup.core.archive.Checkpoint;
+import org.apache.commons.io.input.BoundedInputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * A storage in a local directory. The objects are files of the directory.
+ */
+public class LocalStorage implements Storage {
+    private final Path directory;
+
+    public LocalStorage(Path directory) {
+        this.directory = directory;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <br>
+     * The content is written in a partial file, which is renamed when the stream is closed.
+     */
+    @Override
+    public StorageOutputStream put(String name) throws IOException {
+        Files.createDirectories(directory);
+        final Path file = directory.resolve(name);
+        final Path partialFile = Checkpoint.getPartialArchive(file);
+        final OutputStream output = Files.newOutputStream(partialFile, CREATE, TRUNCATE_EXISTING, WRITE);
+        return new StorageOutputStream() {
+            private boolean closed;
+
+            @Override
+            public void write(int b) throws IOException {
+                output.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                output.write(b, off, len);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                output.flush();
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (!closed) {
+                    closed = true;
+                    output.close();
+                    Files.move(partialFile, file, ATOMIC_MOVE, REPLACE_EXISTING);
+                }
+            }
+
+            @Override
+            public void abort() throws IOException {
+                if (!closed) {
+                    closed = true;
+                    output.close();
+                    Files.deleteIfExists(partialFile);
+                }
+            }
+        };
+    }
+
+    @Override
+    public InputStream get(String name, long offset, long length) throws IOException {
+        FileChannel channel = FileChannel.open(directory.resolve(name), READ);
+        channel.position(offset);
+        InputStream input = Channels.newInputStream(channel);
+        return (length < 0) ? input : new BoundedInputStream(input, length);
+    }
+
+    @Override
+    public List<StoredObject> list() throws IOException {
+        List<StoredObject> objects = new ArrayList<>();
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory)) {
+            for (Path path : paths) {
+                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                if (attributes.isRegularFile()) {
+                    objects.add(new StoredObject(path.getFileName().toString(), attributes.size(),
+                                                 attributes.lastModifiedTime().toMillis()));
+                }
+            }
+        }
+        return objects;
+    }
+
+    @Override
+    public void delete(String name) throws IOException {
+        Files.deleteIfExists(directory.resolve(name));
+    }
+
+    @Override
+    public String toString() {
+        return "LocalStorage{directory=" + directory + '}';
+    }
+}
@@ -0,0 +1,71 @@
+/**
+ * JBackup is a software managing backups.
+ *
+ * Copyright (C) 2013-2017 Fabien DUMINY (fabien [dot] duminy [at] webmails [dot] com)
+ *
+ * JBackup is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * JBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ */
+package fr.duminy.jbackup.core.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * The operations of an object store used by {@link ObjectStoreStorage}, modelled after the multipart uploads of the
+ * usual cloud object stores. An implementation is a thin adapter to the client library of a given store.
+ * <br>
+ * The methods may be called concurrently.
+ */
+public interface ObjectStoreClient {
+    /**
+     * Starts the upload of an object whose content is sent in several parts.
+     *
+     * @return The identifier of the upload.
+     */
+    String createMultipartUpload(String key) throws IOException;
+
+    /**
+     * Uploads a part of an object. The parts may be uploaded in any order.
+     *
+     * @param partNumber The number of the part, starting at 1.
+     */
+    void uploadPart(String key, String uploadId, int partNumber, byte[] data, int length) throws IOException;
+
+    /**
+     * Makes the object visible, with the content of its parts concatenated in the order of their numbers.
+     *
+     * @param parts The number of uploaded parts.
+     */
+    void completeMultipartUpload(String key, String uploadId, int parts) throws IOException;
+
+    /**
+     * Discards the uploaded parts.
+     */
+    void abortMultipartUpload(String key, String uploadId) throws IOException;
+
+    /**
+     * @param length The number of bytes to read, or a negative value to read until the end of the object.
+     */
+    InputStream getObject(String key, long offset, long length) throws IOException;
+
+    /**
+     * @return The objects whose key starts with the given prefix, with their full key as name.
+     */
+    List<StoredObject> listObjects(String prefix) throws IOException;
+
+    void deleteObject(String key) throws IOException;
+}
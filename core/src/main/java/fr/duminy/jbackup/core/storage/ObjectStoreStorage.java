@@ -0,0 +1,262 @@
+/**
+ * JBackup is a software managing backups.
+ *
+ * Copyright (C) 2013-2017 Fabien DUMINY (fabien [dot] duminy [at] webmails [dot] com)
+ *
+ * JBackup is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * JBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ */
+package fr.duminy.jbackup.core.storage;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * A storage in an object store, like a bucket of a cloud provider. The objects are stored with a common key prefix.
+ * <br>
+ * An object is uploaded in parts, in parallel, while it's being written : the compression of an archive overlaps with
+ * its upload. The number of parts in flight is bounded, so that the memory used by an upload is bounded too
+ * (at most <code>(maxInFlightParts + 1) * partSize</code> bytes).
+ */
+public class ObjectStoreStorage implements Storage {
+    private static final Logger LOG = LoggerFactory.getLogger(ObjectStoreStorage.class);
+
+    public static final int DEFAULT_PART_SIZE = 8 * 1024 * 1024;
+    public static final int DEFAULT_MAX_IN_FLIGHT_PARTS = 4;
+
+    private final ObjectStoreClient client;
+    private final String prefix;
+    private final int partSize;
+    private final int maxInFlightParts;
+
+    public ObjectStoreStorage(ObjectStoreClient client, String prefix) {
+        this(client, prefix, DEFAULT_PART_SIZE, DEFAULT_MAX_IN_FLIGHT_PARTS);
+    }
+
+    /**
+     * @param prefix           The prefix of the keys of the objects, like <code>backups/</code>. It can be empty.
+     * @param partSize         The size of the uploaded parts, in bytes.
+     * @param maxInFlightParts The maximum number of parts of an object being uploaded at the same time.
+     */
+    public ObjectStoreStorage(ObjectStoreClient client, String prefix, int partSize, int maxInFlightParts) {
+        if (partSize <= 0) {
+            throw new IllegalArgumentException("partSize must be > 0");
+        }
+        if (maxInFlightParts <= 0) {
+            throw new IllegalArgumentException("maxInFlightParts must be > 0");
+        }
+        this.client = client;
+        this.prefix = prefix;
+        this.partSize = partSize;
+        this.maxInFlightParts = maxInFlightParts;
+    }
+
+    @Override
+    public StorageOutputStream put(String name) throws IOException {
+        String key = prefix + name;
+        return new MultipartOutputStream(key, client.createMultipartUpload(key));
+    }
+
+    @Override
+    public InputStream get(String name, long offset, long length) throws IOException {
+        return client.getObject(prefix + name, offset, length);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <br>
+     * The objects in sub-directories of the prefix are ignored.
+     */
+    @Override
+    public List<StoredObject> list() throws IOException {
+        List<StoredObject> objects = new ArrayList<>();
+        for (StoredObject object : client.listObjects(prefix)) {
+            String name = object.getName().substring(prefix.length());
+            if (!name.isEmpty() && (name.indexOf('/') < 0)) {
+                objects.add(new StoredObject(name, object.getSize(), object.getLastModified()));
+            }
+        }
+        return objects;
+    }
+
+    @Override
+    public void delete(String name) throws IOException {
+        client.deleteObject(prefix + name);
+    }
+
+    @Override
+    public String toString() {
+        return "ObjectStoreStorage{client=" + client + ", prefix='" + prefix + "'}";
+    }
+
+    /**
+     * Buffers the written bytes in parts, each full part being uploaded in background.
+     */
+    private class MultipartOutputStream extends StorageOutputStream {
+        private final String key;
+        private final String uploadId;
+        private final ExecutorService executor;
+        /**
+         * The buffers of the uploaded parts, available once their upload has finished.
+         */
+        private final BlockingQueue<byte[]> freeBuffers = new LinkedBlockingQueue<>();
+        private final List<Future<?>> uploads = new ArrayList<>();
+        private int allocatedBuffers;
+        private byte[] buffer;
+        private int position;
+        private int parts;
+        private volatile IOException error;
+        private boolean closed;
+
+        private MultipartOutputStream(String key, String uploadId) {
+            this.key = key;
+            this.uploadId = uploadId;
+            this.executor = Executors.newFixedThreadPool(maxInFlightParts, new BasicThreadFactory.Builder()
+                .namingPattern("jbackup-upload-%d").daemon(true).build());
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            checkOpen();
+            while (len > 0) {
+                if (buffer == null) {
+                    buffer = nextBuffer();
+                    position = 0;
+                }
+                int n = Math.min(len, buffer.length - position);
+                System.arraycopy(b, off, buffer, position, n);
+                position += n;
+                off += n;
+                len -= n;
+                if (position == buffer.length) {
+                    uploadPart();
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+
+            try {
+                checkOpen();
+                if ((buffer != null) || (parts == 0)) {
+                    // an empty object is made of an empty part
+                    uploadPart();
+                }
+                for (Future<?> upload : uploads) {
+                    upload.get();
+                }
+                if (error != null) {
+                    throw error;
+                }
+                client.completeMultipartUpload(key, uploadId, parts);
+                closed = true;
+                executor.shutdown();
+                LOG.debug("{} : uploaded in {} parts", key, parts);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                abort();
+                throw new InterruptedIOException("upload of " + key + " interrupted");
+            } catch (ExecutionException | IOException | RuntimeException e) {
+                abort();
+                throw (e instanceof IOException) ? (IOException) e : new IOException(e);
+            }
+        }
+
+        @Override
+        public void abort() throws IOException {
+            if (closed) {
+                return;
+            }
+
+            closed = true;
+            executor.shutdownNow();
+            try {
+                // otherwise, a part could be uploaded after the abort
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            client.abortMultipartUpload(key, uploadId);
+            LOG.debug("{} : upload aborted", key);
+        }
+
+        private void checkOpen() throws IOException {
+            if (closed) {
+                throw new IOException("stream closed");
+            }
+            if (error != null) {
+                throw error;
+            }
+        }
+
+        /**
+         * Uploads the current buffer in background.
+         */
+        private void uploadPart() {
+            final byte[] data = (buffer == null) ? new byte[0] : buffer;
+            final int length = (buffer == null) ? 0 : position;
+            final int partNumber = ++parts;
+            buffer = null;
+            uploads.add(executor.submit(() -> {
+                try {
+                    client.uploadPart(key, uploadId, partNumber, data, length);
+                } catch (IOException e) {
+                    error = e;
+                } finally {
+                    freeBuffers.add(data);
+                }
+            }));
+        }
+
+        /**
+         * @return A buffer for the next part. Blocks while the maximum number of parts are being uploaded.
+         */
+        private byte[] nextBuffer() throws IOException {
+            byte[] result = freeBuffers.poll();
+            if (result != null) {
+                return result;
+            }
+            if (allocatedBuffers <= maxInFlightParts) {
+                allocatedBuffers++;
+                return new byte[partSize];
+            }
+
+            try {
+                result = freeBuffers.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("upload of " + key + " interrupted");
+            }
+            return result;
+        }
+    }
+}
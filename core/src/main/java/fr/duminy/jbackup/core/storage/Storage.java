@@ -0,0 +1,76 @@
+/**
+ * JBackup is a software managing backups.
+ *
+ * Copyright (C) 2013-2017 Fabien DUMINY (fabien [dot] duminy [at] webmails [dot] com)
+ *
+ * JBackup is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * JBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ */
+package fr.duminy.jbackup.core.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * A place where archives are stored, like a local directory or a bucket of an object store.
+ * <br>
+ * Implementations for other kinds of targets are provided by a {@link StorageProvider}.
+ */
+public interface Storage {
+    /**
+     * Creates an object. Its content is only visible once the returned stream is closed, and is discarded if the
+     * stream is {@link StorageOutputStream#abort() aborted}.
+     *
+     * @param name The name of the object.
+     */
+    StorageOutputStream put(String name) throws IOException;
+
+    /**
+     * Reads the whole content of an object.
+     */
+    default InputStream get(String name) throws IOException {
+        return get(name, 0L, -1L);
+    }
+
+    /**
+     * Reads a range of the content of an object, for example the central directory at the end of a zip archive.
+     *
+     * @param offset The offset of the first byte to read.
+     * @param length The number of bytes to read, or a negative value to read until the end of the object.
+     */
+    InputStream get(String name, long offset, long length) throws IOException;
+
+    /**
+     * @return The objects of this storage, in no particular order.
+     */
+    List<StoredObject> list() throws IOException;
+
+    /**
+     * Deletes an object. Nothing is done if it doesn't exist.
+     */
+    void delete(String name) throws IOException;
+
+    /**
+     * The stream writing the content of a new object.
+     */
+    abstract class StorageOutputStream extends OutputStream {
+        /**
+         * Discards the written content. The stream can't be used anymore.
+         */
+        public abstract void abort() throws IOException;
+    }
+}
@@ -0,0 +1,39 @@
+/**
+ * JBackup is a software managing backups.
+ *
+ * Copyright (C) 2013-2017 Fabien DUMINY (fabien [dot] duminy [at] webmails [dot] com)
+ *
+ * JBackup is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * JBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ */
+package fr.duminy.jbackup.core.storage;
+
+import java.io.IOException;
+
+/**
+ * Creates the {@link Storage} of a target which is not a local directory, like <code>s3://bucket/backups</code>.
+ * <br>
+ * The providers are found with a {@link java.util.ServiceLoader}, and are declared in a
+ * <code>META-INF/services/fr.duminy.jbackup.core.storage.StorageProvider</code> file.
+ */
+public interface StorageProvider {
+    /**
+     * @param target The target of a configuration.
+     * @return true if this provider can create the storage of the given target.
+     */
+    boolean accepts(String target);
+
+    Storage create(String target) throws IOException;
+}
@@ -0,0 +1,80 @@
+/**
+ * JBackup is a software managing backups.
+ *
+ * Copyright (C) 2013-2017 Fabien DUMINY (fabien [dot] duminy [at] webmails [dot] com)
+ *
+ * JBackup is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * JBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ */
+package fr.duminy.jbackup.core.storage;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.ServiceLoader;
+
+/**
+ * Gives access to the storage of a target.
+ */
+public final class Storages {
+    private Storages() {
+    }
+
+    /**
+     * @param target The target of a configuration : a local directory, or a location managed by a
+     *               {@link StorageProvider}.
+     * @return The storage of the target.
+     */
+    public static Storage forTarget(String target) throws IOException {
+        StorageProvider provider = findProvider(target);
+        return (provider == null) ? new LocalStorage(Paths.get(target)) : provider.create(target);
+    }
+
+    /**
+     * @return true if the target is a local directory.
+     */
+    public static boolean isLocal(String target) {
+        return findProvider(target) == null;
+    }
+
+    private static StorageProvider findProvider(String target) {
+        if (target == null) {
+            return null;
+        }
+        for (StorageProvider provider : ProvidersHolder.PROVIDERS) {
+            if (provider.accepts(target)) {
+                return provider;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Lazily loads the providers, once : a {@link ServiceLoader} scans the classpath, and isn't thread-safe.
+     */
+    private static final class ProvidersHolder {
+        private static final List<StorageProvider> PROVIDERS = loadProviders();
+
+        private static List<StorageProvider> loadProviders() {
+            List<StorageProvider> providers = new ArrayList<>();
+            for (StorageProvider provider : ServiceLoader.load(StorageProvider.class, Storages.class.getClassLoader())) {
+                providers.add(provider);
+            }
+            return Collections.unmodifiableList(providers);
+        }
+    }
+}
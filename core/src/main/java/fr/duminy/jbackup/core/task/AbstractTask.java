@@ -22,28 +22,48 @@ package fr.duminy.jbackup.core.task;
 
 import fr.duminy.jbackup.core.BackupConfiguration;
 import fr.duminy.jbackup.core.Cancellable;
+import fr.duminy.jbackup.core.archive.ArchiveException;
+import fr.duminy.jbackup.core.archive.ArchiveFactory;
+import fr.duminy.jbackup.core.archive.EncryptedArchiveFactory;
+import fr.duminy.jbackup.core.archive.EncryptionKey;
+import fr.duminy.jbackup.core.archive.Volumes;
+import fr.duminy.jbackup.core.metrics.Measurable;
+import fr.duminy.jbackup.core.metrics.TaskMetrics;
+import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Objects;
 
-abstract class AbstractTask implements Task {
+abstract class AbstractTask implements Task, Measurable {
     private static final Logger LOG = LoggerFactory.getLogger(AbstractTask.class);
 
     protected final TaskListener listener;
     protected final BackupConfiguration config;
     protected final Cancellable cancellable;
+    protected final TaskMetrics metrics;
+    private ArchiveFactory archiveFactory;
 
     AbstractTask(TaskListener listener, BackupConfiguration config, Cancellable cancellable) {
         Objects.requireNonNull(config, "config is null");
         this.listener = listener;
         this.config = config;
         this.cancellable = cancellable;
+        this.metrics = new TaskMetrics(config.getName(), getClass().getSimpleName());
+    }
+
+    @Override
+    public final TaskMetrics getMetrics() {
+        return metrics;
     }
 
     @Override
     public final Void call() throws TaskException {
         Throwable error = null;
+        metrics.taskStarted();
         try {
             if (listener != null) {
                 listener.taskStarted();
@@ -53,7 +73,11 @@ abstract class AbstractTask implements Task {
             LOG.error("Error in " + getClass().getSimpleName() + " for configuration '" + config.getName() + "'", e);
             error = e;
             throw e;
+        } catch (RuntimeException | Error e) {
+            error = e;
+            throw e;
         } finally {
+            metrics.taskFinished(error);
             if (listener != null) {
                 listener.taskFinished(error);
             }
@@ -62,6 +86,40 @@ abstract class AbstractTask implements Task {
         return null;
     }
 
+    /**
+     * Records the size of the given archive and of its content in the metrics of this task.
+     */
+    protected final void measureArchive(Path archive) {
+        if (archive == null) {
+            return;
+        }
+
+        metrics.setArchive(archive);
+        try {
+            metrics.setArchiveSize(Volumes.getSize(archive));
+            if (config.getArchiveFactory() != null) {
+                metrics.setUncompressedSize(getArchiveFactory().getUncompressedSize(archive));
+            }
+        } catch (IOException | ArchiveException e) {
+            LOG.warn("Can't measure archive " + archive, e);
+        }
+    }
+
+    /**
+     * @return The archive factory of the configuration, which encrypts the archives if the configuration has an
+     * encryption key file.
+     */
+    protected final ArchiveFactory getArchiveFactory() throws IOException {
+        if (archiveFactory == null) {
+            archiveFactory = config.getArchiveFactory();
+            if ((archiveFactory != null) && StringUtils.isNotBlank(config.getEncryptionKeyFile())) {
+                EncryptionKey key = EncryptionKey.read(Paths.get(config.getEncryptionKeyFile()));
+                archiveFactory = new EncryptedArchiveFactory(archiveFactory, key);
+            }
+        }
+        return archiveFactory;
+    }
+
     protected final boolean isCancelled() {
         return (cancellable != null) && cancellable.isCancelled();
     }
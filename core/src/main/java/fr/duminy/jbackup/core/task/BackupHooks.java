@@ -0,0 +1,157 @@
+/**
+ * JBackup is a software managing backups.
+ *
+ * Copyright (C) 2013-2017 Fabien DUMINY (fabien [dot] duminy [at] webmails [dot] com)
+ *
+ * JBackup is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * JBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ */
+package fr.duminy.jbackup.core.task;
+
+import fr.duminy.jbackup.core.BackupConfiguration;
+import fr.duminy.jbackup.core.Cancellable;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.SystemUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the commands executed before and after a backup, typically to create and release a filesystem snapshot.
+ * <br>
+ * A command is run by the system shell, with the following environment variables :
+ * <ul>
+ *     <li>{@value #CONFIGURATION_VARIABLE} : the name of the configuration, if any.</li>
+ *     <li>{@value #SNAPSHOT_VARIABLE} : the snapshot directory of the configuration, if any.</li>
+ *     <li>{@value #TARGET_VARIABLE} : the target directory of the configuration.</li>
+ * </ul>
+ * Its output is logged. A command running longer than the timeout given by the {@value #TIMEOUT_PROPERTY} system
+ * property (in seconds, by default 1 hour) is killed.
+ */
+final class BackupHooks {
+    private static final Logger LOG = LoggerFactory.getLogger(BackupHooks.class);
+
+    static final String CONFIGURATION_VARIABLE = "JBACKUP_CONFIGURATION";
+    static final String SNAPSHOT_VARIABLE = "JBACKUP_SNAPSHOT_DIRECTORY";
+    static final String TARGET_VARIABLE = "JBACKUP_TARGET_DIRECTORY";
+
+    static final String TIMEOUT_PROPERTY = "jbackup.hookTimeout";
+    static final long DEFAULT_TIMEOUT = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * The maximum time (in milliseconds) between 2 checks of the cancellation of a command.
+     */
+    private static final long POLL_PERIOD = 100L;
+
+    private BackupHooks() {
+    }
+
+    /**
+     * @param hookName    The name of the hook, for the logs.
+     * @param command     The command to run. Nothing is done if it's blank.
+     * @param config      The configuration of the backup.
+     * @param cancellable Kills the command when the task is cancelled, or null if the command must be completed.
+     * @throws TaskException If the command can't be run, returns a non-zero exit code, times out or is cancelled.
+     */
+    static void run(String hookName, String command, BackupConfiguration config, Cancellable cancellable)
+        throws TaskException {
+        run(hookName, command, config, cancellable, getTimeout());
+    }
+
+    /**
+     * @param timeout The maximum time (in milliseconds) of the command.
+     */
+    static void run(String hookName, String command, BackupConfiguration config, Cancellable cancellable, long timeout)
+        throws TaskException {
+        if (StringUtils.isBlank(command)) {
+            return;
+        }
+
+        LOG.info("Backup '{}': running {} command '{}'", new Object[]{config.getName(), hookName, command});
+        ProcessBuilder builder = SystemUtils.IS_OS_WINDOWS ? new ProcessBuilder("cmd", "/c", command) :
+            new ProcessBuilder("sh", "-c", command);
+        builder.redirectErrorStream(true);
+        Map<String, String> environment = builder.environment();
+        if (config.getName() != null) {
+            environment.put(CONFIGURATION_VARIABLE, config.getName());
+        }
+        environment.put(TARGET_VARIABLE, StringUtils.defaultString(config.getTargetDirectory()));
+        environment.put(SNAPSHOT_VARIABLE, StringUtils.defaultString(config.getSnapshotDirectory()));
+
+        Process process;
+        try {
+            process = builder.start();
+        } catch (IOException e) {
+            throw new TaskException(e);
+        }
+
+        // the output is logged in background, so that a blocked command can be killed
+        Thread outputLogger = new Thread(() -> logOutput(hookName, config, process), "jbackup-hook-output");
+        outputLogger.setDaemon(true);
+        outputLogger.start();
+
+        try {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+            while (!process.waitFor(Math.min(POLL_PERIOD, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())),
+                                    TimeUnit.MILLISECONDS)) {
+                if ((cancellable != null) && cancellable.isCancelled()) {
+                    throw failure(process, hookName + " command '" + command + "' cancelled");
+                }
+                if (System.nanoTime() - deadline >= 0) {
+                    throw failure(process, hookName + " command '" + command + "' timed out after " + timeout + " ms");
+                }
+            }
+            outputLogger.join(POLL_PERIOD);
+        } catch (InterruptedException e) {
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+            throw new TaskException(e);
+        }
+
+        int exitCode = process.exitValue();
+        if (exitCode != 0) {
+            throw new TaskException(new IOException(hookName + " command '" + command + "' failed with exit code " +
+                                                    exitCode));
+        }
+    }
+
+    private static TaskException failure(Process process, String message) throws InterruptedException {
+        process.destroyForcibly().waitFor(POLL_PERIOD, TimeUnit.MILLISECONDS);
+        return new TaskException(new IOException(message));
+    }
+
+    private static void logOutput(String hookName, BackupConfiguration config, Process process) {
+        try (BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream(),
+                                                                              Charset.defaultCharset()))) {
+            String line;
+            while ((line = output.readLine()) != null) {
+                LOG.info("Backup '{}' {} : {}", new Object[]{config.getName(), hookName, line});
+            }
+        } catch (IOException e) {
+            LOG.warn("Can't read the output of the " + hookName + " command", e);
+        }
+    }
+
+    private static long getTimeout() {
+        String timeout = System.getProperty(TIMEOUT_PROPERTY);
+        return StringUtils.isBlank(timeout) ? DEFAULT_TIMEOUT : TimeUnit.SECONDS.toMillis(Long.parseLong(timeout.trim()));
+    }
+}
@@ -25,18 +25,28 @@ import fr.duminy.components.chain.CommandException;
 import fr.duminy.components.chain.CommandListener;
 import fr.duminy.jbackup.core.BackupConfiguration;
 import fr.duminy.jbackup.core.Cancellable;
+import fr.duminy.jbackup.core.ConfigurationException;
+import fr.duminy.jbackup.core.ConfigurationManager;
+import fr.duminy.jbackup.core.archive.ArchiveException;
 import fr.duminy.jbackup.core.archive.ArchiveFactory;
 import fr.duminy.jbackup.core.archive.ArchiveParameters;
 import fr.duminy.jbackup.core.archive.ArchiveVerifier;
+import fr.duminy.jbackup.core.archive.ChangeTrackers;
+import fr.duminy.jbackup.core.archive.Checkpoint;
 import fr.duminy.jbackup.core.archive.FileCollector;
 import fr.duminy.jbackup.core.command.*;
+import fr.duminy.jbackup.core.storage.Storage.StorageOutputStream;
+import fr.duminy.jbackup.core.storage.Storages;
+import fr.duminy.jbackup.core.util.BandwidthLimiter;
 import fr.duminy.jbackup.core.util.FileDeleter;
 import fr.duminy.jbackup.core.util.InputStreamComparator;
 import org.apache.commons.io.filefilter.IOFileFilter;
+import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -44,6 +54,8 @@ import java.util.Calendar;
 import java.util.Objects;
 import java.util.function.Supplier;
 
+import static org.apache.commons.io.IOUtils.closeQuietly;
+
 public class BackupTask extends FileCreatorTask {
     private static final Logger LOG = LoggerFactory.getLogger(BackupTask.class);
 
@@ -53,42 +65,182 @@ public class BackupTask extends FileCreatorTask {
         }
     }
 
+    private final BandwidthLimiter bandwidthLimiter;
+    private final OutputStream output;
+    private final ChangeTrackers changeTrackers;
+    private final TaskScheduler compressionScheduler;
+
     public BackupTask(BackupConfiguration config, Supplier<FileDeleter> deleterSupplier,
                       TaskListener listener, Cancellable cancellable) {
+        this(config, deleterSupplier, listener, cancellable, null);
+    }
+
+    /**
+     * @param bandwidthLimiter The limiter of the bandwidth used by the backup, or null if it's unlimited.
+     */
+    public BackupTask(BackupConfiguration config, Supplier<FileDeleter> deleterSupplier,
+                      TaskListener listener, Cancellable cancellable, BandwidthLimiter bandwidthLimiter) {
+        this(config, deleterSupplier, listener, cancellable, bandwidthLimiter, null);
+    }
+
+    /**
+     * @param bandwidthLimiter The limiter of the bandwidth used by the backup, or null if it's unlimited.
+     * @param output           The stream where the archive is written, or null to write it in the target directory.
+     *                         A streamed archive can't be resumed nor verified.
+     */
+    public BackupTask(BackupConfiguration config, Supplier<FileDeleter> deleterSupplier,
+                      TaskListener listener, Cancellable cancellable, BandwidthLimiter bandwidthLimiter,
+                      OutputStream output) {
+        this(config, deleterSupplier, listener, cancellable, bandwidthLimiter, output, null);
+    }
+
+    /**
+     * @param bandwidthLimiter The limiter of the bandwidth used by the backup, or null if it's unlimited.
+     * @param output           The stream where the archive is written, or null to write it in the target directory.
+     *                         A streamed archive can't be resumed nor verified.
+     * @param changeTrackers   The trackers of the source directories, used if the configuration tracks the changes,
+     *                         or null.
+     */
+    public BackupTask(BackupConfiguration config, Supplier<FileDeleter> deleterSupplier,
+                      TaskListener listener, Cancellable cancellable, BandwidthLimiter bandwidthLimiter,
+                      OutputStream output, ChangeTrackers changeTrackers) {
+        this(config, deleterSupplier, listener, cancellable, bandwidthLimiter, output, changeTrackers, null);
+    }
+
+    /**
+     * @param bandwidthLimiter     The limiter of the bandwidth used by the backup, or null if it's unlimited.
+     * @param output               The stream where the archive is written, or null to write it in the target
+     *                             directory. A streamed archive can't be resumed nor verified.
+     * @param changeTrackers       The trackers of the source directories, used if the configuration tracks the
+     *                             changes, or null.
+     * @param compressionScheduler The scheduler running the compression, or null to compress on the thread of the
+     *                             task.
+     */
+    public BackupTask(BackupConfiguration config, Supplier<FileDeleter> deleterSupplier,
+                      TaskListener listener, Cancellable cancellable, BandwidthLimiter bandwidthLimiter,
+                      OutputStream output, ChangeTrackers changeTrackers, TaskScheduler compressionScheduler) {
         super(config, deleterSupplier, listener, cancellable);
+        this.bandwidthLimiter = bandwidthLimiter;
+        this.output = output;
+        this.changeTrackers = changeTrackers;
+        this.compressionScheduler = compressionScheduler;
     }
 
     @Override
     protected void executeTask(FileDeleter deleter) throws TaskException {
-        Path target = Paths.get(config.getTargetDirectory());
         try {
-            Files.createDirectories(target);
+            BackupHooks.run("pre-backup", config.getPreBackupCommand(), config, cancellable);
+            backup(deleter);
+        } finally {
+            try {
+                // not cancelled, since it releases what the pre-backup command has created (like a snapshot)
+                BackupHooks.run("post-backup", config.getPostBackupCommand(), config, null);
+            } catch (TaskException e) {
+                // the archive is not deleted, since it's not altered by this error
+                LOG.error("Error in post-backup command of configuration '" + config.getName() + "'", e.getCause());
+            }
+        }
+    }
+
+    private void backup(FileDeleter deleter) throws TaskException {
+        String archiveName = generateName(config.getName(), config.getArchiveFactory());
+        if ((output != null) || Storages.isLocal(config.getTargetDirectory())) {
+            backup(deleter, archiveName, output);
+            return;
+        }
+
+        // the archive is uploaded while it's being created
+        StorageOutputStream upload;
+        try {
+            ConfigurationManager.checkTarget(config);
+            upload = Storages.forTarget(config.getTargetDirectory()).put(archiveName);
+        } catch (ConfigurationException | IOException e) {
+            throw new TaskException(e);
+        }
+        boolean uploaded = false;
+        try {
+            backup(deleter, archiveName, upload);
+            upload.close();
+            uploaded = true;
         } catch (IOException e) {
             throw new TaskException(e);
+        } finally {
+            if (!uploaded) {
+                try {
+                    upload.abort();
+                } catch (IOException e) {
+                    LOG.warn("Can't abort upload of archive " + archiveName, e);
+                }
+            }
         }
+    }
 
-        String archiveName = generateName(config.getName(), config.getArchiveFactory());
+    /**
+     * @param output The stream where the archive is written, or null to write it in the target directory.
+     */
+    private void backup(FileDeleter deleter, String archiveName, OutputStream output) throws TaskException {
+        // the target of a streamed archive may be a remote storage, which is not a path
+        Path target = (output == null) ? Paths.get(config.getTargetDirectory()) : null;
+        if (target != null) {
+            try {
+                Files.createDirectories(target);
+            } catch (IOException e) {
+                throw new TaskException(e);
+            }
+        }
 
-        Path archive = target.resolve(archiveName);
+        // the name of a streamed archive is only used in the logs
+        Path archive = (target == null) ? Paths.get(archiveName) : target.resolve(archiveName);
 
         final ArchiveParameters archiveParameters = new ArchiveParameters(archive, config.isRelativeEntries());
+        Path snapshotDirectory = StringUtils.isBlank(config.getSnapshotDirectory()) ? null :
+            Paths.get(config.getSnapshotDirectory());
         for (BackupConfiguration.Source filter : config.getSources()) {
             IOFileFilter dirFilter = config.createIOFileFilter("_dir", filter.getDirFilter());
             IOFileFilter fileFilter = config.createIOFileFilter("_file", filter.getFileFilter());
             Path source = Paths.get(filter.getPath());
+            if ((snapshotDirectory != null) && source.isAbsolute()) {
+                source = snapshotDirectory.resolve(source.getRoot().relativize(source));
+            }
             archiveParameters.addSource(source, dirFilter, fileFilter);
         }
+        archiveParameters.setSnapshotDirectory(snapshotDirectory);
+        archiveParameters.setBandwidthLimiter(bandwidthLimiter);
+        archiveParameters.setVolumeSize(config.getVolumeSize() * 1024L * 1024L);
+        if (config.getDurability() != null) {
+            archiveParameters.setDurability(config.getDurability());
+        }
+        archiveParameters.setOutputStream(output);
+        if (config.isTrackChanges() && (snapshotDirectory == null)) {
+            // a snapshot is a new directory for each backup, there is nothing to track
+            archiveParameters.setChangeTrackers(changeTrackers);
+        }
+        if (config.isResumable() && (output == null)) {
+            archiveParameters.setResumable(true);
+            archiveParameters.setResumeFrom(findCheckpoint(target));
+        }
+        if ((listener != null) && Storages.isLocal(config.getTargetDirectory())) {
+            archiveParameters.setEstimatedTotalSize(estimateTotalSize());
+        }
 
         MutableJBackupContext context = new MutableJBackupContext();
         context.setFileDeleter(deleter);
         context.setArchiveParameters(archiveParameters);
-        context.setFactory(config.getArchiveFactory());
+        try {
+            context.setFactory(getArchiveFactory());
+        } catch (IOException e) {
+            throw new TaskException(e);
+        }
         context.setListener(listener);
         context.setCancellable(cancellable);
-        context.setArchivePath(archiveParameters.getArchive());
+        // a streamed archive can't be read again
+        context.setArchivePath((output == null) ? archiveParameters.getArchive() : null);
 
         JBackupCommand[] commands;
-        if (config.isVerify()) {
+        if (config.isVerify() && (output != null)) {
+            LOG.warn("Backup '{}': a streamed archive can't be verified", config.getName());
+        }
+        if (config.isVerify() && (output == null)) {
             commands = new JBackupCommand[] {
                 createCollectFilesCommand(),
                 createCompressCommand(),
@@ -104,10 +256,12 @@ public class BackupTask extends FileCreatorTask {
             @Override
             public void commandStarted(Command command, JBackupContext jBackupContext) {
                 LOG.info("Started command {}", command.getClass().getSimpleName());
+                metrics.commandStarted(command.getClass().getSimpleName());
             }
 
             @Override
             public void commandFinished(Command command, JBackupContext jBackupContext, Exception e) {
+                metrics.commandFinished(command.getClass().getSimpleName());
                 if (e == null) {
                     LOG.info("Finished command {}", command.getClass().getSimpleName());
                 } else {
@@ -118,8 +272,43 @@ public class BackupTask extends FileCreatorTask {
         JBackupChain chain = new JBackupChain(listener, commands);
         try {
             chain.execute(context);
+            if (context.getCollectedFiles() != null) {
+                metrics.setFiles(context.getCollectedFiles().size());
+            }
+            measureArchive(context.getArchivePath());
         } catch (CommandException e) {
             throw new TaskException(e);
+        } finally {
+            closeQuietly(context.getCollectedFiles());
+        }
+    }
+
+    /**
+     * Estimates the total size of the files to archive from the latest archive of the configuration.
+     * @return The estimated total size, or a negative value if it can't be estimated.
+     */
+    private long estimateTotalSize() {
+        try {
+            Path latestArchive = ConfigurationManager.getLatestArchive(config);
+            if (latestArchive != null) {
+                return getArchiveFactory().getUncompressedSize(latestArchive);
+            }
+        } catch (IOException | ArchiveException e) {
+            LOG.warn("Can't estimate total size from latest archive", e);
+        }
+        return -1L;
+    }
+
+    /**
+     * Finds the checkpoint of the latest interrupted backup of the configuration.
+     * @return The checkpoint, or null if there is none.
+     */
+    private Checkpoint findCheckpoint(Path targetDirectory) {
+        try {
+            return Checkpoint.findLatest(targetDirectory, config.getName() + '_', config.getArchiveFactory().getExtension());
+        } catch (IOException e) {
+            LOG.warn("Can't read checkpoint in " + targetDirectory, e);
+            return null;
         }
     }
 
@@ -128,7 +317,7 @@ public class BackupTask extends FileCreatorTask {
     }
 
     CompressCommand createCompressCommand() {
-        return new CompressCommand();
+        return new CompressCommand(compressionScheduler);
     }
 
     VerifyArchiveCommand createVerifyArchiveCommand() {
@@ -25,38 +25,101 @@ import fr.duminy.jbackup.core.BackupConfiguration;
 import fr.duminy.jbackup.core.Cancellable;
 import fr.duminy.jbackup.core.command.DecompressCommand;
 import fr.duminy.jbackup.core.command.MutableJBackupContext;
+import fr.duminy.jbackup.core.storage.Storages;
 import fr.duminy.jbackup.core.util.FileDeleter;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.function.Supplier;
 
 public class RestoreTask extends FileCreatorTask {
     private final Path archive;
+    private final InputStream archiveInput;
+    private final String storedArchive;
     private final Path targetDirectory;
 
     public RestoreTask(BackupConfiguration config, Path archive, Path targetDirectory,
                        Supplier<FileDeleter> deleterSupplier, TaskListener listener, Cancellable cancellable) {
+        this(config, archive, null, null, targetDirectory, deleterSupplier, listener, cancellable);
+    }
+
+    /**
+     * Creates a task restoring an archive read from a stream, like the standard input. The stream is not closed.
+     */
+    public RestoreTask(BackupConfiguration config, InputStream archiveInput, Path targetDirectory,
+                       Supplier<FileDeleter> deleterSupplier, TaskListener listener, Cancellable cancellable) {
+        this(config, null, archiveInput, null, targetDirectory, deleterSupplier, listener, cancellable);
+    }
+
+    /**
+     * Creates a task restoring an archive of the remote storage of the configuration, which is downloaded while it's
+     * decompressed.
+     *
+     * @param storedArchive The name of the archive in the storage.
+     */
+    public RestoreTask(BackupConfiguration config, String storedArchive, Path targetDirectory,
+                       Supplier<FileDeleter> deleterSupplier, TaskListener listener, Cancellable cancellable) {
+        this(config, null, null, storedArchive, targetDirectory, deleterSupplier, listener, cancellable);
+    }
+
+    private RestoreTask(BackupConfiguration config, Path archive, InputStream archiveInput, String storedArchive,
+                        Path targetDirectory, Supplier<FileDeleter> deleterSupplier, TaskListener listener,
+                        Cancellable cancellable) {
         super(config, deleterSupplier, listener, cancellable);
         this.archive = archive;
+        this.archiveInput = archiveInput;
+        this.storedArchive = storedArchive;
         this.targetDirectory = targetDirectory;
     }
 
     @Override
     protected void executeTask(FileDeleter deleter) throws TaskException {
         deleter.registerDirectory(targetDirectory);
+        try {
+            // the registered directory is deleted if the restore fails
+            Files.createDirectories(targetDirectory);
+        } catch (IOException e) {
+            throw new TaskException(e);
+        }
+
+        if (storedArchive == null) {
+            restore(deleter, archiveInput);
+            return;
+        }
+
+        try (InputStream input = Storages.forTarget(config.getTargetDirectory()).get(storedArchive)) {
+            restore(deleter, input);
+        } catch (IOException e) {
+            throw new TaskException(e);
+        }
+    }
 
+    private void restore(FileDeleter deleter, InputStream archiveInput) throws TaskException {
         MutableJBackupContext context = new MutableJBackupContext();
-        context.setFactory(config.getArchiveFactory());
+        try {
+            context.setFactory(getArchiveFactory());
+        } catch (IOException e) {
+            throw new TaskException(e);
+        }
         context.setFileDeleter(deleter);
         context.setListener(listener);
         context.setTargetDirectory(targetDirectory);
         context.setArchivePath(archive);
+        context.setArchive(archiveInput);
         context.setCancellable(cancellable);
 
+        DecompressCommand command = createDecompressCommand();
+        String commandName = command.getClass().getSimpleName();
+        metrics.commandStarted(commandName);
         try {
-            createDecompressCommand().execute(context);
+            command.execute(context);
+            measureArchive(archive);
         } catch (CommandException e) {
             throw new TaskException(e);
+        } finally {
+            metrics.commandFinished(commandName);
         }
     }
 
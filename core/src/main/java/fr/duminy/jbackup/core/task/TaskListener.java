@@ -29,6 +29,14 @@ public interface TaskListener {
      */
     void taskStarted();
 
+    /**
+     * Notify that the total number of bytes has been estimated. It can be called several times, before
+     * {@link #totalSizeComputed(long)}, with a refined estimation.
+     *
+     * @param estimatedTotalSize The estimated total number of bytes to be read for (de)compression.
+     */
+    void totalSizeEstimated(long estimatedTotalSize);
+
     /**
      * Notify that the total number of bytes has been computed. Note that this method must be called before {@link #progress(long)}.
      *
@@ -0,0 +1,243 @@
+/**
+ * JBackup is a software managing backups.
+ *
+ * Copyright (C) 2013-2017 Fabien DUMINY (fabien [dot] duminy [at] webmails [dot] com)
+ *
+ * JBackup is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * JBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ */
+package fr.duminy.jbackup.core.task;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Schedules the execution of tasks with concurrency limits.
+ * <br>
+ * At most {@code maxRunningTasks} tasks are running at the same time (the CPU budget) and at most
+ * {@code maxTasksPerDevice} of them write to the same device (the I/O budget). Waiting tasks are started by
+ * decreasing priority, then in submission order. A task waiting for a busy device doesn't prevent the tasks targeting
+ * other devices from starting.
+ */
+public class TaskScheduler {
+    private static final Logger LOG = LoggerFactory.getLogger(TaskScheduler.class);
+
+    public static final int DEFAULT_MAX_TASKS_PER_DEVICE = 1;
+
+    private static final Object UNKNOWN_DEVICE = new Object();
+
+    private final ExecutorService executor;
+    private final int maxRunningTasks;
+    private final int maxTasksPerDevice;
+
+    private final SortedSet<ScheduledTask> waitingTasks = new TreeSet<>();
+    private final Map<Object, Integer> runningTasksByDevice = new HashMap<>();
+    private int runningTasks;
+    private long sequence;
+    private boolean shutdown;
+
+    private long startedTasks;
+    private long totalWaitTime;
+    private long maxWaitTime;
+
+    /**
+     * @param maxRunningTasks   The maximum number of tasks running at the same time.
+     * @param maxTasksPerDevice The maximum number of running tasks targeting the same device.
+     * @param threadFactory     The factory of the threads running the tasks.
+     */
+    public TaskScheduler(int maxRunningTasks, int maxTasksPerDevice, ThreadFactory threadFactory) {
+        if (maxRunningTasks <= 0) {
+            throw new IllegalArgumentException("maxRunningTasks must be strictly positive");
+        }
+        if (maxTasksPerDevice <= 0) {
+            throw new IllegalArgumentException("maxTasksPerDevice must be strictly positive");
+        }
+        this.maxRunningTasks = maxRunningTasks;
+        this.maxTasksPerDevice = maxTasksPerDevice;
+        this.executor = Executors.newCachedThreadPool(threadFactory);
+    }
+
+    /**
+     * @param task            The task to execute.
+     * @param targetDirectory The directory where the task writes files, used to find its device. Can be null.
+     * @param priority        The priority of the task. Tasks with a higher priority are started first.
+     * @return The future result of the task. Cancelling a waiting task removes it from the queue.
+     * @throws RejectedExecutionException If the scheduler has been shut down.
+     */
+    public Future<Void> submit(Callable<Void> task, Path targetDirectory, int priority) {
+        Object device = getDevice(targetDirectory);
+        synchronized (this) {
+            if (shutdown) {
+                throw new RejectedExecutionException("the scheduler has been shut down");
+            }
+
+            ScheduledTask scheduledTask = new ScheduledTask(task, device, priority, sequence++);
+            waitingTasks.add(scheduledTask);
+            startWaitingTasks();
+            return scheduledTask;
+        }
+    }
+
+    /**
+     * Stops accepting new tasks. Already submitted tasks are still executed.
+     */
+    public synchronized void shutdown() {
+        shutdown = true;
+        shutdownExecutorIfIdle();
+    }
+
+    /**
+     * @return true if the scheduler has been shut down and all its tasks are terminated.
+     */
+    public synchronized boolean isTerminated() {
+        return shutdown && waitingTasks.isEmpty() && executor.isTerminated();
+    }
+
+    /**
+     * @return The number of tasks waiting to be started.
+     */
+    public synchronized int getQueueDepth() {
+        return waitingTasks.size();
+    }
+
+    public synchronized int getRunningTaskCount() {
+        return runningTasks;
+    }
+
+    /**
+     * @return The average time (in milliseconds) spent in the queue by the started tasks.
+     */
+    public synchronized long getAverageWaitTime() {
+        return (startedTasks == 0) ? 0L : (totalWaitTime / startedTasks);
+    }
+
+    /**
+     * @return The maximum time (in milliseconds) spent in the queue by a started task.
+     */
+    public synchronized long getMaxWaitTime() {
+        return maxWaitTime;
+    }
+
+    /**
+     * Gets the device of a directory : its file store, or the one of its nearest existing ancestor when it doesn't
+     * exist yet.
+     */
+    static Object getDevice(Path directory) {
+        Path existing = (directory == null) ? null : directory.toAbsolutePath();
+        while ((existing != null) && !Files.exists(existing)) {
+            existing = existing.getParent();
+        }
+        if (existing == null) {
+            return UNKNOWN_DEVICE;
+        }
+
+        try {
+            return Files.getFileStore(existing);
+        } catch (IOException e) {
+            LOG.warn("Can't get the file store of " + existing, e);
+            return existing;
+        }
+    }
+
+    private void startWaitingTasks() {
+        Iterator<ScheduledTask> iterator = waitingTasks.iterator();
+        while ((runningTasks < maxRunningTasks) && iterator.hasNext()) {
+            ScheduledTask task = iterator.next();
+            int deviceTasks = runningTasksByDevice.getOrDefault(task.device, 0);
+            if (deviceTasks < maxTasksPerDevice) {
+                iterator.remove();
+                runningTasks++;
+                runningTasksByDevice.put(task.device, deviceTasks + 1);
+
+                long waitTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - task.submitTime);
+                startedTasks++;
+                totalWaitTime += waitTime;
+                maxWaitTime = Math.max(maxWaitTime, waitTime);
+                LOG.debug("task started after waiting {} ms ({} waiting tasks)", waitTime, waitingTasks.size());
+
+                executor.execute(task);
+            }
+        }
+    }
+
+    private synchronized void taskFinished(ScheduledTask task) {
+        runningTasks--;
+        int deviceTasks = runningTasksByDevice.get(task.device) - 1;
+        if (deviceTasks == 0) {
+            runningTasksByDevice.remove(task.device);
+        } else {
+            runningTasksByDevice.put(task.device, deviceTasks);
+        }
+
+        startWaitingTasks();
+        shutdownExecutorIfIdle();
+    }
+
+    private synchronized boolean cancelWaitingTask(ScheduledTask task) {
+        boolean removed = waitingTasks.remove(task);
+        shutdownExecutorIfIdle();
+        return removed;
+    }
+
+    private void shutdownExecutorIfIdle() {
+        if (shutdown && waitingTasks.isEmpty() && (runningTasks == 0)) {
+            executor.shutdown();
+        }
+    }
+
+    private class ScheduledTask extends FutureTask<Void> implements Comparable<ScheduledTask> {
+        private final Object device;
+        private final int priority;
+        private final long sequence;
+        private final long submitTime = System.nanoTime();
+
+        private ScheduledTask(Callable<Void> callable, Object device, int priority, long sequence) {
+            super(callable);
+            this.device = device;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            try {
+                super.run();
+            } finally {
+                taskFinished(this);
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled) {
+                cancelWaitingTask(this);
+            }
+            return cancelled;
+        }
+
+        @Override
+        public int compareTo(ScheduledTask other) {
+            int result = Integer.compare(other.priority, priority);
+            return (result == 0) ? Long.compare(sequence, other.sequence) : result;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ * JBackup is a software managing backups.
+ *
+ * Copyright (C) 2013-2017 Fabien DUMINY (fabien [dot] duminy [at] webmails [dot] com)
+ *
+ * JBackup is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * JBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ */
+package fr.duminy.jbackup.core.task;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The kind of threads used to run the tasks.
+ * <br>
+ * Virtual threads are only available since Java 21. They are created by reflection, so that the code still runs on
+ * older versions, where {@link #VIRTUAL} falls back to {@link #PLATFORM}.
+ */
+public enum ThreadMode {
+    /**
+     * Classical threads, one per running task.
+     */
+    PLATFORM,
+
+    /**
+     * Virtual threads, which are cheap when blocked by I/O operations. All the tasks are started at once, so that
+     * their I/O stages (collecting the files, verifying the archive, restoring, running the hooks) run in parallel :
+     * only the compression, which is CPU-bound and writes the archive, is run by a bounded pool of platform threads,
+     * with the limits of the scheduler. The files of the failed tasks are also deleted in parallel.
+     */
+    VIRTUAL;
+
+    /**
+     * Name of the system property selecting the default mode.
+     */
+    public static final String PROPERTY = "jbackup.threadMode";
+
+    private static final Logger LOG = LoggerFactory.getLogger(ThreadMode.class);
+
+    /**
+     * @return The mode selected by the {@link #PROPERTY} system property, or {@link #PLATFORM} if it's not defined.
+     */
+    public static ThreadMode getDefault() {
+        String mode = System.getProperty(PROPERTY);
+        if (mode != null) {
+            try {
+                return valueOf(mode.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                LOG.warn("Unknown thread mode '{}', using {}", mode, PLATFORM);
+            }
+        }
+        return PLATFORM;
+    }
+
+    /**
+     * @return true if this mode is supported by the running JVM.
+     */
+    public boolean isSupported() {
+        return (this == PLATFORM) || (createVirtualThreadFactory("test-") != null);
+    }
+
+    /**
+     * @param namePrefix The prefix of the thread names.
+     * @return A factory of threads of this mode.
+     */
+    public ThreadFactory createThreadFactory(String namePrefix) {
+        if (this == VIRTUAL) {
+            ThreadFactory factory = createVirtualThreadFactory(namePrefix);
+            if (factory != null) {
+                return factory;
+            }
+            LOG.warn("Virtual threads are not supported by this JVM, using platform threads");
+        }
+        return new BasicThreadFactory.Builder().namingPattern(namePrefix + "%d").daemon(false).build();
+    }
+
+    /**
+     * @param namePrefix The prefix of the thread names.
+     * @return A factory of threads mostly blocked by I/O operations (like the tasks, or the deletion of a file), or
+     * null if this mode has no cheap threads : then, the operations are not run in parallel.
+     */
+    public ThreadFactory createIoThreadFactory(String namePrefix) {
+        return (this == VIRTUAL) ? createVirtualThreadFactory(namePrefix) : null;
+    }
+
+    private static ThreadFactory createVirtualThreadFactory(String namePrefix) {
+        try {
+            // Thread.ofVirtual().name(namePrefix, 1).factory()
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Method name = builderClass.getMethod("name", String.class, long.class);
+            builder = name.invoke(builder, namePrefix, 1L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
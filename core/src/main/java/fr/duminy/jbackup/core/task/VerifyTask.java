@@ -0,0 +1,72 @@
+/**
+ * JBackup is a software managing backups.
+ *
+ * Copyright (C) 2013-2017 Fabien DUMINY (fabien [dot] duminy [at] webmails [dot] com)
+ *
+ * JBackup is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * JBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ */
+package fr.duminy.jbackup.core.task;
+
+import fr.duminy.jbackup.core.BackupConfiguration;
+import fr.duminy.jbackup.core.Cancellable;
+import fr.duminy.jbackup.core.archive.ArchiveException;
+import fr.duminy.jbackup.core.archive.ArchiveFactory;
+import fr.duminy.jbackup.core.archive.Decompressor;
+import fr.duminy.jbackup.core.archive.Volumes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Checks that an existing archive can be read : the checksums of its volumes and the content of all its entries.
+ * Unlike the verification done at the end of a backup, the archive is not compared to the sources, which may have
+ * changed since the archive was created.
+ */
+public class VerifyTask extends AbstractTask {
+    private static final Logger LOG = LoggerFactory.getLogger(VerifyTask.class);
+
+    private final Path archive;
+
+    public VerifyTask(BackupConfiguration config, Path archive, TaskListener listener, Cancellable cancellable) {
+        super(listener, config, cancellable);
+        this.archive = archive;
+    }
+
+    @Override
+    protected void execute() throws TaskException {
+        String commandName = Decompressor.class.getSimpleName();
+        metrics.commandStarted(commandName);
+        try {
+            if (!Volumes.checkIntegrity(archive)) {
+                LOG.error("Archive {} has corrupted volumes", archive);
+                throw new TaskException(new BackupTask.VerificationFailedException("Archive volumes verification failed"));
+            }
+            createDecompressor(getArchiveFactory()).test(archive, listener, cancellable);
+            measureArchive(archive);
+            LOG.info("Archive {} valid", archive);
+        } catch (IOException | ArchiveException e) {
+            throw new TaskException(e);
+        } finally {
+            metrics.commandFinished(commandName);
+        }
+    }
+
+    Decompressor createDecompressor(ArchiveFactory factory) {
+        return new Decompressor(factory);
+    }
+}
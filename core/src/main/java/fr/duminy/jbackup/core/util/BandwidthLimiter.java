@@ -0,0 +1,157 @@
+/**
+ * JBackup is a software managing backups.
+ *
+ * Copyright (C) 2013-2017 Fabien DUMINY (fabien [dot] duminy [at] webmails [dot] com)
+ *
+ * JBackup is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * JBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ */
+package fr.duminy.jbackup.core.util;
+
+import org.apache.commons.io.input.ProxyInputStream;
+import org.apache.commons.io.output.ProxyOutputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket limiting the bandwidth of the streams it wraps.
+ * <br>
+ * The rate can be changed at any time, including while streams are waiting for tokens. A limiter can have a parent,
+ * shared by several limiters, which then also limits their total bandwidth.
+ * <br>
+ * The bucket holds at most one second of tokens, so that an idle period doesn't allow a long burst afterwards.
+ * <br>
+ * A backup only charges the reads of its source files : the archive written from them is at most as large (apart
+ * from the headers of its entries), and charging it too would make the effective rate depend on the compression ratio.
+ */
+public class BandwidthLimiter {
+    /**
+     * The rate meaning that the bandwidth is not limited.
+     */
+    public static final long UNLIMITED = 0L;
+
+    private final BandwidthLimiter parent;
+    private long bytesPerSecond;
+    private double tokens;
+    private long lastRefill;
+
+    public BandwidthLimiter(long bytesPerSecond) {
+        this(null, bytesPerSecond);
+    }
+
+    /**
+     * @param parent         An optional limiter, also applied to the streams wrapped by this limiter.
+     * @param bytesPerSecond The maximum rate, or {@link #UNLIMITED}.
+     */
+    public BandwidthLimiter(BandwidthLimiter parent, long bytesPerSecond) {
+        this.parent = parent;
+        lastRefill = System.nanoTime();
+        setBytesPerSecond(bytesPerSecond);
+    }
+
+    public synchronized long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * Changes the rate. Threads waiting for tokens are woken up to take it into account.
+     * The tokens accrued at the previous rate are kept, up to the size of the new bucket.
+     * @param bytesPerSecond The maximum rate, or {@link #UNLIMITED} (a negative rate is also considered as unlimited).
+     */
+    public synchronized void setBytesPerSecond(long bytesPerSecond) {
+        refill();
+        this.bytesPerSecond = Math.max(UNLIMITED, bytesPerSecond);
+        tokens = Math.min(tokens, this.bytesPerSecond);
+        notifyAll();
+    }
+
+    /**
+     * Waits until the given number of bytes can be transferred.
+     * @param bytes The number of bytes to transfer.
+     * @throws InterruptedIOException If the current thread is interrupted while waiting.
+     */
+    public void acquire(long bytes) throws InterruptedIOException {
+        try {
+            acquireTokens(bytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for bandwidth");
+        }
+        if (parent != null) {
+            parent.acquire(bytes);
+        }
+    }
+
+    public InputStream limit(InputStream input) {
+        return new ProxyInputStream(input) {
+            @Override
+            protected void afterRead(int n) throws IOException {
+                if (n > 0) {
+                    acquire(n);
+                }
+            }
+        };
+    }
+
+    public OutputStream limit(OutputStream output) {
+        return new ProxyOutputStream(output) {
+            @Override
+            protected void beforeWrite(int n) throws IOException {
+                if (n > 0) {
+                    acquire(n);
+                }
+            }
+        };
+    }
+
+    /**
+     * Takes the tokens immediately, possibly going into debt, then waits until the debt is paid back.
+     * Hence, a transfer larger than the bucket doesn't wait forever.
+     */
+    private synchronized void acquireTokens(long bytes) throws InterruptedException {
+        if (bytesPerSecond == UNLIMITED) {
+            return;
+        }
+
+        refill();
+        tokens -= bytes;
+        while ((tokens < 0) && (bytesPerSecond != UNLIMITED)) {
+            long waitTime = (long) Math.ceil(-tokens * TimeUnit.SECONDS.toMillis(1) / bytesPerSecond);
+            wait(Math.max(1L, waitTime));
+            refill();
+        }
+        if (bytesPerSecond == UNLIMITED) {
+            tokens = 0;
+        }
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        if (bytesPerSecond != UNLIMITED) {
+            double newTokens = (double) (now - lastRefill) * bytesPerSecond / TimeUnit.SECONDS.toNanos(1);
+            tokens = Math.min(bytesPerSecond, tokens + newTokens);
+        }
+        lastRefill = now;
+    }
+
+    @Override
+    public String toString() {
+        return "BandwidthLimiter{bytesPerSecond=" + getBytesPerSecond() + ", parent=" + parent + '}';
+    }
+}
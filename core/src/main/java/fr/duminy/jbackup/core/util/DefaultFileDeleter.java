@@ -20,25 +20,83 @@
  */
 package fr.duminy.jbackup.core.util;
 
-import org.apache.commons.io.FileDeleteStrategy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Default implementation of {@link fr.duminy.jbackup.core.util.FileDeleter} interface .
+ * <br>
+ * The registered directories are deleted in a single pass : each directory is listed once and its sub-directories
+ * are deleted in parallel by a {@link ForkJoinPool}. The permissions of a path are only fixed when its deletion is
+ * denied.
+ * <br>
+ * Deleting a file is a blocking system call. When cheap threads (like virtual threads) are available, each file of a
+ * batch is deleted by its own thread, so that the file system receives many deletions at once.
  */
 public class DefaultFileDeleter implements FileDeleter {
     private static final Logger LOG = LoggerFactory.getLogger(DefaultFileDeleter.class);
 
+    /**
+     * Maximum number of files of a directory deleted by a single task.
+     */
+    static final int BATCH_SIZE = 1000;
+
+    private final ForkJoinPool pool;
+    private final boolean background;
+    private final ThreadFactory ioThreadFactory;
+
     private List<Path> registeredFiles;
     private List<Path> registeredDirectories;
 
+    /**
+     * Creates a deleter whose {@link #deleteAll()} returns once the registered files and directories are deleted.
+     */
+    public DefaultFileDeleter() {
+        this(ForkJoinPool.commonPool(), false, null);
+    }
+
+    /**
+     * Creates a deleter whose {@link #deleteAll()} returns immediately, the deletion being executed in background by
+     * the given pool. That way, a failed task is reported without waiting for the cleanup of a large tree.
+     * <br>
+     * Once the pool is shut down, {@link #deleteAll()} deletes in the current thread.
+     */
+    public DefaultFileDeleter(ForkJoinPool pool) {
+        this(pool, null);
+    }
+
+    /**
+     * Creates a background deleter, like {@link #DefaultFileDeleter(ForkJoinPool)}.
+     *
+     * @param ioThreadFactory The factory of the threads deleting each file of a batch, or null to delete them in the
+     *                        threads of the pool. It should create cheap threads, like virtual threads.
+     */
+    public DefaultFileDeleter(ForkJoinPool pool, ThreadFactory ioThreadFactory) {
+        this(pool, true, ioThreadFactory);
+    }
+
+    private DefaultFileDeleter(ForkJoinPool pool, boolean background, ThreadFactory ioThreadFactory) {
+        this.pool = pool;
+        this.background = background;
+        this.ioThreadFactory = ioThreadFactory;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -58,6 +116,9 @@ public class DefaultFileDeleter implements FileDeleter {
      */
     @Override
     public void registerDirectory(Path directory) {
+        if ((registeredDirectories != null) && registeredDirectories.contains(directory)) {
+            return;
+        }
         if (Files.exists(directory)) {
             throw new IllegalStateException(String.format("The directory '%s' already exists.", directory));
         }
@@ -69,48 +130,201 @@ public class DefaultFileDeleter implements FileDeleter {
 
     /**
      * {@inheritDoc}
+     * <br>
+     * The registered paths are forgotten, so that a second call doesn't delete them again.
      */
     @Override
     public void deleteAll() {
-        FileDeleteStrategy deleteStrategy = FileDeleteStrategy.FORCE;
-        deleteFiles(deleteStrategy, registeredFiles, true);
-        deleteFiles(deleteStrategy, registeredDirectories, false);
+        final List<Path> files = registeredFiles;
+        final List<Path> directories = registeredDirectories;
+        registeredFiles = null;
+        registeredDirectories = null;
+        if ((files == null) && (directories == null)) {
+            return;
+        }
+
+        ForkJoinTask<?> task = ForkJoinTask.adapt(() -> {
+            deleteFiles(files, true, ioThreadFactory);
+            deleteFiles(directories, false, ioThreadFactory);
+        });
+        if (background && !pool.isShutdown()) {
+            try {
+                pool.execute(task);
+                return;
+            } catch (RejectedExecutionException e) {
+                LOG.debug("deletion pool shut down, deleting in the current thread");
+            }
+        }
+        if (background) {
+            task.invoke();
+        } else {
+            pool.invoke(task);
+        }
     }
 
-    private void deleteFiles(FileDeleteStrategy deleteStrategy, List<Path> paths, boolean expectFiles) {
-        if (paths != null) {
-            for (Path path : paths) {
-                boolean deleted;
+    private static void deleteFiles(List<Path> paths, boolean expectFiles, ThreadFactory ioThreadFactory) {
+        if (paths == null) {
+            return;
+        }
 
-                try {
-                    PathUtils.setReadable(path, true);
-                    deleted = deleteFile(deleteStrategy, expectFiles, path);
-                } catch (IOException e) {
-                    LOG.error(e.getMessage(), e);
-                    deleted = false;
+        List<DeleteTask> tasks = new ArrayList<>(paths.size());
+        for (Path path : paths) {
+            if (Files.notExists(path)) {
+                // never created, or already moved or deleted by its creator (like a temporary file)
+                LOG.debug("{} : nothing to delete", path);
+            } else if ((expectFiles && Files.isRegularFile(path)) || (!expectFiles && Files.isDirectory(path))) {
+                tasks.add(new DeleteTask(path, ioThreadFactory));
+            } else {
+                LOG.error("Wrong path type. Expected: {} Actual: {} {}",
+                          new Object[] { expectFiles ? "file" : "directory",
+                              Files.isRegularFile(path) ? "file" : "",
+                              Files.isDirectory(path) ? "directory" : "" });
+                LOG.error("{} : NOT DELETED", path);
+            }
+        }
+        ForkJoinTask.invokeAll(tasks);
+
+        for (DeleteTask task : tasks) {
+            if (task.failures.get() == 0) {
+                LOG.info("{} : deleted ({} paths)", task.path, task.deleted.get());
+            } else {
+                LOG.error("{} : NOT DELETED ({} paths not deleted)", task.path, task.failures.get());
+            }
+        }
+    }
+
+    /**
+     * Deletes a path, and its content if it's a directory. Errors are logged and counted, without stopping the
+     * deletion of the other paths.
+     */
+    private static class DeleteTask extends RecursiveAction {
+        private final Path path;
+        private final List<Path> files;
+        private final AtomicLong deleted;
+        private final AtomicLong failures;
+        private final ThreadFactory ioThreadFactory;
+
+        DeleteTask(Path path, ThreadFactory ioThreadFactory) {
+            this(path, null, new AtomicLong(), new AtomicLong(), ioThreadFactory);
+        }
+
+        private DeleteTask(Path path, List<Path> files, AtomicLong deleted, AtomicLong failures,
+                           ThreadFactory ioThreadFactory) {
+            this.path = path;
+            this.files = files;
+            this.deleted = deleted;
+            this.failures = failures;
+            this.ioThreadFactory = ioThreadFactory;
+        }
+
+        @Override
+        protected void compute() {
+            if ((files != null) && (ioThreadFactory != null)) {
+                deleteInParallel(files);
+                return;
+            }
+            if (files != null) {
+                for (Path file : files) {
+                    delete(file);
+                }
+                return;
+            }
+
+            if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                deleteContent();
+            }
+            delete(path);
+        }
+
+        private void deleteContent() {
+            List<DeleteTask> subTasks = new ArrayList<>();
+            List<Path> batch = new ArrayList<>();
+            try (DirectoryStream<Path> entries = openDirectory(path)) {
+                for (Path entry : entries) {
+                    if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+                        subTasks.add(new DeleteTask(entry, null, deleted, failures, ioThreadFactory));
+                    } else {
+                        batch.add(entry);
+                        if (batch.size() == BATCH_SIZE) {
+                            subTasks.add(new DeleteTask(path, batch, deleted, failures, ioThreadFactory));
+                            batch = new ArrayList<>();
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                LOG.error("Can't list directory " + path, e);
+                failures.incrementAndGet();
+            }
+            if (!batch.isEmpty()) {
+                subTasks.add(new DeleteTask(path, batch, deleted, failures, ioThreadFactory));
+            }
+            invokeAll(subTasks);
+        }
+
+        /**
+         * Deletes each file in its own thread, and waits for all of them.
+         */
+        private void deleteInParallel(List<Path> files) {
+            List<Thread> threads = new ArrayList<>(files.size());
+            for (Path file : files) {
+                Thread thread = ioThreadFactory.newThread(() -> delete(file));
+                thread.start();
+                threads.add(thread);
+            }
+            try {
+                for (Thread thread : threads) {
+                    thread.join();
                 }
+            } catch (InterruptedException e) {
+                // the started threads still delete their file
+                Thread.currentThread().interrupt();
+            }
+        }
 
-                if (deleted) {
-                    LOG.info("{} : deleted", path);
-                } else {
-                    LOG.error("{} : NOT DELETED", path);
+        private void delete(Path p) {
+            try {
+                try {
+                    Files.deleteIfExists(p);
+                } catch (AccessDeniedException e) {
+                    makeDeletable(p);
+                    Files.deleteIfExists(p);
                 }
+                deleted.incrementAndGet();
+            } catch (IOException e) {
+                LOG.error("Can't delete " + p, e);
+                failures.incrementAndGet();
             }
         }
     }
 
-    private boolean deleteFile(FileDeleteStrategy deleteStrategy, boolean expectFiles, Path path) {
-        boolean deleted;
-        if ((expectFiles && Files.isRegularFile(path)) || (!expectFiles && Files.isDirectory(path))) {
-            deleted = deleteStrategy.deleteQuietly(path.toFile());
-        } else {
-            LOG.error("Wrong path type. Expected: {} Actual: {} {}",
-                      new Object[] { expectFiles ? "file" : "directory",
-                          Files.isRegularFile(path) ? "file" : "",
-                          Files.isDirectory(path) ? "directory" : "" });
-            deleted = false;
+    private static DirectoryStream<Path> openDirectory(Path directory) throws IOException {
+        try {
+            return Files.newDirectoryStream(directory);
+        } catch (AccessDeniedException e) {
+            LOG.debug("{} : fixing permissions to list it", directory);
+            setFullAccess(directory);
+            return Files.newDirectoryStream(directory);
+        }
+    }
+
+    /**
+     * Fixes the permissions preventing the deletion of a path : those of its parent directory, and the read only
+     * state of the path itself (on Windows).
+     */
+    private static void makeDeletable(Path path) {
+        LOG.debug("{} : fixing permissions to delete it", path);
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            setFullAccess(parent);
         }
-        return deleted;
+        path.toFile().setWritable(true);
+    }
+
+    private static void setFullAccess(Path directory) {
+        File file = directory.toFile();
+        file.setReadable(true);
+        file.setWritable(true);
+        file.setExecutable(true);
     }
 
     List<Path> getRegisteredFiles() {
@@ -38,10 +38,14 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.attribute.FileTime;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static fr.duminy.jbackup.core.TestUtils.createFile;
 import static java.lang.Thread.sleep;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.*;
 
 /**
@@ -56,15 +60,20 @@ public class ConfigurationManagerTest {
     private static final String CONFIG_XML = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n" +
             "<backupConfiguration xmlVersion=\"1\">\n" +
             "    <archiveFactory>" + ZipArchiveFactory.class.getName() + "</archiveFactory>\n" +
+            "    <durability>ON_CLOSE</durability>\n" +
+            "    <maxBandwidth>0</maxBandwidth>\n" +
             "    <name>" + CONFIG1 + "</name>\n" +
             "    <relativeEntries>true</relativeEntries>\n" +
+            "    <resumable>false</resumable>\n" +
             "    <sources>\n" +
             generateSourceXml("        ", "aDirFilter", "aFileFilter", "aSource") +
             generateSourceXml("        ", null, null, "aSource2") +
             generateSourceXml("        ", "anotherDirFilter", "anotherFileFilter", "anotherSource") +
             "    </sources>\n" +
             "    <targetDirectory>" + TARGET_DIRECTORY + "</targetDirectory>\n" +
+            "    <trackChanges>false</trackChanges>\n" +
             "    <verify>false</verify>\n" +
+            "    <volumeSize>0</volumeSize>\n" +
             "</backupConfiguration>\n";
     private static final String CONFIG_XML2 = CONFIG_XML.replace("<name>" + CONFIG1 + "</name>", "<name>" + CONFIG2 + "</name>");
 
@@ -254,6 +263,223 @@ public class ConfigurationManagerTest {
         assertThat(mock.getBackupConfigurations()).extracting("name").as("fully valid config files").containsOnlyOnce(CONFIG1, CONFIG2);
     }
 
+    @Test
+    public void testLoadAllConfigurations_manyConfigurations() throws Exception {
+        final int nbConfigurations = 500;
+        for (int i = 0; i < nbConfigurations; i++) {
+            manager.saveBackupConfiguration(createConfiguration("config" + i));
+        }
+        ConfigurationManager newManager = new ConfigurationManager(manager.configFileFor(createConfiguration()).getParent());
+
+        long start = System.nanoTime();
+        List<String> names = newManager.getBackupConfigurationNames();
+        long namesTime = System.nanoTime();
+        List<BackupConfiguration> configurations = newManager.getBackupConfigurations();
+        long end = System.nanoTime();
+
+        LOG.info("{} configurations : names listed in {} ms, loaded in {} ms",
+                 new Object[]{nbConfigurations, TimeUnit.NANOSECONDS.toMillis(namesTime - start),
+                     TimeUnit.NANOSECONDS.toMillis(end - namesTime)});
+        assertThat(names).as("names").hasSize(nbConfigurations).contains("config0", "config499");
+        assertThat(configurations).extracting("name").as("configurations").containsOnlyElementsOf(names)
+                                  .hasSize(nbConfigurations);
+    }
+
+    @Test
+    public void testReload_onlyModifiedFilesAreParsed() throws Exception {
+        Path configFile1 = writeConfigFile(true);
+        Path configFile2 = writeConfigFile(false);
+        ConfigurationManager mock = spy(manager);
+        mock.getBackupConfigurations();
+        BackupConfiguration config2 = mock.getBackupConfiguration(CONFIG2);
+
+        String modifiedXml = CONFIG_XML.replace("<verify>false</verify>", "<verify>true</verify>");
+        assertThat(modifiedXml).as("modified XML").isNotEqualTo(CONFIG_XML);
+        createFile(configFile1, modifiedXml);
+        Files.setLastModifiedTime(configFile1, FileTime.fromMillis(Files.getLastModifiedTime(configFile1).toMillis() + 2000));
+        mock.reload();
+
+        verify(mock, times(2)).loadBackupConfiguration(eq(configFile1));
+        verify(mock, times(1)).loadBackupConfiguration(eq(configFile2));
+        assertThat(mock.getBackupConfiguration(CONFIG1).isVerify()).as("modified configuration reparsed").isTrue();
+        assertThat(mock.getBackupConfiguration(CONFIG2)).as("unmodified configuration").isSameAs(config2);
+    }
+
+    @Test
+    public void testReload_deletedFile() throws Exception {
+        Path configFile1 = writeConfigFile(true);
+        writeConfigFile(false);
+        manager.getBackupConfigurations();
+
+        Files.delete(configFile1);
+        manager.reload();
+
+        assertThat(manager.getBackupConfigurations()).extracting("name").as("configurations").containsExactly(CONFIG2);
+        assertThat(manager.getBackupConfiguration(CONFIG1)).as("deleted configuration").isNull();
+    }
+
+    @Test
+    public void testReload_events() throws Exception {
+        Path configFile1 = writeConfigFile(true);
+        BackupConfiguration config1 = manager.getBackupConfigurations().get(0);
+        ConfigurationListener listener = mock(ConfigurationListener.class);
+        manager.addListener(listener);
+
+        writeConfigFile(false);
+        createFile(configFile1, CONFIG_XML.replace("<verify>false</verify>", "<verify>true</verify>"));
+        Files.setLastModifiedTime(configFile1, FileTime.fromMillis(Files.getLastModifiedTime(configFile1).toMillis() + 2000));
+        manager.reload();
+
+        BackupConfiguration newConfig1 = manager.getBackupConfiguration(CONFIG1);
+        verify(listener).configurationUpdated(eq(0), same(config1), same(newConfig1));
+        verify(listener).configurationAdded(eq(1), same(manager.getBackupConfiguration(CONFIG2)));
+        verifyNoMoreInteractions(listener);
+
+        Files.delete(configFile1);
+        manager.reload();
+
+        verify(listener).configurationRemoved(eq(0), same(newConfig1));
+        verifyNoMoreInteractions(listener);
+        assertThat(manager.getBackupConfigurations()).extracting("name").as("configurations").containsExactly(CONFIG2);
+    }
+
+    @Test
+    public void testStartWatching() throws Exception {
+        writeConfigFile(true);
+        manager.getBackupConfigurations();
+        ConfigurationListener listener = mock(ConfigurationListener.class);
+        manager.addListener(listener);
+
+        manager.startWatching(Runnable::run);
+        try {
+            Path configFile2 = writeConfigFile(false);
+            verify(listener, timeout(10000)).configurationAdded(eq(1), any(BackupConfiguration.class));
+
+            Files.delete(configFile2);
+            verify(listener, timeout(10000)).configurationRemoved(eq(1), any(BackupConfiguration.class));
+        } finally {
+            manager.stopWatching();
+        }
+        verifyNoMoreInteractions(listener);
+    }
+
+    @Test
+    public void testIndexedStore_importXmlFiles() throws Exception {
+        writeConfigFile(true);
+        writeConfigFile(false);
+
+        ConfigurationManager indexedManager = new ConfigurationManager(configDir, true);
+
+        assertThat(indexedManager.getBackupConfigurationNames()).as("names").containsOnly(CONFIG1, CONFIG2);
+        ConfigurationManager newManager = new ConfigurationManager(configDir);
+        assertAreEquals(createConfiguration(), newManager.getBackupConfiguration(CONFIG1));
+        assertThat(newManager.getBackupConfigurations()).extracting("name").as("configurations")
+                                                        .containsOnly(CONFIG1, CONFIG2);
+    }
+
+    @Test
+    public void testIndexedStore_addRenameRemove() throws Exception {
+        ConfigurationManager indexedManager = new ConfigurationManager(configDir, true);
+        BackupConfiguration config1 = createConfiguration(CONFIG1);
+        BackupConfiguration config2 = createConfiguration(CONFIG2);
+        indexedManager.addBackupConfiguration(config1);
+        indexedManager.addBackupConfiguration(config2);
+
+        config1.setName("renamed");
+        Path store = indexedManager.saveRenamedBackupConfiguration(CONFIG1, config1);
+        indexedManager.removeBackupConfiguration(config2);
+
+        try (Stream<Path> files = Files.list(configDir)) {
+            assertThat(files.collect(Collectors.toList())).as("files").containsExactly(store);
+        }
+        ConfigurationManager newManager = new ConfigurationManager(configDir);
+        assertThat(newManager.getBackupConfigurationNames()).as("names").containsExactly("renamed");
+        assertThat(newManager.getBackupConfiguration("renamed").getName()).as("renamed configuration").isEqualTo("renamed");
+        assertThat(newManager.getBackupConfiguration(CONFIG2)).as("removed configuration").isNull();
+    }
+
+    @Test
+    public void testIndexedStore_reload_onlyModifiedEntriesAreParsed() throws Exception {
+        ConfigurationManager writer = new ConfigurationManager(configDir, true);
+        BackupConfiguration config1 = createConfiguration(CONFIG1);
+        BackupConfiguration config2 = createConfiguration(CONFIG2);
+        writer.addBackupConfiguration(config1);
+        writer.addBackupConfiguration(config2);
+        ConfigurationManager reader = new ConfigurationManager(configDir);
+        BackupConfiguration readConfig1 = reader.getBackupConfigurations().get(0);
+        BackupConfiguration readConfig2 = reader.getBackupConfiguration(CONFIG2);
+        ConfigurationListener listener = mock(ConfigurationListener.class);
+        reader.addListener(listener);
+
+        config1.setVerify(true);
+        touch(writer.saveBackupConfiguration(config1));
+        reader.reload();
+
+        BackupConfiguration newConfig1 = reader.getBackupConfiguration(CONFIG1);
+        assertThat(newConfig1.isVerify()).as("modified configuration reparsed").isTrue();
+        assertThat(reader.getBackupConfiguration(CONFIG2)).as("unmodified configuration").isSameAs(readConfig2);
+        verify(listener).configurationUpdated(eq(0), same(readConfig1), same(newConfig1));
+        verifyNoMoreInteractions(listener);
+
+        writer.removeBackupConfiguration(config2);
+        touch(configDir.resolve(ConfigurationStore.FILE_NAME));
+        reader.reload();
+
+        verify(listener).configurationRemoved(eq(1), same(readConfig2));
+        verifyNoMoreInteractions(listener);
+        assertThat(reader.getBackupConfigurations()).extracting("name").as("configurations").containsExactly(CONFIG1);
+    }
+
+    @Test
+    public void testIndexedStore_exportImport() throws Exception {
+        ConfigurationManager indexedManager = new ConfigurationManager(configDir, true);
+        BackupConfiguration config = createConfiguration();
+        indexedManager.addBackupConfiguration(config);
+        Path xmlFile = tempFolder.newFile().toPath();
+
+        indexedManager.exportBackupConfiguration(config, xmlFile);
+
+        Assertions.assertThat(xmlFile.toFile()).hasContent(CONFIG_XML);
+        ConfigurationManager otherManager = new ConfigurationManager(tempFolder.newFolder().toPath(), true);
+        BackupConfiguration importedConfig = otherManager.importBackupConfiguration(xmlFile);
+        assertAreEquals(config, importedConfig);
+        assertThat(otherManager.getBackupConfigurationNames()).as("names").containsExactly(CONFIG1);
+    }
+
+    /**
+     * Changes the modification time of a file, which may otherwise be unchanged when it's written twice quickly.
+     */
+    private static void touch(Path file) throws IOException {
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 2000));
+    }
+
+    @Test
+    public void testCheckTarget_remoteTarget() throws Exception {
+        BackupConfiguration config = createConfiguration();
+        config.setTargetDirectory(tempFolder.getRoot().toURI().toString());
+        ConfigurationManager.checkTarget(config);
+
+        config.setVerify(true);
+        config.setVolumeSize(10);
+        try {
+            manager.addBackupConfiguration(config);
+            fail("the options are not supported by a remote target");
+        } catch (ConfigurationException e) {
+            assertThat(e.getMessage()).as("message").contains("[verify, volumeSize]");
+        }
+        assertThat(manager.getBackupConfigurations()).as("configurations").isEmpty();
+    }
+
+    @Test
+    public void testCheckTarget_localTarget() throws Exception {
+        BackupConfiguration config = createConfiguration();
+        config.setVerify(true);
+        config.setResumable(true);
+        config.setVolumeSize(10);
+
+        ConfigurationManager.checkTarget(config);
+    }
+
     @Test
     public void testLoadAllConfigurations_nonXmlFile() throws Exception {
         // prepare mock
@@ -23,6 +23,7 @@ package fr.duminy.jbackup.core;
 import fr.duminy.jbackup.core.archive.ArchiveFactory;
 import fr.duminy.jbackup.core.archive.ProgressListener;
 import fr.duminy.jbackup.core.archive.zip.ZipArchiveFactory;
+import fr.duminy.jbackup.core.metrics.TaskMetrics;
 import fr.duminy.jbackup.core.task.*;
 import fr.duminy.jbackup.core.util.*;
 import org.apache.commons.io.filefilter.NameFileFilter;
@@ -32,16 +33,26 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InOrder;
 import org.mockito.stubbing.Answer;
 
 import javax.swing.*;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static fr.duminy.jbackup.core.JBackup.TerminationListener;
 import static java.lang.System.currentTimeMillis;
@@ -145,6 +156,72 @@ public class JBackupImplTest {
         assertThat(TaskTestUtils.getCancellable(task)).isSameAs(cancellable);
     }
 
+    @Test
+    public void testBackup_alreadyRunning() throws Throwable {
+        BackupConfiguration config = createConfiguration();
+        LockableJBackup jBackup = new LockableJBackup(config.getArchiveFactory());
+        jBackup.lockCompression();
+        try {
+            Future<Void> future1 = jBackup.backup(config);
+            Future<Void> future2 = jBackup.backup(config);
+
+            assertThat(future2).as("future of the running backup").isSameAs(future1);
+
+            jBackup.unlockCompression();
+            waitResult(future1);
+            Future<Void> future3 = jBackup.backup(config);
+            assertThat(future3).as("future of a new backup").isNotSameAs(future1);
+            waitResult(future3);
+        } finally {
+            jBackup.unlockCompression();
+            jBackup.shutdown(null);
+        }
+    }
+
+    @Test
+    public void testBackup_afterPreviousBackupFinished() throws Throwable {
+        BackupConfiguration config = createConfiguration();
+        ProgressListener listener = mock(ProgressListener.class);
+        JBackupImpl jBackup = new JBackupImpl();
+        jBackup.addProgressListener(config.getName(), listener);
+        try {
+            Future<Void> future1 = jBackup.backup(config);
+            waitResult(future1);
+            // the archives are named by the second of their creation
+            config.setTargetDirectory(tempFolder.newFolder("target2").toString());
+            Future<Void> future2 = jBackup.backup(config);
+            waitResult(future2);
+
+            assertThat(future2).as("future of the second backup").isNotSameAs(future1);
+            verify(listener, times(2)).taskStarted(config.getName());
+            verify(listener, times(2)).taskFinished(config.getName(), null);
+        } finally {
+            jBackup.shutdown(null);
+        }
+    }
+
+    @Test
+    public void testBackupThenRestore_remoteTarget() throws Throwable {
+        BackupConfiguration config = createConfiguration();
+        Path storageDirectory = Paths.get(config.getTargetDirectory());
+        config.setTargetDirectory(storageDirectory.toUri().toString());
+        Path restoreDirectory = tempFolder.getRoot().toPath().resolve("restore");
+        JBackupImpl jBackup = new JBackupImpl();
+        try {
+            waitResult(jBackup.backup(config));
+            Path archive = ConfigurationManager.getLatestArchive(config);
+            assertThat(archive).as("archive name").isNotNull();
+            assertThat(archive.getNameCount()).as("archive name count").isEqualTo(1);
+            assertThat(Files.exists(storageDirectory.resolve(archive))).as("stored archive").isTrue();
+
+            waitResult(jBackup.restore(config, archive, restoreDirectory));
+        } finally {
+            jBackup.shutdown(null);
+        }
+
+        assertThat(Files.exists(restoreDirectory.resolve("source").resolve("file"))).as("restored file").isTrue();
+    }
+
     @Test
     public void testBackup_withCancellable() throws Throwable {
         // prepare test
@@ -201,6 +278,37 @@ public class JBackupImplTest {
         testBackup(null);
     }
 
+    @Test
+    public void testBackup_metrics() throws Throwable {
+        final BackupConfiguration config = createConfiguration();
+        JBackupImpl jBackup = new JBackupImpl(1, 1, ThreadMode.PLATFORM);
+        jBackup.setWriteReports(true);
+
+        try {
+            waitResult(jBackup.backup(config));
+        } finally {
+            jBackup.shutdown(null);
+        }
+
+        TaskMetrics metrics = jBackup.getMetrics().getLastMetrics(config.getName());
+        assertThat(metrics).as("metrics").isNotNull();
+        assertThat(metrics.isSuccessful()).as("successful").isTrue();
+        assertThat(metrics.getTaskType()).as("taskType").isEqualTo(BackupTask.class.getSimpleName());
+        assertThat(metrics.getQueueWaitTime()).as("queueWaitTime").isGreaterThanOrEqualTo(0L);
+        assertThat(metrics.getWallTime()).as("wallTime").isGreaterThanOrEqualTo(0L);
+        assertThat(metrics.getFiles()).as("files").isEqualTo(1L);
+        assertThat(metrics.getArchiveSize()).as("archiveSize").isEqualTo(Files.size(metrics.getArchive()));
+        assertThat(metrics.getUncompressedSize()).as("uncompressedSize").isEqualTo(10L);
+        assertThat(metrics.getCommands().keySet()).as("commands").containsExactly("CollectFilesCommand", "CompressCommand");
+        assertThat(jBackup.getMetrics().getSuccessfulTaskCount()).as("successfulTaskCount").isEqualTo(1L);
+        assertThat(jBackup.getMetrics().getFailedTaskCount()).as("failedTaskCount").isEqualTo(0L);
+
+        Path report = metrics.getArchive().resolveSibling(metrics.getArchive().getFileName() + TaskMetrics.REPORT_EXTENSION);
+        assertThat(report).as("report").exists();
+        assertThat(new String(Files.readAllBytes(report), StandardCharsets.UTF_8)).as("report").isEqualTo(metrics.toJson());
+        assertThat(ConfigurationManager.getLatestArchive(config)).as("latestArchive").isEqualTo(metrics.getArchive());
+    }
+
     private void testBackup(ProgressListener listener) throws Throwable {
         final BackupConfiguration config = createConfiguration();
         final Task mockBackupTask = mock(Task.class);
@@ -438,6 +546,44 @@ public class JBackupImplTest {
         verifyNoMoreInteractions(listener);
     }
 
+    @Test
+    public void testProgress_coalesced() throws Throwable {
+        final int nbEvents = 100000;
+        final BackupConfiguration config = createConfiguration();
+        JBackup jBackup = new JBackupImpl() {
+            @Override
+            BackupTask createBackupTask(BackupConfiguration config, final TaskListener taskListener, Cancellable cancellable) {
+                return new BackupTask(config, TestUtils.newMockSupplier(), taskListener, cancellable) {
+                    @Override
+                    protected void executeTask(FileDeleter deleter) throws TaskException {
+                        taskListener.totalSizeComputed(nbEvents);
+                        for (int i = 1; i <= nbEvents; i++) {
+                            taskListener.progress(i);
+                        }
+                    }
+                };
+            }
+        };
+        ProgressListener listener = mock(ProgressListener.class);
+        jBackup.addProgressListener(config.getName(), listener);
+
+        try {
+            waitResult(jBackup.backup(config));
+        } finally {
+            jBackup.shutdown(null);
+        }
+
+        ArgumentCaptor<Long> progress = ArgumentCaptor.forClass(Long.class);
+        InOrder inOrder = inOrder(listener);
+        inOrder.verify(listener).taskStarted(config.getName());
+        inOrder.verify(listener).totalSizeComputed(config.getName(), nbEvents);
+        inOrder.verify(listener, atLeastOnce()).progress(eq(config.getName()), progress.capture());
+        inOrder.verify(listener).taskFinished(config.getName(), null);
+        inOrder.verifyNoMoreInteractions();
+        assertThat(progress.getAllValues().size()).as("number of progress notifications").isLessThan(nbEvents / 10);
+        assertThat(progress.getAllValues()).as("progress notifications").isSorted().endsWith((long) nbEvents);
+    }
+
     @Test
     public void testRemoveProgressListener_backup() throws Throwable {
         testRemoveProgressListener(new BackupAction(createConfiguration()), false);
@@ -489,6 +635,78 @@ public class JBackupImplTest {
         verify(listener, never()).taskFinished(eq(config.getName()), any(Throwable.class));
     }
 
+    @Test
+    public void testRemoveProgressListeners() throws Throwable {
+        JBackup jBackup = createMockJBackup();
+        ProgressListener listener = mock(ProgressListener.class);
+        BackupConfiguration config = createConfiguration();
+        jBackup.addProgressListener(config.getName(), listener);
+
+        jBackup.removeProgressListeners(config.getName());
+        try {
+            waitResult(jBackup.backup(config));
+        } finally {
+            jBackup.shutdown(null);
+        }
+
+        verifyZeroInteractions(listener);
+    }
+
+    @Test
+    public void testProgressListeners_concurrentChurn() throws Throwable {
+        final int nbConfigs = 10;
+        final int nbTasks = 200;
+        final JBackup jBackup = createMockJBackup(8);
+        final BackupConfiguration[] configs = new BackupConfiguration[nbConfigs];
+        for (int i = 0; i < nbConfigs; i++) {
+            configs[i] = ConfigurationManagerTest.createConfiguration("config" + i);
+        }
+        final ProgressListener globalListener = mock(ProgressListener.class);
+        jBackup.addProgressListener(globalListener);
+        final AtomicBoolean stop = new AtomicBoolean(false);
+        final AtomicReference<Throwable> churnError = new AtomicReference<>();
+        Thread churn = new Thread(() -> {
+            try {
+                ProgressListener listener = mock(ProgressListener.class);
+                for (int i = 0; !stop.get(); i++) {
+                    String name = configs[i % nbConfigs].getName();
+                    jBackup.addProgressListener(name, listener);
+                    jBackup.addProgressListener(listener);
+                    jBackup.removeProgressListener(name, listener);
+                    jBackup.removeProgressListener(listener);
+                    if ((i % 100) == 0) {
+                        jBackup.removeProgressListeners(name);
+                    }
+                }
+            } catch (Throwable t) {
+                churnError.set(t);
+            }
+        });
+
+        churn.start();
+        List<Future<Void>> futures = new ArrayList<>();
+        try {
+            for (int i = 0; i < nbTasks; i++) {
+                futures.add(jBackup.backup(configs[i % nbConfigs]));
+            }
+            for (Future<Void> future : futures) {
+                waitResult(future);
+            }
+        } finally {
+            stop.set(true);
+            churn.join();
+            jBackup.shutdown(null);
+        }
+
+        // a backup of a configuration which is still running is not submitted again
+        Set<Future<Void>> startedTasks = Collections.newSetFromMap(new IdentityHashMap<>());
+        startedTasks.addAll(futures);
+        int nbStartedTasks = startedTasks.size();
+        assertThat(churnError.get()).as("churn error").isNull();
+        verify(globalListener, times(nbStartedTasks)).taskStarted(anyString());
+        verify(globalListener, times(nbStartedTasks)).taskFinished(anyString(), isNull(Throwable.class));
+    }
+
     public static final class CustomNameFileFilter extends NameFileFilter {
         private final String name;
 
@@ -555,7 +773,11 @@ public class JBackupImplTest {
     }
 
     private JBackup createMockJBackup() {
-        return new JBackupImpl() {
+        return createMockJBackup(1);
+    }
+
+    private JBackup createMockJBackup(int maxTasksPerDevice) {
+        return new JBackupImpl(Runtime.getRuntime().availableProcessors(), maxTasksPerDevice, ThreadMode.PLATFORM) {
             @Override
             RestoreTask createRestoreTask(BackupConfiguration config, Path archive, Path targetDirectory, final TaskListener taskListener, Cancellable cancellable) {
                 return new RestoreTask(config, archive, targetDirectory, TestUtils.newMockSupplier(), taskListener, cancellable) {
@@ -24,6 +24,7 @@ import fr.duminy.jbackup.core.util.LogRule;
 import org.apache.commons.io.IOUtils;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -31,6 +32,9 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 
 import static fr.duminy.jbackup.core.archive.ArchiveInputStream.Entry;
@@ -45,6 +49,9 @@ abstract public class ArchiveFactoryTest<T extends ArchiveFactory> {
     @Rule
     public final LogRule logRule = new LogRule();
 
+    @Rule
+    public final TemporaryFolder tempFolder = new TemporaryFolder();
+
     private final String archiveResource;
     private final T factory;
 
@@ -93,6 +100,20 @@ abstract public class ArchiveFactoryTest<T extends ArchiveFactory> {
         testCreateArchiveInputStream(new ByteArrayInputStream(archive.toByteArray()));
     }
 
+    @Test
+    public final void testGetUncompressedSize() throws Exception {
+        Path archive = tempFolder.newFile().toPath();
+        Files.copy(getArchiveResource(getClass(), archiveResource), archive, StandardCopyOption.REPLACE_EXISTING);
+        long expectedSize = 0L;
+        for (String resource : RESOURCES) {
+            expectedSize += IOUtils.toByteArray(getTestFile(resource)).length;
+        }
+
+        long size = factory.getUncompressedSize(archive);
+
+        assertThat(size).as("uncompressed size").isEqualTo(expectedSize);
+    }
+
     private InputStream getTestFile(String resource) {
         return ArchiveFactoryTest.class.getResourceAsStream(resource);
     }
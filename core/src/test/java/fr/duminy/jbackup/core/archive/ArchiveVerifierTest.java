@@ -22,7 +22,9 @@ package fr.duminy.jbackup.core.archive;
 
 import fr.duminy.jbackup.core.archive.zip.ZipArchiveFactory;
 import fr.duminy.jbackup.core.util.InputStreamComparator;
+import org.junit.Assume;
 import org.junit.Rule;
+import org.junit.Test;
 import org.junit.experimental.theories.Theories;
 import org.junit.experimental.theories.Theory;
 import org.junit.rules.TemporaryFolder;
@@ -30,6 +32,7 @@ import org.junit.runner.RunWith;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -81,6 +84,80 @@ public class ArchiveVerifierTest {
         assertThat(actual).as("result of verify").isEqualTo(!alterContent);
     }
 
+    @Test
+    public void testVerify_hardLink() throws Exception {
+        testVerify_hardLink(false);
+    }
+
+    @Test
+    public void testVerify_hardLink_notLinkedAnymore() throws Exception {
+        testVerify_hardLink(true);
+    }
+
+    private void testVerify_hardLink(boolean unlink) throws Exception {
+        Assume.assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("unix"));
+        List<SourceWithPath> files = createFiles("files");
+        Path file1 = files.get(0).getPath();
+        Path link = Files.createLink(file1.resolveSibling("link"), file1);
+        files.add(new SourceWithPath(files.get(0).getSource(), link));
+        Path archive = zipFiles(ZipArchiveFactory.INSTANCE, files);
+        if (unlink) {
+            Files.delete(link);
+            Files.copy(file1, link);
+        }
+
+        boolean actual;
+        try (InputStream archiveInputStream = Files.newInputStream(archive)) {
+            actual = new ArchiveVerifier(new InputStreamComparator())
+                .verify(ZipArchiveFactory.INSTANCE, archiveInputStream, files);
+        }
+
+        assertThat(actual).as("result of verify").isEqualTo(!unlink);
+    }
+
+    @Test
+    public void testVerify_outOfOrder() throws Exception {
+        List<SourceWithPath> files = createFiles("files");
+        files.addAll(createFiles("files2"));
+        Path archive = zipFiles(ZipArchiveFactory.INSTANCE, files);
+        InputStreamComparator comparator = spy(new InputStreamComparator());
+
+        boolean actual;
+        try (InputStream archiveInputStream = Files.newInputStream(archive);
+             CollectedFiles reversedFiles = new CollectedFiles(0, tempFolder.newFolder().toPath())) {
+            for (int i = files.size() - 1; i >= 0; i--) {
+                reversedFiles.add(files.get(i));
+            }
+            actual = new ArchiveVerifier(comparator).verify(ZipArchiveFactory.INSTANCE, archiveInputStream,
+                                                            reversedFiles);
+        }
+
+        assertThat(actual).as("result of verify").isTrue();
+        for (SourceWithPath swp : files) {
+            verify(comparator, times(1)).equals(eq(swp.getPath()), any(InputStream.class));
+        }
+    }
+
+    @Test
+    public void testVerify_missingFile() throws Exception {
+        List<SourceWithPath> files = createFiles("files");
+        files.addAll(createFiles("files2"));
+        Path archive = zipFiles(ZipArchiveFactory.INSTANCE, files);
+        SourceWithPath missingFile = files.remove(1);
+        Files.delete(missingFile.getPath());
+        InputStreamComparator comparator = spy(new InputStreamComparator());
+
+        boolean actual;
+        try (InputStream archiveInputStream = Files.newInputStream(archive)) {
+            actual = new ArchiveVerifier(comparator).verify(ZipArchiveFactory.INSTANCE, archiveInputStream, files);
+        }
+
+        assertThat(actual).as("result of verify").isFalse();
+        for (SourceWithPath swp : files) {
+            verify(comparator, times(1)).equals(eq(swp.getPath()), any(InputStream.class));
+        }
+    }
+
     private Path zipFiles(ArchiveFactory factory, List<SourceWithPath> files) throws IOException, ArchiveException {
         Path archive = tempFolder.newFile("archive.zip").toPath();
         Compressor compressor = new Compressor(factory);
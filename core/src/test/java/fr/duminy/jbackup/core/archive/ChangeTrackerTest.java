@@ -0,0 +1,223 @@
+/**
+ * JBackup is a software managing backups.
+ *
+ * Copyright (C) 2013-2017 Fabien DUMINY (fabien [dot] duminy [at] webmails [dot] com)
+ *
+ * JBackup is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * JBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ */
+package fr.duminy.jbackup.core.archive;
+
+import fr.duminy.jbackup.core.TestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static java.lang.System.currentTimeMillis;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+/**
+ * Tests for {@link ChangeTracker}.
+ */
+public class ChangeTrackerTest {
+    private static final long TIMEOUT = 10000L;
+
+    @Rule
+    public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private Path root;
+    private Path subDir;
+    private Path tempDirectory;
+    private ChangeTracker tracker;
+
+    @Before
+    public void setUp() throws Exception {
+        root = tempFolder.newFolder("root").toPath();
+        subDir = Files.createDirectories(root.resolve("subDir"));
+        tempDirectory = tempFolder.newFolder("temp").toPath();
+        tracker = new ChangeTracker(root, tempDirectory);
+        tracker.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        tracker.close();
+    }
+
+    @Test
+    public void testGetChanges_notCommitted() throws Exception {
+        ChangeTracker.Changes changes = tracker.getChanges();
+
+        assertThat(changes.isFullWalkNeeded()).as("fullWalkNeeded").isTrue();
+        assertThat(changes.getDirtyDirectories()).isEmpty();
+    }
+
+    @Test
+    public void testGetChanges_newFile() throws Exception {
+        tracker.commit(tracker.getChanges());
+
+        TestUtils.createFile(subDir.resolve("file"), 10);
+
+        ChangeTracker.Changes changes = waitForDirtyDirectory(subDir);
+        assertThat(changes.isFullWalkNeeded()).as("fullWalkNeeded").isFalse();
+        assertThat(changes.getDirtyDirectories()).containsOnly(subDir);
+    }
+
+    @Test
+    public void testGetChanges_newDirectory() throws Exception {
+        tracker.commit(tracker.getChanges());
+
+        Path newDir = Files.createDirectories(subDir.resolve("newDir"));
+        waitForDirtyDirectory(newDir);
+        TestUtils.createFile(newDir.resolve("file"), 10);
+
+        assertThat(waitForDirtyDirectory(newDir).getDirtyDirectories()).contains(subDir, newDir);
+    }
+
+    @Test
+    public void testCommit_keepsLaterChanges() throws Exception {
+        // the events are notified directly, so that they are ordered
+        ChangeTracker unstarted = new ChangeTracker(root);
+        unstarted.commit(unstarted.getChanges());
+        unstarted.directoryChanged(root);
+        ChangeTracker.Changes changes = unstarted.getChanges();
+        unstarted.directoryChanged(subDir);
+
+        unstarted.commit(changes);
+
+        ChangeTracker.Changes actual = unstarted.getChanges();
+        assertThat(actual.isFullWalkNeeded()).as("fullWalkNeeded").isFalse();
+        assertThat(actual.getDirtyDirectories()).containsOnly(subDir);
+    }
+
+    @Test
+    public void testGetFiles_fullWalk() throws Exception {
+        Path file1 = TestUtils.createFile(root.resolve("file1"), 10);
+        Path file2 = TestUtils.createFile(subDir.resolve("file2"), 20);
+
+        try (ChangeTracker unstarted = new ChangeTracker(root, tempDirectory)) {
+            Map<Path, Map<Path, Long>> files = getFiles(unstarted);
+
+            assertThat(files.keySet()).containsExactly(root, subDir);
+            assertThat(files.get(root)).containsOnly(entry(file1, 10L));
+            assertThat(files.get(subDir)).containsOnly(entry(file2, 20L));
+            assertThat(unstarted.getChanges().isFullWalkNeeded()).as("fullWalkNeeded").isFalse();
+        }
+    }
+
+    @Test
+    public void testGetFiles_changedDirectories() throws Exception {
+        Path removedDir = Files.createDirectories(root.resolve("removedDir"));
+        Path removedFile = TestUtils.createFile(removedDir.resolve("file"), 10);
+        Path unchangedDir = Files.createDirectories(root.resolve("unchangedDir"));
+        Path unchangedFile = TestUtils.createFile(unchangedDir.resolve("file"), 40);
+
+        try (ChangeTracker unstarted = new ChangeTracker(root, tempDirectory)) {
+            getFiles(unstarted);
+
+            Path newFile = TestUtils.createFile(subDir.resolve("newFile"), 30);
+            Path newDir = Files.createDirectories(subDir.resolve("newDir"));
+            Path newDirFile = TestUtils.createFile(newDir.resolve("file"), 50);
+            Files.delete(removedFile);
+            Files.delete(removedDir);
+            // not notified : the unchanged directory is read from the previous listing
+            TestUtils.createFile(unchangedDir.resolve("file"), 60);
+            unstarted.directoryChanged(subDir);
+            unstarted.directoryChanged(root);
+            Map<Path, Map<Path, Long>> files = getFiles(unstarted);
+
+            assertThat(files.keySet()).containsExactly(root, subDir, newDir, unchangedDir);
+            assertThat(files.get(root)).isEmpty();
+            assertThat(files.get(subDir)).containsOnly(entry(newFile, 30L));
+            assertThat(files.get(newDir)).containsOnly(entry(newDirFile, 50L));
+            assertThat(files.get(unchangedDir)).containsOnly(entry(unchangedFile, 40L));
+            assertThat(unstarted.getChanges().getDirtyDirectories()).isEmpty();
+        }
+    }
+
+    @Test
+    public void testGetFiles_cancelled() throws Exception {
+        try (ChangeTracker unstarted = new ChangeTracker(root, tempDirectory)) {
+            assertThat(unstarted.getFiles(() -> true, (directory, files) -> {
+            })).as("complete").isFalse();
+            assertThat(unstarted.getChanges().isFullWalkNeeded()).as("fullWalkNeeded").isTrue();
+            assertThat(Files.list(tempDirectory).count()).as("number of temporary files").isEqualTo(0);
+        }
+    }
+
+    @Test
+    public void testClose_deletesListing() throws Exception {
+        ChangeTracker unstarted = new ChangeTracker(root, tempDirectory);
+        getFiles(unstarted);
+        assertThat(Files.list(tempDirectory).count()).as("number of temporary files").isEqualTo(1);
+
+        unstarted.close();
+
+        assertThat(Files.list(tempDirectory).count()).as("number of temporary files").isEqualTo(0);
+        assertThat(unstarted.getChanges().isFullWalkNeeded()).as("fullWalkNeeded").isTrue();
+    }
+
+    @Test
+    public void testGetFiles_closed() throws Exception {
+        Path file1 = TestUtils.createFile(root.resolve("file1"), 10);
+        ChangeTracker unstarted = new ChangeTracker(root, tempDirectory);
+        getFiles(unstarted);
+        unstarted.close();
+
+        TestUtils.createFile(root.resolve("file1"), 20);
+        Map<Path, Map<Path, Long>> files = getFiles(unstarted);
+
+        // all the files are read again, but the listing is not kept
+        assertThat(files.get(root)).containsOnly(entry(file1, 20L));
+        assertThat(Files.list(tempDirectory).count()).as("number of temporary files").isEqualTo(0);
+    }
+
+    @Test
+    public void testCompare() {
+        Path dir = root.resolve("dir");
+
+        assertThat(ChangeTracker.compare(dir, dir.resolve("subDir"))).as("directory before subDirectory").isNegative();
+        // "dir-other" < "dir/subDir" when comparing the whole paths
+        assertThat(ChangeTracker.compare(dir.resolve("subDir"), root.resolve("dir-other")))
+            .as("subDirectory before next directory").isNegative();
+        assertThat(ChangeTracker.compare(dir, dir)).as("same directory").isZero();
+    }
+
+    private static Map<Path, Map<Path, Long>> getFiles(ChangeTracker tracker) throws IOException {
+        Map<Path, Map<Path, Long>> files = new LinkedHashMap<>();
+        assertThat(tracker.getFiles(null, files::put)).as("complete").isTrue();
+        return files;
+    }
+
+    private ChangeTracker.Changes waitForDirtyDirectory(Path directory) throws InterruptedException {
+        long timeout = currentTimeMillis() + TIMEOUT;
+        ChangeTracker.Changes changes = tracker.getChanges();
+        while (!changes.getDirtyDirectories().contains(directory) && (currentTimeMillis() < timeout)) {
+            Thread.sleep(50);
+            changes = tracker.getChanges();
+        }
+        assertThat(changes.getDirtyDirectories()).as("dirty directories").contains(directory);
+        return changes;
+    }
+}
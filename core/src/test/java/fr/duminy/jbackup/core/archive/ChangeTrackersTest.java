@@ -0,0 +1,111 @@
+/**
+ * JBackup is a software managing backups.
+ *
+ * Copyright (C) 2013-2017 Fabien DUMINY (fabien [dot] duminy [at] webmails [dot] com)
+ *
+ * JBackup is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * JBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ */
+package fr.duminy.jbackup.core.archive;
+
+import fr.duminy.jbackup.core.BackupConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests for {@link ChangeTrackers}.
+ */
+public class ChangeTrackersTest {
+    @Rule
+    public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private Path directory;
+    private ChangeTrackers trackers;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = tempFolder.newFolder("source").toPath();
+        trackers = new ChangeTrackers();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        trackers.close();
+    }
+
+    @Test
+    public void testGet() throws Exception {
+        ChangeTracker tracker = trackers.get(directory);
+
+        assertThat(tracker).isNotNull();
+        assertThat(tracker.getRoot()).isEqualTo(directory);
+        assertThat(trackers.get(directory)).as("second call").isSameAs(tracker);
+    }
+
+    @Test
+    public void testGet_failedStartRetried() throws Exception {
+        Path missingDirectory = directory.resolve("missing");
+
+        assertThat(trackers.get(missingDirectory)).as("tracker of a missing directory").isNull();
+
+        Files.createDirectories(missingDirectory);
+        assertThat(trackers.get(missingDirectory)).as("tracker of the created directory").isNotNull();
+    }
+
+    @Test
+    public void testConfigurationRemoved() throws Exception {
+        ChangeTracker tracker = trackers.get(directory);
+        tracker.commit(tracker.getChanges());
+
+        trackers.configurationRemoved(0, createConfiguration(true));
+
+        assertThat(tracker.getChanges().isFullWalkNeeded()).as("removed tracker closed").isTrue();
+        assertThat(trackers.get(directory)).as("new tracker").isNotNull().isNotSameAs(tracker);
+    }
+
+    @Test
+    public void testConfigurationUpdated_notTrackedAnymore() throws Exception {
+        ChangeTracker tracker = trackers.get(directory);
+
+        trackers.configurationUpdated(0, createConfiguration(true), createConfiguration(false));
+
+        assertThat(trackers.get(directory)).as("new tracker").isNotNull().isNotSameAs(tracker);
+    }
+
+    @Test
+    public void testConfigurationUpdated_stillTracked() throws Exception {
+        ChangeTracker tracker = trackers.get(directory);
+
+        trackers.configurationUpdated(0, createConfiguration(true), createConfiguration(true));
+
+        assertThat(trackers.get(directory)).as("same tracker").isSameAs(tracker);
+    }
+
+    private BackupConfiguration createConfiguration(boolean trackChanges) {
+        BackupConfiguration config = new BackupConfiguration();
+        config.setName("config");
+        config.addSource(directory);
+        config.setTrackChanges(trackChanges);
+        return config;
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * JBackup is a software managing backups.
+ *
+ * Copyright (C) 2013-2017 Fabien DUMINY (fabien [dot] duminy [at] webmails [dot] com)
+ *
+ * JBackup is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * JBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ */
+package fr.duminy.jbackup.core.archive;
+
+import org.assertj.core.groups.Tuple;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.groups.Tuple.tuple;
+
+/**
+ * Tests for {@link CollectedFiles}.
+ */
+public class CollectedFilesTest {
+    private static final int MAX_FILES_IN_MEMORY = 2;
+
+    @Rule
+    public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private Path tempDirectory;
+    private List<SourceWithPath> expectedFiles;
+
+    @Before
+    public void setUp() throws Exception {
+        tempDirectory = tempFolder.newFolder("temp").toPath();
+        Path source1 = tempFolder.newFolder("source1").toPath();
+        Path source2 = tempFolder.newFolder("source2").toPath();
+
+        expectedFiles = new ArrayList<>();
+        expectedFiles.add(new SourceWithPath(source1, source1.resolve("file1")));
+        expectedFiles.add(new SourceWithPath(source1, source1.resolve("dir").resolve("file2")));
+        expectedFiles.add(new SourceWithPath(source2, source2.resolve("file3")));
+        expectedFiles.add(new SourceWithPath(source1, source1.resolve("file4")));
+    }
+
+    @Test
+    public void testAdd_inMemory() throws Exception {
+        testAdd(MAX_FILES_IN_MEMORY, false);
+    }
+
+    @Test
+    public void testAdd_spilled() throws Exception {
+        testAdd(expectedFiles.size() + 1, true);
+    }
+
+    private void testAdd(int nbFiles, boolean expectSpilled) throws Exception {
+        List<SourceWithPath> files = expectedFiles.subList(0, Math.min(nbFiles, expectedFiles.size()));
+
+        try (CollectedFiles collectedFiles = new CollectedFiles(MAX_FILES_IN_MEMORY, tempDirectory)) {
+            collectedFiles.addAll(files);
+
+            assertThat(collectedFiles.isSpilled()).as("spilled").isEqualTo(expectSpilled);
+            assertThat(collectedFiles).hasSize(files.size());
+            for (int i = 0; i < 2; i++) {
+                assertThat(collectedFiles).as("iteration #" + i)
+                                          .extracting(SourceWithPath::getSource, SourceWithPath::getPath)
+                                          .containsExactlyElementsOf(toTuples(files));
+            }
+        }
+    }
+
+    @Test
+    public void testClose_deletesTemporaryFile() throws Exception {
+        CollectedFiles collectedFiles = new CollectedFiles(MAX_FILES_IN_MEMORY, tempDirectory);
+        collectedFiles.addAll(expectedFiles);
+        collectedFiles.iterator().next();
+        assertThat(Files.list(tempDirectory).count()).as("number of temporary files").isEqualTo(1);
+
+        collectedFiles.close();
+
+        assertThat(Files.list(tempDirectory).count()).as("number of temporary files").isEqualTo(0);
+        assertThat(collectedFiles).isEmpty();
+    }
+
+    private static List<Tuple> toTuples(List<SourceWithPath> files) {
+        List<Tuple> result = new ArrayList<>();
+        for (SourceWithPath file : files) {
+            result.add(tuple(file.getSource(), file.getPath()));
+        }
+        return result;
+    }
+}
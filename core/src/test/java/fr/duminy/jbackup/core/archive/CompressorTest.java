@@ -21,6 +21,7 @@
 package fr.duminy.jbackup.core.archive;
 
 import fr.duminy.jbackup.core.Cancellable;
+import fr.duminy.jbackup.core.archive.zip.ZipArchiveFactory;
 import fr.duminy.jbackup.core.task.TaskListener;
 import org.apache.commons.io.IOUtils;
 import org.junit.Test;
@@ -29,20 +30,29 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.InOrder;
 import org.mockito.Mockito;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Stream;
 
 import static fr.duminy.jbackup.core.TestUtils.createFile;
 import static fr.duminy.jbackup.core.archive.ArchiveDSL.Data;
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
 import static org.mockito.Mockito.*;
 
 public class CompressorTest extends AbstractArchivingTest {
@@ -90,15 +100,259 @@ public class CompressorTest extends AbstractArchivingTest {
         // assertions
         InOrder inOrder = Mockito.inOrder(cancellable, mockOutput);
         inOrder.verify(cancellable, times(1)).isCancelled();
-        inOrder.verify(mockOutput, times(1)).addEntry(eq("file4"), any(InputStream.class));
+        inOrder.verify(mockOutput, times(1)).addEntry(eq("file4"), any(InputStream.class), any(FileMetadata.class));
         inOrder.verify(cancellable, times(1)).isCancelled();
         if (!cancelAfterFirstFile) {
-            inOrder.verify(mockOutput, times(1)).addEntry(eq("file3"), any(InputStream.class));
+            inOrder.verify(mockOutput, times(1)).addEntry(eq("file3"), any(InputStream.class), any(FileMetadata.class));
         }
         inOrder.verify(mockOutput, times(1)).close();
         inOrder.verifyNoMoreInteractions();
     }
 
+    @Test
+    public void testCompress_hardLink() throws Throwable {
+        assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("unix"));
+
+        // prepare
+        Path baseDirectory = createBaseDirectory();
+        Path source = baseDirectory.resolve("source");
+        createFile(source.resolve("file1"), 10);
+        Files.createLink(source.resolve("file2"), source.resolve("file1"));
+        final ArchiveParameters archiveParameters = new ArchiveParameters(createArchivePath(), true);
+        archiveParameters.addSource(source);
+        ArchiveOutputStream mockOutput = mock(ArchiveOutputStream.class);
+        when(mockOutput.addLink(anyString(), anyString())).thenReturn(true);
+        ArchiveFactory mockFactory = createMockArchiveFactory(mockOutput);
+        TaskListener listener = mock(TaskListener.class);
+
+        // test compression
+        compress(mockFactory, archiveParameters, listener, null);
+
+        // assertions
+        // the mocked output doesn't read the first file : only the size of the link is notified
+        verify(listener).progress(10L);
+        ArgumentCaptor<String> entryArgument = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<String> linkArgument = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<String> targetArgument = ArgumentCaptor.forClass(String.class);
+        verify(mockOutput, times(1)).addEntry(entryArgument.capture(), any(InputStream.class), any(FileMetadata.class));
+        verify(mockOutput, times(1)).addLink(linkArgument.capture(), targetArgument.capture());
+        assertThat(targetArgument.getValue()).as("link target").isEqualTo(entryArgument.getValue());
+        assertThat(new String[]{entryArgument.getValue(), linkArgument.getValue()}).as("entries")
+            .containsOnly("source/file1", "source/file2");
+    }
+
+    @Test
+    public void testCompress_snapshotDirectory() throws Throwable {
+        // prepare
+        Path baseDirectory = createBaseDirectory();
+        Path snapshotDirectory = baseDirectory.resolve("snapshot");
+        Path source = snapshotDirectory.resolve("home").resolve("source");
+        createFile(source.resolve("file1"), 10);
+        final ArchiveParameters archiveParameters = new ArchiveParameters(createArchivePath(), false);
+        archiveParameters.setSnapshotDirectory(snapshotDirectory);
+        archiveParameters.addSource(source);
+        ArchiveOutputStream mockOutput = mock(ArchiveOutputStream.class);
+        ArchiveFactory mockFactory = createMockArchiveFactory(mockOutput);
+
+        // test compression
+        compress(mockFactory, archiveParameters, null, null);
+
+        // assertions
+        ArgumentCaptor<String> entryArgument = ArgumentCaptor.forClass(String.class);
+        verify(mockOutput, times(1)).addEntry(entryArgument.capture(), any(InputStream.class), any(FileMetadata.class));
+        Path expectedEntry = source.getRoot().resolve("home").resolve("source").resolve("file1");
+        assertThat(entryArgument.getValue()).as("entry name in the live filesystem")
+            .isEqualTo(expectedEntry.toString());
+    }
+
+    @Test
+    public void testCompress_resumable() throws Throwable {
+        Path source = createResumableSource();
+        Path targetDirectory = tempFolder.newFolder("target").toPath();
+        Checkpoint checkpoint = interruptCompression(source, targetDirectory);
+        assertThat(checkpoint).as("checkpoint").isNotNull();
+        assertThat(checkpoint.getArchive()).as("checkpoint.archive").isEqualTo(targetDirectory.resolve(INTERRUPTED_ARCHIVE));
+        assertThat(checkpoint.getEntries()).as("checkpoint.entries").isEqualTo(1);
+        assertThat(checkpoint.isValid()).as("checkpoint.valid").isTrue();
+        assertThat(checkpoint.getFingerprint()).as("checkpoint.fingerprint").isNotEmpty();
+        String resumedEntry = getFirstEntry(checkpoint);
+
+        // same size and modification time : the entry of the interrupted archive is copied
+        Path resumedFile = source.resolveSibling(resumedEntry);
+        FileTime lastModifiedTime = Files.getLastModifiedTime(resumedFile);
+        for (String file : RESUMED_FILES) {
+            writeNewContent(source.resolve(file));
+        }
+        Files.setLastModifiedTime(resumedFile, lastModifiedTime);
+        Map<String, String> contents = resumeCompression(source, targetDirectory, checkpoint);
+
+        try (Stream<Path> files = Files.list(targetDirectory)) {
+            assertThat(files.toArray()).as("target directory").containsExactly(targetDirectory.resolve(RESUMED_ARCHIVE));
+        }
+        assertThat(contents).as("contents").hasSize(3);
+        assertThat(contents.get(resumedEntry)).as("resumed entry").startsWith("old ");
+        contents.remove(resumedEntry);
+        assertThat(contents.values()).as("new entries").allMatch(content -> content.startsWith("new "));
+    }
+
+    @Test
+    public void testCompress_resumable_changedFile() throws Throwable {
+        Path source = createResumableSource();
+        Path targetDirectory = tempFolder.newFolder("target").toPath();
+        Checkpoint checkpoint = interruptCompression(source, targetDirectory);
+        String resumedEntry = getFirstEntry(checkpoint);
+
+        writeNewContent(source.resolveSibling(resumedEntry));
+        Map<String, String> contents = resumeCompression(source, targetDirectory, checkpoint);
+
+        assertThat(contents).as("contents").hasSize(3);
+        assertThat(contents.get(resumedEntry)).as("entry read again").startsWith("new ");
+    }
+
+    @Test
+    public void testCompress_resumable_deletedFile() throws Throwable {
+        Path source = createResumableSource();
+        Path targetDirectory = tempFolder.newFolder("target").toPath();
+        Checkpoint checkpoint = interruptCompression(source, targetDirectory);
+        String resumedEntry = getFirstEntry(checkpoint);
+
+        Files.delete(source.resolveSibling(resumedEntry));
+        Map<String, String> contents = resumeCompression(source, targetDirectory, checkpoint);
+
+        assertThat(contents).as("contents").hasSize(2).doesNotContainKey(resumedEntry);
+    }
+
+    @Test
+    public void testCompress_resumable_otherParameters() throws Throwable {
+        Path source = createResumableSource();
+        Path targetDirectory = tempFolder.newFolder("target").toPath();
+        Checkpoint checkpoint = interruptCompression(source, targetDirectory);
+        String resumedEntry = getFirstEntry(checkpoint);
+        Path resumedFile = source.resolveSibling(resumedEntry);
+        FileTime lastModifiedTime = Files.getLastModifiedTime(resumedFile);
+        writeNewContent(resumedFile);
+        Files.setLastModifiedTime(resumedFile, lastModifiedTime);
+
+        Path otherSource = tempFolder.newFolder("otherSource").toPath();
+        Map<String, String> contents = resumeCompression(source, targetDirectory, checkpoint, otherSource);
+
+        assertThat(contents.get(resumedEntry)).as("entry read again").startsWith("new ");
+    }
+
+    @Test
+    public void testCompress_atomicCommit() throws Throwable {
+        for (Durability durability : Durability.values()) {
+            // prepare
+            Path source = tempFolder.newFolder().toPath();
+            createFile(source.resolve("file1"), 10);
+            Path archive = tempFolder.newFolder().toPath().resolve("archive.zip");
+            ArchiveParameters archiveParameters = new ArchiveParameters(archive, true);
+            archiveParameters.addSource(source);
+            archiveParameters.setDurability(durability);
+            ArchiveOutputStream mockOutput = mock(ArchiveOutputStream.class);
+            doAnswer(invocation -> {
+                assertThat(archive).as("archive being written (" + durability + ")").doesNotExist();
+                assertThat(Checkpoint.getPartialArchive(archive)).as("partial archive (" + durability + ")").exists();
+                return null;
+            }).when(mockOutput).addEntry(anyString(), any(InputStream.class), any(FileMetadata.class));
+
+            // test
+            compress(createMockArchiveFactory(mockOutput), archiveParameters, null, null);
+
+            // assertions
+            verify(mockOutput).addEntry(anyString(), any(InputStream.class), any(FileMetadata.class));
+            assertThat(archive).as("committed archive (" + durability + ")").exists();
+            assertThat(Checkpoint.getPartialArchive(archive)).as("partial archive (" + durability + ")").doesNotExist();
+        }
+    }
+
+    @Test
+    public void testCompress_outputStream() throws Throwable {
+        // prepare
+        Path source = tempFolder.newFolder("source").toPath();
+        Files.write(source.resolve("file1"), "content1".getBytes(StandardCharsets.UTF_8));
+        Path targetDirectory = tempFolder.newFolder().toPath();
+        Path archive = targetDirectory.resolve("archive.zip");
+        ArchiveParameters archiveParameters = new ArchiveParameters(archive, true);
+        archiveParameters.addSource(source);
+        ByteArrayOutputStream output = spy(new ByteArrayOutputStream());
+        archiveParameters.setOutputStream(output);
+
+        // test
+        compress(ZipArchiveFactory.INSTANCE, archiveParameters, null, null);
+
+        // assertions
+        verify(output, never()).close();
+        try (Stream<Path> files = Files.list(targetDirectory)) {
+            assertThat(files.toArray()).as("target directory").isEmpty();
+        }
+        Path restoreDirectory = tempFolder.newFolder().toPath();
+        new Decompressor(ZipArchiveFactory.INSTANCE).decompress(new ByteArrayInputStream(output.toByteArray()),
+                                                                restoreDirectory, null, null);
+        assertThat(restoreDirectory.resolve("source").resolve("file1").toFile()).as("restored file").hasContent("content1");
+    }
+
+    @Test
+    public void testCompress_directories() throws Throwable {
+        // prepare
+        Path source = tempFolder.newFolder("source").toPath();
+        // the files of a directory before and after the ones of its subdirectory
+        List<Path> files = new ArrayList<>();
+        files.add(source.resolve("dir").resolve("file1"));
+        files.add(source.resolve("dir").resolve("subDir").resolve("file2"));
+        files.add(source.resolve("dir").resolve("file3"));
+        files.add(source.resolve("other").resolve("file4"));
+        List<SourceWithPath> collectedFiles = new ArrayList<>();
+        for (Path file : files) {
+            createFile(file, 10);
+            collectedFiles.add(new SourceWithPath(source, file));
+        }
+        Path archive = tempFolder.newFolder().toPath().resolve("archive.zip");
+
+        // test
+        new Compressor(ZipArchiveFactory.INSTANCE).compress(new ArchiveParameters(archive, true), collectedFiles,
+                                                            null, null);
+
+        // assertions
+        List<String> directories = new ArrayList<>();
+        try (InputStream input = Files.newInputStream(archive);
+             ArchiveInputStream archiveInput = ZipArchiveFactory.INSTANCE.create(input)) {
+            ArchiveInputStream.Entry entry;
+            while ((entry = archiveInput.getNextEntry()) != null) {
+                if (entry.isDirectory()) {
+                    directories.add(entry.getName());
+                }
+            }
+        }
+        assertThat(directories).as("directories")
+                               .containsOnlyOnce("source/", "source/dir/", "source/dir/subDir/", "source/other/")
+                               .hasSize(4);
+    }
+
+    @Test
+    public void testCompress_error_noArchive() throws Throwable {
+        // prepare
+        Path source = tempFolder.newFolder().toPath();
+        createFile(source.resolve("file1"), 10);
+        Path archive = tempFolder.newFolder().toPath().resolve("archive.zip");
+        ArchiveParameters archiveParameters = new ArchiveParameters(archive, true);
+        archiveParameters.addSource(source);
+        ArchiveOutputStream mockOutput = mock(ArchiveOutputStream.class);
+        doThrow(new IOException("disk full")).when(mockOutput).close();
+
+        // test
+        try {
+            compress(createMockArchiveFactory(mockOutput), archiveParameters, null, null);
+            fail("ArchiveException expected");
+        } catch (ArchiveException e) {
+            assertThat(e).hasRootCauseInstanceOf(IOException.class);
+        }
+
+        // assertions
+        assertThat(archive).as("archive").doesNotExist();
+        assertThat(Checkpoint.getPartialArchive(archive)).as("partial archive").doesNotExist();
+    }
+
     @Theory
     public void testCompress(Data data, boolean useListener, EntryType entryType) throws Throwable {
         // preparation of archiver & mocks
@@ -110,7 +364,7 @@ public class CompressorTest extends AbstractArchivingTest {
             InputStream input = (InputStream) invocation.getArguments()[1];
             IOUtils.copy(input, new ByteArrayOutputStream());
             return null;
-        }).when(mockOutput).addEntry(pathArgument.capture(), any(InputStream.class));
+        }).when(mockOutput).addEntry(pathArgument.capture(), any(InputStream.class), any(FileMetadata.class));
 
         ArchiveFactory mockFactory = createMockArchiveFactory(mockOutput);
         Path baseDirectory = createBaseDirectory();
@@ -146,9 +400,11 @@ public class CompressorTest extends AbstractArchivingTest {
                         expectedEntry = file.toString();
                     }
                     expectedEntryToFile.put(expectedEntry, file);
-                    verify(mockOutput, times(1)).addEntry(eq(expectedEntry), any(InputStream.class));
+                    verify(mockOutput, times(1)).addEntry(eq(expectedEntry), any(InputStream.class), any(FileMetadata.class));
                 }
             }
+            // the mocked output can't store directories : only the first one is tried
+            verify(mockOutput, atMost(1)).addDirectory(anyString(), any(FileMetadata.class));
             verify(mockOutput, times(1)).close();
             verifyNoMoreInteractions(mockOutput);
         } catch (Throwable t) {
@@ -160,6 +416,81 @@ public class CompressorTest extends AbstractArchivingTest {
         assertThatNotificationsAreValid(listener, pathArgument.getAllValues(), expectedEntryToFile, errorType);
     }
 
+    private static final String INTERRUPTED_ARCHIVE = "config_2017_01_01_00_00_00.zip";
+    private static final String RESUMED_ARCHIVE = "config_2017_01_01_00_00_01.zip";
+    private static final String[] RESUMED_FILES = {"file1", "file2", "file3"};
+
+    private Path createResumableSource() throws IOException {
+        Path source = createBaseDirectory().resolve("source");
+        Files.createDirectories(source);
+        for (String file : RESUMED_FILES) {
+            Files.write(source.resolve(file), ("old " + file).getBytes(StandardCharsets.UTF_8));
+        }
+        return source;
+    }
+
+    /**
+     * Writes a content of the same size, with a later modification time.
+     */
+    private static void writeNewContent(Path file) throws IOException {
+        FileTime lastModifiedTime = Files.getLastModifiedTime(file);
+        Files.write(file, ("new " + file.getFileName()).getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(file, FileTime.fromMillis(lastModifiedTime.toMillis() + 10000L));
+    }
+
+    /**
+     * Interrupts a resumable compression after its first file.
+     */
+    private Checkpoint interruptCompression(Path source, Path targetDirectory) throws Throwable {
+        Cancellable cancellable = mock(Cancellable.class);
+        when(cancellable.isCancelled()).thenReturn(false, true);
+        Path interruptedArchive = targetDirectory.resolve(INTERRUPTED_ARCHIVE);
+        ArchiveParameters archiveParameters = new ArchiveParameters(interruptedArchive, true);
+        archiveParameters.addSource(source);
+        archiveParameters.setResumable(true);
+        compress(ZipArchiveFactory.INSTANCE, archiveParameters, null, cancellable);
+
+        assertThat(interruptedArchive).as("interrupted archive").doesNotExist();
+        assertThat(Checkpoint.getPartialArchive(interruptedArchive)).as("partial archive").exists();
+        return Checkpoint.findLatest(targetDirectory, "config_", "zip");
+    }
+
+    private static String getFirstEntry(Checkpoint checkpoint) throws Exception {
+        try (InputStream input = Files.newInputStream(checkpoint.getPartialArchive());
+             ArchiveInputStream archiveInput = ZipArchiveFactory.INSTANCE.create(input)) {
+            return archiveInput.getNextEntry().getName();
+        }
+    }
+
+    /**
+     * @return The contents of the files of the resumed archive, by entry name.
+     */
+    private Map<String, String> resumeCompression(Path source, Path targetDirectory, Checkpoint checkpoint,
+                                                  Path... otherSources) throws Throwable {
+        Path resumedArchive = targetDirectory.resolve(RESUMED_ARCHIVE);
+        ArchiveParameters archiveParameters = new ArchiveParameters(resumedArchive, true);
+        archiveParameters.addSource(source);
+        for (Path otherSource : otherSources) {
+            archiveParameters.addSource(otherSource);
+        }
+        archiveParameters.setResumable(true);
+        archiveParameters.setResumeFrom(checkpoint);
+        compress(ZipArchiveFactory.INSTANCE, archiveParameters, null, null);
+
+        assertThat(resumedArchive).as("resumed archive").exists();
+        Map<String, String> contents = new HashMap<>();
+        try (InputStream input = Files.newInputStream(resumedArchive);
+             ArchiveInputStream archiveInput = ZipArchiveFactory.INSTANCE.create(input)) {
+            ArchiveInputStream.Entry entry;
+            while ((entry = archiveInput.getNextEntry()) != null) {
+                if (!entry.isDirectory()) {
+                    contents.put(entry.getName(), IOUtils.toString(entry.getInput(), StandardCharsets.UTF_8));
+                }
+            }
+        }
+        return contents;
+    }
+
     private void compress(ArchiveFactory mockFactory, ArchiveParameters archiveParameters, TaskListener listener, Cancellable cancellable) throws ArchiveException {
         List<SourceWithPath> collectedFiles = new ArrayList<>();
         new FileCollector().collectFiles(collectedFiles, archiveParameters, listener, null);
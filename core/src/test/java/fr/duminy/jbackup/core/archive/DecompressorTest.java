@@ -31,13 +31,19 @@ import org.mockito.Mockito;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.stream.Stream;
 
 import static fr.duminy.jbackup.core.TestUtils.createFile;
 import static fr.duminy.jbackup.core.archive.ArchiveDSL.*;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
 import static org.mockito.Mockito.*;
 
 public class DecompressorTest extends AbstractArchivingTest {
@@ -63,6 +69,154 @@ public class DecompressorTest extends AbstractArchivingTest {
         decompress(mockFactory, archive, targetDirectory, null, null);
     }
 
+    @Test
+    public void testDecompress_hardLink() throws Throwable {
+        ArchiveInputStream.Entry fileEntry = mock(ArchiveInputStream.Entry.class);
+        when(fileEntry.getName()).thenReturn("file");
+        when(fileEntry.getInput()).thenReturn(new ByteArrayInputStream(new byte[]{1, 2, 3}));
+        ArchiveInputStream.Entry linkEntry = mock(ArchiveInputStream.Entry.class);
+        when(linkEntry.getName()).thenReturn("dir/link");
+        when(linkEntry.getLinkTarget()).thenReturn("file");
+        when(linkEntry.getInput()).thenReturn(new ByteArrayInputStream(new byte[0]));
+        ArchiveInputStream mockInput = mock(ArchiveInputStream.class);
+        when(mockInput.getNextEntry()).thenReturn(fileEntry, linkEntry, null);
+        ArchiveFactory mockFactory = mock(ArchiveFactory.class);
+        when(mockFactory.create(any(InputStream.class))).thenReturn(mockInput);
+        Path archive = createArchivePath();
+        Path targetDirectory = tempFolder.newFolder("targetDir").toPath();
+
+        decompress(mockFactory, archive, targetDirectory, null, null);
+
+        Path link = targetDirectory.resolve("dir/link");
+        assertThat(Files.isSameFile(link, targetDirectory.resolve("file"))).as("link to file").isTrue();
+        assertThat(Files.readAllBytes(link)).as("link content").isEqualTo(new byte[]{1, 2, 3});
+    }
+
+    @Test
+    public void testDecompress_entryOutsideTargetDirectory() throws Throwable {
+        testDecompress_outsideTargetDirectory("../evil", null);
+    }
+
+    @Test
+    public void testDecompress_linkOutsideTargetDirectory() throws Throwable {
+        testDecompress_outsideTargetDirectory("link", "dir/../../evil");
+    }
+
+    private void testDecompress_outsideTargetDirectory(String entryName, String linkTarget) throws Throwable {
+        ArchiveInputStream.Entry entry = mock(ArchiveInputStream.Entry.class);
+        when(entry.getName()).thenReturn(entryName);
+        when(entry.getLinkTarget()).thenReturn(linkTarget);
+        when(entry.getInput()).thenReturn(new ByteArrayInputStream(new byte[]{1, 2, 3}));
+        ArchiveInputStream mockInput = mock(ArchiveInputStream.class);
+        when(mockInput.getNextEntry()).thenReturn(entry, (ArchiveInputStream.Entry) null);
+        ArchiveFactory mockFactory = mock(ArchiveFactory.class);
+        when(mockFactory.create(any(InputStream.class))).thenReturn(mockInput);
+        Path archive = createArchivePath();
+        Path targetDirectory = tempFolder.newFolder("parent", "targetDir").toPath();
+        Files.createFile(targetDirectory.resolveSibling("evil"));
+
+        try {
+            decompress(mockFactory, archive, targetDirectory, null, null);
+            fail("an ArchiveException must be thrown");
+        } catch (ArchiveException e) {
+            assertThat(e).hasMessageContaining("outside the target directory");
+        }
+
+        try (Stream<Path> restoredFiles = Files.list(targetDirectory)) {
+            assertThat(restoredFiles.count()).as("restored files").isZero();
+        }
+        assertThat(Files.size(targetDirectory.resolveSibling("evil"))).as("size of file outside targetDirectory").isZero();
+    }
+
+    @Test
+    public void testDecompress_absoluteEntry() throws Throwable {
+        ArchiveInputStream.Entry entry = mock(ArchiveInputStream.Entry.class);
+        when(entry.getName()).thenReturn("/home/user/file");
+        when(entry.getInput()).thenReturn(new ByteArrayInputStream(new byte[]{1, 2, 3}));
+        ArchiveInputStream mockInput = mock(ArchiveInputStream.class);
+        when(mockInput.getNextEntry()).thenReturn(entry, (ArchiveInputStream.Entry) null);
+        ArchiveFactory mockFactory = mock(ArchiveFactory.class);
+        when(mockFactory.create(any(InputStream.class))).thenReturn(mockInput);
+        Path archive = createArchivePath();
+        Path targetDirectory = tempFolder.newFolder("targetDir").toPath();
+
+        decompress(mockFactory, archive, targetDirectory, null, null);
+
+        assertThat(Files.readAllBytes(targetDirectory.resolve("home/user/file"))).isEqualTo(new byte[]{1, 2, 3});
+    }
+
+    @Test
+    public void testDecompress_directoryMetadata() throws Throwable {
+        testDecompress_directoryMetadata(CollectedFiles.DEFAULT_MAX_FILES_IN_MEMORY);
+    }
+
+    @Test
+    public void testDecompress_directoryMetadata_spilled() throws Throwable {
+        testDecompress_directoryMetadata(0);
+    }
+
+    private void testDecompress_directoryMetadata(int maxFilesInMemory) throws Throwable {
+        ArchiveInputStream.Entry fileEntry = mock(ArchiveInputStream.Entry.class);
+        when(fileEntry.getName()).thenReturn("dir/subDir/file");
+        when(fileEntry.getInput()).thenReturn(new ByteArrayInputStream(new byte[]{1, 2, 3}));
+        ArchiveInputStream.Entry dirEntry = createDirectoryEntry("dir/", 1234567890000L);
+        ArchiveInputStream.Entry subDirEntry = createDirectoryEntry("dir/subDir/", 1234567800000L);
+        ArchiveInputStream mockInput = mock(ArchiveInputStream.class);
+        // the parent before its child, which must not change its modification time
+        when(mockInput.getNextEntry()).thenReturn(fileEntry, dirEntry, subDirEntry, null);
+        ArchiveFactory mockFactory = mock(ArchiveFactory.class);
+        when(mockFactory.create(any(InputStream.class))).thenReturn(mockInput);
+        Path archive = createArchivePath();
+        Path targetDirectory = tempFolder.newFolder("targetDir").toPath();
+
+        new Decompressor(mockFactory, maxFilesInMemory).decompress(archive, targetDirectory, null, null);
+
+        assertThat(Files.readAllBytes(targetDirectory.resolve("dir/subDir/file"))).as("content")
+                                                                                .isEqualTo(new byte[]{1, 2, 3});
+        assertThat(Files.getLastModifiedTime(targetDirectory.resolve("dir")).toMillis()).as("dir lastModifiedTime")
+                                                                                      .isEqualTo(1234567890000L);
+        assertThat(Files.getLastModifiedTime(targetDirectory.resolve("dir/subDir")).toMillis())
+            .as("subDir lastModifiedTime").isEqualTo(1234567800000L);
+    }
+
+    private static ArchiveInputStream.Entry createDirectoryEntry(String name, long lastModifiedTime) {
+        ArchiveInputStream.Entry entry = mock(ArchiveInputStream.Entry.class);
+        when(entry.getName()).thenReturn(name);
+        when(entry.isDirectory()).thenReturn(true);
+        when(entry.getMetadata()).thenReturn(new FileMetadata(0, lastModifiedTime, FileMetadata.UNKNOWN,
+                                                              FileMetadata.UNKNOWN, FileMetadata.UNKNOWN,
+                                                              Collections.emptyMap()));
+        when(entry.getInput()).thenReturn(new ByteArrayInputStream(new byte[0]));
+        return entry;
+    }
+
+    @Test
+    public void testDecompress_metadata() throws Throwable {
+        Assume.assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("unix"));
+        FileMetadata metadata = new FileMetadata(3, 1234567890000L, 0444, FileMetadata.UNKNOWN, FileMetadata.UNKNOWN,
+                                                 Collections.emptyMap());
+        ArchiveInputStream.Entry fileEntry = mock(ArchiveInputStream.Entry.class);
+        when(fileEntry.getName()).thenReturn("dir/file");
+        when(fileEntry.getMetadata()).thenReturn(metadata);
+        when(fileEntry.getInput()).thenReturn(new ByteArrayInputStream(new byte[]{1, 2, 3}));
+        ArchiveInputStream.Entry otherEntry = mock(ArchiveInputStream.Entry.class);
+        when(otherEntry.getName()).thenReturn("dir/other");
+        when(otherEntry.getInput()).thenReturn(new ByteArrayInputStream(new byte[]{4}));
+        ArchiveInputStream mockInput = mock(ArchiveInputStream.class);
+        when(mockInput.getNextEntry()).thenReturn(fileEntry, otherEntry, null);
+        ArchiveFactory mockFactory = mock(ArchiveFactory.class);
+        when(mockFactory.create(any(InputStream.class))).thenReturn(mockInput);
+        Path archive = createArchivePath();
+        Path targetDirectory = tempFolder.newFolder("targetDir").toPath();
+
+        decompress(mockFactory, archive, targetDirectory, null, null);
+
+        Path file = targetDirectory.resolve("dir/file");
+        assertThat(Files.readAllBytes(file)).as("content").isEqualTo(new byte[]{1, 2, 3});
+        assertThat(Files.getLastModifiedTime(file).toMillis()).as("lastModifiedTime").isEqualTo(1234567890000L);
+        assertThat(Files.getPosixFilePermissions(file)).as("permissions")
+                                                      .isEqualTo(PosixFilePermissions.fromString("r--r--r--"));
+    }
 
     @Test
     public void testDecompress_withCancellable_cancelAfterFirstFile() throws Throwable {
@@ -0,0 +1,168 @@
+/**
+ * JBackup is a software managing backups.
+ *
+ * Copyright (C) 2013-2017 Fabien DUMINY (fabien [dot] duminy [at] webmails [dot] com)
+ *
+ * JBackup is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * JBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ */
+package fr.duminy.jbackup.core.archive;
+
+import fr.duminy.jbackup.core.archive.zip.ZipArchiveFactory;
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+/**
+ * Tests for {@link EncryptedArchiveFactory}, {@link EncryptingOutputStream} and {@link DecryptingInputStream}.
+ */
+public class EncryptedArchiveFactoryTest {
+    private static final int CHUNK_SIZE = 1000;
+    private static final EncryptionKey KEY = createKey(1);
+
+    @Rule
+    public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testCompressAndDecompress() throws Exception {
+        // prepare
+        Path source = tempFolder.newFolder("source").toPath();
+        byte[] content = new byte[3 * EncryptingOutputStream.DEFAULT_CHUNK_SIZE];
+        new Random(0).nextBytes(content);
+        Files.write(source.resolve("file"), content);
+        Files.write(source.resolve("empty"), new byte[0]);
+        EncryptedArchiveFactory factory = new EncryptedArchiveFactory(ZipArchiveFactory.INSTANCE, KEY);
+
+        // test
+        Path archive = compress(factory, source, 100000);
+        Path target = tempFolder.newFolder("target").toPath();
+        new Decompressor(factory).decompress(archive, target, null, null);
+
+        // assertions
+        assertThat(Files.readAllBytes(archive)).as("archive header").startsWith(EncryptingOutputStream.MAGIC);
+        assertThat(Volumes.checkIntegrity(archive)).as("integrity").isTrue();
+        assertThat(Files.readAllBytes(target.resolve("source").resolve("file"))).as("file").isEqualTo(content);
+        assertThat(target.resolve("source").resolve("empty")).as("empty").exists();
+        assertThat(factory.getExtension()).as("extension").isEqualTo(ZipArchiveFactory.INSTANCE.getExtension());
+    }
+
+    @Test
+    public void testDecompress_wrongKey() throws Exception {
+        Path source = tempFolder.newFolder("source").toPath();
+        Files.write(source.resolve("file"), new byte[]{1, 2, 3});
+        Path archive = compress(new EncryptedArchiveFactory(ZipArchiveFactory.INSTANCE, KEY), source, 0);
+
+        try {
+            new Decompressor(new EncryptedArchiveFactory(ZipArchiveFactory.INSTANCE, createKey(2)))
+                .test(archive, null, null);
+            fail("ArchiveException expected");
+        } catch (ArchiveException e) {
+            assertThat(e).hasStackTraceContaining("wrong key or altered archive");
+        }
+    }
+
+    @Test
+    public void testRead_flushedChunks() throws Exception {
+        byte[] content = new byte[5 * CHUNK_SIZE + 1];
+        new Random(0).nextBytes(content);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream output = new EncryptingOutputStream(bytes, KEY, CHUNK_SIZE)) {
+            output.write(content, 0, 10);
+            output.flush();
+            output.write(content[10]);
+            output.write(content, 11, content.length - 11);
+        }
+
+        assertThat(decrypt(bytes.toByteArray())).as("content").isEqualTo(content);
+    }
+
+    @Test
+    public void testRead_alteredChunk() throws Exception {
+        byte[] encrypted = encrypt(new byte[3 * CHUNK_SIZE]);
+        encrypted[encrypted.length - CHUNK_SIZE]++;
+
+        try {
+            decrypt(encrypted);
+            fail("IOException expected");
+        } catch (IOException e) {
+            assertThat(e).hasMessageContaining("wrong key or altered archive");
+        }
+    }
+
+    @Test
+    public void testRead_truncated() throws Exception {
+        byte[] encrypted = encrypt(new byte[3 * CHUNK_SIZE]);
+        // the last chunk is removed, so that the remaining ones are complete
+        byte[] truncated = Arrays.copyOf(encrypted, encrypted.length - EncryptingOutputStream.CHUNK_HEADER_LENGTH -
+                                                   CHUNK_SIZE - EncryptingOutputStream.TAG_LENGTH);
+
+        try {
+            decrypt(truncated);
+            fail("EOFException expected");
+        } catch (EOFException e) {
+            assertThat(e).hasMessage("Truncated encrypted archive");
+        }
+    }
+
+    private Path compress(ArchiveFactory factory, Path source, long volumeSize) throws Exception {
+        Path archive = tempFolder.getRoot().toPath().resolve("archive.zip");
+        ArchiveParameters archiveParameters = new ArchiveParameters(archive, true);
+        archiveParameters.addSource(source);
+        archiveParameters.setVolumeSize(volumeSize);
+        List<SourceWithPath> files = new ArrayList<>();
+        new FileCollector().collectFiles(files, archiveParameters, null, null);
+
+        new Compressor(factory).compress(archiveParameters, files, null, null);
+        return archive;
+    }
+
+    private static byte[] encrypt(byte[] content) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream output = new EncryptingOutputStream(bytes, KEY, CHUNK_SIZE)) {
+            output.write(content);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] decrypt(byte[] encrypted) throws IOException {
+        try (InputStream input = new DecryptingInputStream(new ByteArrayInputStream(encrypted), KEY)) {
+            return IOUtils.toByteArray(input);
+        }
+    }
+
+    private static EncryptionKey createKey(int seed) {
+        byte[] secret = new byte[32];
+        new Random(seed).nextBytes(secret);
+        return new EncryptionKey(secret);
+    }
+}
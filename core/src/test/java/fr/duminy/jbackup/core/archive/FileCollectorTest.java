@@ -22,6 +22,7 @@ package fr.duminy.jbackup.core.archive;
 
 import fr.duminy.jbackup.core.Cancellable;
 import fr.duminy.jbackup.core.TestUtils;
+import fr.duminy.jbackup.core.task.TaskListener;
 import fr.duminy.jbackup.core.util.LogRule;
 import org.apache.commons.io.filefilter.FileFilterUtils;
 import org.apache.commons.io.filefilter.IOFileFilter;
@@ -35,9 +36,7 @@ import org.mockito.InOrder;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
+import java.util.*;
 
 import static java.util.Collections.sort;
 import static org.apache.commons.io.filefilter.FileFilterUtils.trueFileFilter;
@@ -127,6 +126,68 @@ public class FileCollectorTest {
 
     }
 
+    @Test
+    public void testCollect_estimatedTotalSize() throws Exception {
+        final long estimatedTotalSize = 1000L;
+        ArchiveParameters archiveParameters = new ArchiveParameters(null, false);
+        archiveParameters.addSource(directory);
+        archiveParameters.setEstimatedTotalSize(estimatedTotalSize);
+        TaskListener listener = mock(TaskListener.class);
+        long expectedTotalSize = 0L;
+        for (Path file : expectedFiles) {
+            expectedTotalSize += Files.size(file);
+        }
+
+        new FileCollector().collectFiles(new ArrayList<>(), archiveParameters, listener, null);
+
+        InOrder inOrder = inOrder(listener);
+        inOrder.verify(listener).totalSizeEstimated(estimatedTotalSize);
+        inOrder.verify(listener).totalSizeComputed(expectedTotalSize);
+        inOrder.verifyNoMoreInteractions();
+    }
+
+    @Test
+    public void testCollect_trackedChanges() throws Exception {
+        try (ChangeTracker tracker = new ChangeTracker(directory)) {
+            ArchiveParameters archiveParameters = createTrackedParameters(tracker, null);
+            List<SourceWithPath> collectedFiles = new ArrayList<>();
+            new FileCollector().collectFiles(collectedFiles, archiveParameters, null, null);
+            assertThat(toSortedPaths(collectedFiles)).as("collected files").isEqualTo(expectedFiles);
+
+            Path newFile = createFile(FILE2_DIR + "newFile.txt");
+            tracker.directoryChanged(newFile.getParent());
+            collectedFiles.clear();
+            new FileCollector().collectFiles(collectedFiles, archiveParameters, null, null);
+
+            // the archive is still complete : unchanged directories are listed from the tracker
+            Path[] expected = Arrays.copyOf(expectedFiles, expectedFiles.length + 1);
+            expected[expectedFiles.length] = newFile;
+            Arrays.sort(expected);
+            assertThat(toSortedPaths(collectedFiles)).as("collected files").isEqualTo(expected);
+        }
+    }
+
+    @Test
+    public void testCollect_trackedChanges_withFilter() throws Exception {
+        try (ChangeTracker tracker = new ChangeTracker(directory)) {
+            ArchiveParameters archiveParameters = createTrackedParameters(tracker, FileFilterUtils.nameFileFilter(FILE2));
+            List<SourceWithPath> collectedFiles = new ArrayList<>();
+
+            new FileCollector().collectFiles(collectedFiles, archiveParameters, null, null);
+
+            assertThat(toSortedPaths(collectedFiles)).as("collected files").containsExactly(expectedFiles[1]);
+        }
+    }
+
+    private ArchiveParameters createTrackedParameters(ChangeTracker tracker, IOFileFilter fileFilter) {
+        ChangeTrackers trackers = mock(ChangeTrackers.class);
+        when(trackers.get(directory)).thenReturn(tracker);
+        ArchiveParameters archiveParameters = new ArchiveParameters(null, false);
+        archiveParameters.addSource(directory, null, fileFilter);
+        archiveParameters.setChangeTrackers(trackers);
+        return archiveParameters;
+    }
+
     @Test
     public void testCollect_file1() throws Exception {
         Path[] files = {expectedFiles[0]};
@@ -0,0 +1,93 @@
+/**
+ * JBackup is a software managing backups.
+ *
+ * Copyright (C) 2013-2017 Fabien DUMINY (fabien [dot] duminy [at] webmails [dot] com)
+ *
+ * JBackup is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * JBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ */
+package fr.duminy.jbackup.core.archive;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests for {@link FileMetadata}.
+ */
+public class FileMetadataTest {
+    private static final int SETUID_MODE = 04755;
+
+    @Rule
+    public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("unix"));
+    }
+
+    @Test
+    public void testApply_ownerApplied() throws Exception {
+        assertThat(applyMode(SETUID_MODE, true)).as("mode").isEqualTo(SETUID_MODE);
+    }
+
+    @Test
+    public void testApply_ownerNotApplied() throws Exception {
+        assertThat(applyMode(SETUID_MODE, false)).as("mode").isEqualTo(0755);
+    }
+
+    @Test
+    public void testEncodeDecode_size() throws Exception {
+        FileMetadata metadata = new FileMetadata(123L, 1234567890000L, 0640, 1000, 100, Collections.emptyMap());
+
+        FileMetadata decoded = FileMetadata.decode(metadata.encode(), -1L);
+
+        assertThat(decoded.getSize()).as("size").isEqualTo(123L);
+        assertThat(decoded.getLastModifiedTime()).as("lastModifiedTime").isEqualTo(1234567890000L);
+    }
+
+    @Test
+    public void testDecode_withoutSize() throws Exception {
+        byte[] data = new FileMetadata(123L, 1234567890000L, 0640, 1000, 100, Collections.emptyMap()).encode();
+
+        // the format of the previous versions, without the size
+        FileMetadata decoded = FileMetadata.decode(Arrays.copyOf(data, data.length - Long.BYTES), 456L);
+
+        assertThat(decoded.getSize()).as("size of the entry").isEqualTo(456L);
+        assertThat(decoded.getMode()).as("mode").isEqualTo(0640);
+    }
+
+    private int applyMode(int mode, boolean ownerApplied) throws Exception {
+        Path file = tempFolder.newFile().toPath();
+        FileMetadata metadata = new FileMetadata(0, 1234567890000L, mode, FileMetadata.UNKNOWN, FileMetadata.UNKNOWN,
+                                                 Collections.emptyMap());
+
+        metadata.apply(file, ownerApplied);
+
+        assertThat(Files.getLastModifiedTime(file).toMillis()).as("lastModifiedTime").isEqualTo(1234567890000L);
+        return (Integer) Files.getAttribute(file, "unix:mode", NOFOLLOW_LINKS) & 07777;
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ * JBackup is a software managing backups.
+ *
+ * Copyright (C) 2013-2017 Fabien DUMINY (fabien [dot] duminy [at] webmails [dot] com)
+ *
+ * JBackup is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * JBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ */
+package fr.duminy.jbackup.core.archive;
+
+import org.assertj.core.groups.Tuple;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.groups.Tuple.tuple;
+
+/**
+ * Tests for {@link RestoredFiles}.
+ */
+public class RestoredFilesTest {
+    private static final int MAX_FILES_IN_MEMORY = 2;
+
+    @Rule
+    public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private Path tempDirectory;
+    private List<Tuple> expectedFiles;
+
+    @Before
+    public void setUp() throws Exception {
+        tempDirectory = tempFolder.newFolder("temp").toPath();
+        Path target = tempFolder.newFolder("target").toPath();
+
+        expectedFiles = new ArrayList<>();
+        expectedFiles.add(tuple(target.resolve("file1"), metadata(1, 1234567890000L)));
+        expectedFiles.add(tuple(target.resolve("dir").resolve("file2"), metadata(2, 1234567800000L)));
+        expectedFiles.add(tuple(target.resolve("file3"), metadata(3, 1234567000000L)));
+    }
+
+    @Test
+    public void testAdd_inMemory() throws Exception {
+        testAdd(MAX_FILES_IN_MEMORY, false);
+    }
+
+    @Test
+    public void testAdd_spilled() throws Exception {
+        testAdd(expectedFiles.size(), true);
+    }
+
+    private void testAdd(int nbFiles, boolean expectSpilled) throws Exception {
+        List<Tuple> files = expectedFiles.subList(0, nbFiles);
+
+        try (RestoredFiles restoredFiles = new RestoredFiles(MAX_FILES_IN_MEMORY, tempDirectory)) {
+            for (Tuple file : files) {
+                restoredFiles.add((Path) file.toArray()[0], (FileMetadata) file.toArray()[1]);
+            }
+
+            assertThat(restoredFiles.isSpilled()).as("spilled").isEqualTo(expectSpilled);
+            assertThat(restoredFiles.size()).as("size").isEqualTo(files.size());
+            for (int i = 0; i < 2; i++) {
+                assertThat(restoredFiles).as("iteration #" + i)
+                                         .extracting(f -> f.file, f -> f.metadata.toString())
+                                         .containsExactlyElementsOf(toStringMetadata(files));
+            }
+        }
+    }
+
+    @Test
+    public void testClose_deletesTemporaryFile() throws Exception {
+        RestoredFiles restoredFiles = new RestoredFiles(MAX_FILES_IN_MEMORY, tempDirectory);
+        for (Tuple file : expectedFiles) {
+            restoredFiles.add((Path) file.toArray()[0], (FileMetadata) file.toArray()[1]);
+        }
+        restoredFiles.iterator().next();
+        assertThat(Files.list(tempDirectory).count()).as("number of temporary files").isEqualTo(1);
+
+        restoredFiles.close();
+
+        assertThat(Files.list(tempDirectory).count()).as("number of temporary files").isEqualTo(0);
+        assertThat(restoredFiles).isEmpty();
+    }
+
+    private static FileMetadata metadata(long size, long lastModifiedTime) {
+        return new FileMetadata(size, lastModifiedTime, 0644, FileMetadata.UNKNOWN, FileMetadata.UNKNOWN,
+                                Collections.emptyMap());
+    }
+
+    private static List<Tuple> toStringMetadata(List<Tuple> files) {
+        List<Tuple> result = new ArrayList<>();
+        for (Tuple file : files) {
+            result.add(tuple(file.toArray()[0], file.toArray()[1].toString()));
+        }
+        return result;
+    }
+}
@@ -76,6 +76,24 @@ public class SourceWithPathTest {
         assertThat(actual).isEqualTo(relativePath);
     }
 
+    @Test
+    public void testGetRelativePath_sourceFile() throws Exception {
+        SourceWithPath swp = new SourceWithPath(path, path);
+
+        String actual = swp.getRelativePath();
+
+        assertThat(actual).isEqualTo(path.getFileName().toString());
+    }
+
+    @Test
+    public void testGetPath() throws Exception {
+        SourceWithPath swp = new SourceWithPath(source, path);
+
+        Path actual = swp.getPath();
+
+        assertThat(actual).isEqualTo(path);
+    }
+
     @Test
     public void testGetAbsolutePath() throws Exception {
         SourceWithPath swp = new SourceWithPath(source, path);
@@ -0,0 +1,85 @@
+/**
+ * JBackup is a software managing backups.
+ *
+ * Copyright (C) 2013-2017 Fabien DUMINY (fabien [dot] duminy [at] webmails [dot] com)
+ *
+ * JBackup is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * JBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ */
+package fr.duminy.jbackup.core.archive;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static fr.duminy.jbackup.core.archive.SparseFiles.BLOCK_SIZE;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests for {@link SparseFiles}.
+ */
+public class SparseFilesTest {
+    @Rule
+    public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testIsZero() {
+        byte[] buffer = new byte[10];
+        buffer[5] = 1;
+
+        assertThat(SparseFiles.isZero(buffer, 0, 5)).as("isZero(0, 5)").isTrue();
+        assertThat(SparseFiles.isZero(buffer, 0, 6)).as("isZero(0, 6)").isFalse();
+        assertThat(SparseFiles.isZero(buffer, 6, 4)).as("isZero(6, 4)").isTrue();
+    }
+
+    @Test
+    public void testCopy_dataBetweenHoles() throws Exception {
+        byte[] content = new byte[3 * BLOCK_SIZE];
+        content[BLOCK_SIZE + 1] = 1;
+
+        testCopy(content);
+    }
+
+    @Test
+    public void testCopy_holeAtEnd() throws Exception {
+        byte[] content = new byte[2 * BLOCK_SIZE + 10];
+        content[0] = 1;
+
+        testCopy(content);
+    }
+
+    @Test
+    public void testCopy_emptyFile() throws Exception {
+        testCopy(new byte[0]);
+    }
+
+    @Test(expected = FileAlreadyExistsException.class)
+    public void testCopy_existingFile() throws Exception {
+        SparseFiles.copy(new ByteArrayInputStream(new byte[1]), tempFolder.newFile().toPath());
+    }
+
+    private void testCopy(byte[] content) throws Exception {
+        Path file = tempFolder.getRoot().toPath().resolve("file");
+
+        SparseFiles.copy(new ByteArrayInputStream(content), file);
+
+        assertThat(Files.readAllBytes(file)).as("content").isEqualTo(content);
+    }
+}
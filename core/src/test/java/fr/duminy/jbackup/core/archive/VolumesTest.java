@@ -0,0 +1,160 @@
+/**
+ * JBackup is a software managing backups.
+ *
+ * Copyright (C) 2013-2017 Fabien DUMINY (fabien [dot] duminy [at] webmails [dot] com)
+ *
+ * JBackup is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * JBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ */
+package fr.duminy.jbackup.core.archive;
+
+import fr.duminy.jbackup.core.Cancellable;
+import fr.duminy.jbackup.core.archive.zip.ZipArchiveFactory;
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests for {@link Volumes}.
+ */
+public class VolumesTest {
+    private static final int VOLUME_SIZE = 10000;
+
+    @Rule
+    public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testGetVolume() {
+        Path archive = tempFolder.getRoot().toPath().resolve("archive.zip");
+
+        assertThat(Volumes.getVolume(archive, 1)).as("volume 1").isEqualTo(archive);
+        assertThat(Volumes.getVolume(archive, 2).getFileName().toString()).as("volume 2").isEqualTo("archive.zip.002");
+        assertThat(Volumes.isSecondaryFile(Volumes.getVolume(archive, 2))).as("isSecondaryFile(volume 2)").isTrue();
+        assertThat(Volumes.isSecondaryFile(Volumes.getChecksumsFile(archive))).as("isSecondaryFile(checksums)").isTrue();
+        assertThat(Volumes.isSecondaryFile(archive)).as("isSecondaryFile(archive)").isFalse();
+    }
+
+    @Test
+    public void testCompressAndDecompress() throws Exception {
+        // prepare
+        Path source = tempFolder.newFolder("source").toPath();
+        Random random = new Random(0);
+        for (int i = 0; i < 5; i++) {
+            byte[] content = new byte[VOLUME_SIZE];
+            random.nextBytes(content);
+            Files.write(source.resolve("file" + i), content);
+        }
+        Path archive = createSplitArchive(source);
+
+        // assertions on volumes
+        List<Path> volumes = Volumes.getVolumes(archive);
+        assertThat(volumes.size()).as("volumes").isGreaterThan(5);
+        long totalSize = 0L;
+        for (Path volume : volumes) {
+            assertThat(Files.size(volume)).as("size of " + volume).isLessThanOrEqualTo(VOLUME_SIZE);
+            totalSize += Files.size(volume);
+        }
+        assertThat(Volumes.getSize(archive)).as("size").isEqualTo(totalSize);
+        assertThat(Volumes.isSplit(archive)).as("split").isTrue();
+        assertThat(Volumes.checkIntegrity(archive)).as("integrity").isTrue();
+
+        // decompression
+        Path target = tempFolder.newFolder("target").toPath();
+        new Decompressor(ZipArchiveFactory.INSTANCE).decompress(archive, target, null, null);
+        for (int i = 0; i < 5; i++) {
+            assertThat(Files.readAllBytes(target.resolve("source").resolve("file" + i))).as("file" + i)
+                .isEqualTo(Files.readAllBytes(source.resolve("file" + i)));
+        }
+    }
+
+    @Test
+    public void testCheckIntegrity_corruptedVolume() throws Exception {
+        Path source = tempFolder.newFolder("source").toPath();
+        byte[] content = new byte[3 * VOLUME_SIZE];
+        new Random(0).nextBytes(content);
+        Files.write(source.resolve("file"), content);
+        Path archive = createSplitArchive(source);
+
+        Path volume = Volumes.getVolume(archive, 2);
+        byte[] volumeContent = Files.readAllBytes(volume);
+        volumeContent[0]++;
+        Files.write(volume, volumeContent);
+
+        assertThat(Volumes.checkIntegrity(archive)).as("integrity").isFalse();
+    }
+
+    @Test
+    public void testCompress_cancelled() throws Exception {
+        // prepare
+        Path source = tempFolder.newFolder("source").toPath();
+        Random random = new Random(0);
+        for (int i = 0; i < 3; i++) {
+            byte[] content = new byte[2 * VOLUME_SIZE];
+            random.nextBytes(content);
+            Files.write(source.resolve("file" + i), content);
+        }
+        Path target = tempFolder.newFolder("target").toPath();
+        final AtomicInteger calls = new AtomicInteger();
+
+        // test : cancelled after 2 files, so that some volumes have been written
+        Path archive = createSplitArchive(source, target, () -> calls.incrementAndGet() > 2);
+
+        // assertions
+        assertThat(archive).as("archive").doesNotExist();
+        try (Stream<Path> files = Files.list(target)) {
+            assertThat(files.toArray()).as("target directory").isEmpty();
+        }
+    }
+
+    @Test
+    public void testNewInputStream_notSplit() throws Exception {
+        Path archive = tempFolder.newFile("archive.zip").toPath();
+        Files.write(archive, new byte[]{1, 2, 3});
+
+        try (InputStream input = Volumes.newInputStream(archive)) {
+            assertThat(IOUtils.toByteArray(input)).as("content").containsExactly(new byte[]{1, 2, 3});
+        }
+        assertThat(Volumes.getVolumes(archive)).as("volumes").containsExactly(archive);
+        assertThat(Volumes.checkIntegrity(archive)).as("integrity without checksums").isTrue();
+    }
+
+    private Path createSplitArchive(Path source) throws Exception {
+        return createSplitArchive(source, tempFolder.getRoot().toPath(), null);
+    }
+
+    private Path createSplitArchive(Path source, Path targetDirectory, Cancellable cancellable) throws Exception {
+        Path archive = targetDirectory.resolve("archive.zip");
+        ArchiveParameters archiveParameters = new ArchiveParameters(archive, true);
+        archiveParameters.addSource(source);
+        archiveParameters.setVolumeSize(VOLUME_SIZE);
+        List<SourceWithPath> files = new ArrayList<>();
+        new FileCollector().collectFiles(files, archiveParameters, null, null);
+
+        new Compressor(ZipArchiveFactory.INSTANCE).compress(archiveParameters, files, null, cancellable);
+        return archive;
+    }
+}
@@ -21,11 +21,24 @@
 package fr.duminy.jbackup.core.archive.zip;
 
 import fr.duminy.jbackup.core.archive.ArchiveFactoryTest;
+import fr.duminy.jbackup.core.archive.ArchiveInputStream;
+import fr.duminy.jbackup.core.archive.ArchiveOutputStream;
+import fr.duminy.jbackup.core.archive.FileMetadata;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import static fr.duminy.jbackup.core.archive.SparseFiles.BLOCK_SIZE;
+import static fr.duminy.jbackup.core.archive.zip.ZipArchiveOutputStream.SPARSE_DETECTION_SIZE;
+import static org.assertj.core.api.Assertions.assertThat;
 
 public class ZipArchiveFactoryTest extends ArchiveFactoryTest<ZipArchiveFactory> {
     private static final String ARCHIVE_RESOURCE = "archive.zip";
@@ -34,6 +47,140 @@ public class ZipArchiveFactoryTest extends ArchiveFactoryTest<ZipArchiveFactory>
         super(ARCHIVE_RESOURCE, ZipArchiveFactory.INSTANCE);
     }
 
+    @Test
+    public void testSparseEntry() throws Exception {
+        // a hole, some data, a hole at the end
+        byte[] content = new byte[SPARSE_DETECTION_SIZE + 3 * BLOCK_SIZE];
+        for (int i = BLOCK_SIZE; i < (BLOCK_SIZE + 100); i++) {
+            content[i] = (byte) i;
+        }
+        content[SPARSE_DETECTION_SIZE + 1] = 1;
+        Path archive = tempFolder.newFile().toPath();
+
+        try (OutputStream output = Files.newOutputStream(archive);
+             ArchiveOutputStream archiveOutput = ZipArchiveFactory.INSTANCE.create(output)) {
+            archiveOutput.addEntry("sparse", new ByteArrayInputStream(content));
+        }
+
+        try (InputStream input = Files.newInputStream(archive);
+             ArchiveInputStream archiveInput = ZipArchiveFactory.INSTANCE.create(input)) {
+            ArchiveInputStream.Entry entry = archiveInput.getNextEntry();
+            assertThat(entry.getName()).as("name").isEqualTo("sparse");
+            assertThat(entry.getLinkTarget()).as("linkTarget").isNull();
+            assertThat(IOUtils.toByteArray(entry.getInput())).as("content").isEqualTo(content);
+            assertThat(archiveInput.getNextEntry()).as("next entry").isNull();
+        }
+        assertThat(ZipArchiveFactory.INSTANCE.getUncompressedSize(archive)).as("uncompressed size")
+                                                                             .isEqualTo(content.length);
+    }
+
+    @Test
+    public void testSparseEntry_metadataSize() throws Exception {
+        byte[] content = new byte[SPARSE_DETECTION_SIZE + 3 * BLOCK_SIZE];
+        content[SPARSE_DETECTION_SIZE + 1] = 1;
+        FileMetadata metadata = new FileMetadata(content.length, 1234567890123L, 0640, 1000, 100, new HashMap<>());
+        Path archive = tempFolder.newFile().toPath();
+
+        try (OutputStream output = Files.newOutputStream(archive);
+             ArchiveOutputStream archiveOutput = ZipArchiveFactory.INSTANCE.create(output)) {
+            archiveOutput.addEntry("sparse", new ByteArrayInputStream(content), metadata);
+        }
+
+        // only the local headers are read from a stream
+        try (InputStream input = Files.newInputStream(archive);
+             ArchiveInputStream archiveInput = ZipArchiveFactory.INSTANCE.create(input)) {
+            ArchiveInputStream.Entry entry = archiveInput.getNextEntry();
+            assertThat(entry.getMetadata().getSize()).as("size").isEqualTo(content.length);
+            assertThat(IOUtils.toByteArray(entry.getInput())).as("content").isEqualTo(content);
+        }
+        assertThat(ZipArchiveFactory.INSTANCE.getUncompressedSize(archive)).as("uncompressed size")
+                                                                             .isEqualTo(content.length);
+    }
+
+    @Test
+    public void testHardLink() throws Exception {
+        byte[] content = {1, 2, 3};
+        Path archive = tempFolder.newFile().toPath();
+
+        try (OutputStream output = Files.newOutputStream(archive);
+             ArchiveOutputStream archiveOutput = ZipArchiveFactory.INSTANCE.create(output)) {
+            archiveOutput.addEntry("file", new ByteArrayInputStream(content));
+            assertThat(archiveOutput.addLink("link", "file")).as("link added").isTrue();
+        }
+
+        try (InputStream input = Files.newInputStream(archive);
+             ArchiveInputStream archiveInput = ZipArchiveFactory.INSTANCE.create(input)) {
+            ArchiveInputStream.Entry entry = archiveInput.getNextEntry();
+            assertThat(entry.getName()).as("name").isEqualTo("file");
+            assertThat(entry.getLinkTarget()).as("linkTarget").isNull();
+            assertThat(IOUtils.toByteArray(entry.getInput())).as("content").isEqualTo(content);
+            entry.close();
+
+            entry = archiveInput.getNextEntry();
+            assertThat(entry.getName()).as("name").isEqualTo("link");
+            assertThat(entry.getLinkTarget()).as("linkTarget").isEqualTo("file");
+        }
+    }
+
+    @Test
+    public void testMetadata() throws Exception {
+        byte[] content = {1, 2, 3};
+        Map<String, byte[]> extendedAttributes = new HashMap<>();
+        extendedAttributes.put("user.key", new byte[]{4, 5});
+        FileMetadata metadata = new FileMetadata(content.length, 1234567890123L, 0640, 1000, 100, extendedAttributes);
+        Path archive = tempFolder.newFile().toPath();
+
+        try (OutputStream output = Files.newOutputStream(archive);
+             ArchiveOutputStream archiveOutput = ZipArchiveFactory.INSTANCE.create(output)) {
+            archiveOutput.addEntry("file", new ByteArrayInputStream(content), metadata);
+            archiveOutput.addEntry("noMetadata", new ByteArrayInputStream(content));
+        }
+
+        try (InputStream input = Files.newInputStream(archive);
+             ArchiveInputStream archiveInput = ZipArchiveFactory.INSTANCE.create(input)) {
+            ArchiveInputStream.Entry entry = archiveInput.getNextEntry();
+            assertThat(entry.getName()).as("name").isEqualTo("file");
+            FileMetadata actual = entry.getMetadata();
+            assertThat(actual.getLastModifiedTime()).as("lastModifiedTime").isEqualTo(1234567890123L);
+            assertThat(actual.getMode()).as("mode").isEqualTo(0640);
+            assertThat(actual.getUid()).as("uid").isEqualTo(1000);
+            assertThat(actual.getGid()).as("gid").isEqualTo(100);
+            assertThat(actual.getExtendedAttributes()).as("extendedAttributes").containsOnlyKeys("user.key");
+            assertThat(actual.getExtendedAttributes().get("user.key")).as("user.key").isEqualTo(new byte[]{4, 5});
+            assertThat(IOUtils.toByteArray(entry.getInput())).as("content").isEqualTo(content);
+            entry.close();
+
+            entry = archiveInput.getNextEntry();
+            assertThat(entry.getName()).as("name").isEqualTo("noMetadata");
+            assertThat(entry.getMetadata()).as("metadata").isNull();
+        }
+    }
+
+    @Test
+    public void testDirectory() throws Exception {
+        FileMetadata metadata = new FileMetadata(0, 1234567890000L, 0750, 1000, 100, new HashMap<>());
+        Path archive = tempFolder.newFile().toPath();
+
+        try (OutputStream output = Files.newOutputStream(archive);
+             ArchiveOutputStream archiveOutput = ZipArchiveFactory.INSTANCE.create(output)) {
+            archiveOutput.addEntry("dir/file", new ByteArrayInputStream(new byte[]{1, 2, 3}));
+            assertThat(archiveOutput.addDirectory("dir", metadata)).as("directory added").isTrue();
+        }
+
+        try (InputStream input = Files.newInputStream(archive);
+             ArchiveInputStream archiveInput = ZipArchiveFactory.INSTANCE.create(input)) {
+            ArchiveInputStream.Entry entry = archiveInput.getNextEntry();
+            assertThat(entry.isDirectory()).as("file isDirectory").isFalse();
+            entry.close();
+
+            entry = archiveInput.getNextEntry();
+            assertThat(entry.getName()).as("name").isEqualTo("dir/");
+            assertThat(entry.isDirectory()).as("isDirectory").isTrue();
+            assertThat(entry.getMetadata().getLastModifiedTime()).as("lastModifiedTime").isEqualTo(1234567890000L);
+            assertThat(entry.getMetadata().getMode()).as("mode").isEqualTo(0750);
+        }
+    }
+
     public static InputStream getArchive() {
         return getArchiveResource(ZipArchiveFactoryTest.class, ARCHIVE_RESOURCE);
     }
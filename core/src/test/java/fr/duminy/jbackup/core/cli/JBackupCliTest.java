@@ -0,0 +1,176 @@
+/**
+ * JBackup is a software managing backups.
+ *
+ * Copyright (C) 2013-2017 Fabien DUMINY (fabien [dot] duminy [at] webmails [dot] com)
+ *
+ * JBackup is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * JBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ */
+package fr.duminy.jbackup.core.cli;
+
+import fr.duminy.jbackup.core.BackupConfiguration;
+import fr.duminy.jbackup.core.ConfigurationManager;
+import fr.duminy.jbackup.core.archive.zip.ZipArchiveFactory;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static fr.duminy.jbackup.core.cli.JBackupCli.*;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests for {@link JBackupCli}.
+ */
+public class JBackupCliTest {
+    private static final String CONFIG = "config";
+
+    @Rule
+    public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream err = new ByteArrayOutputStream();
+    private Path configurationDir;
+    private Path source;
+    private Path targetDirectory;
+
+    @Before
+    public void setUp() throws Exception {
+        configurationDir = tempFolder.newFolder("config").toPath();
+        source = tempFolder.newFolder("source").toPath();
+        Files.write(source.resolve("file"), "content".getBytes(StandardCharsets.UTF_8));
+        targetDirectory = tempFolder.newFolder("target").toPath();
+
+        BackupConfiguration config = new BackupConfiguration();
+        config.setName(CONFIG);
+        config.setArchiveFactory(ZipArchiveFactory.INSTANCE);
+        config.setTargetDirectory(targetDirectory.toString());
+        config.addSource(source);
+        new ConfigurationManager(configurationDir).addBackupConfiguration(config);
+    }
+
+    @Test
+    public void testList() {
+        assertThat(run("list")).isEqualTo(EXIT_SUCCESS);
+
+        assertThat(output(out)).isEqualTo(CONFIG + '\t' + targetDirectory + System.lineSeparator());
+    }
+
+    @Test
+    public void testBackupThenVerifyThenRestore() throws Exception {
+        assertThat(run("backup", CONFIG)).as("backup").isEqualTo(EXIT_SUCCESS);
+        assertThat(output(out)).contains("[" + CONFIG + "] backup succeeded");
+        Path archive = ConfigurationManager.getLatestArchive(new ConfigurationManager(configurationDir).getBackupConfiguration(CONFIG));
+        assertThat(archive).as("archive").isNotNull();
+
+        assertThat(run("verify", CONFIG)).as("verify").isEqualTo(EXIT_SUCCESS);
+        assertThat(output(out)).contains("[" + CONFIG + "] verify succeeded");
+
+        Path restoreDirectory = tempFolder.getRoot().toPath().resolve("restore");
+        assertThat(run("restore", CONFIG, restoreDirectory.toString(), archive.toString())).as("restore")
+            .isEqualTo(EXIT_SUCCESS);
+        assertThat(output(out)).contains("[" + CONFIG + "] restore succeeded");
+        assertThat(Files.exists(restoreDirectory.resolve("source").resolve("file"))).as("restored file").isTrue();
+    }
+
+    @Test
+    public void testList_indexedStore() throws Exception {
+        assertThat(run("--indexed-store", "list")).isEqualTo(EXIT_SUCCESS);
+
+        assertThat(output(out)).isEqualTo(CONFIG + '\t' + targetDirectory + System.lineSeparator());
+        assertThat(Files.exists(configurationDir.resolve("configurations.store"))).as("store created").isTrue();
+    }
+
+    @Test
+    public void testBackup_json() {
+        assertThat(run("--json", "backup", "--all")).isEqualTo(EXIT_SUCCESS);
+
+        assertThat(output(out)).startsWith("{").contains("\"configurationName\": \"" + CONFIG + "\"")
+            .contains("\"successful\": true");
+        assertThat(output(err)).contains("[" + CONFIG + "] backup succeeded");
+    }
+
+    @Test
+    public void testVerify_corruptedArchive() throws Exception {
+        Files.write(source.resolve("file"), new byte[100000]);
+        assertThat(run("backup", CONFIG)).as("backup").isEqualTo(EXIT_SUCCESS);
+        Path archive = ConfigurationManager.getLatestArchive(new ConfigurationManager(configurationDir).getBackupConfiguration(CONFIG));
+        byte[] content = Files.readAllBytes(archive);
+        Files.write(archive, Arrays.copyOf(content, content.length / 2));
+
+        assertThat(run("verify", CONFIG, archive.toString())).isEqualTo(EXIT_TASK_FAILED);
+
+        assertThat(output(err)).contains("[" + CONFIG + "] verify failed");
+    }
+
+    @Test
+    public void testUnknownConfiguration() {
+        assertThat(run("backup", "unknown")).isEqualTo(EXIT_INVALID_CONFIGURATION);
+
+        assertThat(output(err)).contains("unknown configuration 'unknown'");
+    }
+
+    @Test
+    public void testInvalidArguments() {
+        assertThat(run()).as("no command").isEqualTo(EXIT_INVALID_ARGUMENTS);
+        assertThat(run("unknown")).as("unknown command").isEqualTo(EXIT_INVALID_ARGUMENTS);
+        assertThat(run("--unknown", "list")).as("unknown option").isEqualTo(EXIT_INVALID_ARGUMENTS);
+        assertThat(run("backup")).as("no configuration").isEqualTo(EXIT_INVALID_ARGUMENTS);
+        assertThat(run("daemon", CONFIG)).as("no schedule").isEqualTo(EXIT_INVALID_ARGUMENTS);
+        assertThat(run("daemon", "--cron", "* *", CONFIG)).as("invalid schedule").isEqualTo(EXIT_INVALID_ARGUMENTS);
+        assertThat(output(err)).contains("Usage:");
+    }
+
+    @Test(timeout = 60000)
+    public void testMain_exitsPromptly() throws Exception {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), JBackupCli.class.getName(),
+                                             "--config-dir", configurationDir.toString(), "list")
+            .redirectErrorStream(true).redirectOutput(tempFolder.newFile("output")).start();
+
+        // the shutdown hook must not wait for the end of the main thread when main calls System.exit
+        boolean exited = process.waitFor(30, TimeUnit.SECONDS);
+        if (!exited) {
+            process.destroyForcibly();
+        }
+
+        assertThat(exited).as("exited").isTrue();
+        assertThat(process.exitValue()).as("exit code").isEqualTo(EXIT_SUCCESS);
+    }
+
+    private int run(String... args) {
+        out.reset();
+        err.reset();
+        String[] allArgs = new String[args.length + 2];
+        allArgs[0] = "--config-dir";
+        allArgs[1] = configurationDir.toString();
+        System.arraycopy(args, 0, allArgs, 2, args.length);
+        JBackupCli cli = new JBackupCli(new PrintStream(out, true), new PrintStream(err, true));
+        return cli.run(allArgs);
+    }
+
+    private static String output(ByteArrayOutputStream stream) {
+        return new String(stream.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -24,6 +24,7 @@ import fr.duminy.components.chain.CommandException;
 import fr.duminy.jbackup.core.Cancellable;
 import fr.duminy.jbackup.core.archive.ArchiveException;
 import fr.duminy.jbackup.core.archive.ArchiveParameters;
+import fr.duminy.jbackup.core.archive.CollectedFiles;
 import fr.duminy.jbackup.core.archive.FileCollector;
 import fr.duminy.jbackup.core.archive.SourceWithPath;
 import fr.duminy.jbackup.core.task.TaskListener;
@@ -35,7 +36,7 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
-import java.util.List;
+import java.util.Collection;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.hamcrest.CoreMatchers.equalTo;
@@ -77,11 +78,11 @@ public class CollectFilesCommandTest {
     public void testExecute() throws Exception {
         command.execute(context);
 
-        ArgumentCaptor<List<SourceWithPath>> collectedFilesArg = ArgumentCaptor.forClass(List.class);
+        ArgumentCaptor<Collection<SourceWithPath>> collectedFilesArg = ArgumentCaptor.forClass(Collection.class);
         verify(fileCollector)
             .collectFiles(collectedFilesArg.capture(), eq(archiveParameters), eq(listener), eq(cancellable));
-        final List<SourceWithPath> collectedFiles = collectedFilesArg.getValue();
-        assertThat(collectedFiles).isNotNull();
+        final Collection<SourceWithPath> collectedFiles = collectedFilesArg.getValue();
+        assertThat(collectedFiles).isNotNull().isInstanceOf(CollectedFiles.class);
         assertThat(context.getCollectedFiles()).isSameAs(collectedFiles);
     }
 
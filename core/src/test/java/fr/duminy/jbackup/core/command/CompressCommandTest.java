@@ -24,7 +24,9 @@ import fr.duminy.components.chain.CommandException;
 import fr.duminy.jbackup.core.Cancellable;
 import fr.duminy.jbackup.core.archive.*;
 import fr.duminy.jbackup.core.task.TaskListener;
+import fr.duminy.jbackup.core.task.TaskScheduler;
 import fr.duminy.jbackup.core.util.FileDeleter;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -34,7 +36,7 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
 import java.nio.file.Path;
-import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.hamcrest.CoreMatchers.equalTo;
@@ -48,7 +50,7 @@ public class CompressCommandTest {
     private ArchiveFactory factory;
 
     @Mock
-    private List<SourceWithPath> collectedFiles;
+    private CollectedFiles collectedFiles;
 
     @Mock
     private ArchiveParameters archiveParameters;
@@ -68,6 +70,9 @@ public class CompressCommandTest {
     @Mock
     private Path archive;
 
+    @Mock
+    private Path partialArchive;
+
     private CompressCommand command;
     private JBackupContext context;
     private Compressor realCompressor;
@@ -87,8 +92,13 @@ public class CompressCommandTest {
         context = spy(ctx);
 
         when(archiveParameters.getArchive()).thenReturn(archive);
+        when(archive.resolveSibling(anyString())).thenReturn(partialArchive);
+
+        command = createCommand(null);
+    }
 
-        command = new CompressCommand() {
+    private CompressCommand createCommand(TaskScheduler scheduler) {
+        return new CompressCommand(scheduler) {
             @Override
             protected Compressor createCompressor(ArchiveFactory factory) {
                 realCompressor = super.createCompressor(factory);
@@ -110,6 +120,7 @@ public class CompressCommandTest {
 
         InOrder inOrder = inOrder(mockCompressor, fileDeleter);
         inOrder.verify(fileDeleter).registerFile(eq(archive));
+        inOrder.verify(fileDeleter).registerFile(eq(partialArchive));
         inOrder.verify(mockCompressor)
                .compress(eq(archiveParameters), eq(collectedFiles), eq(listener), eq(cancellable));
         inOrder.verifyNoMoreInteractions();
@@ -130,11 +141,61 @@ public class CompressCommandTest {
             command.execute(context);
         } finally {
             verify(fileDeleter).registerFile(eq(archive));
+            verify(fileDeleter).registerFile(eq(partialArchive));
             assertThat(revertCalled).as("revert() called").isFalse();
             verifyNoMoreInteractions(fileDeleter);
         }
     }
 
+    @Test
+    public void testExecute_withScheduler() throws Exception {
+        TaskScheduler scheduler = new TaskScheduler(1, 1, new BasicThreadFactory.Builder()
+            .namingPattern("compress-%d").build());
+        AtomicReference<String> compressThread = new AtomicReference<>();
+        doAnswer(invocation -> {
+            compressThread.set(Thread.currentThread().getName());
+            return null;
+        }).when(mockCompressor).compress(any(), any(), any(), any());
+
+        try {
+            createCommand(scheduler).execute(context);
+        } finally {
+            scheduler.shutdown();
+        }
+
+        verify(mockCompressor).compress(eq(archiveParameters), eq(collectedFiles), eq(listener), eq(cancellable));
+        assertThat(compressThread.get()).as("compression thread").isEqualTo("compress-1");
+        assertThat(revertCalled).as("revert() called").isFalse();
+    }
+
+    @Test
+    public void testExecute_withScheduler_withError() throws Exception {
+        TaskScheduler scheduler = new TaskScheduler(1, 1, new BasicThreadFactory.Builder().build());
+        ArchiveException exception = new ArchiveException(new Exception("unexpected error"));
+        doThrow(exception).when(mockCompressor).compress(any(), any(), any(), any());
+        thrown.expect(CommandException.class);
+        thrown.expectCause(equalTo(exception));
+
+        try {
+            createCommand(scheduler).execute(context);
+        } finally {
+            scheduler.shutdown();
+            verify(fileDeleter).registerFile(eq(archive));
+            verify(fileDeleter).registerFile(eq(partialArchive));
+            assertThat(revertCalled).as("revert() called").isFalse();
+        }
+    }
+
+    @Test
+    public void testExecute_resumable() throws Exception {
+        when(archiveParameters.isResumable()).thenReturn(true);
+
+        command.execute(context);
+
+        verify(fileDeleter).registerFile(eq(archive));
+        verify(fileDeleter, never()).registerFile(eq(partialArchive));
+    }
+
     @Test
     public void testRevert() throws Exception {
         command.revert(context);
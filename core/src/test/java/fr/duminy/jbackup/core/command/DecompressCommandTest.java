@@ -123,7 +123,7 @@ public class DecompressCommandTest {
     @Test
     public void testExecute_withError() throws Exception {
         ArchiveException exception = new ArchiveException(new Exception("unexpected error"));
-        doThrow(exception).when(mockDecompressor).decompress(any(), any(), any(), any());
+        doThrow(exception).when(mockDecompressor).decompress(any(Path.class), any(), any(), any());
         thrown.expect(CommandException.class);
         thrown.expectCause(equalTo(exception));
         thrown.expectMessage(exception.getMessage());
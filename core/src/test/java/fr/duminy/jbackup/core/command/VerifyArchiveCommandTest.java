@@ -24,7 +24,7 @@ import fr.duminy.components.chain.CommandException;
 import fr.duminy.jbackup.core.archive.ArchiveException;
 import fr.duminy.jbackup.core.archive.ArchiveFactory;
 import fr.duminy.jbackup.core.archive.ArchiveVerifier;
-import fr.duminy.jbackup.core.archive.SourceWithPath;
+import fr.duminy.jbackup.core.archive.CollectedFiles;
 import fr.duminy.jbackup.core.task.BackupTask;
 import fr.duminy.jbackup.core.util.FileDeleter;
 import fr.duminy.jbackup.core.util.InputStreamComparator;
@@ -38,7 +38,6 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
 import java.io.InputStream;
-import java.util.List;
 
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.mockito.Mockito.*;
@@ -60,7 +59,7 @@ public class VerifyArchiveCommandTest {
     private InputStream archive;
 
     @Mock
-    private List<SourceWithPath> collectedFiles;
+    private CollectedFiles collectedFiles;
 
     @Mock
     private ArchiveVerifier verifier;
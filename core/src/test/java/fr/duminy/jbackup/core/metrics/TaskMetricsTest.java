@@ -0,0 +1,110 @@
+/**
+ * JBackup is a software managing backups.
+ *
+ * Copyright (C) 2013-2017 Fabien DUMINY (fabien [dot] duminy [at] webmails [dot] com)
+ *
+ * JBackup is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * JBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ */
+package fr.duminy.jbackup.core.metrics;
+
+import org.junit.Test;
+
+import java.nio.file.Paths;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests for {@link TaskMetrics}.
+ */
+public class TaskMetricsTest {
+    @Test
+    public void testInit() {
+        TaskMetrics metrics = new TaskMetrics("config", "BackupTask");
+
+        assertThat(metrics.getConfigurationName()).as("configurationName").isEqualTo("config");
+        assertThat(metrics.getTaskType()).as("taskType").isEqualTo("BackupTask");
+        assertThat(metrics.getWallTime()).as("wallTime").isNegative();
+        assertThat(metrics.getFiles()).as("files").isNegative();
+        assertThat(metrics.getBytesPerSecond()).as("bytesPerSecond").isNegative();
+        assertThat(metrics.getFilesPerSecond()).as("filesPerSecond").isNegative();
+        assertThat(metrics.getCompressionRatio()).as("compressionRatio").isNegative();
+        assertThat(metrics.getCommands()).as("commands").isEmpty();
+    }
+
+    @Test
+    public void testTaskFinished() throws InterruptedException {
+        TaskMetrics metrics = new TaskMetrics("config", "BackupTask");
+
+        metrics.taskStarted();
+        metrics.commandStarted("command1");
+        Thread.sleep(20);
+        metrics.commandFinished("command1");
+        metrics.commandStarted("command2");
+        metrics.commandFinished("command2");
+        metrics.taskFinished(null);
+
+        assertThat(metrics.isSuccessful()).as("successful").isTrue();
+        assertThat(metrics.getWallTime()).as("wallTime").isGreaterThanOrEqualTo(20L);
+        assertThat(metrics.getCommands().keySet()).as("commands").containsExactly("command1", "command2");
+        assertThat(metrics.getCommands().get("command1").getWallTime()).as("command1.wallTime").isGreaterThanOrEqualTo(20L);
+        assertThat(metrics.getCommands().get("command2").getWallTime()).as("command2.wallTime").isGreaterThanOrEqualTo(0L);
+    }
+
+    @Test
+    public void testTaskFinished_withError() {
+        TaskMetrics metrics = new TaskMetrics("config", "BackupTask");
+
+        metrics.taskStarted();
+        metrics.taskFinished(new Exception());
+
+        assertThat(metrics.isSuccessful()).as("successful").isFalse();
+    }
+
+    @Test
+    public void testDerivedValues() throws InterruptedException {
+        TaskMetrics metrics = new TaskMetrics("config", "BackupTask");
+        metrics.taskStarted();
+        Thread.sleep(10);
+        metrics.taskFinished(null);
+        metrics.setFiles(10L);
+        metrics.setUncompressedSize(1000L);
+        metrics.setArchiveSize(250L);
+
+        long wallTime = metrics.getWallTime();
+        assertThat(metrics.getBytesPerSecond()).as("bytesPerSecond").isEqualTo(1000L * 1000L / wallTime);
+        assertThat(metrics.getFilesPerSecond()).as("filesPerSecond").isEqualTo(10L * 1000L / wallTime);
+        assertThat(metrics.getCompressionRatio()).as("compressionRatio").isEqualTo(0.25d);
+    }
+
+    @Test
+    public void testToJson() {
+        TaskMetrics metrics = new TaskMetrics("my \"config\"", "BackupTask");
+        metrics.setArchive(Paths.get("archive.zip"));
+        metrics.setFiles(3L);
+        metrics.commandStarted("command");
+        metrics.commandFinished("command");
+
+        String json = metrics.toJson();
+
+        assertThat(json).as("json").startsWith("{\n").endsWith("\n}")
+                        .contains("\"configurationName\": \"my \\\"config\\\"\",")
+                        .contains("\"taskType\": \"BackupTask\",")
+                        .contains("\"archive\": \"archive.zip\",")
+                        .contains("\"successful\": false,")
+                        .contains("\"files\": 3,")
+                        .contains("\"command\": {\"wallTime\": ");
+    }
+}
@@ -0,0 +1,236 @@
+/**
+ * JBackup is a software managing backups.
+ *
+ * Copyright (C) 2013-2017 Fabien DUMINY (fabien [dot] duminy [at] webmails [dot] com)
+ *
+ * JBackup is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * JBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ */
+package fr.duminy.jbackup.core.schedule;
+
+import fr.duminy.jbackup.core.BackupConfiguration;
+import fr.duminy.jbackup.core.JBackup;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for {@link BackupScheduler}.
+ */
+public class BackupSchedulerTest {
+    private static final ZonedDateTime START = ZonedDateTime.of(2016, 3, 15, 1, 0, 0, 0, ZoneOffset.UTC);
+
+    @Rule
+    public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private final MutableClock clock = new MutableClock(START);
+    private JBackup jbackup;
+    private CompletableFuture<Void> future;
+    private Path stateFile;
+    private BackupConfiguration config;
+
+    @Before
+    public void setUp() throws Exception {
+        future = new CompletableFuture<>();
+        jbackup = mock(JBackup.class);
+        when(jbackup.backup(any(BackupConfiguration.class))).thenReturn(future);
+        stateFile = tempFolder.getRoot().toPath().resolve(BackupScheduler.STATE_FILE);
+        config = new BackupConfiguration();
+        config.setName("config");
+        config.setSchedule("0 2 * * *");
+    }
+
+    @Test
+    public void testTick_dueBackup() throws Exception {
+        BackupScheduler scheduler = createScheduler();
+        scheduler.schedule(config);
+
+        scheduler.tick();
+        verify(jbackup, never()).backup(any(BackupConfiguration.class));
+
+        clock.setTime(START.plusHours(1));
+        scheduler.tick();
+        verify(jbackup, times(1)).backup(config);
+        assertThat(scheduler.isRunning("config")).as("running").isTrue();
+        assertThat(scheduler.getNextRun("config")).as("next run").isEqualTo(START.plusDays(1).plusHours(1));
+        assertThat(stateFile).as("state file").exists();
+    }
+
+    @Test
+    public void testTick_previousBackupStillRunning() throws Exception {
+        BackupScheduler scheduler = createScheduler();
+        BackupScheduler.Listener listener = mock(BackupScheduler.Listener.class);
+        scheduler.addListener(listener);
+        scheduler.schedule(config);
+        clock.setTime(START.plusHours(1));
+        scheduler.tick();
+
+        clock.setTime(START.plusDays(1).plusHours(1));
+        scheduler.tick();
+        verify(jbackup, times(1)).backup(config);
+        verify(listener, never()).backupFinished(any(BackupConfiguration.class), any(Throwable.class));
+
+        future.complete(null);
+        scheduler.tick();
+        verify(listener, times(1)).backupFinished(config, null);
+        assertThat(scheduler.isRunning("config")).as("running").isFalse();
+    }
+
+    @Test
+    public void testTick_failedBackup() throws Exception {
+        BackupScheduler scheduler = createScheduler();
+        BackupScheduler.Listener listener = mock(BackupScheduler.Listener.class);
+        scheduler.addListener(listener);
+        Exception error = new Exception("error");
+        future.completeExceptionally(error);
+
+        scheduler.backup(config);
+        scheduler.tick();
+
+        verify(listener, times(1)).backupFinished(config, error);
+    }
+
+    @Test
+    public void testSchedule_catchUpMissedRuns() throws Exception {
+        createScheduler().schedule(config);
+
+        // restart 2 days later
+        clock.setTime(START.plusDays(2).plusHours(9));
+        BackupScheduler scheduler = createScheduler();
+        scheduler.schedule(config);
+        scheduler.tick();
+        scheduler.tick();
+
+        verify(jbackup, times(1)).backup(config);
+        assertThat(scheduler.getNextRun("config")).as("next run").isEqualTo(START.plusDays(3).plusHours(1));
+    }
+
+    @Test
+    public void testSchedule_noSchedule() throws Exception {
+        BackupScheduler scheduler = createScheduler();
+        scheduler.schedule(config);
+
+        config.setSchedule(null);
+        scheduler.schedule(config);
+
+        assertThat(scheduler.getNextRun("config")).as("next run").isNull();
+    }
+
+    @Test
+    public void testSchedule_givenSchedule_configurationUnchanged() throws Exception {
+        BackupScheduler scheduler = createScheduler();
+        config.setSchedule(null);
+
+        scheduler.schedule(config, "0 3 * * *");
+
+        assertThat(scheduler.getNextRun("config")).as("next run").isEqualTo(START.plusHours(2));
+        assertThat(config.getSchedule()).as("schedule of the configuration").isNull();
+    }
+
+    @Test
+    public void testSchedule_jitter() throws Exception {
+        Random random = mock(Random.class);
+        when(random.nextDouble()).thenReturn(0.5);
+        BackupScheduler scheduler = new BackupScheduler(jbackup, stateFile, clock, random);
+        scheduler.setMaxJitter(60000L);
+
+        scheduler.schedule(config);
+
+        assertThat(scheduler.getNextRun("config")).as("next run").isEqualTo(START.plusHours(1).plusSeconds(30));
+    }
+
+    @Test
+    public void testTick_successfulBackup_lastRunSaved() throws Exception {
+        BackupScheduler scheduler = createScheduler();
+        scheduler.schedule(config);
+        clock.setTime(START.plusHours(1));
+        scheduler.tick();
+        future.complete(null);
+        clock.setTime(START.plusHours(2));
+        scheduler.tick();
+
+        // restart
+        scheduler = createScheduler();
+        scheduler.schedule(config);
+
+        assertThat(scheduler.getNextRun("config")).as("next run").isEqualTo(START.plusDays(1).plusHours(1));
+    }
+
+    @Test
+    public void testTick_failedBackup_caughtUpAfterRestart() throws Exception {
+        BackupScheduler scheduler = createScheduler();
+        scheduler.schedule(config);
+        clock.setTime(START.plusHours(1));
+        scheduler.tick();
+        future.completeExceptionally(new Exception("error"));
+        clock.setTime(START.plusHours(2));
+        scheduler.tick();
+
+        // restart
+        scheduler = createScheduler();
+        scheduler.schedule(config);
+        scheduler.tick();
+
+        verify(jbackup, times(2)).backup(config);
+    }
+
+    private BackupScheduler createScheduler() throws Exception {
+        BackupScheduler scheduler = new BackupScheduler(jbackup, stateFile, clock, new Random());
+        scheduler.setMaxJitter(0L);
+        return scheduler;
+    }
+
+    private static final class MutableClock extends Clock {
+        private ZonedDateTime time;
+
+        private MutableClock(ZonedDateTime time) {
+            this.time = time;
+        }
+
+        private void setTime(ZonedDateTime time) {
+            this.time = time;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return time.getZone();
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return new MutableClock(time.withZoneSameInstant(zone));
+        }
+
+        @Override
+        public Instant instant() {
+            return time.toInstant();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * JBackup is a software managing backups.
+ *
+ * Copyright (C) 2013-2017 Fabien DUMINY (fabien [dot] duminy [at] webmails [dot] com)
+ *
+ * JBackup is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * JBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ */
+package fr.duminy.jbackup.core.schedule;
+
+import org.junit.Test;
+
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link CronExpression}.
+ */
+public class CronExpressionTest {
+    private static final ZonedDateTime TIME = ZonedDateTime.of(2016, 3, 15, 10, 30, 20, 0, ZoneOffset.UTC); // tuesday
+
+    @Test
+    public void testNext_everyMinute() {
+        assertThat(CronExpression.parse("* * * * *").next(TIME)).isEqualTo(at(2016, 3, 15, 10, 31));
+    }
+
+    @Test
+    public void testNext_daily() {
+        assertThat(CronExpression.parse("0 2 * * *").next(TIME)).isEqualTo(at(2016, 3, 16, 2, 0));
+    }
+
+    @Test
+    public void testNext_step() {
+        assertThat(CronExpression.parse("*/15 * * * *").next(TIME)).isEqualTo(at(2016, 3, 15, 10, 45));
+        assertThat(CronExpression.parse("0-30/20 * * * *").next(TIME)).isEqualTo(at(2016, 3, 15, 11, 0));
+    }
+
+    @Test
+    public void testNext_listAndRange() {
+        assertThat(CronExpression.parse("0 8,12-14 * * *").next(TIME)).isEqualTo(at(2016, 3, 15, 12, 0));
+    }
+
+    @Test
+    public void testNext_dayOfWeek() {
+        assertThat(CronExpression.parse("0 0 * * 0").next(TIME)).as("sunday").isEqualTo(at(2016, 3, 20, 0, 0));
+        assertThat(CronExpression.parse("0 0 * * 7").next(TIME)).as("sunday").isEqualTo(at(2016, 3, 20, 0, 0));
+        assertThat(CronExpression.parse("0 0 * * 1-5").next(TIME)).as("week days").isEqualTo(at(2016, 3, 16, 0, 0));
+    }
+
+    @Test
+    public void testNext_dayOfMonthOrDayOfWeek() {
+        assertThat(CronExpression.parse("0 0 1 * 5").next(TIME)).as("friday or 1st").isEqualTo(at(2016, 3, 18, 0, 0));
+    }
+
+    @Test
+    public void testNext_month() {
+        assertThat(CronExpression.parse("0 0 1 1 *").next(TIME)).isEqualTo(at(2017, 1, 1, 0, 0));
+        assertThat(CronExpression.parse("0 0 29 2 *").next(TIME)).as("leap year").isEqualTo(at(2020, 2, 29, 0, 0));
+    }
+
+    @Test
+    public void testNext_never() {
+        assertThat(CronExpression.parse("0 0 30 2 *").next(TIME)).isNull();
+    }
+
+    @Test
+    public void testParse_invalid() {
+        for (String expression : new String[]{null, "", "* * * *", "* * * * * *", "60 * * * *", "* 24 * * *",
+            "* * 0 * *", "* * * 13 *", "* * * * 8", "a * * * *", "5-1 * * * *", "*/0 * * * *"}) {
+            try {
+                CronExpression.parse(expression);
+                fail("IllegalArgumentException expected for '" + expression + "'");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    private static ZonedDateTime at(int year, int month, int day, int hour, int minute) {
+        return ZonedDateTime.of(year, month, day, hour, minute, 0, 0, ZoneOffset.UTC);
+    }
+}
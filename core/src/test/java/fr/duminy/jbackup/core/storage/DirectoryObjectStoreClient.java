@@ -0,0 +1,148 @@
+/**
+ * JBackup is a software managing backups.
+ *
+ * Copyright (C) 2013-2017 Fabien DUMINY (fabien [dot] duminy [at] webmails [dot] com)
+ *
+ * JBackup is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * JBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ */
+package fr.duminy.jbackup.core.storage;
+
+import org.apache.commons.io.input.BoundedInputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * A local stand-in of an object store, storing the objects as files of a directory. The keys are flat : a '/' is
+ * part of the file name.
+ */
+class DirectoryObjectStoreClient implements ObjectStoreClient {
+    private final Path objects;
+    private final Path uploads;
+    final AtomicInteger uploadingParts = new AtomicInteger();
+    final AtomicInteger maxUploadingParts = new AtomicInteger();
+    volatile int failingPart;
+
+    DirectoryObjectStoreClient(Path directory) throws IOException {
+        objects = Files.createDirectories(directory.resolve("objects"));
+        uploads = Files.createDirectories(directory.resolve("uploads"));
+    }
+
+    @Override
+    public String createMultipartUpload(String key) throws IOException {
+        String uploadId = UUID.randomUUID().toString();
+        Files.createDirectory(uploads.resolve(uploadId));
+        return uploadId;
+    }
+
+    @Override
+    public void uploadPart(String key, String uploadId, int partNumber, byte[] data, int length) throws IOException {
+        int uploading = uploadingParts.incrementAndGet();
+        maxUploadingParts.accumulateAndGet(uploading, Math::max);
+        try {
+            if (partNumber == failingPart) {
+                throw new IOException("upload of part " + partNumber + " failed");
+            }
+            try (OutputStream output = Files.newOutputStream(uploads.resolve(uploadId).resolve(Integer.toString(partNumber)))) {
+                output.write(data, 0, length);
+            }
+            // simulates the network latency
+            Thread.sleep(10);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } finally {
+            uploadingParts.decrementAndGet();
+        }
+    }
+
+    @Override
+    public void completeMultipartUpload(String key, String uploadId, int parts) throws IOException {
+        Path upload = uploads.resolve(uploadId);
+        try (OutputStream output = Files.newOutputStream(objects.resolve(encode(key)))) {
+            for (int part = 1; part <= parts; part++) {
+                Files.copy(upload.resolve(Integer.toString(part)), output);
+            }
+        }
+        abortMultipartUpload(key, uploadId);
+    }
+
+    @Override
+    public void abortMultipartUpload(String key, String uploadId) throws IOException {
+        Path upload = uploads.resolve(uploadId);
+        try (DirectoryStream<Path> parts = Files.newDirectoryStream(upload)) {
+            for (Path part : parts) {
+                Files.delete(part);
+            }
+        }
+        Files.delete(upload);
+    }
+
+    @Override
+    public InputStream getObject(String key, long offset, long length) throws IOException {
+        FileChannel channel = FileChannel.open(objects.resolve(encode(key)), READ);
+        channel.position(offset);
+        InputStream input = Channels.newInputStream(channel);
+        return (length < 0) ? input : new BoundedInputStream(input, length);
+    }
+
+    @Override
+    public List<StoredObject> listObjects(String prefix) throws IOException {
+        List<StoredObject> result = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(objects)) {
+            for (Path file : files) {
+                String key = decode(file.getFileName().toString());
+                if (key.startsWith(prefix)) {
+                    BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                    result.add(new StoredObject(key, attributes.size(), attributes.lastModifiedTime().toMillis()));
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void deleteObject(String key) throws IOException {
+        Files.deleteIfExists(objects.resolve(encode(key)));
+    }
+
+    boolean hasPendingUploads() throws IOException {
+        try (DirectoryStream<Path> pending = Files.newDirectoryStream(uploads)) {
+            return pending.iterator().hasNext();
+        }
+    }
+
+    private static String encode(String key) {
+        return key.replace("%", "%25").replace("/", "%2F");
+    }
+
+    private static String decode(String fileName) {
+        return fileName.replace("%2F", "/").replace("%25", "%");
+    }
+}
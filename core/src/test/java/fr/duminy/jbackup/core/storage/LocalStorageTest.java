@@ -0,0 +1,73 @@
+/**
+ * JBackup is a software managing backups.
+ *
+ * Copyright (C) 2013-2017 Fabien DUMINY (fabien [dot] duminy [at] webmails [dot] com)
+ *
+ * JBackup is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * JBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ */
+package fr.duminy.jbackup.core.storage;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LocalStorageTest {
+    @Rule
+    public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testPutGetListDelete() throws Exception {
+        Path directory = tempFolder.getRoot().toPath().resolve("target");
+        LocalStorage storage = new LocalStorage(directory);
+
+        try (OutputStream output = storage.put("archive.zip")) {
+            output.write("0123456789".getBytes(UTF_8));
+            assertThat(directory.resolve("archive.zip")).as("archive before close").doesNotExist();
+        }
+
+        assertThat(storage.list()).extracting(StoredObject::getName).containsExactly("archive.zip");
+        assertThat(storage.list().get(0).getSize()).as("size").isEqualTo(10);
+        try (InputStream input = storage.get("archive.zip", 2, 3)) {
+            assertThat(IOUtils.toString(input, UTF_8)).as("range").isEqualTo("234");
+        }
+
+        storage.delete("archive.zip");
+        assertThat(storage.list()).as("objects").isEmpty();
+    }
+
+    @Test
+    public void testPut_abort() throws Exception {
+        LocalStorage storage = new LocalStorage(tempFolder.getRoot().toPath());
+
+        Storage.StorageOutputStream output = storage.put("archive.zip");
+        output.write(1);
+        output.abort();
+
+        try (Stream<Path> files = Files.list(tempFolder.getRoot().toPath())) {
+            assertThat(files.count()).as("files").isZero();
+        }
+    }
+}
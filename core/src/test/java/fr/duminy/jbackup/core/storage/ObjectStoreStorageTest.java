@@ -0,0 +1,141 @@
+/**
+ * JBackup is a software managing backups.
+ *
+ * Copyright (C) 2013-2017 Fabien DUMINY (fabien [dot] duminy [at] webmails [dot] com)
+ *
+ * JBackup is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * JBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ */
+package fr.duminy.jbackup.core.storage;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class ObjectStoreStorageTest {
+    private static final int PART_SIZE = 1000;
+    private static final int MAX_IN_FLIGHT_PARTS = 2;
+
+    @Rule
+    public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private DirectoryObjectStoreClient client;
+    private ObjectStoreStorage storage;
+
+    @Before
+    public void setUp() throws IOException {
+        client = new DirectoryObjectStoreClient(tempFolder.newFolder().toPath());
+        storage = new ObjectStoreStorage(client, "backups/", PART_SIZE, MAX_IN_FLIGHT_PARTS);
+    }
+
+    @Test
+    public void testPutAndGet() throws Exception {
+        byte[] content = createContent(10 * PART_SIZE + 1);
+
+        try (OutputStream output = storage.put("archive.zip")) {
+            // written in chunks not aligned with the parts
+            for (int offset = 0; offset < content.length; offset += 333) {
+                output.write(content, offset, Math.min(333, content.length - offset));
+            }
+        }
+
+        try (InputStream input = storage.get("archive.zip")) {
+            assertThat(IOUtils.toByteArray(input)).as("content").isEqualTo(content);
+        }
+        assertThat(client.maxUploadingParts.get()).as("max uploading parts").isBetween(1, MAX_IN_FLIGHT_PARTS);
+        assertThat(client.hasPendingUploads()).as("pending uploads").isFalse();
+    }
+
+    @Test
+    public void testPut_empty() throws Exception {
+        storage.put("empty.zip").close();
+
+        try (InputStream input = storage.get("empty.zip")) {
+            assertThat(IOUtils.toByteArray(input)).as("content").isEmpty();
+        }
+    }
+
+    @Test
+    public void testGet_range() throws Exception {
+        byte[] content = createContent(3 * PART_SIZE);
+        try (OutputStream output = storage.put("archive.zip")) {
+            output.write(content);
+        }
+
+        try (InputStream input = storage.get("archive.zip", PART_SIZE - 10, 20)) {
+            assertThat(IOUtils.toByteArray(input)).as("range")
+                                                  .isEqualTo(Arrays.copyOfRange(content, PART_SIZE - 10, PART_SIZE + 10));
+        }
+    }
+
+    @Test
+    public void testPut_abort() throws Exception {
+        Storage.StorageOutputStream output = storage.put("archive.zip");
+        output.write(createContent(3 * PART_SIZE));
+        output.abort();
+
+        assertThat(storage.list()).as("objects").isEmpty();
+        assertThat(client.hasPendingUploads()).as("pending uploads").isFalse();
+    }
+
+    @Test
+    public void testPut_failedPart() throws Exception {
+        client.failingPart = 2;
+        Storage.StorageOutputStream output = storage.put("archive.zip");
+        try {
+            output.write(createContent(3 * PART_SIZE));
+            output.close();
+            fail("IOException expected");
+        } catch (IOException e) {
+            assertThat(e).hasMessageContaining("part 2");
+        }
+
+        assertThat(storage.list()).as("objects").isEmpty();
+        assertThat(client.hasPendingUploads()).as("pending uploads").isFalse();
+    }
+
+    @Test
+    public void testListAndDelete() throws Exception {
+        storage.put("archive1.zip").close();
+        storage.put("archive2.zip").close();
+        new ObjectStoreStorage(client, "backups/old/").put("archive0.zip").close();
+        new ObjectStoreStorage(client, "other/").put("archive3.zip").close();
+
+        List<StoredObject> objects = storage.list();
+        assertThat(objects).extracting(StoredObject::getName).containsOnly("archive1.zip", "archive2.zip");
+
+        storage.delete("archive1.zip");
+        assertThat(storage.list()).extracting(StoredObject::getName).containsOnly("archive2.zip");
+    }
+
+    private static byte[] createContent(int size) {
+        byte[] content = new byte[size];
+        for (int i = 0; i < size; i++) {
+            content[i] = (byte) (i * 31);
+        }
+        return content;
+    }
+}
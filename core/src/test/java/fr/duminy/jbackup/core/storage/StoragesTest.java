@@ -0,0 +1,55 @@
+/**
+ * JBackup is a software managing backups.
+ *
+ * Copyright (C) 2013-2017 Fabien DUMINY (fabien [dot] duminy [at] webmails [dot] com)
+ *
+ * JBackup is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * JBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ */
+package fr.duminy.jbackup.core.storage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class StoragesTest {
+    @Rule
+    public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testForTarget_directory() throws Exception {
+        Path directory = tempFolder.getRoot().toPath();
+
+        assertThat(Storages.isLocal(directory.toString())).as("local").isTrue();
+        Storage storage = Storages.forTarget(directory.toString());
+        assertThat(storage).isInstanceOf(LocalStorage.class);
+        assertThat(((LocalStorage) storage).getDirectory()).as("directory").isEqualTo(directory);
+    }
+
+    @Test
+    public void testForTarget_fileUri() throws Exception {
+        Path directory = tempFolder.getRoot().toPath();
+        String target = directory.toUri().toString();
+
+        assertThat(Storages.isLocal(target)).as("local").isFalse();
+        Storage storage = Storages.forTarget(target);
+        assertThat(storage).isInstanceOf(LocalStorage.class);
+        assertThat(((LocalStorage) storage).getDirectory()).as("directory").isEqualTo(directory);
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ * JBackup is a software managing backups.
+ *
+ * Copyright (C) 2013-2017 Fabien DUMINY (fabien [dot] duminy [at] webmails [dot] com)
+ *
+ * JBackup is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * JBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ */
+package fr.duminy.jbackup.core.task;
+
+import fr.duminy.jbackup.core.BackupConfiguration;
+import fr.duminy.jbackup.core.Cancellable;
+import org.apache.commons.lang3.SystemUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assume.assumeFalse;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link BackupHooks}.
+ */
+public class BackupHooksTest {
+    @Rule
+    public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Rule
+    public final ExpectedException thrown = ExpectedException.none();
+
+    private BackupConfiguration config;
+
+    @Before
+    public void setUp() throws Exception {
+        assumeFalse(SystemUtils.IS_OS_WINDOWS);
+        config = new BackupConfiguration();
+        config.setName("config");
+        config.setTargetDirectory(tempFolder.newFolder("target").toString());
+        config.setSnapshotDirectory(tempFolder.newFolder("snapshot").toString());
+    }
+
+    @Test
+    public void testRun() throws Exception {
+        Path output = tempFolder.getRoot().toPath().resolve("output");
+
+        BackupHooks.run("test", "echo \"$" + BackupHooks.CONFIGURATION_VARIABLE + " $" +
+                                BackupHooks.TARGET_VARIABLE + " $" + BackupHooks.SNAPSHOT_VARIABLE + "\" > " + output,
+                        config, null);
+
+        assertThat(new String(Files.readAllBytes(output), StandardCharsets.UTF_8)).as("output")
+            .isEqualTo("config " + config.getTargetDirectory() + " " + config.getSnapshotDirectory() + "\n");
+    }
+
+    @Test
+    public void testRun_blankCommand() throws Exception {
+        BackupHooks.run("test", " ", config, null);
+        BackupHooks.run("test", null, config, null);
+    }
+
+    @Test
+    public void testRun_failure() throws Exception {
+        thrown.expect(TaskException.class);
+        thrown.expectMessage("exit code 3");
+
+        BackupHooks.run("test", "exit 3", config, null);
+    }
+
+    @Test
+    public void testRun_noConfigurationName() throws Exception {
+        Path output = tempFolder.getRoot().toPath().resolve("output");
+        config.setName(null);
+
+        BackupHooks.run("test", "echo \"[$" + BackupHooks.CONFIGURATION_VARIABLE + "]\" > " + output, config, null);
+
+        assertThat(new String(Files.readAllBytes(output), StandardCharsets.UTF_8)).as("output").isEqualTo("[]\n");
+    }
+
+    @Test(timeout = 10000)
+    public void testRun_timeout() throws Exception {
+        thrown.expect(TaskException.class);
+        thrown.expectMessage("timed out");
+
+        BackupHooks.run("test", "sleep 60", config, null, 200L);
+    }
+
+    @Test(timeout = 10000)
+    public void testRun_cancelled() throws Exception {
+        Cancellable cancellable = mock(Cancellable.class);
+        when(cancellable.isCancelled()).thenReturn(true);
+        thrown.expect(TaskException.class);
+        thrown.expectMessage("cancelled");
+
+        BackupHooks.run("test", "sleep 60", config, cancellable);
+    }
+}
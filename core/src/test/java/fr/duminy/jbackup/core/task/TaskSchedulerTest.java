@@ -0,0 +1,178 @@
+/**
+ * JBackup is a software managing backups.
+ *
+ * Copyright (C) 2013-2017 Fabien DUMINY (fabien [dot] duminy [at] webmails [dot] com)
+ *
+ * JBackup is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * JBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ */
+package fr.duminy.jbackup.core.task;
+
+import fr.duminy.jbackup.core.util.LogRule;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests for {@link TaskScheduler}.
+ */
+public class TaskSchedulerTest {
+    private static final long TIMEOUT = 5;
+
+    @Rule
+    public final LogRule logRule = new LogRule();
+
+    @Rule
+    public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private final List<String> executedTasks = Collections.synchronizedList(new ArrayList<>());
+    private Path directory;
+    private TaskScheduler scheduler;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = tempFolder.newFolder().toPath();
+    }
+
+    @After
+    public void tearDown() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void testSubmit_sameDevice() throws Exception {
+        scheduler = new TaskScheduler(2, 1, Executors.defaultThreadFactory());
+        CountDownLatch unlock = new CountDownLatch(1);
+
+        Future<Void> first = scheduler.submit(waitingTask("first", unlock), directory, 0);
+        Future<Void> second = scheduler.submit(task("second"), directory.resolve("notCreated"), 0);
+
+        assertThat(scheduler.getQueueDepth()).as("queue depth").isEqualTo(1);
+        assertThat(scheduler.getRunningTaskCount()).as("running tasks").isEqualTo(1);
+        unlock.countDown();
+        first.get(TIMEOUT, TimeUnit.SECONDS);
+        second.get(TIMEOUT, TimeUnit.SECONDS);
+        assertThat(executedTasks).containsExactly("first", "second");
+        assertThat(scheduler.getQueueDepth()).as("queue depth").isZero();
+    }
+
+    @Test
+    public void testSubmit_otherDevice() throws Exception {
+        scheduler = new TaskScheduler(2, 1, Executors.defaultThreadFactory());
+        CountDownLatch unlock = new CountDownLatch(1);
+
+        Future<Void> first = scheduler.submit(waitingTask("first", unlock), directory, 0);
+        Future<Void> second = scheduler.submit(task("second"), null, 0);
+
+        second.get(TIMEOUT, TimeUnit.SECONDS);
+        unlock.countDown();
+        first.get(TIMEOUT, TimeUnit.SECONDS);
+        assertThat(executedTasks).containsExactly("second", "first");
+    }
+
+    @Test
+    public void testSubmit_priority() throws Exception {
+        scheduler = new TaskScheduler(1, 1, Executors.defaultThreadFactory());
+        CountDownLatch unlock = new CountDownLatch(1);
+
+        scheduler.submit(waitingTask("first", unlock), directory, 0);
+        Future<Void> low1 = scheduler.submit(task("low1"), directory, 0);
+        Future<Void> high = scheduler.submit(task("high"), directory, 1);
+        Future<Void> low2 = scheduler.submit(task("low2"), null, 0);
+
+        unlock.countDown();
+        low1.get(TIMEOUT, TimeUnit.SECONDS);
+        high.get(TIMEOUT, TimeUnit.SECONDS);
+        low2.get(TIMEOUT, TimeUnit.SECONDS);
+        assertThat(executedTasks).containsExactly("first", "high", "low1", "low2");
+    }
+
+    @Test
+    public void testCancel_waitingTask() throws Exception {
+        scheduler = new TaskScheduler(1, 1, Executors.defaultThreadFactory());
+        CountDownLatch unlock = new CountDownLatch(1);
+        Future<Void> first = scheduler.submit(waitingTask("first", unlock), directory, 0);
+        Future<Void> second = scheduler.submit(task("second"), directory, 0);
+
+        assertThat(second.cancel(false)).as("cancelled").isTrue();
+
+        assertThat(scheduler.getQueueDepth()).as("queue depth").isZero();
+        unlock.countDown();
+        first.get(TIMEOUT, TimeUnit.SECONDS);
+        scheduler.shutdown();
+        waitTerminated();
+        assertThat(executedTasks).containsExactly("first");
+    }
+
+    @Test
+    public void testShutdown() throws Exception {
+        scheduler = new TaskScheduler(1, 1, Executors.defaultThreadFactory());
+        CountDownLatch unlock = new CountDownLatch(1);
+        scheduler.submit(waitingTask("first", unlock), directory, 0);
+        scheduler.submit(task("second"), directory, 0);
+
+        scheduler.shutdown();
+
+        assertThat(scheduler.isTerminated()).as("terminated").isFalse();
+        unlock.countDown();
+        waitTerminated();
+        assertThat(executedTasks).containsExactly("first", "second");
+        assertThat(scheduler.getAverageWaitTime()).as("average wait time").isGreaterThanOrEqualTo(0L);
+        assertThat(scheduler.getMaxWaitTime()).as("max wait time").isGreaterThanOrEqualTo(scheduler.getAverageWaitTime());
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void testSubmit_afterShutdown() throws Exception {
+        scheduler = new TaskScheduler(1, 1, Executors.defaultThreadFactory());
+        scheduler.shutdown();
+
+        scheduler.submit(task("task"), directory, 0);
+    }
+
+    private void waitTerminated() throws InterruptedException {
+        long end = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT);
+        while (!scheduler.isTerminated() && (System.currentTimeMillis() < end)) {
+            Thread.sleep(10);
+        }
+        assertThat(scheduler.isTerminated()).as("terminated").isTrue();
+    }
+
+    private Callable<Void> task(String name) {
+        return () -> {
+            executedTasks.add(name);
+            return null;
+        };
+    }
+
+    private Callable<Void> waitingTask(String name, CountDownLatch unlock) {
+        return () -> {
+            unlock.await(TIMEOUT, TimeUnit.SECONDS);
+            executedTasks.add(name);
+            return null;
+        };
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * JBackup is a software managing backups.
+ *
+ * Copyright (C) 2013-2017 Fabien DUMINY (fabien [dot] duminy [at] webmails [dot] com)
+ *
+ * JBackup is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * JBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ */
+package fr.duminy.jbackup.core.task;
+
+import fr.duminy.jbackup.core.util.LogRule;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.concurrent.ThreadFactory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests for {@link ThreadMode}.
+ */
+public class ThreadModeTest {
+    @Rule
+    public final LogRule logRule = new LogRule();
+
+    @After
+    public void tearDown() {
+        System.clearProperty(ThreadMode.PROPERTY);
+    }
+
+    @Test
+    public void testGetDefault_noProperty() {
+        assertThat(ThreadMode.getDefault()).isEqualTo(ThreadMode.PLATFORM);
+    }
+
+    @Test
+    public void testGetDefault_virtual() {
+        System.setProperty(ThreadMode.PROPERTY, "virtual");
+
+        assertThat(ThreadMode.getDefault()).isEqualTo(ThreadMode.VIRTUAL);
+    }
+
+    @Test
+    public void testGetDefault_unknownMode() {
+        System.setProperty(ThreadMode.PROPERTY, "unknown");
+
+        assertThat(ThreadMode.getDefault()).isEqualTo(ThreadMode.PLATFORM);
+    }
+
+    @Test
+    public void testCreateThreadFactory_platform() throws Exception {
+        testCreateThreadFactory(ThreadMode.PLATFORM);
+    }
+
+    @Test
+    public void testCreateThreadFactory_virtual() throws Exception {
+        // falls back to platform threads when virtual threads are not supported
+        testCreateThreadFactory(ThreadMode.VIRTUAL);
+    }
+
+    @Test
+    public void testCreateIoThreadFactory_platform() throws Exception {
+        assertThat(ThreadMode.PLATFORM.createIoThreadFactory("test-")).as("io thread factory").isNull();
+    }
+
+    @Test
+    public void testCreateIoThreadFactory_virtual() throws Exception {
+        ThreadFactory factory = ThreadMode.VIRTUAL.createIoThreadFactory("test-");
+
+        // no fallback to platform threads, which are too expensive to start one per operation
+        assertThat(factory != null).as("io thread factory available").isEqualTo(ThreadMode.VIRTUAL.isSupported());
+    }
+
+    private void testCreateThreadFactory(ThreadMode mode) throws Exception {
+        ThreadFactory factory = mode.createThreadFactory("test-");
+        final boolean[] executed = {false};
+
+        Thread thread = factory.newThread(() -> executed[0] = true);
+        thread.start();
+        thread.join();
+
+        assertThat(thread.getName()).as("thread name").startsWith("test-");
+        assertThat(executed[0]).as("executed").isTrue();
+    }
+}
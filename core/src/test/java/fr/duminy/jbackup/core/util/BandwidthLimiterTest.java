@@ -0,0 +1,143 @@
+/**
+ * JBackup is a software managing backups.
+ *
+ * Copyright (C) 2013-2017 Fabien DUMINY (fabien [dot] duminy [at] webmails [dot] com)
+ *
+ * JBackup is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * JBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ */
+package fr.duminy.jbackup.core.util;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link BandwidthLimiter}.
+ */
+public class BandwidthLimiterTest {
+    private static final int KB = 1024;
+
+    @Test
+    public void testLimit_unlimited() throws IOException {
+        BandwidthLimiter limiter = new BandwidthLimiter(BandwidthLimiter.UNLIMITED);
+
+        long duration = read(limiter, 10 * 1024 * KB);
+
+        assertThat(duration).as("duration").isLessThan(1000L);
+    }
+
+    @Test
+    public void testLimit_inputStream() throws IOException {
+        BandwidthLimiter limiter = new BandwidthLimiter(100 * KB);
+
+        long duration = read(limiter, 50 * KB);
+
+        assertThat(duration).as("duration").isBetween(400L, 2000L);
+    }
+
+    @Test
+    public void testLimit_outputStream() throws IOException {
+        BandwidthLimiter limiter = new BandwidthLimiter(100 * KB);
+
+        long start = System.currentTimeMillis();
+        try (OutputStream output = limiter.limit(new NullOutputStream())) {
+            for (int i = 0; i < 50; i++) {
+                output.write(new byte[KB]);
+            }
+        }
+        long duration = System.currentTimeMillis() - start;
+
+        assertThat(duration).as("duration").isBetween(400L, 2000L);
+    }
+
+    @Test
+    public void testLimit_parent() throws IOException {
+        BandwidthLimiter parent = new BandwidthLimiter(100 * KB);
+        BandwidthLimiter limiter = new BandwidthLimiter(parent, BandwidthLimiter.UNLIMITED);
+
+        long duration = read(limiter, 50 * KB);
+
+        assertThat(duration).as("duration").isBetween(400L, 2000L);
+    }
+
+    @Test
+    public void testSetBytesPerSecond_whileWaiting() throws Exception {
+        final BandwidthLimiter limiter = new BandwidthLimiter(KB);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Long> duration = executor.submit(() -> read(limiter, 100 * KB)); // would take 100s
+            Thread.sleep(200);
+
+            limiter.setBytesPerSecond(BandwidthLimiter.UNLIMITED);
+
+            assertThat(duration.get(2, TimeUnit.SECONDS)).as("duration").isLessThan(2000L);
+            assertThat(limiter.getBytesPerSecond()).as("bytesPerSecond").isEqualTo(BandwidthLimiter.UNLIMITED);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testSetBytesPerSecond_accruedTokensKept() throws Exception {
+        BandwidthLimiter limiter = new BandwidthLimiter(100 * KB);
+        Thread.sleep(1000); // a full bucket of 100 KB
+
+        limiter.setBytesPerSecond(50 * KB);
+
+        assertThat(read(limiter, 50 * KB)).as("duration within the new bucket").isLessThan(300L);
+        assertThat(read(limiter, 25 * KB)).as("duration after the new bucket").isBetween(300L, 2000L);
+    }
+
+    @Test
+    public void testAcquire_interrupted() throws Exception {
+        final BandwidthLimiter limiter = new BandwidthLimiter(KB);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Long> duration = executor.submit(() -> read(limiter, 100 * KB)); // would take 100s
+            Thread.sleep(200);
+
+            executor.shutdownNow();
+
+            try {
+                duration.get(2, TimeUnit.SECONDS);
+            } catch (ExecutionException e) {
+                assertThat(e.getCause()).as("cause").isInstanceOf(InterruptedIOException.class);
+                return;
+            }
+            fail("expected an InterruptedIOException");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static long read(BandwidthLimiter limiter, int size) throws IOException {
+        long start = System.currentTimeMillis();
+        try (InputStream input = limiter.limit(new ByteArrayInputStream(new byte[size]))) {
+            IOUtils.copy(input, new NullOutputStream());
+        }
+        return System.currentTimeMillis() - start;
+    }
+}
@@ -28,6 +28,9 @@ import org.junit.rules.TemporaryFolder;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.assertFalse;
@@ -189,6 +192,87 @@ public class DefaultFileDeleterTest {
         assertThat(file2.toFile()).doesNotExist();
     }
 
+    @Test
+    public void testDeleteAll_largeDirectory() throws Exception {
+        DefaultFileDeleter deleter = new DefaultFileDeleter();
+
+        Path dir = getRootPath().resolve("dir");
+        deleter.registerDirectory(dir);
+        for (int i = 0; i < DefaultFileDeleter.BATCH_SIZE + 1; i++) {
+            TestUtils.createFile(dir.resolve("file" + i), 1);
+        }
+        Path file = TestUtils.createFile(dir.resolve("subDir").resolve("file"), 1);
+        PathUtils.setReadable(dir, false);
+
+        deleter.deleteAll();
+
+        assertThat(file.toFile()).doesNotExist();
+        assertThat(dir.toFile()).doesNotExist();
+    }
+
+    @Test
+    public void testDeleteAll_background() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            DefaultFileDeleter deleter = new DefaultFileDeleter(pool);
+
+            Path dir = getRootPath().resolve("dir");
+            deleter.registerDirectory(dir);
+            Path file = TestUtils.createFile(dir.resolve("file"), 1);
+
+            deleter.deleteAll();
+            assertTrue(pool.awaitQuiescence(1, TimeUnit.MINUTES));
+
+            assertThat(file.toFile()).doesNotExist();
+            assertThat(dir.toFile()).doesNotExist();
+            assertThat(deleter.getRegisteredDirectories()).as("registeredDirectories").isNull();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testDeleteAll_background_poolShutDown() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(2);
+        pool.shutdown();
+        DefaultFileDeleter deleter = new DefaultFileDeleter(pool);
+
+        Path dir = getRootPath().resolve("dir");
+        deleter.registerDirectory(dir);
+        Path file = TestUtils.createFile(dir.resolve("file"), 1);
+
+        deleter.deleteAll();
+
+        assertThat(file.toFile()).doesNotExist();
+        assertThat(dir.toFile()).doesNotExist();
+    }
+
+    @Test
+    public void testDeleteAll_ioThreads() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(2);
+        AtomicInteger threads = new AtomicInteger();
+        try {
+            DefaultFileDeleter deleter = new DefaultFileDeleter(pool, runnable -> {
+                threads.incrementAndGet();
+                return new Thread(runnable);
+            });
+
+            Path dir = getRootPath().resolve("dir");
+            deleter.registerDirectory(dir);
+            for (int i = 0; i < 3; i++) {
+                TestUtils.createFile(dir.resolve("file" + i), 1);
+            }
+
+            deleter.deleteAll();
+            assertTrue(pool.awaitQuiescence(1, TimeUnit.MINUTES));
+
+            assertThat(dir.toFile()).doesNotExist();
+            assertThat(threads.get()).as("threads").isEqualTo(3);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
     private Path getRootPath() {
         return tempFolder.getRoot().toPath();
     }
@@ -128,6 +128,14 @@ public class Application {
             super(new BorderLayout());
 
             manager = new ConfigurationManager(Paths.get(System.getProperty("user.home"), ".jbackup"));
+            // the resources kept by jBackup for the configurations are released when they are removed
+            manager.addListener(jBackup.getConfigurationListener());
+            try {
+                // configurations edited outside of the application are reloaded
+                manager.startWatching(SwingUtilities::invokeLater);
+            } catch (IOException e) {
+                LOGGER.warn("Can't watch the configuration directory", e);
+            }
 
             taskManagerStatusBar = new TaskManagerStatusBar(jBackup);
             add(taskManagerStatusBar, BorderLayout.SOUTH);
@@ -31,4 +31,10 @@ public interface BackupConfigurationActions {
     void backup(BackupConfiguration config) throws DuplicateTaskException;
 
     void restore(BackupConfiguration config, Path archive, Path targetDirectory) throws DuplicateTaskException;
+
+    /**
+     * Releases what is associated to a removed configuration, like its progress listeners. By default, does nothing.
+     */
+    default void configurationRemoved(BackupConfiguration config) {
+    }
 }
@@ -30,6 +30,7 @@ import fr.duminy.components.swing.path.JPath;
 import fr.duminy.components.swing.path.JPathBuilder;
 import fr.duminy.jbackup.core.BackupConfiguration;
 import fr.duminy.jbackup.core.ConfigurationException;
+import fr.duminy.jbackup.core.ConfigurationListener;
 import fr.duminy.jbackup.core.ConfigurationManager;
 import fr.duminy.jbackup.core.archive.ArchiveFactory;
 import org.apache.commons.beanutils.BeanComparator;
@@ -48,6 +49,7 @@ import static fr.duminy.components.swing.listpanel.StandardListPanelFeature.EDIT
  */
 public class ConfigurationManagerPanel extends ListPanel<BackupConfiguration, JList<BackupConfiguration>> {
     private static final Builder<JPath> DIRECTORIES_BUILDER = new JPathBuilder().select(JPath.SelectionMode.DIRECTORIES_ONLY);
+    private static final Builder<JPath> KEY_FILE_BUILDER = new JPathBuilder().fileHidingEnabled(false);
 
     static final Comparator<BackupConfiguration> COMPARATOR = new BeanComparator("name");
     static final String BACKUP_BUTTON_NAME = "backupButton";
@@ -56,7 +58,7 @@ public class ConfigurationManagerPanel extends ListPanel<BackupConfiguration, JL
     public static final String DEFAULT_CONFIG_NAME = "newConfiguration";
 
     public ConfigurationManagerPanel(final ConfigurationManager manager, final BackupConfigurationActions configActions, JComponent parent, ArchiveFactory... factories) throws Exception {
-        super(createList(manager), new SimpleItemManager<BackupConfiguration>(BackupConfiguration.class, createBuilder(parent, factories), parent, "Configuration", DIALOG) {
+        super(createList(manager, configActions), new SimpleItemManager<BackupConfiguration>(BackupConfiguration.class, createBuilder(parent, factories), parent, "Configuration", DIALOG) {
             @Override
             protected void initItem(BackupConfiguration item) {
                 item.setName(DEFAULT_CONFIG_NAME);
@@ -75,27 +77,50 @@ public class ConfigurationManagerPanel extends ListPanel<BackupConfiguration, JL
                 super.configureBuilder(builder);
                 builder.useForProperty("sources", new SourceListTypeMapper(parent));
                 builder.useForProperty("archiveFactory", new ArchiveFactoryTypeMapper(factories));
+                builder.useForProperty("durability", new DurabilityTypeMapper());
                 builder.useForProperty("targetDirectory", new StringPathTypeMapper(DIRECTORIES_BUILDER));
+                builder.useForProperty("snapshotDirectory", new StringPathTypeMapper(DIRECTORIES_BUILDER));
+                builder.useForProperty("encryptionKeyFile", new StringPathTypeMapper(KEY_FILE_BUILDER));
                 UIManager.getDefaults().put(BackupConfiguration.class.getSimpleName() + ".xmlVersion.hidden", true);
             }
         };
     }
 
-    private static JList<BackupConfiguration> createList(ConfigurationManager manager) {
+    private static JList<BackupConfiguration> createList(ConfigurationManager manager,
+                                                         BackupConfigurationActions configActions) {
         //TODO enable sorting : JList list = new JList(new SortedListModel(new DefaultListModel(), COMPARATOR));
-        JList<BackupConfiguration> list = new JList<>(new Model(manager));
+        JList<BackupConfiguration> list = new JList<>(new Model(manager, configActions));
         list.setCellRenderer(BackupConfigurationRenderer.INSTANCE);
         list.setName("configurations");
         return list;
     }
 
-    private static class Model extends AbstractMutableListModel<BackupConfiguration> {
+    private static class Model extends AbstractMutableListModel<BackupConfiguration> implements ConfigurationListener {
         private static final Logger LOG = LoggerFactory.getLogger(Model.class);
 
         private final ConfigurationManager manager;
+        private final BackupConfigurationActions configActions;
 
-        public Model(ConfigurationManager manager) {
+        public Model(ConfigurationManager manager, BackupConfigurationActions configActions) {
             this.manager = manager;
+            this.configActions = configActions;
+            manager.addListener(this);
+        }
+
+        @Override
+        public void configurationAdded(int index, BackupConfiguration config) {
+            fireIntervalAdded(this, index, index);
+        }
+
+        @Override
+        public void configurationUpdated(int index, BackupConfiguration oldConfig, BackupConfiguration newConfig) {
+            fireContentsChanged(this, index, index);
+        }
+
+        @Override
+        public void configurationRemoved(int index, BackupConfiguration config) {
+            fireIntervalRemoved(this, index, index);
+            configActions.configurationRemoved(config);
         }
 
         @Override
@@ -104,6 +129,7 @@ public class ConfigurationManagerPanel extends ListPanel<BackupConfiguration, JL
             try {
                 manager.removeBackupConfiguration(config);
                 fireIntervalRemoved(this, i, i);
+                configActions.configurationRemoved(config);
             } catch (ConfigurationException e) {
                 config = null;
                 LOG.error(e.getMessage(), e);
@@ -0,0 +1,68 @@
+/**
+ * JBackup is a software managing backups.
+ *
+ * Copyright (C) 2013-2017 Fabien DUMINY (fabien [dot] duminy [at] webmails [dot] com)
+ *
+ * JBackup is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * JBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ */
+package fr.duminy.jbackup.swing;
+
+import fr.duminy.jbackup.core.archive.Durability;
+import org.formbuilder.mapping.change.ChangeHandler;
+import org.formbuilder.mapping.typemapper.impl.ReferenceToComboboxMapper;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.swing.*;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * A {@link org.formbuilder.TypeMapper} for {@link fr.duminy.jbackup.core.archive.Durability}.
+ */
+public class DurabilityTypeMapper extends ReferenceToComboboxMapper<Durability> {
+    @Nonnull
+    @Override
+    protected Collection<Durability> getSuitableData() {
+        return Arrays.asList(Durability.values());
+    }
+
+    /**
+     * Does nothing : the value is read from the combo box when the form is committed, and all its items are valid
+     * {@link Durability durabilities}, so a change never needs to be validated.
+     */
+    @Override
+    public void handleChanges(@Nonnull JComboBox jComponent, @Nonnull ChangeHandler changeHandler) {
+    }
+
+    @Nullable
+    @Override
+    public Durability getValue(@Nonnull JComboBox jComponent) {
+        Object item = jComponent.getSelectedItem();
+        return (item instanceof Durability) ? (Durability) item : null;
+    }
+
+    @Nonnull
+    @Override
+    public Class<Durability> getValueClass() {
+        return Durability.class;
+    }
+
+    @Override
+    public void setValue(@Nonnull JComboBox jComponent, @Nullable Durability o) {
+        jComponent.setSelectedItem(o);
+    }
+}
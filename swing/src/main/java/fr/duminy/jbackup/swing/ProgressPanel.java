@@ -74,6 +74,11 @@ public class ProgressPanel extends JPanel implements ProgressListener {
         progressBar.setString("Estimating total size");
     }
 
+    @Override
+    public void totalSizeEstimated(String configurationName, long estimatedTotalSize) {
+        progressBar.setString("Estimating total size (~" + byteCountToDisplaySize(estimatedTotalSize) + ")");
+    }
+
     @Override
     public void totalSizeComputed(String configurationName, long totalSize) {
         progressBar.setIndeterminate(false);
@@ -80,6 +80,11 @@ abstract class TaskManagerComponent<T extends JComponent & ProgressListener> ext
                 // nothing to do
             }
 
+            @Override
+            public void totalSizeEstimated(String configurationName, long estimatedTotalSize) {
+                // nothing to do
+            }
+
             @Override
             public void totalSizeComputed(String configurationName, long totalSize) {
                 // nothing to do
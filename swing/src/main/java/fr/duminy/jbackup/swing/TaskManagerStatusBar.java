@@ -81,6 +81,11 @@ public class TaskManagerStatusBar extends JPanel implements BackupConfigurationA
         updateLabel(taskCount.incrementAndGet());
     }
 
+    @Override
+    public void totalSizeEstimated(String configurationName, long estimatedTotalSize) {
+        // nothing to do
+    }
+
     @Override
     public void totalSizeComputed(String configurationName, long totalSize) {
         // nothing to do
@@ -120,4 +125,9 @@ public class TaskManagerStatusBar extends JPanel implements BackupConfigurationA
     public void restore(BackupConfiguration config, Path archive, Path targetDirectory) throws DuplicateTaskException {
         jBackup.restore(config, archive, targetDirectory);
     }
+
+    @Override
+    public void configurationRemoved(BackupConfiguration config) {
+        jBackup.removeProgressListeners(config.getName());
+    }
 }
@@ -105,6 +105,11 @@ public class ConfigurationManagerPanelTest extends AbstractSwingTest {
         public ArchiveOutputStream create(OutputStream output) {
             return null;
         }
+
+        @Override
+        public long getUncompressedSize(Path archive) {
+            return -1L;
+        }
     };
 
     /**
@@ -175,7 +180,10 @@ public class ConfigurationManagerPanelTest extends AbstractSwingTest {
         TreeSet<String> labels = getRobot().finder().findAll(form, JLabelMatcher.any()).stream()
                                            .filter(label -> !"List.cellRenderer".equals(label.getName()))
                                            .map(Component::getName).collect(Collectors.toCollection(TreeSet::new));
-        assertThat(labels).containsExactly("archiveFactory", "name", "relativeEntries", "sources", "targetDirectory", "verify");
+        assertThat(labels).containsExactly("archiveFactory", "durability", "encryptionKeyFile", "maxBandwidth", "name",
+                                          "postBackupCommand", "preBackupCommand", "relativeEntries", "resumable", "schedule",
+                                          "snapshotDirectory", "sources", "targetDirectory", "trackChanges", "verify",
+                                          "volumeSize");
     }
 
     @Theory
@@ -237,6 +245,9 @@ public class ConfigurationManagerPanelTest extends AbstractSwingTest {
         configurationList.list().selectItem(config.getName());
         configurationList.removeButton().click();
 
+        ArgumentCaptor<BackupConfiguration> removedConfig = ArgumentCaptor.forClass(BackupConfiguration.class);
+        verify(configActions, times(1)).configurationRemoved(removedConfig.capture());
+        assertThat(removedConfig.getValue().getName()).as("removed configuration").isEqualTo(config.getName());
         assertFormValues(expectedConfigs);
         assertThat(manager.getBackupConfigurations()).usingElementComparator(COMPARATOR).containsOnlyOnce(Iterables.toArray(expectedConfigs, BackupConfiguration.class));
     }